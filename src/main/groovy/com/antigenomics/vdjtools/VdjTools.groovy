@@ -38,10 +38,12 @@ import com.antigenomics.vdjtools.basic.*
 import com.antigenomics.vdjtools.diversity.CalcDiversityStats
 import com.antigenomics.vdjtools.diversity.PlotQuantileStats
 import com.antigenomics.vdjtools.diversity.RarefactionPlot
+import com.antigenomics.vdjtools.io.parser.ClonotypeStreamParser
 import com.antigenomics.vdjtools.operate.JoinSamples
 import com.antigenomics.vdjtools.operate.PoolSamples
 import com.antigenomics.vdjtools.overlap.*
 import com.antigenomics.vdjtools.preprocess.*
+import com.antigenomics.vdjtools.sample.ColumnarSample
 import com.antigenomics.vdjtools.misc.*
 
 import java.util.jar.JarFile
@@ -74,6 +76,7 @@ def printHelp = {
     println "[Overlap]"
     println "OverlapPair"
     println "CalcPairwiseDistances"
+    println "MergePairwiseDistances"
     println "ClusterSamples"
     println "TestClusters"
     println "TrackClonotypes"
@@ -106,6 +109,8 @@ def printHelp = {
     println "RInstall"
     println ""
     println "* Run with 'discard_scripts' option prior to ROUTINE_NAME to clean up R scripts upon execution"
+    println "* Run with 'parallel_parse' option prior to ROUTINE_NAME to parse input clonotype tables using all cores"
+    println "* Run with 'columnar' option prior to ROUTINE_NAME to store loaded samples in compact columnar form"
 }
 
 def getScript = { String scriptName ->
@@ -134,6 +139,8 @@ def getScript = { String scriptName ->
             return new OverlapPair()
         case "CALCPAIRWISEDISTANCES":
             return new CalcPairwiseDistances()
+        case "MERGEPAIRWISEDISTANCES":
+            return new MergePairwiseDistances()
         case "CLUSTERSAMPLES":
             return new ClusterSamples()
         case "TESTCLUSTERS":
@@ -213,12 +220,23 @@ def getScript = { String scriptName ->
 if (args.length == 0) {
     printHelp()
 } else {
-    if (args[0].toLowerCase() == "discard_scripts") {
-        if (args.length == 1) {
+    def globalOptions = ["discard_scripts", "parallel_parse", "columnar"]
+    while (globalOptions.contains(args[0].toLowerCase())) {
+        if (args.size() == 1) {
             printHelp()
             System.exit(0)
         }
-        RUtil.REMOVE_R_SCRIPTS = true
+        switch (args[0].toLowerCase()) {
+            case "discard_scripts":
+                RUtil.REMOVE_R_SCRIPTS = true
+                break
+            case "parallel_parse":
+                ClonotypeStreamParser.PARALLEL = true
+                break
+            case "columnar":
+                ColumnarSample.ENABLED = true
+                break
+        }
         args = args[1..-1]
     }
     def script = getScript(args[0])
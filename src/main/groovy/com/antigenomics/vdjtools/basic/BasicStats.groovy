@@ -31,8 +31,7 @@
 package com.antigenomics.vdjtools.basic
 
 import com.antigenomics.vdjtools.overlap.OverlapType
-import com.antigenomics.vdjtools.join.ClonotypeKeyGen
-import com.antigenomics.vdjtools.join.key.ClonotypeKey
+import com.antigenomics.vdjtools.join.ClonotypeIndex
 import com.antigenomics.vdjtools.sample.Sample
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics
 
@@ -75,10 +74,8 @@ public class BasicStats {
 
         this.weighted = weighted
 
-        def keyGenAA = new ClonotypeKeyGen(OverlapType.AminoAcid),
-            keyGenNT = new ClonotypeKeyGen(OverlapType.Nucleotide)
-        def aaSet = new HashSet<ClonotypeKey>(),
-            ntSet = new HashSet<ClonotypeKey>()
+        def aaIndex = new ClonotypeIndex(OverlapType.AminoAcid, sample.diversity),
+            ntIndex = new ClonotypeIndex(OverlapType.Nucleotide, sample.diversity)
 
         int weight = 1
         double denom = 0
@@ -105,13 +102,13 @@ public class BasicStats {
                 ncFrequency += it.freq
             }
 
-            aaSet.add(keyGenAA.generateKey(it))
-            ntSet.add(keyGenNT.generateKey(it))
+            aaIndex.add(it)
+            ntIndex.add(it)
 
             denom += weight
         }
 
-        this.convergence = ntSet.size() / (double) aaSet.size()
+        this.convergence = ntIndex.size() / (double) aaIndex.size()
         this.cdr3ntLength = cdr3ntLength / denom
         this.ndnSize = ndnSize / denom
         this.insertSize = insertSize / denom
@@ -29,6 +29,7 @@
 
 package com.antigenomics.vdjtools.basic
 
+import com.antigenomics.vdjtools.misc.SegmentFactory
 import com.antigenomics.vdjtools.sample.Clonotype
 import com.antigenomics.vdjtools.sample.Sample
 import com.antigenomics.vdjtools.sample.SampleCollection
@@ -40,8 +41,9 @@ import com.antigenomics.vdjtools.misc.ExecUtil
 public class SegmentUsage {
     public static boolean VERBOSE = true
 
-    private final Map<String, double[]> vSegmentUsage = new HashMap<>(),
-                                        jSegmentUsage = new HashMap<>(), vjSegmentUsage = new HashMap<>()
+    // usage vectors indexed by segment id, V-J usage is indexed by V and then by J segment id
+    private final List<double[]> vSegmentUsage = new ArrayList<>(), jSegmentUsage = new ArrayList<>()
+    private final List<List<double[]>> vjSegmentUsage = new ArrayList<>()
     private final Map<String, Integer> sampleIndex = new HashMap<>()
     private Map<String, Double> sortedVSegmTotal = new HashMap<>(), sortedJSegmTotal = new HashMap<>()
     private final int n
@@ -89,38 +91,64 @@ public class SegmentUsage {
         //todo: everywhere
         ExecUtil.report(this, "Processing sample ${sample.sampleMetadata.sampleId}", VERBOSE)
         sample.each { Clonotype clonotype ->
-            def vArray = vSegmentUsage[clonotype.v],
-                jArray = jSegmentUsage[clonotype.j],
-                vjArray = vjSegmentUsage[clonotype.v + "\t" + clonotype.j]
-
-            if (!vArray)
-                vSegmentUsage.put(clonotype.v, vArray = new double[n])
-
-            if (!jArray)
-                jSegmentUsage.put(clonotype.j, jArray = new double[n])
-
-            if (!vjArray)
-                vjSegmentUsage.put(clonotype.v + "\t" + clonotype.j, vjArray = new double[n])
+            int v = clonotype.getVBinary().id, j = clonotype.getJBinary().id
 
             def increment = unweighted ? 1 : clonotype.freq
 
-            vArray[index] += increment
-            jArray[index] += increment
-            vjArray[index] += increment
+            usageArray(vSegmentUsage, v)[index] += increment
+            usageArray(jSegmentUsage, j)[index] += increment
+            usageArray(vjUsageList(v), j)[index] += increment
         }
         sampleIndex.put(sample.sampleMetadata.sampleId, index)
     }
 
+    /**
+     * INTERNAL gets usage array for a given segment, creating it if necessary
+     */
+    private double[] usageArray(List<double[]> usageList, int segmentId) {
+        while (usageList.size() <= segmentId)
+            usageList.add(null)
+
+        def usage = usageList[segmentId]
+        if (usage == null)
+            usageList.set(segmentId, usage = new double[n])
+        usage
+    }
+
+    /**
+     * INTERNAL gets a list of V-J usage arrays for a given V segment, creating it if necessary
+     */
+    private List<double[]> vjUsageList(int vSegmentId) {
+        while (vjSegmentUsage.size() <= vSegmentId)
+            vjSegmentUsage.add(null)
+
+        def usageList = vjSegmentUsage[vSegmentId]
+        if (usageList == null)
+            vjSegmentUsage.set(vSegmentId, usageList = new ArrayList<double[]>())
+        usageList
+    }
+
+    /**
+     * INTERNAL gets usage array for a given segment
+     * @return usage array or null if segment was not encountered
+     */
+    private static double[] usageArray(List<double[]> usageList, String segmentName) {
+        int segmentId = SegmentFactory.INSTANCE.getAt(segmentName).id
+        segmentId < usageList.size() ? usageList[segmentId] : null
+    }
+
     /**
      * Summarize (calculate sums) 
      */
     private void summarize() {
-        vSegmentUsage.each {
-            sortedVSegmTotal.put(it.key, (double) it.value.collect().sum() ?: 0)
+        vSegmentUsage.eachWithIndex { double[] usage, int id ->
+            if (usage != null)
+                sortedVSegmTotal.put(SegmentFactory.INSTANCE.getById(id).name, (double) usage.collect().sum() ?: 0)
         }
         sortedVSegmTotal = sortedVSegmTotal.sort()
-        jSegmentUsage.each {
-            sortedJSegmTotal.put(it.key, (double) it.value.collect().sum() ?: 0)
+        jSegmentUsage.eachWithIndex { double[] usage, int id ->
+            if (usage != null)
+                sortedJSegmTotal.put(SegmentFactory.INSTANCE.getById(id).name, (double) usage.collect().sum() ?: 0)
         }
         sortedJSegmTotal = sortedJSegmTotal.sort()
     }
@@ -175,10 +203,10 @@ public class SegmentUsage {
     /**
      * INTERNAL
      */
-    private static double[] usageVector(Map<String, double[]> usageMap, Map<String, Double> totalMap, int sampleIndex) {
-        def sampleTotal = usageMap.values().collect { it[sampleIndex] }.sum() ?: 0.0
+    private static double[] usageVector(List<double[]> usageList, Map<String, Double> totalMap, int sampleIndex) {
+        def sampleTotal = usageList.findAll { it != null }.collect { it[sampleIndex] }.sum() ?: 0.0
         totalMap.collect {
-            usageMap[it.key][sampleIndex] / (double) (sampleTotal + 1e-7)
+            usageArray(usageList, it.key)[sampleIndex] / (double) (sampleTotal + 1e-7)
         } as double[]
     }
 
@@ -199,14 +227,14 @@ public class SegmentUsage {
      * @return
      */
     public double[][] vjUsageMatrix(int sampleIndex) {
-        double sampleTotal = (double) (jSegmentUsage.values().collect { it[sampleIndex] }.sum() ?: 0.0)
+        double sampleTotal = (double) (jSegmentUsage.findAll { it != null }.collect { it[sampleIndex] }.sum() ?: 0.0)
 
-        def matrix = new double[jSegmentUsage.size()][vSegmentUsage.size()]
+        def matrix = new double[sortedJSegmTotal.size()][sortedVSegmTotal.size()]
 
         sortedJSegmTotal.eachWithIndex { jEntry, ii ->
             sortedVSegmTotal.eachWithIndex { vEntry, jj ->
-                def v = vEntry.key, j = jEntry.key, vj = v + "\t" + j
-                matrix[ii][jj] = vjSegmentUsage.containsKey(vj) ? (vjSegmentUsage[vj][sampleIndex] / sampleTotal) : 0d
+                def vjUsage = usageArray(vjSegmentUsage[SegmentFactory.INSTANCE.getAt(vEntry.key).id], jEntry.key)
+                matrix[ii][jj] = vjUsage != null ? (vjUsage[sampleIndex] / sampleTotal) : 0d
             }
         }
 
@@ -102,6 +102,15 @@ public class Spectratype extends Histogram {
         topClonotypes.sort { -it.freq }
     }
 
+    /**
+     * Gets histogram bin for a clonotype with a given CDR3 length, as in {@code bin(Clonotype)}
+     * @param cdr3ntLength length of CDR3 nucleotide sequence
+     * @return bin index
+     */
+    public int binByLength(int cdr3ntLength) {
+        Math.min(max, Math.max(min, aminoAcid ? cdr3ntLength.intdiv(3) : cdr3ntLength)) - min
+    }
+
     @Override
     protected int getValue(Clonotype clonotype) {
         aminoAcid ? clonotype.cdr3nt.length() / 3 : clonotype.cdr3nt.length()
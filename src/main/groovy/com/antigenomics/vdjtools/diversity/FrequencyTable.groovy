@@ -30,8 +30,7 @@
 package com.antigenomics.vdjtools.diversity
 
 import com.antigenomics.vdjtools.Countable
-import com.antigenomics.vdjtools.join.ClonotypeKeyGen
-import com.antigenomics.vdjtools.join.key.ClonotypeKey
+import com.antigenomics.vdjtools.join.ClonotypeIndex
 import com.antigenomics.vdjtools.overlap.OverlapType
 import com.antigenomics.vdjtools.pool.ClonotypeAggregator
 import com.antigenomics.vdjtools.pool.PooledSample
@@ -90,21 +89,19 @@ class FrequencyTable {
     FrequencyTable(Sample sample, OverlapType intersectionType) {
 
         // collapse clonotypes by a specific key
-        def clonotypeKeyGen = new ClonotypeKeyGen(intersectionType)
+        def clonotypeIndex = new ClonotypeIndex(intersectionType, sample.diversity)
 
         // todo: parallelization possible
-        def hashedCounts = new HashMap<ClonotypeKey, Counter>()
+        def counters = new ArrayList<Counter>()
 
         sample.each {
-            def key = clonotypeKeyGen.generateKey(it)
-            def counter = hashedCounts[key]
-            if (!counter)
-                hashedCounts.put(key, counter = new Counter())
-            counter.add(it)
+            int index = clonotypeIndex.add(it)
+            if (index == counters.size())
+                counters.add(new Counter())
+            counters[index].add(it)
         }
 
-        this.diversity = hashedCounts.size()
-        def counters = hashedCounts.values()
+        this.diversity = counters.size()
 
         // compute frequency table
         counters.each {
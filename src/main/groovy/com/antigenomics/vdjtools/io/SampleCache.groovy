@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io
+
+import com.antigenomics.vdjtools.io.binary.BinarySampleFormat
+import com.antigenomics.vdjtools.sample.Clonotype
+import com.antigenomics.vdjtools.sample.ColumnarSample
+import com.antigenomics.vdjtools.sample.Sample
+
+import java.lang.ref.SoftReference
+
+/**
+ * A shared cache of loaded samples limited by an estimated heap footprint. Samples that were not accessed
+ * for the longest time are evicted first once the budget is exceeded. Cached samples are softly referenced,
+ * so they can still be reclaimed by the garbage collector if the heap runs out before eviction takes place.
+ * This is a semi-internal class used by sample connections that do not store samples in memory.
+ */
+public class SampleCache {
+    /**
+     * Fraction of maximal heap size ({@code -Xmx}) that is used as default cache budget. The budget of
+     * {@link #SHARED} cache is also used by {@link com.antigenomics.vdjtools.sample.ClonotypeCollapser}
+     * to collapse clonotypes in memory.
+     */
+    public static double HEAP_FRACTION = 0.25
+
+    /**
+     * Estimated heap footprint of a clonotype without CDR3 sequences, in bytes.
+     */
+    public static final int CLONOTYPE_BYTES = 160
+
+    /**
+     * Estimated heap footprint of CDR3 nucleotide and amino acid sequences of a typical clonotype, in bytes.
+     */
+    public static final int CDR3_BYTES = 120
+
+    /**
+     * Estimated ratio between the heap footprint of a sample and the size of its plain-text clonotype table.
+     */
+    public static final double TEXT_BYTES_RATIO = 2.0
+
+    /**
+     * Estimated compression ratio of gzipped clonotype tables.
+     */
+    public static final double GZIP_RATIO = 4.0
+
+    /**
+     * Cache shared by all sample connections.
+     */
+    public static final SampleCache SHARED = new SampleCache((long) (Runtime.runtime.maxMemory() * HEAP_FRACTION))
+
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true)
+    private long budget, footprint = 0, reserved = 0, hits = 0, misses = 0
+
+    /**
+     * Creates a new sample cache.
+     * @param budget maximal total estimated footprint of cached samples, in bytes. Set to 0 to disable caching.
+     */
+    public SampleCache(long budget) {
+        this.budget = budget
+    }
+
+    /**
+     * Gets a cached sample.
+     * @param key cache key, typically a sample connection.
+     * @return cached sample or null if the sample is not cached.
+     */
+    public synchronized Sample get(Object key) {
+        def entry = entries.get(key)
+        def sample = entry?.sample?.get()
+
+        if (sample != null) {
+            hits++
+        } else {
+            misses++
+            if (entry)
+                remove(key)
+        }
+
+        sample
+    }
+
+    /**
+     * Puts a sample to cache, evicting least recently used samples if the budget is exceeded.
+     * Samples larger than the budget are not cached.
+     * @param key cache key, typically a sample connection.
+     * @param sample sample to cache.
+     */
+    public synchronized void put(Object key, Sample sample) {
+        remove(key)
+
+        long sampleFootprint = estimateFootprint(sample)
+        if (sampleFootprint > budget - reserved)
+            return
+
+        entries.put(key, new Entry(new SoftReference<Sample>(sample), sampleFootprint))
+        footprint += sampleFootprint
+
+        evict()
+    }
+
+    /**
+     * Removes a sample from cache.
+     * @param key cache key.
+     */
+    public synchronized void remove(Object key) {
+        def entry = entries.remove(key)
+        if (entry)
+            footprint -= entry.footprint
+    }
+
+    /**
+     * Removes all samples from cache.
+     */
+    public synchronized void clear() {
+        entries.clear()
+        footprint = 0
+    }
+
+    /**
+     * Reserves a part of the budget for other data held in memory, e.g. clonotypes that are being collapsed,
+     * evicting least recently used samples if necessary.
+     * @param bytes number of bytes to reserve.
+     * @return true if reserved, false if the budget left by other reservations is insufficient.
+     */
+    public synchronized boolean reserve(long bytes) {
+        if (reserved + bytes > budget)
+            return false
+
+        reserved += bytes
+        evict()
+        true
+    }
+
+    /**
+     * Returns a part of the budget that was previously reserved.
+     * @param bytes number of bytes to release.
+     */
+    public synchronized void release(long bytes) {
+        reserved = Math.max(0, reserved - bytes)
+    }
+
+    /**
+     * Gets the part of the budget reserved for other data held in memory.
+     * @return reserved bytes.
+     */
+    public synchronized long getReserved() {
+        reserved
+    }
+
+    /**
+     * INTERNAL evicts least recently used samples until total footprint fits the budget.
+     */
+    private void evict() {
+        def iter = entries.values().iterator()
+        while (footprint + reserved > budget && iter.hasNext()) {
+            footprint -= iter.next().footprint
+            iter.remove()
+        }
+    }
+
+    /**
+     * Sets the maximal total estimated footprint of cached samples, evicting samples if necessary.
+     * @param budget cache budget in bytes, set to 0 to disable caching.
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget
+        evict()
+    }
+
+    /**
+     * Gets the maximal total estimated footprint of cached samples.
+     * @return cache budget in bytes.
+     */
+    public synchronized long getBudget() {
+        budget
+    }
+
+    /**
+     * Gets the total estimated footprint of cached samples.
+     * @return footprint in bytes.
+     */
+    public synchronized long getFootprint() {
+        footprint
+    }
+
+    /**
+     * Gets the number of cached samples.
+     * @return number of samples.
+     */
+    public synchronized int size() {
+        entries.size()
+    }
+
+    /**
+     * Gets the number of cache hits.
+     * @return number of hits.
+     */
+    public synchronized long getHits() {
+        hits
+    }
+
+    /**
+     * Gets the number of cache misses.
+     * @return number of misses.
+     */
+    public synchronized long getMisses() {
+        misses
+    }
+
+    /**
+     * Estimates the heap footprint of a loaded sample.
+     * @param sample sample.
+     * @return estimated footprint in bytes.
+     */
+    public static long estimateFootprint(Sample sample) {
+        if (sample instanceof ColumnarSample)
+            return ((ColumnarSample) sample).footprint
+
+        long footprint = 0
+        for (Clonotype clonotype : sample) {
+            footprint += CLONOTYPE_BYTES + 2 * (clonotype.cdr3ntBinary.size() + clonotype.cdr3aaBinary.size())
+        }
+        footprint
+    }
+
+    /**
+     * Estimates the heap footprint of a sample stored in a given file without loading it.
+     * The number of clonotypes is taken from sample index if available, otherwise file size is used.
+     * @param fileName path to sample file.
+     * @return estimated footprint in bytes.
+     */
+    public static long estimateFootprint(String fileName) {
+        def file = new File(fileName)
+
+        if (BinarySampleFormat.isBinary(fileName))
+            return file.length()
+
+        def index = SampleIndex.load(fileName)
+        if (index)
+            return index.diversity * (long) (CLONOTYPE_BYTES + CDR3_BYTES)
+
+        (long) (file.length() * TEXT_BYTES_RATIO * (fileName.endsWith(".gz") ? GZIP_RATIO : 1.0))
+    }
+
+    @Override
+    public synchronized String toString() {
+        "SampleCache{samples=${entries.size()},footprint=${footprint >> 20}MB,budget=${budget >> 20}MB," +
+                "hits=$hits,misses=$misses}"
+    }
+
+    private static class Entry {
+        final SoftReference<Sample> sample
+        final long footprint
+
+        Entry(SoftReference<Sample> sample, long footprint) {
+            this.sample = sample
+            this.footprint = footprint
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.antigenomics.vdjtools.io
+
+import com.antigenomics.vdjtools.io.parser.ClonotypeStreamParser
+import com.antigenomics.vdjtools.sample.Clonotype
+import com.antigenomics.vdjtools.sample.Sample
+import com.antigenomics.vdjtools.sample.metadata.SampleMetadata
+
+import java.util.zip.CRC32
+
+/**
+ * A small sidecar file that is written next to a plain-text sample by {@link SampleWriter} and holds
+ * sample-level statistics (read count, diversity, total frequency) and the size, modification time and
+ * checksum of the sample file. The index is used to collect sample statistics
+ * (see {@link SampleConnection#haveAGlance}) without parsing the sample file. An index is only used if
+ * it matches the sample file: if file size and modification time differ from those stored in index, the index
+ * is discarded; if only the modification time differs (e.g. the file was copied), the file checksum is compared.
+ */
+public class SampleIndex {
+    /**
+     * Index file extension that is appended to the sample file name.
+     */
+    public static final String EXTENSION = ".idx"
+    /**
+     * Set to false to disable writing and using sample index files.
+     */
+    public static boolean ENABLED = true
+
+    private static final String MAGIC = "#vdjtools.sample.index", VERSION = "1"
+
+    private long fileSize = -1, fileModified = -1, checksum = -1
+    private long count = 0
+    private int diversity = 0
+    private double freq = 0
+    private String annotationHeader = null
+    private boolean complete = true
+
+    /**
+     * Creates an empty sample index, used when writing samples.
+     */
+    SampleIndex() {
+    }
+
+    /**
+     * Gets the index file path for a given sample file.
+     * @param sampleFileName path to sample file.
+     * @return path to index file.
+     */
+    public static String getIndexFileName(String sampleFileName) {
+        sampleFileName + EXTENSION
+    }
+
+    /**
+     * Loads the index for a given sample file.
+     * @param sampleFileName path to sample file.
+     * @return sample index, or null if index is disabled, missing, malformed or does not match the sample file.
+     */
+    public static SampleIndex load(String sampleFileName) {
+        if (!ENABLED)
+            return null
+
+        def indexFile = new File(getIndexFileName(sampleFileName)),
+            sampleFile = new File(sampleFileName)
+
+        if (!indexFile.exists() || !sampleFile.exists())
+            return null
+
+        def index = new SampleIndex()
+
+        try {
+            def entries = new HashMap<String, String>()
+            indexFile.eachLine { String line, int n ->
+                if (n == 1) {
+                    if (line != "$MAGIC\t$VERSION")
+                        throw new IOException("Unsupported index header")
+                } else {
+                    def separatorPos = line.indexOf("\t")
+                    if (separatorPos > 0)
+                        entries.put(line.substring(0, separatorPos), line.substring(separatorPos + 1))
+                }
+            }
+
+            index.@fileSize = entries["file.size"].toLong()
+            index.@fileModified = entries["file.modified"].toLong()
+            index.@checksum = Long.parseLong(entries["file.crc32"], 16)
+            index.@count = entries["count"].toLong()
+            index.@diversity = entries["diversity"].toInteger()
+            index.@freq = entries["freq"].toDouble()
+            index.@annotationHeader = entries["annotation.header"]
+        } catch (Exception e) {
+            println "[${new Date()} SampleIndex] WARNING: Failed to read index for $sampleFileName, ignoring it " +
+                    "(${e.message})"
+            return null
+        }
+
+        index.matches(sampleFile) ? index : null
+    }
+
+    /**
+     * Checks if the index corresponds to the given sample file.
+     * @param sampleFile sample file.
+     * @return true if the index is valid for a given file.
+     */
+    boolean matches(File sampleFile) {
+        if (sampleFile.length() != fileSize)
+            return false
+
+        sampleFile.lastModified() == fileModified || computeChecksum(sampleFile) == checksum
+    }
+
+    /**
+     * Stores the index next to a given sample file, file size, modification time and checksum
+     * are taken from the sample file.
+     * @param sampleFileName path to sample file, should be already closed.
+     * @param checksum CRC32 checksum of sample file contents.
+     */
+    void store(String sampleFileName, long checksum) {
+        def sampleFile = new File(sampleFileName)
+
+        this.fileSize = sampleFile.length()
+        this.fileModified = sampleFile.lastModified()
+        this.checksum = checksum
+
+        new File(getIndexFileName(sampleFileName)).withPrintWriter { pw ->
+            pw.println("$MAGIC\t$VERSION")
+            pw.println("file.size\t$fileSize")
+            pw.println("file.modified\t$fileModified")
+            pw.println("file.crc32\t${Long.toHexString(checksum)}")
+            pw.println("count\t$count")
+            pw.println("diversity\t$diversity")
+            pw.println("freq\t$freq")
+            if (annotationHeader != null)
+                pw.println("annotation.header\t$annotationHeader")
+        }
+    }
+
+    /**
+     * Removes the index of a given sample file, if any.
+     * @param sampleFileName path to sample file.
+     */
+    static void delete(String sampleFileName) {
+        new File(getIndexFileName(sampleFileName)).delete()
+    }
+
+    private static long computeChecksum(File file) {
+        def crc32 = new CRC32()
+        def buffer = new byte[65536]
+        file.withInputStream { is ->
+            int n
+            while ((n = is.read(buffer)) > 0) {
+                crc32.update(buffer, 0, n)
+            }
+        }
+        crc32.value
+    }
+
+    /**
+     * INTERNAL accounts for a clonotype row that is being written. If the clonotype would be skipped when
+     * reading the sample back, the index is marked as incomplete and should not be stored.
+     * @param clonotype clonotype.
+     * @param freq clonotype frequency as written.
+     */
+    void addRow(Clonotype clonotype, double freq) {
+        this.count += clonotype.count
+        this.freq += freq
+        this.diversity++
+        if (complete && ClonotypeStreamParser.getBadFields(clonotype, freq, false))
+            complete = false
+    }
+
+    /**
+     * Tells if the index holds the same statistics as the ones obtained by parsing the sample file.
+     * @return true if all rows can be read back.
+     */
+    boolean isComplete() {
+        complete
+    }
+
+    void setAnnotationHeader(String annotationHeader) {
+        this.annotationHeader = annotationHeader
+    }
+
+    /**
+     * Creates a blank sample holding statistics stored in this index.
+     * @param sampleMetadata sample metadata.
+     * @return blank sample.
+     */
+    public Sample toSample(SampleMetadata sampleMetadata) {
+        Sample.fromSummary(sampleMetadata, count, diversity, freq, annotationHeader)
+    }
+
+    public long getCount() {
+        count
+    }
+
+    public int getDiversity() {
+        diversity
+    }
+
+    public double getFreq() {
+        freq
+    }
+
+    public String getAnnotationHeader() {
+        annotationHeader
+    }
+}
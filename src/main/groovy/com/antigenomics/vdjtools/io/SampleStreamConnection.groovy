@@ -29,7 +29,9 @@
 
 package com.antigenomics.vdjtools.io
 
+import com.antigenomics.vdjtools.io.binary.BinarySampleFormat
 import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.ColumnarSample
 import com.antigenomics.vdjtools.sample.Sample
 import com.antigenomics.vdjtools.sample.metadata.SampleMetadata
 import com.antigenomics.vdjtools.misc.ExecUtil
@@ -124,27 +126,117 @@ public class SampleStreamConnection implements SampleConnection {
      */
     private Sample _load() {
         println "[${new Date()} SampleStreamConnection] Loading sample $sampleMetadata.sampleId"
-        def inputStream = inputStreamFactory.create()
-        def sample = Sample.fromInputStream(inputStream, sampleMetadata, software, -1, true, software.collapseRequired)
+        def binaryFileName = _binaryFileName()
+        def sample = binaryFileName ? Sample.fromBinaryFile(binaryFileName, sampleMetadata, -1, true) :
+                ColumnarSample.ENABLED ?
+                        ColumnarSample.fromInputStream(inputStreamFactory.create(), sampleMetadata, software, -1,
+                                software.collapseRequired) :
+                        Sample.fromInputStream(inputStreamFactory.create(), sampleMetadata, software, -1, true,
+                                software.collapseRequired)
         println "[${new Date()} SampleStreamConnection] Loaded sample $sampleMetadata.sampleId with " +
                 "$sample.diversity clonotypes and $sample.count cells. " + ExecUtil.memoryFootprint()
         sample
     }
 
+    /**
+     * INTERNAL checks if the underlying file is a binary sample that can be memory-mapped.
+     * @return path to binary sample file or null if input is not a binary sample file.
+     */
+    private String _binaryFileName() {
+        if (inputStreamFactory instanceof FileInputStreamFactory) {
+            def fileName = (inputStreamFactory as FileInputStreamFactory).fileName
+            if (BinarySampleFormat.isBinary(fileName))
+                return fileName
+        }
+        null
+    }
+
+    /**
+     * Gets the path to the underlying sample file.
+     * @return path to sample file or null if input is not a file.
+     */
+    public String getFileName() {
+        inputStreamFactory instanceof FileInputStreamFactory ?
+                (inputStreamFactory as FileInputStreamFactory).fileName : null
+    }
+
+    /**
+     * Loads the sample and stores it into memory, if it was not loaded yet.
+     */
+    public void preload() {
+        if (!_sample)
+            _sample = _load()
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Sample getSample() {
-        _sample ?: (store ? (_sample = _load()) : _load())
+        if (_sample)
+            return _sample
+
+        if (store)
+            return (_sample = _load())
+
+        if (_binaryFileName())
+            return _load()
+
+        // samples that are not stored are kept in a shared cache while memory budget allows
+        def sample = SampleCache.SHARED.get(this)
+        if (sample == null) {
+            sample = _load()
+            SampleCache.SHARED.put(this, sample)
+        }
+        sample
+    }
+
+    /**
+     * Gets top N most abundant clonotypes of the sample. If the sample is neither stored nor cached,
+     * clonotypes are streamed through a bounded heap, so only N clonotypes are kept in memory,
+     * see {@link com.antigenomics.vdjtools.sample.ClonotypeHeap}.
+     * @param top number of clonotypes to select.
+     * @return a new sample containing top N clonotypes.
+     */
+    public Sample getTop(int top) {
+        def sample = _sample ?: SampleCache.SHARED.get(this)
+        if (sample != null)
+            return Sample.selectTop(sample, top)
+
+        def binaryFileName = _binaryFileName()
+        binaryFileName ? Sample.fromBinaryFile(binaryFileName, sampleMetadata, top, true) :
+                Sample.fromInputStream(inputStreamFactory.create(), sampleMetadata, software, top, true,
+                        software.collapseRequired)
+    }
+
+    /**
+     * INTERNAL loads a sidecar index for the underlying file, see {@link SampleIndex}.
+     * @return sample index or null if input is not a file or there is no valid index for it.
+     */
+    private SampleIndex _index() {
+        if (software == Software.VDJtools && inputStreamFactory instanceof FileInputStreamFactory)
+            return SampleIndex.load((inputStreamFactory as FileInputStreamFactory).fileName)
+        null
     }
 
     /**
      * {@inheritDoc}
+     * Returns the sample itself if it is stored or cached, see {@link SampleCache}.
+     * Sample statistics are taken from sidecar index file if it exists and matches the sample file.
      */
     @Override
     public Sample haveAGlance() {
-        _sample ?: Sample.fromInputStream(inputStreamFactory.create(), sampleMetadata, software, -1, false, false)
+        def sample = _sample ?: SampleCache.SHARED.get(this)
+        if (sample != null)
+            return sample
+
+        def binaryFileName = _binaryFileName()
+        if (binaryFileName)
+            return Sample.fromBinaryFile(binaryFileName, sampleMetadata, -1, false)
+
+        def index = _index()
+        index ? index.toSample(sampleMetadata) :
+                Sample.fromInputStream(inputStreamFactory.create(), sampleMetadata, software, -1, false, false)
     }
 
     @Override
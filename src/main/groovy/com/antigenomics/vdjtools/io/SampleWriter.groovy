@@ -29,14 +29,21 @@
 
 package com.antigenomics.vdjtools.io
 
+import com.antigenomics.vdjtools.io.binary.BinarySampleFormat
+import com.antigenomics.vdjtools.io.binary.BinarySampleWriter
+import com.antigenomics.vdjtools.io.gzip.BlockGzipOutputStream
 import com.antigenomics.vdjtools.misc.Software
 import com.antigenomics.vdjtools.join.JointSample
 import com.antigenomics.vdjtools.pool.PooledSample
+import com.antigenomics.vdjtools.pool.StoringClonotypeAggregator
 import com.antigenomics.vdjtools.sample.Clonotype
 import com.antigenomics.vdjtools.sample.Sample
 import com.antigenomics.vdjtools.misc.ExecUtil
 
-import java.util.zip.GZIPOutputStream
+import java.nio.charset.StandardCharsets
+import java.util.zip.CRC32
+import java.util.zip.CheckedOutputStream
+import java.util.zip.Checksum
 
 /**
  * A class implementing output of Sample and JointSample to plain-text file
@@ -44,17 +51,15 @@ import java.util.zip.GZIPOutputStream
 public class SampleWriter {
     private final Software software
     private final String header
-    private final boolean compress
-    private final List<String> printFields
+    private final boolean compress, renormalize, binary
+    private final ClonotypeRowEncoder rowEncoder, jointRowEncoder
 
     public String getHeader() {
         header
     }
 
     public String getClonotypeString(Clonotype clonotype) {
-        printFields.collect {
-            clonotype."$it"
-        }.join("\t")
+        rowEncoder.encode(clonotype)
     }
 
     /**
@@ -64,7 +69,20 @@ public class SampleWriter {
      *                    number of reads in sample) or preserve original frequencies as in input
      */
     public SampleWriter(boolean compress = false, boolean renormalize = false) {
-        this(Software.VDJtools, compress, renormalize)
+        this(Software.VDJtools, compress, renormalize, false)
+    }
+
+    /**
+     * Creates a sample writer capable to output samples either in plain-text or binary columnar files.
+     * Binary samples are written with {@link BinarySampleFormat#EXTENSION} extension instead of ".txt" and
+     * are never compressed.
+     * @param compress specifies whether to compress resulting output file, ignored for binary output
+     * @param renormalize tells whether to perform re-normalization (compute frequency by dividing read count by total
+     *                    number of reads in sample) or preserve original frequencies as in input
+     * @param binary specifies whether to write samples in binary columnar format
+     */
+    public SampleWriter(boolean compress, boolean renormalize, boolean binary) {
+        this(Software.VDJtools, compress, renormalize, binary)
     }
 
     /**
@@ -79,14 +97,22 @@ public class SampleWriter {
      */
     @Deprecated
     public SampleWriter(Software software, boolean compress, boolean renormalize) {
+        this(software, compress, renormalize, false)
+    }
+
+    private SampleWriter(Software software, boolean compress, boolean renormalize, boolean binary) {
         this.software = software
         this.header = (software.headerLineCount > 1 ?
                 "${software.name()}-header-blank\n" * (software.headerLineCount - 1) : "") +
                 (software.comment ?: "") +
                 software.printFields.join("\t")
-        this.compress = compress
-        this.printFields = renormalize ? software.printFields :
-                software.printFields.collect { it.replace("freq", "freqAsInInput") }
+        this.compress = compress && !binary
+        this.renormalize = renormalize
+        this.binary = binary
+        this.rowEncoder = new ClonotypeRowEncoder(renormalize ? software.printFields :
+                software.printFields.collect { it?.replace("freq", "freqAsInInput") })
+        // count and frequency are taken from joint/pooled clonotype
+        this.jointRowEncoder = new ClonotypeRowEncoder(software.printFields)
     }
 
     /**
@@ -95,13 +121,21 @@ public class SampleWriter {
      * @return
      */
     public BufferedWriter getWriter(String fileName) {
-        if (compress)
-            fileName += ".gz"
+        openWriter(getOutputFileName(fileName), null)
+    }
 
-        def fos = new FileOutputStream(fileName)
+    private String getOutputFileName(String fileName) {
+        compress ? (fileName + ".gz") : fileName
+    }
+
+    private BufferedWriter openWriter(String outputFileName, Checksum checksum) {
+        OutputStream os = new FileOutputStream(outputFileName)
+
+        if (checksum != null)
+            os = new CheckedOutputStream(os, checksum)
 
         new BufferedWriter(new OutputStreamWriter(compress ?
-                new GZIPOutputStream(fos) : fos))
+                new BlockGzipOutputStream(os) : os, StandardCharsets.UTF_8))
     }
 
     /**
@@ -152,6 +186,11 @@ public class SampleWriter {
         getClonotypeString(clonotype) + appendAnnotation(clonotype.annotation)
     }
 
+    private static void appendAnnotation(StringBuilder row, String annotation) {
+        if (annotation)
+            row.append('\t').append(annotation)
+    }
+
     /**
      * Writes a sample as a plain-text table to the specified path.
      * @param sample sample to write
@@ -161,11 +200,25 @@ public class SampleWriter {
      *        ones as a separate single entry put at the end of the file
      */
     public void write(Sample sample, String fileName, int top, boolean collapse) {
-        def printWriter = getWriter(fileName)
+        if (binary) {
+            // summary entry for non-shown clonotypes is not supported by binary format, ignore collapse
+            BinarySampleWriter.write(sample, BinarySampleFormat.toBinaryPath(fileName), top, renormalize)
+            return
+        }
+
+        def outputFileName = getOutputFileName(fileName), checksum = new CRC32()
+        def printWriter = new RowWriter(openWriter(outputFileName, checksum))
+        def row = printWriter.row
 
         top = top > sample.diversity || top < 0 ? sample.diversity : top
         printWriter.println(getFullHeader(sample))
 
+        // summary entry for non-shown clonotypes is not accounted in index
+        def index = SampleIndex.ENABLED && software == Software.VDJtools &&
+                !(collapse && top < sample.diversity) ? new SampleIndex() : null
+        if (index)
+            index.annotationHeader = sample.annotationHeader ?: null
+
         long count = 0
         double freq = 0.0
 
@@ -177,7 +230,12 @@ public class SampleWriter {
                 freq += clonotype.freq
             }
 
-            printWriter.println(getFullClonotypeString(clonotype))
+            if (index)
+                index.addRow(clonotype, renormalize ? clonotype.freq : clonotype.freqAsInInput)
+
+            rowEncoder.append(row, clonotype)
+            appendAnnotation(row, clonotype.annotation)
+            printWriter.endRow()
         }
 
         if (collapse && top < sample.diversity) {
@@ -193,6 +251,11 @@ public class SampleWriter {
         }
 
         printWriter.close()
+
+        if (index && index.complete)
+            index.store(outputFileName, checksum.value)
+        else
+            SampleIndex.delete(outputFileName)
     }
 
     /**
@@ -204,10 +267,12 @@ public class SampleWriter {
      *        ones as a separate single entry put at the end of the file
      */
     public void write(JointSample jointSample, String fileName, int top, boolean collapse) {
-        def printWriter = getWriter(fileName)
+        def printWriter = new RowWriter(getWriter(fileName))
+        def row = printWriter.row
         top = top > jointSample.diversity || top < 0 ? jointSample.diversity : top
+        int numberOfSamples = jointSample.numberOfSamples
 
-        def sampleIndices = (0..<jointSample.numberOfSamples)
+        def sampleIndices = (0..<numberOfSamples)
 
         printWriter.println(header + "\tpeak\toccurences\tsampling.p\t" +
                 sampleIndices.collect { jointSample.getSample(it).sampleMetadata.sampleId }.join("\t"))
@@ -226,21 +291,14 @@ public class SampleWriter {
                 }
             }
 
-            printWriter.println(
-                    [software.printFields.collect {
-                        if (it == "count")
-                            jointClonotype.count
-                        else if (it == "freq")
-                            jointClonotype.freq
-                        else
-                            clonotype."$it"
-                    },
-                     jointClonotype.peak,
-                     jointClonotype.occurrences,
-                     jointClonotype.samplingPValue,
-                     sampleIndices.collect { int j ->
-                         jointClonotype.getFreq(j)
-                     }].flatten().join("\t"))
+            jointRowEncoder.append(row, clonotype, jointClonotype.count, jointClonotype.freq)
+                    .append('\t').append(jointClonotype.peak)
+                    .append('\t').append(jointClonotype.occurrences)
+                    .append('\t').append(jointClonotype.samplingPValue)
+            for (int j = 0; j < numberOfSamples; j++) {
+                row.append('\t').append(jointClonotype.getFreq(j))
+            }
+            printWriter.endRow()
         }
 
         if (collapse) {
@@ -295,24 +353,20 @@ public class SampleWriter {
      * @param fileName output path.
      */
     public void write(PooledSample pooledSample, String fileName) {
-        def printWriter = getWriter(fileName)
+        def printWriter = new RowWriter(getWriter(fileName))
+        def row = printWriter.row
 
         printWriter.println(header + "\tincidence\tconvergence\toccurrences")
 
-        pooledSample.each { pooledClonotype ->
-            printWriter.println(
-                    [software.printFields.collect {
-                        if (it == "count")
-                            pooledClonotype.count
-                        else if (it == "freq")
-                            pooledClonotype.count / (double) pooledSample.count
-                        else
-                            pooledClonotype.clonotype."$it"
-                    },
-                     pooledClonotype.incidenceCount,
-                     pooledClonotype.diversity,
-                     pooledClonotype.occurrences
-                    ].flatten().join("\t"))
+        double totalCount = pooledSample.count
+
+        for (StoringClonotypeAggregator pooledClonotype : pooledSample) {
+            jointRowEncoder.append(row, pooledClonotype.clonotype,
+                    pooledClonotype.count, pooledClonotype.count / totalCount)
+                    .append('\t').append(pooledClonotype.incidenceCount)
+                    .append('\t').append(pooledClonotype.diversity)
+                    .append('\t').append(pooledClonotype.occurrences)
+            printWriter.endRow()
         }
 
         printWriter.close()
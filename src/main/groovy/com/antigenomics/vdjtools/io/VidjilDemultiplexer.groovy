@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.antigenomics.vdjtools.io
+
+import com.antigenomics.vdjtools.io.parser.VidjilParser
+import com.antigenomics.vdjtools.misc.CommonUtil
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.Sample
+import com.antigenomics.vdjtools.sample.metadata.SampleMetadata
+
+/**
+ * Loads samples stored in a single multi-sample Vidjil JSON file.
+ * Samples are registered upfront and are matched to Vidjil sample indices using
+ * {@link VidjilParser#VIDJIL_SAMPLE_ID_COL} metadata column. A single sample is loaded by streaming the file
+ * and keeping clones of this sample only, see {@link #load}. Samples that are all stored in memory anyway
+ * are read in a single pass through the file, see {@link #take}.
+ * This is a semi-internal class used by {@link VidjilSampleConnection}.
+ */
+public class VidjilDemultiplexer {
+    private final String fileName
+    private final List<SampleMetadata> sampleMetadataList = new ArrayList<>()
+    private Map<SampleMetadata, Sample> pendingSamples = null
+
+    /**
+     * Creates a demultiplexer for a given Vidjil file.
+     * @param fileName path to Vidjil JSON file.
+     */
+    public VidjilDemultiplexer(String fileName) {
+        this.fileName = fileName
+    }
+
+    /**
+     * Registers a sample stored in the underlying file.
+     * @param sampleMetadata sample metadata, should contain Vidjil sample index.
+     */
+    public synchronized void register(SampleMetadata sampleMetadata) {
+        sampleMetadataList.add(sampleMetadata)
+    }
+
+    /**
+     * Loads a given sample in a single pass through the file. Only the clones of this sample are kept in memory.
+     * @param sampleMetadata sample metadata, should contain Vidjil sample index.
+     * @return sample filled with clonotypes.
+     */
+    public Sample load(SampleMetadata sampleMetadata) {
+        CommonUtil.getFileStream(fileName).withStream { inputStream ->
+            Sample.fromInputStream(inputStream, sampleMetadata, Software.Vidjil, -1, true,
+                    Software.Vidjil.collapseRequired)
+        }
+    }
+
+    /**
+     * Gets a given sample, should be used only if all registered samples are going to be stored in memory.
+     * Upon the first call, all registered samples are loaded in a single pass through the file and are kept
+     * until they are taken. A sample is handed out only once, subsequent calls will {@link #load} it again.
+     * @param sampleMetadata sample metadata that was previously registered.
+     * @return sample filled with clonotypes.
+     */
+    public synchronized Sample take(SampleMetadata sampleMetadata) {
+        if (pendingSamples == null) {
+            loadAll()
+        }
+        pendingSamples.remove(sampleMetadata) ?: load(sampleMetadata)
+    }
+
+    /**
+     * INTERNAL loads all registered samples in one pass.
+     */
+    private void loadAll() {
+        println "[${new Date()} VidjilDemultiplexer] Loading ${sampleMetadataList.size()} samples from $fileName"
+
+        def samples = sampleMetadataList.collect { new Sample(it) }
+
+        List<VidjilParser> parsers
+        new BufferedReader(new InputStreamReader(CommonUtil.getFileStream(fileName))).withReader { reader ->
+            parsers = VidjilParser.demultiplex(reader, samples)
+        }
+
+        pendingSamples = new IdentityHashMap<>()
+        parsers.each { parser ->
+            def sample = Sample.fromParser(parser, Software.Vidjil, -1, true, Software.Vidjil.collapseRequired)
+            pendingSamples.put(sample.sampleMetadata, sample)
+        }
+
+        println "[${new Date()} VidjilDemultiplexer] Loaded ${samples.size()} samples with " +
+                "${samples.sum { it.diversity }} clonotypes in total. " + ExecUtil.memoryFootprint()
+    }
+
+    String getFileName() {
+        fileName
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.antigenomics.vdjtools.io
+
+import com.antigenomics.vdjtools.sample.Sample
+import com.antigenomics.vdjtools.sample.metadata.SampleMetadata
+
+/**
+ * A connection to a sample stored in a multi-sample Vidjil JSON file. All samples coming from the same file
+ * share a single {@link VidjilDemultiplexer}, so that the file is parsed only once if all samples are preloaded.
+ * Samples that are not stored are kept in {@link SampleCache} while its memory budget allows.
+ * This is a semi-internal class to provide lazy-loading support for SampleCollection.
+ */
+public class VidjilSampleConnection implements SampleConnection {
+    private final VidjilDemultiplexer demultiplexer
+    private final SampleMetadata sampleMetadata
+    private final boolean store
+    private Sample _sample = null
+
+    /**
+     * Creates a sample connection and registers the sample with demultiplexer. The sample is not loaded
+     * upon initialization, use {@link #preload} once all samples from the file are registered.
+     * @param demultiplexer demultiplexer associated with the underlying Vidjil file.
+     * @param sampleMetadata a metadata object that will be associated with a given sample.
+     * @param store sample will be stored into memory after loading.
+     */
+    public VidjilSampleConnection(VidjilDemultiplexer demultiplexer, SampleMetadata sampleMetadata, boolean store) {
+        this.demultiplexer = demultiplexer
+        this.sampleMetadata = sampleMetadata
+        this.store = store
+        demultiplexer.register(sampleMetadata)
+    }
+
+    /**
+     * Loads the sample and stores it into memory.
+     */
+    public void preload() {
+        if (!_sample)
+            _sample = demultiplexer.take(sampleMetadata)
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Sample getSample() {
+        if (_sample)
+            return _sample
+
+        if (store)
+            return (_sample = demultiplexer.load(sampleMetadata))
+
+        def sample = SampleCache.SHARED.get(this)
+        if (sample == null) {
+            sample = demultiplexer.load(sampleMetadata)
+            SampleCache.SHARED.put(this, sample)
+        }
+        sample
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Sample haveAGlance() {
+        getSample()
+    }
+
+    @Override
+    public String toString() {
+        "VidjilSampleConnection{$demultiplexer.fileName>${sampleMetadata.sampleId},storing=${store},loaded=${_sample != null}"
+    }
+}
@@ -39,7 +39,7 @@ import static com.antigenomics.vdjtools.misc.CommonUtil.*
  * A clonotype parser implementation that handles simple tab-delimited input, see
  * {@url https://github.com/mikessh/vdjtools/wiki/Input#simple}
  */
-public class BaseParser extends ClonotypeStreamParser {
+public class BaseParser extends ClonotypeLineParser {
     /**
      * {@inheritDoc}
      */
@@ -59,41 +59,43 @@ public class BaseParser extends ClonotypeStreamParser {
      */
     @Override
     protected Clonotype innerParse(String clonotypeString) {
-        def splitString = clonotypeString.split(software.delimiter)
+        def fields = tokenize(clonotypeString)
 
-        def count = splitString[0].toInteger()
-        def freq = splitString[1].toDouble()
+        def count = fields.getInt(0)
+        def freq = fields.getDouble(1)
 
-        def cdr3nt = splitString[2]
-        def cdr3aa = splitString[3].length() == 0 || splitString[3] == PLACEHOLDER ?
-                translate(splitString[3]) : splitString[3]
+        def cdr3nt = fields.get(2)
+        def cdr3aa = fields.get(3)
+        cdr3aa = cdr3aa.length() == 0 || cdr3aa == PLACEHOLDER ?
+                translate(cdr3aa) : cdr3aa
         cdr3aa = toUnifiedCdr3Aa(cdr3aa)
 
         String v, d, j
-        (v, d, j) = extractVDJ(splitString[4..6])
+        (v, d, j) = extractVDJ(fields.get(4, 5, 6))
 
         boolean inFrame = inFrame(cdr3aa),
                 noStop = noStop(cdr3aa),
                 isComplete = true
 
 
-        def segmPoints = (7..10).collect {
-            (splitString.size() <= it || !splitString[it].isInteger()) ? -1 : splitString[it].toInteger()
-        } as int[]
+        def segmPoints = new int[4]
+        for (int i = 0; i < 4; i++) {
+            segmPoints[i] = (fields.size() <= 7 + i || !fields.isInt(7 + i)) ? -1 : fields.getInt(7 + i)
+        }
 
         new Clonotype(sample, count, freq,
                 segmPoints, v, d, j,
                 cdr3nt, cdr3aa,
                 inFrame, noStop, isComplete,
-                extractAnnotation(splitString))
+                extractAnnotation(fields))
     }
 
-    private static String extractAnnotation(String[] splitLine) {
-        splitLine.size() > 11 ? splitLine[11..-1].join("\t") : null
+    private static String extractAnnotation(FieldTokenizer fields) {
+        fields.size() > 11 ? fields.getRemainder(11) : null
     }
 
     @Override
     String getAnnotationHeader() {
-        extractAnnotation(header[0].split("\t"))
+        extractAnnotation(new FieldTokenizer("\t").reset(header[0]))
     }
 }
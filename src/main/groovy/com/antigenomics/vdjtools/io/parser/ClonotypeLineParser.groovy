@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+
+package com.antigenomics.vdjtools.io.parser
+
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.Clonotype
+import com.antigenomics.vdjtools.sample.Sample
+import groovy.transform.PackageScope
+
+import java.lang.ref.WeakReference
+import java.util.function.Supplier
+
+/**
+ * Base class for parsers of plain-text clonotype tables, where each line holds a single clonotype.
+ * The parser is not thread-safe, however {@link #innerParse} implementations should be,
+ * as lines can be parsed in parallel by {@link ParallelParseIterator}.
+ */
+public abstract class ClonotypeLineParser extends ClonotypeStreamParser {
+    protected final Iterator<String> innerIter
+    // weak, so that an abandoned iterator stops its reader thread
+    private WeakReference<ParallelParseIterator> parallelIterator = null
+    private final ThreadLocal<FieldTokenizer> tokenizers = ThreadLocal.withInitial({
+        new FieldTokenizer(fieldDelimiters)
+    } as Supplier<FieldTokenizer>)
+    private final boolean hasComment
+
+    /**
+     * Creates a new instance of clonotype parser. 
+     * It is a clonotype factory wrapped around the specified input stream
+     * @param innerIter object that iterates over file lines, i.e. rows in the clonotype table
+     * @param software software used to create the clonotype table. Specifies the parser
+     * @param sample a blank sample to fill up with clonotypes
+     */
+    protected ClonotypeLineParser(Iterator<String> innerIter, Software software, Sample sample) {
+        super(software, sample)
+        this.innerIter = innerIter
+        this.hasComment = software.comment && software.comment.length() > 0
+    }
+
+    /**
+     * Gets the characters used to delimit fields in clonotype table lines
+     * @return delimiter characters, derived from {@code software.delimiter} by default
+     */
+    protected String getFieldDelimiters() {
+        FieldTokenizer.delimiterChars(software.delimiter)
+    }
+
+    /**
+     * Splits a clonotype table line into fields using a per-thread tokenizer. The returned tokenizer
+     * is valid until the next call of this method from the same thread
+     * @param clonotypeString string to split
+     * @param limit maximal number of fields to split the line into, the last field will hold the remainder of the line.
+     *              Non-positive value means that all fields are required and trailing empty fields are discarded
+     * @return tokenizer holding line fields
+     */
+    protected FieldTokenizer tokenize(String clonotypeString, int limit = 0) {
+        def tokenizer = tokenizers.get()
+        limit > 0 ? tokenizer.reset(clonotypeString, limit) : tokenizer.reset(clonotypeString)
+    }
+
+    /**
+     * Parses a string into clonotype in a {@code Software}-dependent manner 
+     * @param clonotypeString string to parse
+     * @return string to parse
+     */
+    protected abstract Clonotype innerParse(String clonotypeString)
+
+    /**
+     * Parses a string into clonotype in a {@code Software}-dependent manner and performs some consistency checks.
+     * Skips input strings that result in incomplete / bad clonotypes.
+     * @param clonotypeString string to parse
+     * @return a clonotype instance or {@code null} if input string was skipped
+     */
+    public Clonotype parse(String clonotypeString) {
+        account(parseLine(clonotypeString))
+    }
+
+    /**
+     * INTERNAL parses a string into clonotype and checks for bad/missing fields, without updating
+     * bad line statistics. This method is thread-safe provided that {@link #innerParse} is thread-safe.
+     * @param clonotypeString string to parse
+     * @return parsed line
+     */
+    @PackageScope
+    ParsedLine parseLine(String clonotypeString) {
+        try {
+            if (hasComment && clonotypeString.startsWith(software.comment)) {
+                return new ParsedLine(clonotypeString, null, ParsedLine.COMMENT)
+            }
+
+            if (clonotypeString.trim().empty) {
+                return new ParsedLine(clonotypeString, null, ParsedLine.BLANK) // ignore blank lines
+            }
+
+            return check(clonotypeString, innerParse(clonotypeString))
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to parse clonotype string $clonotypeString " +
+                    "for $software input type: ${e.message}", e)
+        }
+    }
+
+    /**
+     * Reports summary statistics and stops parallel parsing, if any
+     */
+    @Override
+    public void finish() {
+        if (parallelIterator) {
+            parallelIterator.get()?.close()
+            parallelIterator = null
+        }
+        super.finish()
+    }
+
+    /**
+     * Implementation that simplifies usage syntax {@code parser.each{ Clonotype c -> ...}}.
+     * If {@link #PARALLEL} is set, input lines are parsed in parallel in blocks, while clonotypes are
+     * still returned in the order they appear in the input.
+     * @return a clonotype iterator wrapped around the inner plain text table iterator
+     */
+    @Override
+    public Iterator<Clonotype> iterator() {
+        if (PARALLEL) {
+            def iterator = new ParallelParseIterator(this, innerIter)
+            parallelIterator = new WeakReference<>(iterator)
+            return iterator
+        }
+
+        [hasNext: {
+            innerIter.hasNext()
+        }, next : {
+            parse(innerIter.next())
+        }] as Iterator
+    }
+}
@@ -35,20 +35,28 @@ import com.antigenomics.vdjtools.misc.Software
 import com.antigenomics.vdjtools.sample.Clonotype
 import com.antigenomics.vdjtools.sample.Sample
 import com.milaboratory.core.sequence.Sequence
+import groovy.transform.PackageScope
 
 /**
  * Base class for providing parsing of various RepSeq software output.
- * The stream parser is not thread-safe. 
+ * Implementations iterate over clonotypes of the input, checking each of them with {@link #check} and
+ * updating line counters and bad line statistics with {@link #account}. Most of the implementations are
+ * line-based, see {@link ClonotypeLineParser}. The stream parser is not thread-safe.
  */
 public abstract class ClonotypeStreamParser implements Iterable<Clonotype> {
     private static final int WARNINGS_TO_DISPLAY = 5
+
+    /**
+     * Tells whether clonotype table lines should be parsed in parallel by line-based parsers,
+     * see {@link ParallelParseIterator}. Off by default, can be turned on with the {@code parallel_parse} global option
+     */
+    public static boolean PARALLEL = false
+
     protected final List<String> header = new ArrayList<>()
     protected final Software software
-    protected final Iterator<String> innerIter
     protected final Sample sample
     private int skippedLineCount = 0, commentLineCount
     private boolean printedWarning = false
-    private final boolean hasComment
     protected int totalLines = 0
     protected final Map<String, Integer> badClonotypeStats = ["NO_CDR3NT" : 0,
                                                               "NO_CDR3AA" : 0,
@@ -60,16 +68,12 @@ public abstract class ClonotypeStreamParser implements Iterable<Clonotype> {
 
     /**
      * Creates a new instance of clonotype parser. 
-     * It is a clonotype factory wrapped around the specified input stream
-     * @param innerIter object that iterates over file lines, i.e. rows in the clonotype table
      * @param software software used to create the clonotype table. Specifies the parser
      * @param sample a blank sample to fill up with clonotypes
      */
-    protected ClonotypeStreamParser(Iterator<String> innerIter, Software software, Sample sample) {
+    protected ClonotypeStreamParser(Software software, Sample sample) {
         this.software = software
-        this.innerIter = innerIter
         this.sample = sample
-        this.hasComment = software.comment && software.comment.length() > 0
         this.commentLineCount = software.headerLineCount
     }
 
@@ -84,6 +88,12 @@ public abstract class ClonotypeStreamParser implements Iterable<Clonotype> {
     public static ClonotypeStreamParser create(InputStream inputStream, Software software, Sample sample) {
         ClonotypeStreamParser parser
         def reader = new BufferedReader(new InputStreamReader(inputStream))
+
+        if (software == Software.Vidjil) {
+            // JSON input, streamed without splitting into lines
+            return new VidjilParser(reader, sample)
+        }
+
         def innerIter = reader.iterator()
 
         switch (software) {
@@ -115,9 +125,6 @@ public abstract class ClonotypeStreamParser implements Iterable<Clonotype> {
             case Software.ImSeq:
                 parser = new ImSeqParser(innerIter, sample)
                 break
-            case Software.Vidjil:
-                parser = new VidjilParser(innerIter, sample)
-                break
             case Software.RTCR:
                 parser = new RtcrParser(innerIter, sample)
                 break
@@ -131,64 +138,81 @@ public abstract class ClonotypeStreamParser implements Iterable<Clonotype> {
     }
 
     /**
-     * Parses a string into clonotype in a {@code Software}-dependent manner 
-     * @param clonotypeString string to parse
-     * @return string to parse
+     * INTERNAL checks a parsed clonotype for bad/missing fields, without updating bad line statistics.
+     * @param clonotypeString string the clonotype was parsed from, used for reporting
+     * @param clonotype parsed clonotype, {@code null} stands for a bad line
+     * @return parsed line
      */
-    protected abstract Clonotype innerParse(String clonotypeString)
+    @PackageScope
+    ParsedLine check(String clonotypeString, Clonotype clonotype) {
+        def badFields = clonotype ? getBadFields(clonotype, clonotype.freqAsInInput, software.perReadOutput) :
+                ["BAD_LINE"]
+
+        new ParsedLine(clonotypeString, badFields ? null : clonotype, badFields)
+    }
+
+    /**
+     * Lists bad/missing essential fields of a clonotype, clonotypes having any of those are skipped during parsing.
+     * @param clonotype clonotype to check
+     * @param freqAsInInput clonotype frequency as in input
+     * @param perReadOutput true if frequencies are re-calculated from read counts, so zero frequency is allowed
+     * @return list of bad field names, empty if clonotype is valid
+     */
+    public static List<String> getBadFields(Clonotype clonotype, double freqAsInInput, boolean perReadOutput) {
+        def badFieldMap = ["NO_CDR3NT" : missingEntry(clonotype.cdr3ntBinary),
+                           "NO_CDR3AA" : missingEntry(clonotype.cdr3aaBinary),
+                           "NO_V"      : missingEntry(clonotype.VBinary),
+                           "NO_J"      : missingEntry(clonotype.JBinary),
+                           "ZERO_COUNT": clonotype.count == 0,
+                           "ZERO_FREQ" : !perReadOutput && freqAsInInput == 0]
+
+        badFieldMap.findAll { it.value }.collect { it.key }
+    }
 
     /**
-     * Parses a string into clonotype in a {@code Software}-dependent manner and performs some consistency checks.
-     * Skips input strings that result in incomplete / bad clonotypes.
-     * @param clonotypeString string to parse
+     * INTERNAL updates line counters and bad line statistics with a parsed line.
+     * Lines should be accounted in the order they appear in the input.
+     * @param parsedLine parsed line
      * @return a clonotype instance or {@code null} if input string was skipped
      */
-    public Clonotype parse(String clonotypeString) {
-        try {
-            if (hasComment && clonotypeString.startsWith(software.comment)) {
-                commentLineCount++
-                return null
-            }
+    @PackageScope
+    Clonotype account(ParsedLine parsedLine) {
+        if (parsedLine.comment) {
+            commentLineCount++
+            return null
+        }
 
-            if (clonotypeString.trim().empty) {
-                return null // ignore blank lines
-            }
+        if (parsedLine.blank) {
+            return null
+        }
 
-            totalLines++
-
-            def clonotype = innerParse(clonotypeString)
-
-            def badFieldMap = clonotype ? ["NO_CDR3NT" : missingEntry(clonotype.cdr3ntBinary),
-                                           "NO_CDR3AA" : missingEntry(clonotype.cdr3aaBinary),
-                                           "NO_V"      : missingEntry(clonotype.VBinary),
-                                           "NO_J"      : missingEntry(clonotype.JBinary),
-                                           "ZERO_COUNT": clonotype.count == 0,
-                                           "ZERO_FREQ" : !software.perReadOutput && clonotype.freqAsInInput == 0] :
-                    ["BAD_LINE": true]
-
-            if (badFieldMap.any { it.value }) {
-                badFieldMap.each {
-                    if (it.value) {
-                        badClonotypeStats[it.key]++
-                    }
-                }
-                if (!printedWarning) {
-                    printedWarning = true
-                    println "[WARNING] Some of the essential fields are bad/missing " +
-                            "for the following clonotype string (displaying first $WARNINGS_TO_DISPLAY warnings)"
-                }
-                if (skippedLineCount++ < WARNINGS_TO_DISPLAY) {
-                    println badFieldMap.findAll { it.value }.collect { it.key }.join(",") + ":"
-                    println "$clonotypeString"
-                }
-                return null
-            }
+        totalLines++
 
-            return clonotype
-        } catch (Exception e) {
-            throw new RuntimeException("Unable to parse clonotype string $clonotypeString " +
-                    "for $software input type: ${e.message}", e)
+        if (parsedLine.badFields) {
+            parsedLine.badFields.each {
+                badClonotypeStats[it]++
+            }
+            if (!printedWarning) {
+                printedWarning = true
+                println "[WARNING] Some of the essential fields are bad/missing " +
+                        "for the following clonotype string (displaying first $WARNINGS_TO_DISPLAY warnings)"
+            }
+            if (skippedLineCount++ < WARNINGS_TO_DISPLAY) {
+                println parsedLine.badFields.join(",") + ":"
+                println "$parsedLine.line"
+            }
+            return null
         }
+
+        parsedLine.clonotype
+    }
+
+    /**
+     * Gets the sample that is being filled up with clonotypes
+     * @return parent sample
+     */
+    public Sample getSample() {
+        sample
     }
 
     /**
@@ -238,15 +262,10 @@ public abstract class ClonotypeStreamParser implements Iterable<Clonotype> {
     }
 
     /**
-     * Implementation that simplifies usage syntax {@code parser.each{ Clonotype c -> ...}}
-     * @return a clonotype iterator wrapped around the inner plain text table iterator
+     * Implementation that simplifies usage syntax {@code parser.each{ Clonotype c -> ...}}.
+     * Clonotypes that were skipped are returned as {@code null}
+     * @return a clonotype iterator
      */
     @Override
-    public Iterator<Clonotype> iterator() {
-        [hasNext: {
-            innerIter.hasNext()
-        }, next : {
-            parse(innerIter.next())
-        }] as Iterator
-    }
+    public abstract Iterator<Clonotype> iterator()
 }
@@ -35,7 +35,7 @@ import com.antigenomics.vdjtools.sample.Sample
 
 import static com.antigenomics.vdjtools.misc.CommonUtil.*
 
-class ImSeqParser extends ClonotypeStreamParser {
+class ImSeqParser extends ClonotypeLineParser {
     /**
      * {@inheritDoc}
      */
@@ -43,20 +43,28 @@ class ImSeqParser extends ClonotypeStreamParser {
         super(innerIter, Software.ImSeq, sample)
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getFieldDelimiters() {
+        ": \t"
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     protected Clonotype innerParse(String clonotypeString) {
-        def splitString = clonotypeString.split("[: \t]")
-        def count = splitString[3].toInteger()
+        def fields = tokenize(clonotypeString)
+        def count = fields.getInt(3)
         def freq = 0
 
-        def cdr3nt = splitString[1].toUpperCase()
+        def cdr3nt = fields.get(1).toUpperCase()
         def cdr3aa = toUnifiedCdr3Aa(translate(cdr3nt))
 
         String v, d, j
-        (v, j, d) = extractVDJ([splitString[0], splitString[2], "."])
+        (v, j, d) = extractVDJ([fields.get(0), fields.get(2), "."])
 
 
         def segmPoints = [-1, -1, -1, -1] as int[]
@@ -35,7 +35,7 @@ import com.antigenomics.vdjtools.sample.Sample
 
 import static com.antigenomics.vdjtools.misc.CommonUtil.*
 
-class ImgtHighVQuestParser extends ClonotypeStreamParser {
+class ImgtHighVQuestParser extends ClonotypeLineParser {
     /**
      * {@inheritDoc}
      */
@@ -48,19 +48,19 @@ class ImgtHighVQuestParser extends ClonotypeStreamParser {
      */
     @Override
     protected Clonotype innerParse(String clonotypeString) {
-        def splitString = clonotypeString.split("\t")
+        def fields = tokenize(clonotypeString)
 
-        if (splitString.length < 107)
+        if (fields.size() < 107)
             return null
 
         def count = 1
         def freq = 0
 
-        def cdr3start = splitString[60].isInteger() ?
-                splitString[60].toInteger() :
+        def cdr3start = fields.isInt(60) ?
+                fields.getInt(60) :
                 -1 // this is called "junction start" here. Junction = CDR3 + conserved C, F/W
 
-        def cdr3nt = splitString[15].toUpperCase()
+        def cdr3nt = fields.get(15).toUpperCase()
 
         if (!(cdr3nt =~ /^[ATGCatgc]+$/))
             return null // no N's allowed
@@ -68,18 +68,13 @@ class ImgtHighVQuestParser extends ClonotypeStreamParser {
         def cdr3aa = toUnifiedCdr3Aa(translate(cdr3nt))
 
         String v, d, j
-        (v, j, d) = extractVDJ(splitString[3..5]).collect {
+        (v, j, d) = extractVDJ(fields.get(3, 4, 5)).collect {
             def splitRecord = it.split(" ")
             splitRecord.length > 1 ? splitRecord[1] : splitRecord[0]
         }
 
-        def segmPoints = [
-                splitString[63],
-                splitString[76],
-                splitString[77],
-                splitString[106]
-        ].collect {
-            it.isInteger() ? (it.toInteger() - cdr3start) : -1 // subtract cdr3start
+        def segmPoints = [63, 76, 77, 106].collect {
+            fields.isInt(it) ? (fields.getInt(it) - cdr3start) : -1 // subtract cdr3start
         }.collect {
             (it >= 0 && it < cdr3nt.length()) ? it : -1 // sometimes segment bounds appear out of junction region
         } as int[]
@@ -45,7 +45,7 @@ import static com.antigenomics.vdjtools.misc.CommonUtil.*
  * This parser is intended for samples obtained using "Export sample" option from ImmunoSEQ analyzer,
  * not "Export sample V2"
  */
-class ImmunoSeqParser extends ClonotypeStreamParser {
+class ImmunoSeqParser extends ClonotypeLineParser {
     protected boolean initialized = false
     protected int countColumn, countColumn2, freqColumn, cdr3StartColumn,
                   cdr3ntColumn, cdr3aaColumn, cdr3LenColumn,
@@ -53,7 +53,8 @@ class ImmunoSeqParser extends ClonotypeStreamParser {
             vColumn0, dColumn0, jColumn0,
             vColumn1, dColumn1, jColumn1,
                   vColumn2, dColumn2, jColumn2,
-                  vEndColumn, dStartColumn, dEndColumn
+                  vEndColumn, dStartColumn, dEndColumn,
+                  fieldLimit
 
     /**
      * {@inheritDoc}
@@ -105,16 +106,21 @@ class ImmunoSeqParser extends ClonotypeStreamParser {
         dEndColumn = splitHeaderLine.findIndexOf { it.equalsIgnoreCase("n2_index") }
         jStartColumn = splitHeaderLine.findIndexOf { it.equalsIgnoreCase("j_index") }
 
-        if ([countColumn, countColumn2, freqColumn,
-             cdr3StartColumn, cdr3LenColumn,
-             cdr3ntColumn, cdr3aaColumn,
-             vColumn0, dColumn0, jColumn0,
-             vColumn1, dColumn1, jColumn1,
-             vColumn2, dColumn2, jColumn2,
-             vEndColumn, dStartColumn, dEndColumn, jStartColumn,
-             inFrameColumn].any { it < 0 })
+        def columns = [countColumn, countColumn2, freqColumn,
+                       cdr3StartColumn, cdr3LenColumn,
+                       cdr3ntColumn, cdr3aaColumn,
+                       vColumn0, dColumn0, jColumn0,
+                       vColumn1, dColumn1, jColumn1,
+                       vColumn2, dColumn2, jColumn2,
+                       vEndColumn, dStartColumn, dEndColumn, jStartColumn,
+                       inFrameColumn]
+
+        if (columns.any { it < 0 })
             throw new RuntimeException("Some mandatory columns are absent in the input file.")
 
+        // no need to split the remaining part of the line
+        fieldLimit = columns.max() + 2
+
         // Initialized
         initialized = true
     }
@@ -126,25 +132,27 @@ class ImmunoSeqParser extends ClonotypeStreamParser {
     protected Clonotype innerParse(String clonotypeString) {
         ensureInitialized()
 
-        def splitString = clonotypeString.split("\t")
+        def fields = tokenize(clonotypeString, fieldLimit)
 
         // As-is data
-        def count = splitString[countColumn].isInteger() ? splitString[countColumn].toInteger() : null
+        def count = fields.isInt(countColumn) ? fields.getInt(countColumn) : null
 
         if (count == null) {
             // try to rescue count from "templates" column
-            count = splitString[countColumn2].toInteger()
+            count = fields.getInt(countColumn2)
         }
 
-        def freq = splitString[freqColumn].toDouble()
+        def freq = fields.getDouble(freqColumn)
+
+        int cdr3start = fields.getInt(cdr3StartColumn),
+            cdr3Len = fields.getInt(cdr3LenColumn)
 
-        int cdr3start = splitString[cdr3StartColumn].toInteger(),
-            cdr3Len = splitString[cdr3LenColumn].toInteger()
+        def inFrame = fields.equalsIgnoreCase(inFrameColumn, "in")
 
-        def inFrame = splitString[inFrameColumn].equalsIgnoreCase("in")
+        def read = fields.get(cdr3ntColumn), aminoAcid = fields.get(cdr3aaColumn)
 
         def cdr3End = cdr3start + cdr3Len,
-            readLen = splitString[cdr3ntColumn].length(),
+            readLen = read.length(),
             padding = 0
 
         if (cdr3End > readLen) {
@@ -153,29 +161,29 @@ class ImmunoSeqParser extends ClonotypeStreamParser {
             cdr3End = readLen
         }
 
-        def cdr3nt = splitString[cdr3ntColumn][cdr3start..<cdr3End] + ("N" * padding)
-        def cdr3aa = toUnifiedCdr3Aa(inFrame ? splitString[cdr3aaColumn] : translate(cdr3nt))
+        def cdr3nt = read[cdr3start..<cdr3End] + ("N" * padding)
+        def cdr3aa = toUnifiedCdr3Aa(inFrame ? aminoAcid : translate(cdr3nt))
 
         String v, d, j
         (v, d, j) = extractVDJImmunoSeq(
-                splitString[[vColumn0, dColumn0, jColumn0]],
-                splitString[[vColumn1, dColumn1, jColumn1]],
-                splitString[[vColumn2, dColumn2, jColumn2]])
+                fields.get(vColumn0, dColumn0, jColumn0),
+                fields.get(vColumn1, dColumn1, jColumn1),
+                fields.get(vColumn2, dColumn2, jColumn2))
 
         // Fixing mess with CDR3s that are failed to be extracted
 
-        def jStart = splitString[jStartColumn].toInteger()
+        def jStart = fields.getInt(jStartColumn)
 
         boolean isComplete = true
         if (cdr3start >= 0 &&
                 (cdr3aa.length() == 0 || cdr3nt.length() != 3 * cdr3aa.length())) {
-            cdr3nt = splitString[cdr3ntColumn]
+            cdr3nt = read
             if (cdr3aa.length() > 0) {
                 // see https://github.com/mikessh/vdjtools/issues/30 for the reason for workaround
                 int to = cdr3start + cdr3aa.length() * 3
                 isComplete = to <= cdr3nt.length()
                 cdr3nt = isComplete ? cdr3nt.substring(cdr3start, to) : cdr3nt.substring(cdr3start) // in-frame
-                cdr3aa = toUnifiedCdr3Aa(inFrame ? splitString[cdr3aaColumn] : translate(cdr3nt))
+                cdr3aa = toUnifiedCdr3Aa(inFrame ? aminoAcid : translate(cdr3nt))
             } else {
                 // it seems to be hard to get conventional out-of-frame translation here
                 // but we'll try to reconstruct it
@@ -197,10 +205,10 @@ class ImmunoSeqParser extends ClonotypeStreamParser {
         cdr3start = cdr3start < 0 ? 0 : cdr3start
 
         def segmPoints = [
-                splitString[vEndColumn].toInteger() - 1 - cdr3start,
-                splitString[dStartColumn].toInteger() - cdr3start,
-                splitString[dEndColumn].toInteger() - 1 - cdr3start,
-                splitString[jStartColumn].toInteger() - cdr3start].collect { it < 0 ? -1 : it } as int[]
+                fields.getInt(vEndColumn) - 1 - cdr3start,
+                fields.getInt(dStartColumn) - cdr3start,
+                fields.getInt(dEndColumn) - 1 - cdr3start,
+                jStart - cdr3start].collect { it < 0 ? -1 : it } as int[]
 
         new Clonotype(sample, count, freq,
                 segmPoints, v, d, j,
@@ -88,16 +88,21 @@ class ImmunoSeqV2Parser extends ImmunoSeqParser {
         dEndColumn = splitHeaderLine.findIndexOf { it.equalsIgnoreCase("n2Index") }
         jStartColumn = splitHeaderLine.findIndexOf { it.equalsIgnoreCase("jIndex") }
 
-        if ([countColumn, freqColumn,
-             cdr3StartColumn,  cdr3LenColumn,
-             cdr3ntColumn, cdr3aaColumn,
-             vColumn0, dColumn0, jColumn0,
-             vColumn1, dColumn1, jColumn1,
-             vColumn2, dColumn2, jColumn2,
-             vEndColumn, dStartColumn, dEndColumn, jStartColumn,
-             inFrameColumn].any { it < 0 })
+        def columns = [countColumn, freqColumn,
+                       cdr3StartColumn, cdr3LenColumn,
+                       cdr3ntColumn, cdr3aaColumn,
+                       vColumn0, dColumn0, jColumn0,
+                       vColumn1, dColumn1, jColumn1,
+                       vColumn2, dColumn2, jColumn2,
+                       vEndColumn, dStartColumn, dEndColumn, jStartColumn,
+                       inFrameColumn]
+
+        if (columns.any { it < 0 })
             throw new RuntimeException("Some mandatory columns are absent in the input file.")
 
+        // no need to split the remaining part of the line
+        fieldLimit = columns.max() + 2
+
         // Initialized
         initialized = true
     }
@@ -40,7 +40,7 @@ import static com.antigenomics.vdjtools.misc.CommonUtil.*
  * A clonotype parser implementation that handles output from MiGEC software, see
  * {@url https://github.com/mikessh/migec}
  */
-public class MiGecParser extends ClonotypeStreamParser {
+public class MiGecParser extends ClonotypeLineParser {
     /**
      * {@inheritDoc}
      */
@@ -71,25 +71,25 @@ public class MiGecParser extends ClonotypeStreamParser {
              14 Total reads
           */
 
-        def splitString = clonotypeString.split("\t")
+        def fields = tokenize(clonotypeString, 12) // only first 11 columns are used
 
-        def count = splitString[0].toInteger()
-        def freq = splitString[1].toDouble()
+        def count = fields.getInt(0)
+        def freq = fields.getDouble(1)
 
-        def cdr3nt = splitString[2]
-        def cdr3aa = toUnifiedCdr3Aa(splitString[3])
+        def cdr3nt = fields.get(2)
+        def cdr3aa = toUnifiedCdr3Aa(fields.get(3))
 
 
         String v, j, d
-        (v, j, d) = extractVDJ(splitString[4..6])
+        (v, j, d) = extractVDJ(fields.get(4, 5, 6))
 
         boolean inFrame = inFrame(cdr3aa), noStop = noStop(cdr3aa), isComplete = true
 
         def segmPoints = [
-                splitString[7].toInteger(),
-                splitString[8].isInteger() ? splitString[8].toInteger() : -1,
-                splitString[9].isInteger() ? splitString[9].toInteger() : -1,
-                splitString[10].toInteger()] as int[]
+                fields.getInt(7),
+                fields.isInt(8) ? fields.getInt(8) : -1,
+                fields.isInt(9) ? fields.getInt(9) : -1,
+                fields.getInt(10)] as int[]
 
         new Clonotype(sample, count, freq,
                 segmPoints, v, d, j,
@@ -40,7 +40,7 @@ import static com.antigenomics.vdjtools.misc.CommonUtil.*
  * A clonotype parser implementation that handles output from MiTCR software, see
  * {@url http://mitcr.milaboratory.com/}
  */
-public class MiTcrParser extends ClonotypeStreamParser {
+public class MiTcrParser extends ClonotypeLineParser {
     /**
      * {@inheritDoc}
      */
@@ -53,21 +53,21 @@ public class MiTcrParser extends ClonotypeStreamParser {
      */
     @Override
     protected Clonotype innerParse(String clonotypeString) {
-        def splitString = clonotypeString.split(software.delimiter)
+        def fields = tokenize(clonotypeString, 17) // only first 16 columns are used
 
-        def count = splitString[0].toInteger()
-        def freq = splitString[1].toDouble()
+        def count = fields.getInt(0)
+        def freq = fields.getDouble(1)
 
-        def cdr3nt = splitString[2]
-        def cdr3aa = toUnifiedCdr3Aa(splitString[5]) // replace ~
+        def cdr3nt = fields.get(2)
+        def cdr3aa = toUnifiedCdr3Aa(fields.get(5)) // replace ~
 
         String v, d, j
-        (v, d, j) = extractVDJ(splitString[[7, 11, 9]])
+        (v, d, j) = extractVDJ(fields.get(7, 11, 9))
 
-        def segmPoints = [splitString[12].toInteger(),
-                          splitString[13].isInteger() ? splitString[13].toInteger() : -1,
-                          splitString[14].isInteger() ? splitString[14].toInteger() : -1,
-                          splitString[15].toInteger()] as int[]
+        def segmPoints = [fields.getInt(12),
+                          fields.isInt(13) ? fields.getInt(13) : -1,
+                          fields.isInt(14) ? fields.getInt(14) : -1,
+                          fields.getInt(15)] as int[]
 
         boolean inFrame = inFrame(cdr3aa),
                 noStop = noStop(cdr3aa),
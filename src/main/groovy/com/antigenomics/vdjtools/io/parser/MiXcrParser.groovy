@@ -39,12 +39,12 @@ import static com.antigenomics.vdjtools.misc.CommonUtil.*
  * A clonotype parser implementation that handles output from MiXCR software, see
  * {@url http://mixcr.milaboratory.com/}
  */
-public class MiXcrParser extends ClonotypeStreamParser {
+public class MiXcrParser extends ClonotypeLineParser {
     private boolean initialized = false
     private int countColumn, freqColumn, cdr3ntColumn, cdr3aaColumn,
                 vHitsColumn, dHitsColumn, jHitsColumn,
                 vAlignmentsColumn, dAlignmentsColumn, jAlignmentsColumn,
-                numberOfColumns
+                numberOfColumns, fieldLimit
 
     /**
      * {@inheritDoc}
@@ -105,6 +105,12 @@ public class MiXcrParser extends ClonotypeStreamParser {
 
         numberOfColumns = splitHeaderLine.size()
 
+        // no need to split the remaining part of the line
+        fieldLimit = Math.min(numberOfColumns,
+                [countColumn, freqColumn, cdr3ntColumn, cdr3aaColumn,
+                 vHitsColumn, dHitsColumn, jHitsColumn,
+                 vAlignmentsColumn, dAlignmentsColumn, jAlignmentsColumn].max() + 2)
+
         // Initialized
         initialized = true
     }
@@ -116,21 +122,21 @@ public class MiXcrParser extends ClonotypeStreamParser {
     protected Clonotype innerParse(String clonotypeString) {
         ensureInitialized()
 
-        def splitString = clonotypeString.split(software.delimiter, numberOfColumns)
+        def fields = tokenize(clonotypeString, fieldLimit)
 
-        def count = (int) (splitString[countColumn].toDouble())
-        def freq = splitString[freqColumn].toDouble()
+        def count = (int) (fields.getDouble(countColumn))
+        def freq = fields.getDouble(freqColumn)
 
-        def cdr3nt = splitString[cdr3ntColumn]
+        def cdr3nt = fields.get(cdr3ntColumn)
 
-        def cdr3aa = splitString[cdr3aaColumn] // no need to unify, MiXCR is based on milib
+        def cdr3aa = fields.get(cdr3aaColumn) // no need to unify, MiXCR is based on milib
 
         String v, d, j
-        (v, d, j) = extractVDJ(splitString[[vHitsColumn, dHitsColumn, jHitsColumn]])
+        (v, d, j) = extractVDJ(fields.get(vHitsColumn, dHitsColumn, jHitsColumn))
 
-        List<Alignment> vAlignemtns = parseAlignments(splitString[vAlignmentsColumn])
-        List<Alignment> dAlignemtns = parseAlignments(splitString[dAlignmentsColumn])
-        List<Alignment> jAlignemtns = parseAlignments(splitString[jAlignmentsColumn])
+        List<Alignment> vAlignemtns = parseAlignments(fields.get(vAlignmentsColumn))
+        List<Alignment> dAlignemtns = parseAlignments(fields.get(dAlignmentsColumn))
+        List<Alignment> jAlignemtns = parseAlignments(fields.get(jAlignmentsColumn))
 
         def segmPoints = [vAlignemtns.size() > 0 && vAlignemtns[0] != null ?
                                   vAlignemtns[0].seq2End - 1 : 0,
@@ -41,12 +41,13 @@ import static com.antigenomics.vdjtools.misc.CommonUtil.toUnifiedCdr3Aa
  * A clonotype parser implementation that handles output from IgBlastWrapper-derived software.
  * {@url https://github.com/mikessh/igblastwrp}
  */
-public class MigMapParser extends ClonotypeStreamParser {
+public class MigMapParser extends ClonotypeLineParser {
     private boolean initialized = false
     private int countColumn, freqColumn, cdr3ntColumn, cdr3aaColumn,
                 vColumn, dColumn, jColumn,
                 vEndColumn, dStartColumn, dEndColumn, jStartColumn,
-                inFrameColumn, noStopColumn, isCompleteColumn
+                inFrameColumn, noStopColumn, isCompleteColumn,
+                fieldLimit
 
     /**
      * {@inheritDoc}
@@ -84,12 +85,17 @@ public class MigMapParser extends ClonotypeStreamParser {
         noStopColumn = splitHeaderLine.findIndexOf { it.equalsIgnoreCase("no.stop") }
         isCompleteColumn = splitHeaderLine.findIndexOf { it.equalsIgnoreCase("complete") }
 
-        if ([countColumn, freqColumn, cdr3ntColumn, cdr3aaColumn,
-             vColumn, dColumn, jColumn,
-             vEndColumn, dStartColumn, dEndColumn, jStartColumn,
-             inFrameColumn, noStopColumn, isCompleteColumn].any { it < 0 })
+        def columns = [countColumn, freqColumn, cdr3ntColumn, cdr3aaColumn,
+                       vColumn, dColumn, jColumn,
+                       vEndColumn, dStartColumn, dEndColumn, jStartColumn,
+                       inFrameColumn, noStopColumn, isCompleteColumn]
+
+        if (columns.any { it < 0 })
             throw new RuntimeException("Some mandatory columns are absent in the input file.")
 
+        // no need to split the remaining part of the line
+        fieldLimit = columns.max() + 2
+
         // Initialized
         initialized = true
     }
@@ -115,20 +121,22 @@ public class MigMapParser extends ClonotypeStreamParser {
             "\thas.cdr3\tin.frame\tno.stop\tcomplete\tcanonical"
          */
 
-        def splitString = clonotypeString.split("\t")
+        def fields = tokenize(clonotypeString, fieldLimit)
 
-        def freq = splitString[freqColumn].toDouble()
-        def count = splitString[countColumn].toInteger()
-        def cdr3nt = splitString[cdr3ntColumn] == "." || splitString[cdr3ntColumn].contains("N") ?
-                "" : splitString[cdr3ntColumn],
-            cdr3aa = splitString[cdr3aaColumn] == "." || splitString[cdr3aaColumn].contains("X") ?
-                    "" : toUnifiedCdr3Aa(splitString[cdr3aaColumn])
+        def freq = fields.getDouble(freqColumn)
+        def count = fields.getInt(countColumn)
+        def cdr3nt = fields.get(cdr3ntColumn),
+            cdr3aa = fields.get(cdr3aaColumn)
+        cdr3nt = cdr3nt == "." || cdr3nt.contains("N") ?
+                "" : cdr3nt
+        cdr3aa = cdr3aa == "." || cdr3aa.contains("X") ?
+                "" : toUnifiedCdr3Aa(cdr3aa)
 
         String v, d, j
-        (v, d, j) = CommonUtil.extractVDJ(splitString[[vColumn, dColumn, jColumn]])
+        (v, d, j) = CommonUtil.extractVDJ(fields.get(vColumn, dColumn, jColumn))
 
         boolean inFrame, noStop, isComplete
-        (inFrame, noStop, isComplete) = splitString[[inFrameColumn, noStopColumn, isCompleteColumn]].collect {
+        (inFrame, noStop, isComplete) = fields.get(inFrameColumn, noStopColumn, isCompleteColumn).collect {
             it.toBoolean()
         }
 
@@ -136,9 +144,8 @@ public class MigMapParser extends ClonotypeStreamParser {
             isComplete = false // handling Ns in CDR3
         }
 
-        def segmPoints = splitString[[vEndColumn, dStartColumn, dEndColumn, jStartColumn]].collect {
-            it.toInteger()
-        } as int[]
+        def segmPoints = [fields.getInt(vEndColumn), fields.getInt(dStartColumn),
+                          fields.getInt(dEndColumn), fields.getInt(jStartColumn)] as int[]
 
         def clonotype = new Clonotype(sample,
                 count, freq,
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.parser
+
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.sample.Clonotype
+import groovy.transform.PackageScope
+
+import java.lang.ref.WeakReference
+import java.util.concurrent.*
+import java.util.function.Supplier
+
+/**
+ * INTERNAL an iterator that parses clonotype table lines in parallel. A reader thread splits the input
+ * into blocks of lines that are parsed by {@link ExecUtil#getSharedPool()}; parsed blocks are consumed in the order
+ * of input. Line counters and bad line statistics of the parent parser are updated upon consumption,
+ * so they are the same as in case of sequential parsing.
+ * The reader thread stops at the end of input, if the iterator is closed, fails, or is no longer referenced.
+ */
+@PackageScope
+class ParallelParseIterator implements Iterator<Clonotype> {
+    static final int BLOCK_SIZE = 4096, BLOCKS_IN_FLIGHT = 2 * ExecUtil.THREADS
+
+    private static final List<ParsedLine> END = Collections.emptyList()
+
+    private final ClonotypeLineParser parser
+    private final BlockReader reader
+    private Iterator<ParsedLine> currentBlock = Collections.emptyIterator()
+    private boolean finished = false
+
+    ParallelParseIterator(ClonotypeLineParser parser, Iterator<String> innerIter) {
+        this.parser = parser
+        this.reader = new BlockReader(parser, innerIter, new WeakReference<Object>(this))
+
+        def thread = new Thread(reader, "ClonotypeStreamParser-reader")
+        thread.daemon = true
+        thread.start()
+    }
+
+    /**
+     * INTERNAL reads input lines and submits blocks of them for parsing. Holds no reference to the iterator,
+     * so that an abandoned iterator can be garbage collected, which stops the reader.
+     */
+    private static class BlockReader implements Runnable {
+        final ClonotypeLineParser parser
+        final Iterator<String> innerIter
+        final WeakReference<Object> owner
+        final BlockingQueue<Future<List<ParsedLine>>> blocks = new ArrayBlockingQueue<>(BLOCKS_IN_FLIGHT)
+        volatile boolean closed = false
+
+        BlockReader(ClonotypeLineParser parser, Iterator<String> innerIter, WeakReference<Object> owner) {
+            this.parser = parser
+            this.innerIter = innerIter
+            this.owner = owner
+        }
+
+        @Override
+        void run() {
+            try {
+                def lines = new ArrayList<String>(BLOCK_SIZE)
+                while (!closed && innerIter.hasNext()) {
+                    lines.add(innerIter.next())
+                    if (lines.size() == BLOCK_SIZE) {
+                        submit(lines)
+                        lines = new ArrayList<String>(BLOCK_SIZE)
+                    }
+                }
+                if (!lines.empty) {
+                    submit(lines)
+                }
+                put(CompletableFuture.completedFuture(END))
+            } catch (Throwable e) {
+                def failed = new CompletableFuture<List<ParsedLine>>()
+                failed.completeExceptionally(e)
+                put(failed)
+            }
+        }
+
+        private void submit(List<String> lines) {
+            put(CompletableFuture.supplyAsync({
+                lines.collect { parser.parseLine(it) }
+            } as Supplier<List<ParsedLine>>, ExecUtil.sharedPool))
+        }
+
+        private void put(Future<List<ParsedLine>> block) {
+            while (!closed && !blocks.offer(block, 100, TimeUnit.MILLISECONDS)) {
+                if (owner.get() == null) {
+                    // iterator was abandoned
+                    closed = true
+                }
+            }
+        }
+    }
+
+    private boolean nextBlock() {
+        if (finished) {
+            return false
+        }
+
+        List<ParsedLine> block
+        try {
+            block = reader.blocks.take().get()
+        } catch (ExecutionException e) {
+            close()
+            throw e.cause instanceof RuntimeException ? (RuntimeException) e.cause : new RuntimeException(e.cause)
+        }
+
+        if (block.is(END)) {
+            finished = true
+            return false
+        }
+
+        currentBlock = block.iterator()
+        true
+    }
+
+    /**
+     * Stops reading the input, should be called if iteration is interrupted before the end of input.
+     */
+    void close() {
+        reader.closed = true
+        finished = true
+        reader.blocks.clear()
+    }
+
+    @Override
+    boolean hasNext() {
+        while (!currentBlock.hasNext()) {
+            if (!nextBlock()) {
+                return false
+            }
+        }
+        true
+    }
+
+    @Override
+    Clonotype next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException()
+        }
+        try {
+            parser.account(currentBlock.next())
+        } catch (RuntimeException e) {
+            close()
+            throw e
+        }
+    }
+}
@@ -35,7 +35,7 @@ import com.antigenomics.vdjtools.sample.Sample
 
 import static com.antigenomics.vdjtools.misc.CommonUtil.*
 
-class RtcrParser extends ClonotypeStreamParser {
+class RtcrParser extends ClonotypeLineParser {
     /**
      * {@inheritDoc}
      */
@@ -43,23 +43,31 @@ class RtcrParser extends ClonotypeStreamParser {
         super(innerIter, Software.RTCR, sample)
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getFieldDelimiters() {
+        ": \t"
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     protected Clonotype innerParse(String clonotypeString) {
-        def splitString = clonotypeString.split("[: \t]")
-        def count = splitString[0].toInteger()
+        def fields = tokenize(clonotypeString, 8) // only first 7 columns are used
+        def count = fields.getInt(0)
         def freq = 0
 
-        def cdr3nt = splitString[4]
+        def cdr3nt = fields.get(4)
         def cdr3aa = toUnifiedCdr3Aa(translate(cdr3nt)) // have no idea how OOF are represented in RTCR, lets play safe
 
         String v, d, j
-        (v, j, d) = extractVDJ([splitString[2], splitString[3], "."])
+        (v, j, d) = extractVDJ([fields.get(2), fields.get(3), "."])
 
 
-        def segmPoints = [splitString[5].toInteger() - 1, -1, -1, splitString[6].toInteger() - 1] as int[]
+        def segmPoints = [fields.getInt(5) - 1, -1, -1, fields.getInt(6) - 1] as int[]
 
         boolean inFrame = inFrame(cdr3aa),
                 noStop = noStop(cdr3aa),
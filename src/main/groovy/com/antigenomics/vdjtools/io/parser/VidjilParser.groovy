@@ -30,18 +30,114 @@
 package com.antigenomics.vdjtools.io.parser
 
 import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.Clonotype
 import com.antigenomics.vdjtools.sample.Sample
-import com.antigenomics.vdjtools.sample.metadata.MetadataEntry
-import groovy.json.JsonSlurper
 
-class VidjilParser extends BaseParser {
+import static com.antigenomics.vdjtools.misc.CommonUtil.*
+
+/**
+ * A clonotype parser implementation that handles Vidjil JSON output.
+ * {@url http://www.vidjil.org/}
+ * The JSON is streamed with {@link VidjilReader} and clonotypes are created directly from clone entries,
+ * so only a single clone entry is kept in memory at a time. Vidjil files can hold several samples, the
+ * sample is selected with {@link #VIDJIL_SAMPLE_ID_COL} metadata column. Use {@link #demultiplex} to read
+ * all samples stored in a file in a single pass.
+ */
+class VidjilParser extends ClonotypeStreamParser {
     public static final String VIDJIL_SAMPLE_ID_COL = "vidjil_id"
 
+    private final VidjilReader vidjilReader
+    private final List<ParsedLine> parsedLines
+    private final int vidjilIndex
+    private Map<String, Object> nextClone = null
+    private boolean nextCloneRead = false
+
     /**
-     * {@inheritDoc}
+     * Creates a parser that streams clones for a given sample from Vidjil JSON.
+     * @param reader reader providing Vidjil JSON
+     * @param sample a blank sample to fill up with clonotypes
+     */
+    protected VidjilParser(Reader reader, Sample sample) {
+        super(Software.Vidjil, sample)
+        this.vidjilReader = new VidjilReader(reader)
+        this.parsedLines = null
+        this.vidjilIndex = getVidjilIndex(sample)
+    }
+
+    /**
+     * INTERNAL creates a parser over clones that were already read by {@link #demultiplex}.
+     * @param parsedLines checked clones for a given sample
+     * @param sample a blank sample to fill up with clonotypes
+     */
+    private VidjilParser(List<ParsedLine> parsedLines, Sample sample) {
+        super(Software.Vidjil, sample)
+        this.vidjilReader = null
+        this.parsedLines = parsedLines
+        this.vidjilIndex = getVidjilIndex(sample)
+    }
+
+    /**
+     * Reads a multi-sample Vidjil JSON in a single pass, creating a parser for each of the specified samples.
+     * Samples are matched to Vidjil sample indices using {@link #VIDJIL_SAMPLE_ID_COL} metadata column.
+     * Memory usage is proportional to the number of clones times the number of samples rather than to file size.
+     * @param reader reader providing Vidjil JSON
+     * @param samples a list of blank samples to fill up with clonotypes
+     * @return a list of parsers, one for each sample, in the same order as samples
      */
-    protected VidjilParser(Iterator<String> innerIter, Sample sample) {
-        super(jsonToTabular(innerIter, sample), Software.Vidjil, sample)
+    public static List<VidjilParser> demultiplex(Reader reader, List<Sample> samples) {
+        def vidjilReader = new VidjilReader(reader)
+        def parsers = samples.collect { new VidjilParser(new ArrayList<ParsedLine>(), it) }
+
+        Map<String, Object> clone
+        while ((clone = vidjilReader.nextClone()) != null) {
+            if (!hasJunction(clone)) {
+                continue
+            }
+
+            def cloneString = describe(clone)
+            ParsedLine zeroCountLine = null
+
+            parsers.each { parser ->
+                def reads = getReads(clone, parser.vidjilIndex)
+
+                if (reads == 0 && zeroCountLine) {
+                    // bad fields do not depend on the sample, except for the count
+                    parser.parsedLines.add(zeroCountLine)
+                } else {
+                    def parsedLine = parser.check(cloneString, parser.toClonotype(clone, cloneString))
+                    parser.parsedLines.add(parsedLine)
+                    if (reads == 0) {
+                        zeroCountLine = parsedLine
+                    }
+                }
+            }
+        }
+
+        parsers
+    }
+
+    private static int getVidjilIndex(Sample sample) {
+        def entry = sample.sampleMetadata ? sample.sampleMetadata[VIDJIL_SAMPLE_ID_COL] : null
+        entry ? entry.value.toInteger() : 0
+    }
+
+    private static boolean hasJunction(Map<String, Object> clone) {
+        def seg = clone.seg
+        seg instanceof Map && seg.junction instanceof Map
+    }
+
+    private static String describe(Map<String, Object> clone) {
+        (clone.name ?: clone.id).toString()
+    }
+
+    private static Long getReads(Map<String, Object> clone, int vidjilIndex) {
+        try {
+            def reads = clone.reads
+            reads instanceof List && vidjilIndex < reads.size() ? (Long) reads[vidjilIndex] : null
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to parse clone ${describe(clone)} " +
+                    "for $Software.Vidjil input type: ${e.message}", e)
+        }
     }
 
     /* Only used fields shown here
@@ -84,46 +180,92 @@ class VidjilParser extends BaseParser {
     ...
      */
 
-    private static Iterator<String> jsonToTabular(Iterator<String> innerIter, Sample sample) {
-        def jsonSb = new StringBuilder()
+    /**
+     * INTERNAL creates a clonotype from Vidjil clone entry.
+     * @param clone clone entry
+     * @param cloneString clone description used for error reporting
+     * @return clonotype or {@code null} if clone entry is malformed
+     */
+    private Clonotype toClonotype(Map<String, Object> clone, String cloneString) {
+        try {
+            Map seg = (Map) clone.seg, junction = (Map) seg.junction
+
+            def count = getReads(clone, vidjilIndex)
+            def sequence = clone.sequence
+            if (count == null || !(sequence instanceof String) ||
+                    !(junction.start instanceof Long) || !(junction.stop instanceof Long)) {
+                return null
+            }
+
+            int start = (Long) junction.start, stop = (Long) junction.stop
+            if (start < 1 || stop > sequence.length() || start - 1 > stop) {
+                return null
+            }
 
-        while (innerIter.hasNext()) {
-            jsonSb.append(innerIter.next()).append("\n")
+            def cdr3nt = sequence.substring(start - 1, stop)
+            def cdr3aa = junction.aa ? junction.aa.toString() : translate(cdr3nt)
+            cdr3aa = toUnifiedCdr3Aa(cdr3aa)
+
+            String v, d, j
+            (v, d, j) = extractVDJ([seg."5" ?: PLACEHOLDER, seg."4" ?: PLACEHOLDER, seg."3" ?: PLACEHOLDER]*.toString())
+
+            def segmPoints = [seg."5end" instanceof Long ? (int) (Long) seg."5end" - start : -1,
+                              seg."4start" ? (int) (Long) seg."4start" - start : -1,
+                              seg."4end" ? (int) (Long) seg."4end" - start : -1,
+                              seg."3start" instanceof Long ? (int) (Long) seg."3start" - start : -1] as int[]
+
+            new Clonotype(sample, count.intValue(), 0,
+                    segmPoints, v, d, j,
+                    cdr3nt, cdr3aa,
+                    inFrame(cdr3aa), noStop(cdr3aa), true)
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to parse clone $cloneString " +
+                    "for $software input type: ${e.message}", e)
         }
+    }
 
-        def jsonClones = new JsonSlurper().parseText(jsonSb.toString()).clones
-
-        def tabulatedOutput = new ArrayList<String>(jsonClones.size())
-
-        def sampleId = (sample.sampleMetadata[VIDJIL_SAMPLE_ID_COL] ?:
-                new MetadataEntry(null, null, null, "0")).value.toInteger()
-
-        jsonClones.each { cloneObj ->
-            def segmentationInfo = cloneObj.seg,
-                junctionInfo = segmentationInfo.junction
-
-            if (segmentationInfo && junctionInfo) {
-                tabulatedOutput << [
-                        cloneObj.reads[sampleId],                                                     // count
-                        0,                                                                            // freq
-                        cloneObj.sequence[(junctionInfo.start - 1)..<junctionInfo.stop],              // CDR3nt
-                        junctionInfo.aa,                                                              // CDR3aa
-                        segmentationInfo."5",                                                         // V
-                        segmentationInfo."4" ?: ".",                                                  // D
-                        segmentationInfo."3",                                                         // J
-                        segmentationInfo."5end" - junctionInfo.start,                                 // Vend
-                        (segmentationInfo."4start" ?: (junctionInfo.start - 1)) - junctionInfo.start, // Dstart
-                        (segmentationInfo."4end" ?: (junctionInfo.start - 1)) - junctionInfo.start,   // Dend
-                        segmentationInfo."3start" - junctionInfo.start                                // Jstart
-                ].join("\t")
+    private Map<String, Object> peekClone() {
+        if (!nextCloneRead) {
+            Map<String, Object> clone
+            try {
+                while ((clone = vidjilReader.nextClone()) != null && !hasJunction(clone)) {
+                    // skip clones without junction
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to parse $software input: ${e.message}", e)
             }
+            nextClone = clone
+            nextCloneRead = true
+        }
+        nextClone
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Clonotype> iterator() {
+        if (parsedLines != null) {
+            def parsedLineIterator = parsedLines.iterator()
+            return [hasNext: {
+                parsedLineIterator.hasNext()
+            }, next        : {
+                account(parsedLineIterator.next())
+            }] as Iterator
         }
 
-        tabulatedOutput.iterator()
+        [hasNext: {
+            peekClone() != null
+        }, next : {
+            def clone = peekClone()
+            nextCloneRead = false
+            def cloneString = describe(clone)
+            account(check(cloneString, toClonotype(clone, cloneString)))
+        }] as Iterator
     }
 
     @Override
     String getAnnotationHeader() {
         null
     }
-}
\ No newline at end of file
+}
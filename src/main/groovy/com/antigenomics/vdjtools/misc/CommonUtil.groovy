@@ -29,8 +29,9 @@
 
 package com.antigenomics.vdjtools.misc
 
+import com.antigenomics.vdjtools.io.gzip.BlockGzipInputStream
+
 import java.util.regex.Pattern
-import java.util.zip.GZIPInputStream
 
 /**
  * Class containing commonly used static functions for sequence manipulation and I/O
@@ -332,10 +333,11 @@ public class CommonUtil {
     /**
      * Gets file input stream for the specified file
      * @param fileName path to file, will assume gzipped file if ends with ".gz"
-     * @return file input stream, or corresponding wrapper for gzipped files
+     * @return file input stream, or corresponding wrapper for gzipped files, block gzip files
+     *         will be decompressed using several threads
      */
     public static InputStream getFileStream(String fileName) {
-        fileName.endsWith(".gz") ? new GZIPInputStream(new FileInputStream(fileName)) : new FileInputStream(fileName)
+        fileName.endsWith(".gz") ? new BlockGzipInputStream(new FileInputStream(fileName)) : new FileInputStream(fileName)
     }
 
     public static String getSubSequence(String sequence, int from, int to) {
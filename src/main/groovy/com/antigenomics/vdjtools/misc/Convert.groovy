@@ -41,6 +41,8 @@ cli.m(longOpt: "metadata", argName: "filename", args: 1,
         "Metadata file. First and second columns should contain file name and sample id. " +
                 "Header is mandatory and will be used to assign column names for metadata.")
 cli.c(longOpt: "compress", "Compress output sample files.")
+cli._(longOpt: "binary", "Write output samples in binary columnar format, which is loaded much faster " +
+        "than plain-text. Cannot be used together with -c.")
 
 def opt = cli.parse(args)
 
@@ -69,10 +71,16 @@ if (metadataFileName ? opt.arguments().size() != 1 : opt.arguments().size() < 2)
 
 def software = Software.byName(opt.S),
     compress = (boolean) opt.c,
+    binary = (boolean) opt.'binary',
     outputPrefix = opt.arguments()[-1]
 
 def scriptName = getClass().canonicalName.split("\\.")[-1]
 
+if (compress && binary) {
+    println "[ERROR] Binary output cannot be compressed, specify either -c or --binary"
+    System.exit(2)
+}
+
 //
 // Batch load all samples (lazy)
 //
@@ -89,7 +97,7 @@ println "[${new Date()} $scriptName] ${sampleCollection.size()} sample(s) loaded
 // Iterate over samples & write them in new format
 //
 
-def sampleWriter = new SampleWriter(compress)
+def sampleWriter = new SampleWriter(compress, false, binary)
 
 sampleCollection.eachWithIndex { sample, ind ->
     println "[${new Date()} $scriptName] Processed ${ind + 1} sample(s).. Writing output"
@@ -98,6 +106,6 @@ sampleCollection.eachWithIndex { sample, ind ->
     sampleWriter.writeConventional(sample, outputPrefix)
 }
 
-sampleCollection.metadataTable.storeWithOutput(outputPrefix, compress, "conv:$software")
+sampleCollection.metadataTable.storeWithOutput(outputPrefix, compress, binary, "conv:$software")
 
 println "[${new Date()} $scriptName] Finished"
\ No newline at end of file
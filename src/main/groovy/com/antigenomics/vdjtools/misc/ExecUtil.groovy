@@ -33,11 +33,17 @@ package com.antigenomics.vdjtools.misc
 import com.antigenomics.vdjtools.basic.SegmentUsage
 import com.antigenomics.vdjtools.overlap.Overlap
 import com.antigenomics.vdjtools.overlap.OverlapEvaluator
+import com.antigenomics.vdjtools.sample.ClonotypeCollapser
 import com.antigenomics.vdjtools.sample.Sample
+import groovyx.gpars.GParsPool
 import org.apache.commons.io.FilenameUtils
 
 import java.nio.file.FileSystems
 import java.nio.file.Path
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.function.Consumer
 
 import static java.io.File.separator
 
@@ -49,6 +55,37 @@ public class ExecUtil {
     public static final String MY_PATH = new File(ExecUtil.class.protectionDomain.codeSource.location.path).parent
     public static final int THREADS = Runtime.runtime.availableProcessors()
 
+    private static ExecutorService sharedPool = null
+
+    /**
+     * Gets a process-wide pool of {@link #THREADS} daemon threads for streaming routines that cannot be
+     * scoped with {@code GParsPool.withPool}, e.g. parsing or compressing blocks while a file is being read.
+     * Tasks submitted to this pool should not wait for other tasks of this pool
+     * @return shared executor service
+     */
+    public static synchronized ExecutorService getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = Executors.newFixedThreadPool(THREADS, { Runnable runnable ->
+                def thread = new Thread(runnable, "vdjtools-worker")
+                thread.daemon = true
+                thread
+            } as ThreadFactory)
+        }
+        sharedPool
+    }
+
+    /**
+     * Runs a given action for each item in parallel with {@code GParsPool.withPool} of {@link #THREADS} threads,
+     * a shortcut for Java classes
+     * @param items items to process
+     * @param action action to run for each item
+     */
+    public static <T> void eachParallel(Collection<T> items, Consumer<T> action) {
+        GParsPool.withPool THREADS, {
+            items.eachParallel { T item -> action.accept(item) }
+        }
+    }
+
     /**
      * Gets the memory footprint of Java Runtime Environment
      * @return a string containing memory usage summary
@@ -231,5 +268,6 @@ public class ExecUtil {
         SegmentUsage.VERBOSE = false
         OverlapEvaluator.VERBOSE = false
         Overlap.VERBOSE = false
+        ClonotypeCollapser.VERBOSE = false
     }
 }
@@ -34,6 +34,7 @@ import com.antigenomics.vdjtools.misc.Software
 import com.antigenomics.vdjtools.io.SampleWriter
 import com.antigenomics.vdjtools.join.JointSample
 import com.antigenomics.vdjtools.join.OccurrenceJoinFilter
+import com.antigenomics.vdjtools.misc.SequencePool
 import com.antigenomics.vdjtools.overlap.OverlapType
 import com.antigenomics.vdjtools.sample.Sample
 import com.antigenomics.vdjtools.sample.SampleCollection
@@ -119,6 +120,9 @@ if (!intersectionType) {
 
 println "[${new Date()} $scriptName] Reading in all samples"
 
+// all samples are kept in memory, let shared clonotypes hold the same sequence objects
+SequencePool.ENABLED = true
+
 def sampleCollection = metadataFileName ?
         new SampleCollection((String) metadataFileName, Software.VDJtools, true, false) :
         new SampleCollection(opt.arguments()[0..-2], Software.VDJtools, true, false)
@@ -33,6 +33,9 @@ import com.antigenomics.vdjtools.misc.Software
 import com.antigenomics.vdjtools.basic.SegmentUsage
 import com.antigenomics.vdjtools.sample.SampleCollection
 
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
 import static com.antigenomics.vdjtools.misc.ExecUtil.formOutputPath
 import static com.antigenomics.vdjtools.misc.ExecUtil.toPlotPath
 import static com.antigenomics.vdjtools.misc.RUtil.execute
@@ -44,11 +47,28 @@ cli.h("display help message")
 cli.m(longOpt: "metadata", argName: "filename", args: 1,
         "Metadata file. First and second columns should contain file name and sample id. " +
                 "Header is mandatory and will be used to assign column names for metadata.")
-cli._(longOpt: "low-mem", "Will process all sample pairs sequentially, avoiding" +
-        " loading all of them into memory. Slower but memory-efficient mode.")
+cli._(longOpt: "low-mem", "Will process sample pairs in blocks of samples that fit into a fraction of heap, " +
+        "avoiding loading all of them into memory. Slower but memory-efficient mode.")
 cli.i(longOpt: "intersect-type", argName: "string", args: 1,
         "Intersection rule to apply. Allowed values: $OverlapType.allowedNames. " +
                 "Will use '$I_TYPE_DEFAULT' by default.")
+cli._(longOpt: "sketch", "Will estimate overlap from MinHash and HyperLogLog sketches of samples instead of " +
+        "exact overlap. Outputs D and Jaccard estimates together with their 95% error bounds. Sketches are stored " +
+        "in the output directory and are re-used.")
+cli._(longOpt: "sketch-size", argName: "int", args: 1,
+        "[sketch] Number of hashes kept in MinHash sketches [default=$OverlapSketch.DEFAULT_SIZE]")
+cli._(longOpt: "hll-precision", argName: "int", args: 1,
+        "[sketch] Log2 of the number of HyperLogLog registers [default=$OverlapSketch.DEFAULT_PRECISION]")
+cli._(longOpt: "update", argName: "filename", args: 1,
+        "Previous output (intersect.batch file) computed for a subset of samples. Will only compute overlap " +
+                "for pairs that include new samples and merge it with previous results. Sample key sets are " +
+                "stored in the output directory and are re-used, so that previously processed samples are not loaded.")
+cli._(longOpt: "binary", "Will also store each overlap metric as a binary N x N matrix next to the output file. " +
+        "Matrices can be memory-mapped and are used by ClusterSamples if present.")
+cli._(longOpt: "tile", argName: "i/N", args: 1,
+        "Will only compute the i-th of N parts of all sample pairs, e.g. as a separate cluster job, and store " +
+                "partial results to a tile file. Samples are loaded in blocks that fit into a fraction of heap. " +
+                "Partial results of all N tiles should be assembled with MergePairwiseDistances.")
 cli._(longOpt: "plot-type", argName: "pdf|png", args: 1, "Plot output format [default=pdf]")
 cli.p(longOpt: "plot", "[plotting] Turns plotting on.")
 
@@ -80,7 +100,13 @@ if (metadataFileName ? opt.arguments().size() != 1 : opt.arguments().size() < 4)
 def outputPrefix = opt.arguments()[-1],
     lowMem = (boolean) opt.'low-mem',
     plot = (boolean) opt.p,
-    plotType = (opt.'plot-type' ?: "pdf").toString()
+    plotType = (opt.'plot-type' ?: "pdf").toString(),
+    sketch = (boolean) opt.'sketch',
+    sketchSize = (opt.'sketch-size' ?: OverlapSketch.DEFAULT_SIZE).toInteger(),
+    hllPrecision = (opt.'hll-precision' ?: OverlapSketch.DEFAULT_PRECISION).toInteger(),
+    previousFileName = (String) opt.'update',
+    binary = (boolean) opt.'binary',
+    tileSpec = (String) opt.'tile'
 
 def scriptName = getClass().canonicalName.split("\\.")[-1]
 
@@ -95,6 +121,46 @@ if (!intersectionType) {
     System.exit(2)
 }
 
+if (sketch && !OverlapSketch.supports(intersectionType)) {
+    println "[ERROR] Sketches are not supported for $intersectionType overlap type"
+    System.exit(2)
+}
+
+if (previousFileName) {
+    if (sketch) {
+        println "[ERROR] Updating previous results is not supported in sketch mode"
+        System.exit(2)
+    }
+    if (!new File(previousFileName).exists()) {
+        println "[ERROR] Previous results file $previousFileName doesn't exist"
+        System.exit(2)
+    }
+    if (!SampleKeySet.supports(intersectionType)) {
+        println "[ERROR] Updating previous results is not supported for $intersectionType overlap type"
+        System.exit(2)
+    }
+}
+
+if (binary && (sketch || previousFileName)) {
+    println "[ERROR] Binary output is only supported for exact overlap of all samples"
+    System.exit(2)
+}
+
+int tile = -1, numberOfTiles = 1
+if (tileSpec) {
+    def tileMatcher = tileSpec =~ /^(\d+)\/(\d+)$/
+    if (!tileMatcher.matches() ||
+            (numberOfTiles = tileMatcher.group(2).toInteger()) < 1 ||
+            (tile = tileMatcher.group(1).toInteger() - 1) < 0 || tile >= numberOfTiles) {
+        println "[ERROR] Bad tile specified ($tileSpec), should be i/N with 1 <= i <= N"
+        System.exit(2)
+    }
+    if (sketch || previousFileName || binary || plot) {
+        println "[ERROR] Tile mode can not be combined with sketch, update, binary or plotting options"
+        System.exit(2)
+    }
+}
+
 //
 // Batch load all samples
 //
@@ -102,7 +168,7 @@ if (!intersectionType) {
 println "[${new Date()} $scriptName] Reading samples"
 
 boolean store, lazy
-(store, lazy) = lowMem ? [false, true] : [true, false]
+(store, lazy) = (lowMem || sketch || previousFileName || tileSpec) ? [false, true] : [true, false]
 
 def sampleCollection = metadataFileName ?
         new SampleCollection((String) metadataFileName, Software.VDJtools, store, lazy) :
@@ -125,18 +191,67 @@ SegmentUsage.VERBOSE = false
 Overlap.VERBOSE = false
 OverlapEvaluator.VERBOSE = false
 
-def pairedIntersectionBatch = new PairwiseOverlap(sampleCollection, intersectionType)
+def outputFileName = formOutputPath(outputPrefix, "intersect", "batch", intersectionType.shortName)
 
-println "[${new Date()} $scriptName] Writing results"
+if (tileSpec) {
+    def tileBatch = new PairwiseOverlapTile(sampleCollection, intersectionType, tile, numberOfTiles)
 
-def outputFileName = formOutputPath(outputPrefix, "intersect", "batch", intersectionType.shortName)
+    outputFileName = formOutputPath(outputPrefix, "intersect", "batch", intersectionType.shortName,
+            "tile${tile + 1}of$numberOfTiles")
+
+    println "[${new Date()} $scriptName] Writing partial results to $outputFileName"
+
+    new File(outputFileName).withPrintWriter { pw ->
+        tileBatch.write(pw)
+    }
+} else if (sketch) {
+    def sketchBatch = new PairwiseSketchOverlap(sampleCollection, intersectionType,
+            sketchSize, hllPrecision, new File(outputFileName).absoluteFile.parent)
+
+    println "[${new Date()} $scriptName] Writing results"
+
+    new File(outputFileName).withPrintWriter { pw ->
+        pw.println(sketchBatch.header)
+        sketchBatch.write(pw)
+    }
+} else if (previousFileName) {
+    def incrementalBatch = new IncrementalPairwiseOverlap(sampleCollection, intersectionType, previousFileName,
+            new File(outputFileName).absoluteFile.parent)
+
+    println "[${new Date()} $scriptName] Writing results, ${incrementalBatch.numberOfNewSamples} new samples"
+
+    // previous results can be overwritten
+    def tmpFile = new File(outputFileName + ".tmp")
+    tmpFile.withPrintWriter { pw ->
+        incrementalBatch.write(pw)
+    }
+    Files.move(tmpFile.toPath(), new File(outputFileName).toPath(), StandardCopyOption.REPLACE_EXISTING)
+} else {
+    def pairedIntersectionBatch = new PairwiseOverlap(sampleCollection, intersectionType, false, lowMem)
+
+    println "[${new Date()} $scriptName] Writing results"
+
+    def matrices = []
+    if (binary) {
+        def sampleIds = sampleCollection.metadataTable.collect { it.sampleId },
+            metadata = sampleCollection.metadataTable.collect { it.toString() }
+        matrices = OverlapMetric.values().collect {
+            OverlapMatrix.create(OverlapMatrix.getMatrixFileName(outputFileName, it), it,
+                    sampleCollection.metadataTable.columnHeader, sampleIds, metadata)
+        }
+    }
+
+    new File(outputFileName).withPrintWriter { pw ->
+        pw.println(pairedIntersectionBatch.header)
+        pairedIntersectionBatch.write(pw, matrices)
+    }
 
-new File(outputFileName).withPrintWriter { pw ->
-    pw.println(pairedIntersectionBatch.header)
-    pw.println(pairedIntersectionBatch.toString())
+    matrices.each { it.close() }
 }
 
-if (plot) {
+if (plot && sketch) {
+    println "[${new Date()} $scriptName] Plotting is not available for sketch estimates"
+} else if (plot) {
     println "[${new Date()} $scriptName] Plotting"
     execute("pairwise_distance_plot.r", outputFileName, toPlotPath(outputFileName, plotType))
 }
@@ -93,6 +93,53 @@ if (!new File(inputFileName).exists()) {
     System.exit(2)
 }
 
+def measure = OverlapMetric.getByShortName(opt.e ?: MEASURE_DEFAULT)
+
+if (!measure) {
+    println "[ERROR] Bad distance measure specified (${opt.e}). " +
+            "Allowed values are: $OverlapMetric.allowedNames"
+    System.exit(2)
+}
+
+// Use binary matrix if it was stored along with the table, the selected measure is then passed to clustering
+// as a square matrix together with a table of sample metadata
+
+def matrixFile = new File(OverlapMatrix.getMatrixFileName(inputFileName, measure)), matrixFileName = null
+
+if (matrixFile.exists() && matrixFile.lastModified() >= new File(inputFileName).lastModified()) {
+    println "[${new Date()} $scriptName] Reading binary matrix $matrixFile"
+
+    def matrix = OverlapMatrix.open(matrixFile.absolutePath)
+
+    def metadataFile = File.createTempFile("cluster_samples", ".metadata.txt"),
+        squareFile = File.createTempFile("cluster_samples", ".matrix.txt")
+    metadataFile.deleteOnExit()
+    squareFile.deleteOnExit()
+
+    metadataFile.withPrintWriter { pw ->
+        pw.println(MetadataTable.SAMPLE_ID_COLUMN + "\t" + matrix.metadataHeader)
+        for (int i = 0; i < matrix.size(); i++) {
+            pw.println(matrix.sampleIds[i] + "\t" + matrix.getMetadata(i))
+        }
+    }
+
+    squareFile.withPrintWriter { pw ->
+        pw.println(([MetadataTable.SAMPLE_ID_COLUMN] + matrix.sampleIds).join("\t"))
+        for (int i = 0; i < matrix.size(); i++) {
+            pw.print(matrix.sampleIds[i])
+            for (int j = 0; j < matrix.size(); j++) {
+                pw.print("\t" + asNumeric(matrix.getAt(i, j)))
+            }
+            pw.println()
+        }
+    }
+
+    matrix.close()
+
+    inputFileName = metadataFile.absolutePath
+    matrixFileName = squareFile.absolutePath
+}
+
 intersectionType = intersectionType.shortName
 
 def outputPrefix = opt.arguments().size() > 1 ? opt.arguments()[1] : inputPrefix,
@@ -120,17 +167,19 @@ new File(inputFileName).withReader { reader ->
     header = reader.readLine().split("\t").collect { it.toUpperCase() }
 }
 
-// Match column indices
+// Match column indices, metadata table has a single column for each of them
+
+def prefix1 = matrixFileName ? "" : "1_", prefix2 = matrixFileName ? "" : "2_"
 
-def idCol1Ind = (header.findIndexOf { it.contains("1_$sampleId") } + 1).toString(),
-    idCol2Ind = (header.findIndexOf { it.contains("2_$sampleId") } + 1).toString(),
+def idCol1Ind = (header.findIndexOf { it.contains("$prefix1$sampleId") } + 1).toString(),
+    idCol2Ind = (header.findIndexOf { it.contains("$prefix2$sampleId") } + 1).toString(),
     measureColInd = (header.findIndexOf { it.equals(measureName) } + 1).toString(),
-    factorCol1Ind = ((factorName ? header.findIndexOf { it.contains("1_$factorName") } : -1) + 1).toString(),
-    factorCol2Ind = ((factorName ? header.findIndexOf { it.contains("2_$factorName") } : -1) + 1).toString(),
-    labelCol1Ind = (header.findIndexOf { it.contains("1_$labelName") } + 1).toString(),
-    labelCol2Ind = (header.findIndexOf { it.contains("2_$labelName") } + 1).toString()
+    factorCol1Ind = ((factorName ? header.findIndexOf { it.contains("$prefix1$factorName") } : -1) + 1).toString(),
+    factorCol2Ind = ((factorName ? header.findIndexOf { it.contains("$prefix2$factorName") } : -1) + 1).toString(),
+    labelCol1Ind = (header.findIndexOf { it.contains("$prefix1$labelName") } + 1).toString(),
+    labelCol2Ind = (header.findIndexOf { it.contains("$prefix2$labelName") } + 1).toString()
 
-if (measureColInd.toInteger() < 1) {
+if (!matrixFileName && measureColInd.toInteger() < 1) {
     println "[ERROR] Measure column ($measureName) is absent. Terminating"
     System.exit(2)
 }
@@ -174,7 +223,8 @@ execute("cluster_samples.r",
         labelCol1Ind, labelCol2Ind,
         factorNameOrig ?: NA, logical(numFactor),
         hcPlotFileName, mdsPlotFileName,
-        logical(plot), hcFileName, mdsFileName
+        logical(plot), hcFileName, mdsFileName,
+        matrixFileName ?: NA
 )
 
 println "[${new Date()} $scriptName] Finished"
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.sample.SampleCollection
+
+/**
+ * Updates all-vs-all overlap of a sample collection, as computed by {@link PairwiseOverlap}, when new samples
+ * are added to it. Overlap is only computed for pairs that include samples absent from previous results,
+ * while rows for pairs of previously processed samples are copied from the previous output table.
+ * Samples are represented by their key sets, see {@link SampleKeySet}, that are stored to a given directory,
+ * so that previously processed samples are not re-loaded. Missing key sets are computed and stored.
+ * Previously processed samples should keep their relative order in the collection.
+ */
+public class IncrementalPairwiseOverlap {
+    private final SampleCollection sampleCollection
+    private final OverlapType intersectionType
+    private final Collection<OverlapMetric> intersectMetrics
+    private final String previousFileName, keySetDir, header
+    private final boolean[] newSample
+    private final int[] indexPosition
+    private final int numberOfSamples, numberOfNewSamples
+    private final InvertedOverlapIndex index
+    private final Map<OverlapMetric, double[][]> divergences = new EnumMap<>(OverlapMetric)
+
+    /**
+     * Computes overlap for all pairs of samples that include new samples, i.e. samples that are absent
+     * from previous results
+     * @param sampleCollection a list of samples, including previously processed ones
+     * @param intersectionType clonotype matching rule, should be the same as for previous results
+     * @param previousFileName previous output table, as written by {@link PairwiseOverlap}
+     * @param keySetDir directory to load key sets from and store them to, key sets are not stored if {@code null}
+     * @param intersectMetrics a list of overlap metrics, should be the same as for previous results
+     */
+    public IncrementalPairwiseOverlap(SampleCollection sampleCollection,
+                                      OverlapType intersectionType,
+                                      String previousFileName,
+                                      String keySetDir,
+                                      Collection<OverlapMetric> intersectMetrics = OverlapMetric.values().toList()) {
+        if (!SampleKeySet.supports(intersectionType))
+            throw new RuntimeException("Incremental overlap is not supported for $intersectionType overlap type")
+
+        this.sampleCollection = sampleCollection
+        this.intersectionType = intersectionType
+        this.previousFileName = previousFileName
+        this.keySetDir = keySetDir
+        this.intersectMetrics = intersectMetrics
+        this.header = PairwiseOverlap.getHeader(sampleCollection, intersectMetrics)
+        this.numberOfSamples = sampleCollection.size()
+
+        def previousIds = new HashSet<String>()
+        new File(previousFileName).withReader { reader ->
+            if (reader.readLine() != header)
+                throw new RuntimeException("Header of $previousFileName doesn't match current one, " +
+                        "previous results should be computed for the same overlap metrics and metadata columns")
+
+            String line
+            while ((line = reader.readLine()) != null) {
+                if (line) {
+                    def ids = line.split("\t", 3)
+                    previousIds.add(ids[0])
+                    previousIds.add(ids[1])
+                }
+            }
+        }
+
+        // new samples are indexed first, so that only their overlaps are computed
+        this.newSample = (0..<numberOfSamples).collect { !previousIds.contains(getSampleId(it)) } as boolean[]
+        def newSamples = (0..<numberOfSamples).findAll { newSample[it] }
+        def order = newSamples + (0..<numberOfSamples).findAll { !newSample[it] }
+        this.numberOfNewSamples = newSamples.size()
+        this.indexPosition = new int[numberOfSamples]
+        order.eachWithIndex { int i, int position -> indexPosition[i] = position }
+
+        ExecUtil.report(this, "Started incremental overlap for $numberOfNewSamples new and " +
+                "${numberOfSamples - numberOfNewSamples} previously processed samples")
+
+        this.index = new InvertedOverlapIndex(intersectionType, intersectMetrics.contains(OverlapMetric.CorrelationS))
+        def profiles = intersectMetrics.findAll { !InvertedOverlapIndex.isJointMetric(it) }.collect {
+            new SampleProfileMatrix(it, intersectionType)
+        }
+
+        order.each { int i ->
+            def keySet = getKeySet(i)
+            // clonotypes of previously processed samples are only indexed if found in new samples
+            index.add(keySet, sampleCollection.metadataTable.getRow(i), newSample[i])
+            profiles.each { it.add(keySet) }
+            ExecUtil.report(this, "Indexed ${index.numberOfSamples} of $numberOfSamples samples. " +
+                    ExecUtil.memoryFootprint())
+        }
+
+        index.sweep(numberOfNewSamples)
+        intersectMetrics.findAll { !InvertedOverlapIndex.isJointMetric(it) }.eachWithIndex { OverlapMetric metric, int k ->
+            divergences.put(metric, profiles[k].compute(numberOfNewSamples))
+        }
+
+        ExecUtil.report(this, "Accumulated overlap statistics for all pairs with new samples")
+    }
+
+    /**
+     * INTERNAL loads a stored key set of a given sample, or computes and stores it
+     * @param i sample index
+     * @return sample key set
+     */
+    private SampleKeySet getKeySet(int i) {
+        def fileName = sampleCollection.getFileName(i)
+        def keySet = fileName && keySetDir ? SampleKeySet.load(fileName, keySetDir, intersectionType) : null
+
+        if (!keySet) {
+            keySet = SampleKeySet.fromSample(sampleCollection[i], intersectionType)
+            if (fileName && keySetDir) {
+                try {
+                    keySet.store(fileName, keySetDir)
+                } catch (IOException e) {
+                    ExecUtil.report(this, "WARNING: Failed to store key set for $fileName (${e.message})")
+                }
+            }
+        }
+
+        keySet
+    }
+
+    private String getSampleId(int i) {
+        sampleCollection.metadataTable.getRow(i).sampleId
+    }
+
+    /**
+     * Tells if a given sample is absent from previous results
+     * @param i sample index
+     * @return {@code true} if overlap with this sample is computed
+     */
+    public boolean isNew(int i) {
+        newSample[i]
+    }
+
+    /**
+     * Gets the number of samples absent from previous results
+     */
+    public int getNumberOfNewSamples() {
+        numberOfNewSamples
+    }
+
+    /**
+     * Gets a paired overlap for a given pair of samples, at least one of them should be new
+     * @param i first sample index
+     * @param j second sample index
+     * @return {@code Overlap} for samples ordered as {@code [i , j]}
+     * @throws IllegalArgumentException if both samples were processed previously
+     */
+    public Overlap getAt(int i, int j) {
+        if (!newSample[i] && !newSample[j])
+            throw new IllegalArgumentException("Overlap of previously processed samples is not computed")
+
+        int position1 = indexPosition[i], position2 = indexPosition[j]
+        def sampleMetricValues = new HashMap<OverlapMetric, Double>()
+        divergences.each { OverlapMetric metric, double[][] matrix ->
+            sampleMetricValues.put(metric, position1 < numberOfNewSamples ?
+                    matrix[position1][position2] : matrix[position2][position1])
+        }
+
+        Overlap.fromIndex(index, position1, position2, intersectMetrics, sampleMetricValues)
+    }
+
+    /**
+     * Header string, used for tabular output
+     */
+    public String getHeader() {
+        header
+    }
+
+    /**
+     * Writes the updated table in the same layout as {@link PairwiseOverlap}, including header.
+     * Rows of previously processed sample pairs are read from previous results, rows for removed samples are omitted.
+     * @param pw print writer, should not point to previous output table
+     */
+    public void write(PrintWriter pw) {
+        def sampleIds = (0..<numberOfSamples).collect { getSampleId(it) } as Set<String>
+
+        pw.println(header)
+
+        new File(previousFileName).withReader { reader ->
+            reader.readLine()
+
+            for (int i = 0; i < numberOfSamples - 1; i++) {
+                for (int j = i + 1; j < numberOfSamples; j++) {
+                    if (newSample[i] || newSample[j]) {
+                        pw.println(getAt(i, j).toString())
+                        continue
+                    }
+
+                    String line, id1 = getSampleId(i), id2 = getSampleId(j)
+                    String[] ids = null
+                    while ((line = reader.readLine()) != null) {
+                        ids = line.split("\t", 3)
+                        if (line && sampleIds.contains(ids[0]) && sampleIds.contains(ids[1]))
+                            break
+                    }
+
+                    if (line == null || ids[0] != id1 || ids[1] != id2)
+                        throw new RuntimeException("Overlap of $id1 and $id2 is not found in $previousFileName " +
+                                "at expected position, previously processed samples should keep their order")
+
+                    pw.println(line)
+                }
+            }
+        }
+    }
+}
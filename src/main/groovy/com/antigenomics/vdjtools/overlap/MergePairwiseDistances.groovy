@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import static com.antigenomics.vdjtools.misc.ExecUtil.formOutputPath
+import static com.antigenomics.vdjtools.misc.ExecUtil.toPlotPath
+import static com.antigenomics.vdjtools.misc.RUtil.execute
+
+def I_TYPE_DEFAULT = "aa"
+def cli = new CliBuilder(usage: "MergePairwiseDistances [options] tile1 tile2 ... output_prefix\n" +
+        "NOTE: tiles are partial results of CalcPairwiseDistances executions with --tile option, " +
+        "all tiles should be provided.")
+cli.h("display help message")
+cli.i(longOpt: "intersect-type", argName: "string", args: 1,
+        "Intersection rule, as used in CalcPairwiseDistances. " +
+                "Allowed values: $OverlapType.allowedNames. " +
+                "Will use '$I_TYPE_DEFAULT' by default.")
+cli._(longOpt: "plot-type", argName: "pdf|png", args: 1, "Plot output format [default=pdf]")
+cli.p(longOpt: "plot", "[plotting] Turns plotting on.")
+
+def opt = cli.parse(args)
+
+if (opt == null)
+    System.exit(2)
+
+if (opt.h || opt.arguments().size() < 2) {
+    cli.usage()
+    System.exit(2)
+}
+
+def scriptName = getClass().canonicalName.split("\\.")[-1]
+
+def iName = opt.i ?: I_TYPE_DEFAULT
+def intersectionType = OverlapType.getByShortName(iName)
+
+if (!intersectionType) {
+    println "[ERROR] Bad overlap type specified ($iName). " +
+            "Allowed values are: $OverlapType.allowedNames"
+    System.exit(2)
+}
+
+def tileFileNames = opt.arguments()[0..-2],
+    outputPrefix = opt.arguments()[-1],
+    plot = (boolean) opt.p,
+    plotType = (opt.'plot-type' ?: "pdf").toString()
+
+tileFileNames.each {
+    if (!new File(it).exists()) {
+        println "[ERROR] Tile file $it not found"
+        System.exit(2)
+    }
+}
+
+def outputFileName = formOutputPath(outputPrefix, "intersect", "batch", intersectionType.shortName)
+
+println "[${new Date()} $scriptName] Merging ${tileFileNames.size()} tiles"
+
+new File(outputFileName).withPrintWriter { pw ->
+    PairwiseOverlapTile.merge(tileFileNames, pw)
+}
+
+if (plot) {
+    println "[${new Date()} $scriptName] Plotting"
+    execute("pairwise_distance_plot.r", outputFileName, toPlotPath(outputFileName, plotType))
+}
+
+println "[${new Date()} $scriptName] Finished"
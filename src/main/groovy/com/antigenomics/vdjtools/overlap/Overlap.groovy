@@ -34,6 +34,7 @@ import com.antigenomics.vdjtools.join.JointSample
 import com.antigenomics.vdjtools.sample.Sample
 import com.antigenomics.vdjtools.sample.SamplePair
 import com.antigenomics.vdjtools.sample.metadata.MetadataTable
+import com.antigenomics.vdjtools.sample.metadata.SampleMetadata
 import com.antigenomics.vdjtools.misc.ExecUtil
 
 /**
@@ -52,8 +53,8 @@ public class Overlap {
     private final int div1, div2, div12, div21, count1, count2, count12, count21
     private final double freq1, freq2, freq12, freq21
     private final boolean store
-    private final String header1, header2,
-                         id1, id2, meta1, meta2
+    // metadata is shared with samples, output strings are formed on demand
+    private final SampleMetadata metadata1, metadata2
 
     /**
      * INTERNAL, just sets up all fields 
@@ -74,12 +75,8 @@ public class Overlap {
      * @param freq2
      * @param freq12
      * @param freq21
-     * @param header1
-     * @param header2
-     * @param id1
-     * @param id2
-     * @param meta1
-     * @param meta2
+     * @param metadata1
+     * @param metadata2
      * @param store
      */
     private Overlap(SamplePair samplePair, JointSample jointSample, OverlapEvaluator intersectionEvaluator,
@@ -87,7 +84,7 @@ public class Overlap {
                                int div1, int div2, int div12, int div21,
                                int count1, int count2, int count12, int count21,
                                double freq1, double freq2, double freq12, double freq21,
-                               String header1, String header2, String id1, String id2, String meta1, String meta2,
+                               SampleMetadata metadata1, SampleMetadata metadata2,
                                boolean store) {
         this.samplePair = samplePair
         this.jointSample = jointSample
@@ -106,12 +103,8 @@ public class Overlap {
         this.freq2 = freq2
         this.freq12 = freq12
         this.freq21 = freq21
-        this.header1 = header1
-        this.header2 = header2
-        this.id1 = id1
-        this.id2 = id2
-        this.meta1 = meta1
-        this.meta2 = meta2
+        this.metadata1 = metadata1
+        this.metadata2 = metadata2
         this.store = store
     }
 
@@ -165,7 +158,7 @@ public class Overlap {
         ExecUtil.report(this, "Intersecting samples #${samplePair.i} and ${samplePair.j}", VERBOSE)
         def jointSample = new JointSample(intersectionType, [samplePair[0], samplePair[1]] as Sample[])
         this.jointSample = store ? jointSample : null
-        def intersectionEvaluator = new OverlapEvaluator(jointSample)
+        def intersectionEvaluator = new OverlapEvaluator(jointSample, intersectMetrics)
         this.intersectionEvaluator = store ? intersectionEvaluator : null
         this.intersectMetrics = intersectMetrics
         this.intersectMetricCache = new HashMap<>()
@@ -187,12 +180,41 @@ public class Overlap {
         this.freq12 = jointSample.getIntersectionFreq(0, 1)
         this.freq21 = jointSample.getIntersectionFreq(1, 0)
 
-        this.header1 = samplePair[0].sampleMetadata.parent.columnHeader1
-        this.header2 = samplePair[0].sampleMetadata.parent.columnHeader2
-        this.id1 = samplePair[0].sampleMetadata.sampleId
-        this.id2 = samplePair[1].sampleMetadata.sampleId
-        this.meta1 = samplePair[0].sampleMetadata.toString()
-        this.meta2 = samplePair[1].sampleMetadata.toString()
+        this.metadata1 = samplePair[0].sampleMetadata
+        this.metadata2 = samplePair[1].sampleMetadata
+    }
+
+    /**
+     * Creates an overlap for a pair of samples from statistics accumulated by an inverted index,
+     * see {@link InvertedOverlapIndex}. Samples are not stored.
+     * @param index inverted index, should be swept
+     * @param i index of first sample
+     * @param j index of second sample
+     * @param intersectMetrics a list of overlap metrics that should be pre-computed
+     * @param sampleMetricValues pre-computed values of metrics that are not provided by the index
+     * @return overlap instance
+     */
+    public static Overlap fromIndex(InvertedOverlapIndex index, int i, int j,
+                                    Collection<OverlapMetric> intersectMetrics,
+                                    Map<OverlapMetric, Double> sampleMetricValues) {
+        def sample1 = index.getSummary(i), sample2 = index.getSummary(j)
+
+        def intersectMetricCache = new HashMap<OverlapMetric, Double>(sampleMetricValues)
+        intersectMetrics.each {
+            if (InvertedOverlapIndex.isJointMetric(it))
+                intersectMetricCache.put(it, index.computeMetric(it, i, j))
+        }
+
+        int div12 = index.getDiv12(i, j)
+
+        new Overlap(null, null, null, intersectMetrics, intersectMetricCache,
+                sample1.diversity, sample2.diversity, div12, div12,
+                (int) sample1.count, (int) sample2.count,
+                (int) index.getCount12(i, j), (int) index.getCount12(j, i),
+                sample1.freqAsInInput, sample2.freqAsInInput,
+                index.getFreq12(i, j), index.getFreq12(j, i),
+                sample1.sampleMetadata, sample2.sampleMetadata,
+                false)
     }
 
     /**
@@ -362,7 +384,7 @@ public class Overlap {
                 div2, div1, div21, div12,
                 count2, count1, count21, count12,
                 freq2, freq1, freq21, freq12,
-                header1, header2, id2, id1, meta2, meta1,
+                metadata2, metadata1,
                 store)
     }
 
@@ -372,7 +394,7 @@ public class Overlap {
     public String getHeader() {
         ["1_$MetadataTable.SAMPLE_ID_COLUMN", "2_$MetadataTable.SAMPLE_ID_COLUMN",
          OUTPUT_FIELDS.collect(), intersectMetrics.collect { it.shortName },
-         header1, header2].flatten().join("\t")
+         metadata1.parent.columnHeader1, metadata1.parent.columnHeader2].flatten().join("\t")
     }
 
     /**
@@ -390,8 +412,8 @@ public class Overlap {
      */
     @Override
     public String toString() {
-        [id1, id2,
+        [metadata1.sampleId, metadata2.sampleId,
          OUTPUT_FIELDS.collect { this."$it" }, intersectMetrics.collect { intersectMetricCache[it] },
-         meta1, meta2].flatten().join("\t")
+         metadata1.toString(), metadata2.toString()].flatten().join("\t")
     }
 }
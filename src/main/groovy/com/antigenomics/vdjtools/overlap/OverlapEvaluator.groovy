@@ -31,11 +31,12 @@ package com.antigenomics.vdjtools.overlap
 
 import com.antigenomics.vdjtools.basic.SegmentUsage
 import com.antigenomics.vdjtools.basic.Spectratype
+import com.antigenomics.vdjtools.join.JointClonotype
 import com.antigenomics.vdjtools.join.JointSample
 import com.antigenomics.vdjtools.sample.Sample
 import com.antigenomics.vdjtools.misc.ExecUtil
 import com.antigenomics.vdjtools.misc.MathUtil
-import org.apache.commons.math3.stat.correlation.PearsonsCorrelation
+import groovy.transform.CompileStatic
 import org.apache.commons.math3.stat.correlation.SpearmansCorrelation
 
 import static com.antigenomics.vdjtools.overlap.OverlapMetric.*
@@ -46,20 +47,62 @@ import static com.antigenomics.vdjtools.overlap.OverlapMetric.*
 class OverlapEvaluator {
     public static boolean VERBOSE = true
 
+    /**
+     * Metrics that are computed together in a single pass over joint clonotypes
+     */
+    private static final Set<OverlapMetric> FUSED_METRICS = EnumSet.of(Frequency2, Correlation, CorrelationS,
+            MorisitaHorn)
+
     private final JointSample jointSample
+    private final Sample[] samples
+    private final OverlapType overlapType
+    private final int numberOfSamples
+    private final boolean rankByDefault
     private SegmentUsage segmentUsageCache
     private final Spectratype[] spectratypeCache
-    private final Map<String, Double> metricCache = new HashMap<>()
+    // metric values indexed by metric ordinal and i * numberOfSamples + j
+    private final double[][] metricCache = new double[OverlapMetric.values().length][]
+    private final boolean[][] metricCached = new boolean[OverlapMetric.values().length][]
 
     /**
      * Sets up an instance that can compute overlap metrics for a pre-defined set of sample intersections
      * @param jointSample a result of overlap between sample pair(s)
      */
     public OverlapEvaluator(JointSample jointSample) {
+        this(jointSample, EnumSet.noneOf(OverlapMetric))
+    }
+
+    /**
+     * Sets up an instance that can compute overlap metrics for a pre-defined set of sample intersections.
+     * Metrics that require iterating over joint clonotypes are computed all at once, Spearman correlation
+     * is only computed in this single pass if it is listed among metrics that are going to be requested.
+     * @param jointSample a result of overlap between sample pair(s)
+     * @param metrics overlap metrics that are going to be requested
+     */
+    public OverlapEvaluator(JointSample jointSample, Collection<OverlapMetric> metrics) {
         this.jointSample = jointSample
+        this.samples = (0..<jointSample.numberOfSamples).collect { jointSample.getSample(it) } as Sample[]
+        this.overlapType = jointSample.overlapType
+        this.numberOfSamples = jointSample.numberOfSamples
+        this.rankByDefault = metrics.contains(CorrelationS)
         this.spectratypeCache = new Spectratype[jointSample.numberOfSamples]
     }
 
+    /**
+     * Sets up an instance that can compute overlap metrics that do not depend on overlapping clonotypes,
+     * i.e. Jensen-Shannon divergences between segment usage profiles and spectratypes
+     * @param samples samples to compare
+     * @param overlapType clonotype matching rule, used for spectratypes
+     */
+    public OverlapEvaluator(Sample[] samples, OverlapType overlapType) {
+        this.jointSample = null
+        this.samples = samples
+        this.overlapType = overlapType
+        this.numberOfSamples = samples.length
+        this.rankByDefault = false
+        this.spectratypeCache = new Spectratype[samples.length]
+    }
+
     /**
      * INTERNAL gets spectratype, for spectratype JSD metrics 
      * @param sampleIndex
@@ -67,8 +110,8 @@ class OverlapEvaluator {
      */
     private Spectratype getSpectratype(int sampleIndex) {
         if (!spectratypeCache[sampleIndex]) {
-            spectratypeCache[sampleIndex] = new Spectratype(jointSample.getSample(sampleIndex),
-                    jointSample.overlapType,
+            spectratypeCache[sampleIndex] = new Spectratype(samples[sampleIndex],
+                    overlapType,
                     false)
         }
         spectratypeCache[sampleIndex]
@@ -81,9 +124,7 @@ class OverlapEvaluator {
      */
     private SegmentUsage getSegmentUsage() {
         if (!segmentUsageCache) {
-            segmentUsageCache = new SegmentUsage((0..<jointSample.numberOfSamples).collect {
-                jointSample.getSample(it)
-            } as Sample[], false)
+            segmentUsageCache = new SegmentUsage(samples, false)
         }
         segmentUsageCache
     }
@@ -98,6 +139,10 @@ class OverlapEvaluator {
     private double _computeIntersectionMetric(OverlapMetric metric,
                                               int i, int j) {
         ExecUtil.report(this, "Computing $metric", VERBOSE)
+
+        if (jointSample == null && InvertedOverlapIndex.isJointMetric(metric))
+            throw new UnsupportedOperationException("$metric requires a joint sample")
+
         switch (metric) {
             case Diversity:
                 def div1 = jointSample.getSample(i).diversity,
@@ -108,41 +153,6 @@ class OverlapEvaluator {
             case Frequency:
                 return Math.sqrt(jointSample.getIntersectionFreq(i, j) * jointSample.getIntersectionFreq(j, i))
 
-            case Frequency2:
-                double F2 = 0;
-                jointSample.each {
-                    F2 += Math.sqrt(it.getFreq(i) * it.getFreq(j))
-                }
-                return F2
-
-            case CorrelationS:
-            case Correlation:
-                double R = 0
-
-                int n = jointSample.getIntersectionDiv(i, j)
-
-                if (n > 2) {
-                    def x = new double[n],
-                        y = new double[n]
-                    int k = 0
-                    jointSample.each {
-                        if (it.present(i) && it.present(j)) {
-                            x[k] = it.getFreq(i)
-                            y[k] = it.getFreq(j)
-                        }
-                        k++
-                    }
-
-                    R = metric == CorrelationS ? new SpearmansCorrelation().correlation(x, y) :
-                            new PearsonsCorrelation().correlation(x, y)
-                }
-
-                if (Double.isNaN(R)) {
-                    R = 0
-                }
-
-                return R
-
             case Jaccard:
                 def div1 = jointSample.getSample(i).diversity,
                         div2 = jointSample.getSample(j).diversity,
@@ -194,19 +204,6 @@ class OverlapEvaluator {
              */
 
 
-            case MorisitaHorn:
-                double xy = 0, Dx = 0, Dy = 0, x, y
-
-                jointSample.each {
-                    x = it.getFreq(i)
-                    y = it.getFreq(j)
-                    xy += x * y
-                    Dx += x * x
-                    Dy += y * y
-                }
-
-                return 2 * xy / (Dx + Dy)
-
             case vJSD:
                 return MathUtil.JSD(
                         segmentUsage.vUsageVector(0),
@@ -240,11 +237,105 @@ class OverlapEvaluator {
      */
     public double computeIntersectionMetric(OverlapMetric metric,
                                             int i, int j) {
-        def key = [metric.shortName, i, j].join("_")
-        def value = metricCache[key]
-        if (!value)
-            metricCache.put(key, value = _computeIntersectionMetric(metric, i, j))
-        value
+        int pair = i * numberOfSamples + j
+
+        if (!isCached(metric, pair)) {
+            if (FUSED_METRICS.contains(metric)) {
+                if (jointSample == null)
+                    throw new UnsupportedOperationException("$metric requires a joint sample")
+                computeFusedMetrics(i, j, rankByDefault || metric == CorrelationS)
+            } else {
+                cache(metric, pair, _computeIntersectionMetric(metric, i, j))
+            }
+        }
+
+        metricCache[metric.ordinal()][pair]
+    }
+
+    @CompileStatic
+    private boolean isCached(OverlapMetric metric, int pair) {
+        def cached = metricCached[metric.ordinal()]
+        cached != null && cached[pair]
+    }
+
+    @CompileStatic
+    private void cache(OverlapMetric metric, int pair, double value) {
+        int m = metric.ordinal()
+        if (metricCache[m] == null) {
+            metricCache[m] = new double[numberOfSamples * numberOfSamples]
+            metricCached[m] = new boolean[numberOfSamples * numberOfSamples]
+        }
+        metricCache[m][pair] = value
+        metricCached[m][pair] = true
+    }
+
+    /**
+     * INTERNAL computes F2, Pearson and (optionally) Spearman correlation and Morisita-Horn index
+     * in a single pass over joint clonotypes
+     * @param i index of first sample in pair
+     * @param j index of second sample in pair
+     * @param rank if set to {@code true} frequencies of overlapping clonotypes are stored and ranked
+     * to compute Spearman correlation
+     */
+    @CompileStatic
+    private void computeFusedMetrics(int i, int j, boolean rank) {
+        ExecUtil.report(this, "Computing ${FUSED_METRICS.findAll { rank || it != CorrelationS }}", VERBOSE)
+
+        int n = jointSample.getIntersectionDiv(i, j), k = 0
+        double count1 = jointSample.getSample(i).count, count2 = jointSample.getSample(j).count
+        double f2 = 0, xy = 0, xx = 0, yy = 0
+        // same updating formulas as in SimpleRegression used by PearsonsCorrelation
+        double meanX = 0, meanY = 0, sumXX = 0, sumYY = 0, sumXY = 0
+        double[] ranksX = rank ? new double[n] : null, ranksY = rank ? new double[n] : null
+
+        for (JointClonotype jointClonotype : jointSample) {
+            int c1 = jointClonotype.getCount(i), c2 = jointClonotype.getCount(j)
+            double x = c1 / count1, y = c2 / count2
+
+            f2 += Math.sqrt(x * y)
+            xy += x * y
+            xx += x * x
+            yy += y * y
+
+            if (c1 > 0 && c2 > 0) {
+                k++
+                if (k == 1) {
+                    meanX = x
+                    meanY = y
+                } else {
+                    double fact = (k - 1) / (double) k, dx = x - meanX, dy = y - meanY
+                    sumXX += dx * dx * fact
+                    sumYY += dy * dy * fact
+                    sumXY += dx * dy * fact
+                    meanX += dx / k
+                    meanY += dy / k
+                }
+                if (rank) {
+                    ranksX[k - 1] = x
+                    ranksY[k - 1] = y
+                }
+            }
+        }
+
+        int pair = i * numberOfSamples + j
+
+        cache(Frequency2, pair, f2)
+        cache(MorisitaHorn, pair, 2 * xy / (xx + yy))
+
+        double r = 0
+        if (n > 2) {
+            // same as SimpleRegression#getR()
+            double sse = Math.max(0d, sumYY - sumXY * sumXY / sumXX)
+            r = Math.sqrt((sumYY - sse) / sumYY)
+            if (sumXY / sumXX < 0)
+                r = -r
+        }
+        cache(Correlation, pair, Double.isNaN(r) ? 0d : r)
+
+        if (rank) {
+            double rs = n > 2 ? new SpearmansCorrelation().correlation(ranksX, ranksY) : 0
+            cache(CorrelationS, pair, Double.isNaN(rs) ? 0d : rs)
+        }
     }
 
     /**
@@ -29,6 +29,7 @@
 
 package com.antigenomics.vdjtools.overlap
 
+import com.antigenomics.vdjtools.sample.Sample
 import com.antigenomics.vdjtools.sample.SampleCollection
 import com.antigenomics.vdjtools.sample.SamplePair
 import com.antigenomics.vdjtools.sample.metadata.MetadataTable
@@ -42,11 +43,26 @@ import java.util.concurrent.atomic.AtomicInteger
  * holds information on those intersections in a manner it could be easily accessed
  */
 public class PairwiseOverlap {
+    /**
+     * If set to {@code true}, overlap statistics are computed in a single pass over all samples using
+     * an {@link InvertedOverlapIndex} and a {@link SampleProfileMatrix} for each divergence metric
+     * unless samples should be stored or low-memory mode is used, as the index holds all clonotypes.
+     */
+    public static boolean INVERTED_INDEX = true
+
+    /**
+     * Fraction of maximal heap size ({@code -Xmx}) that can be used to hold samples in low-memory mode.
+     * Samples are split into blocks that take at most half of it, see {@link SampleCollection#listBlocks(long)}.
+     */
+    public static double LOW_MEM_HEAP_FRACTION = 0.4
+
     private final SampleCollection sampleCollection
     private final OverlapType intersectionType
     private final Collection<OverlapMetric> intersectMetrics
     private final Overlap[][] pairedIntersectionCache
     private final int numberOfSamples
+    private InvertedOverlapIndex index
+    private Map<OverlapMetric, double[][]> divergences
 
     /**
      * Intersects clonotype lists for all unique pairs of samples in a given sample collection.
@@ -66,7 +82,8 @@ public class PairwiseOverlap {
      * @param sampleCollection a list of samples
      * @param intersectionType clonotype matching rule
      * @param store holds all samples in memory if set to {@code true}
-     * @param lowMem if set to {@code true}, will not load all samples in memory, but rather load a sample pair at each step
+     * @param lowMem if set to {@code true}, will not load all samples in memory, but rather load blocks of
+     *               samples that fit {@link #LOW_MEM_HEAP_FRACTION} of heap
      */
     public PairwiseOverlap(SampleCollection sampleCollection,
                                    OverlapType intersectionType,
@@ -79,7 +96,8 @@ public class PairwiseOverlap {
      * @param sampleCollection a list of samples
      * @param intersectionType clonotype matching rule
      * @param store holds all samples in memory if set to {@code true}
-     * @param lowMem if set to {@code true}, will not load all samples in memory, but rather load a sample pair at each step
+     * @param lowMem if set to {@code true}, will not load all samples in memory, but rather load blocks of
+     *               samples that fit {@link #LOW_MEM_HEAP_FRACTION} of heap
      * @param intersectMetrics a list of overlap metrics that should be pre-computed
      */
     public PairwiseOverlap(SampleCollection sampleCollection,
@@ -93,7 +111,6 @@ public class PairwiseOverlap {
         this.intersectionType = intersectionType
         this.intersectMetrics = intersectMetrics
         this.numberOfSamples = sampleCollection.size()
-        this.pairedIntersectionCache = new Overlap[numberOfSamples][numberOfSamples]
 
         int totalPairs = numberOfSamples * (numberOfSamples - 1) / 2
         def progressCounter = new AtomicInteger()
@@ -109,10 +126,41 @@ public class PairwiseOverlap {
 
         ExecUtil.report(this, "Started batch overlap for $numberOfSamples samples ($totalPairs pairs)")
 
+        if (INVERTED_INDEX && !store && !lowMem) {
+            // pairwise overlaps are not cached but rather created on demand from the index
+            this.pairedIntersectionCache = null
+
+            // metrics that are computed from whole samples are evaluated using per-sample profiles
+            def profiles = new EnumMap<OverlapMetric, SampleProfileMatrix>(OverlapMetric)
+            intersectMetrics.findAll { !InvertedOverlapIndex.isJointMetric(it) }.each {
+                profiles.put(it, new SampleProfileMatrix(it, intersectionType))
+            }
+
+            this.index = buildIndex(profiles.values())
+
+            this.divergences = new EnumMap<OverlapMetric, double[][]>(OverlapMetric)
+            profiles.each { OverlapMetric metric, SampleProfileMatrix profile ->
+                divergences.put(metric, profile.compute())
+            }
+            return
+        }
+
+        this.pairedIntersectionCache = new Overlap[numberOfSamples][numberOfSamples]
+
         if (lowMem) {
-            for (int i = 0; i < numberOfSamples - 1; i++) {
-                def pairs = sampleCollection.listPairs(i)
-                pairs.each(intersect)
+            // samples are processed in tiles of block pairs, two blocks are held in memory at a time
+            def blocks = sampleCollection.listBlocks((long) (Runtime.runtime.maxMemory() * LOW_MEM_HEAP_FRACTION / 2))
+
+            ExecUtil.report(this, "Split samples into ${blocks.size()} blocks for low-memory overlap")
+
+            for (int bi = 0; bi < blocks.size(); bi++) {
+                for (int bj = bi; bj < blocks.size(); bj++) {
+                    def pairs = sampleCollection.listPairs(blocks[bi], blocks[bj])
+
+                    GParsPool.withPool ExecUtil.THREADS, {
+                        pairs.eachParallel(intersect)
+                    }
+                }
             }
         } else {
             def pairs = sampleCollection.listPairs()
@@ -123,6 +171,27 @@ public class PairwiseOverlap {
         }
     }
 
+    /**
+     * INTERNAL builds an inverted index over all samples, loading each sample once
+     * @param profiles sample profile matrices that are filled during the same pass
+     * @return swept inverted index
+     */
+    private InvertedOverlapIndex buildIndex(Collection<SampleProfileMatrix> profiles) {
+        def index = new InvertedOverlapIndex(intersectionType, intersectMetrics.contains(OverlapMetric.CorrelationS))
+
+        sampleCollection.each { Sample sample ->
+            index.add(sample)
+            profiles.each { it.add(sample) }
+            ExecUtil.report(this, "Indexed ${index.numberOfSamples} of $numberOfSamples samples. " +
+                    ExecUtil.memoryFootprint())
+        }
+
+        index.sweep()
+        ExecUtil.report(this, "Accumulated overlap statistics for all sample pairs")
+
+        index
+    }
+
     /**
      * Gets a paired overlap for a given pair of samples
      * @param i first sample index
@@ -141,19 +210,65 @@ public class PairwiseOverlap {
         if (i >= numberOfSamples || j < 0)
             throw new IndexOutOfBoundsException()
 
-        reverse ? pairedIntersectionCache[i][j] : pairedIntersectionCache[i][j].reverse
+        reverse ? getPair(i, j) : getPair(i, j).reverse
+    }
+
+    /**
+     * INTERNAL gets overlap for a pair of samples, either cached or created from the index
+     * @param i first sample index, should be less than {@code j}
+     * @param j second sample index
+     * @return overlap for samples ordered as {@code [i , j]}
+     */
+    private Overlap getPair(int i, int j) {
+        if (pairedIntersectionCache != null)
+            return pairedIntersectionCache[i][j]
+
+        def sampleMetricValues = new HashMap<OverlapMetric, Double>()
+        divergences.each { OverlapMetric metric, double[][] matrix ->
+            sampleMetricValues.put(metric, matrix[i][j])
+        }
+        Overlap.fromIndex(index, i, j, intersectMetrics, sampleMetricValues)
     }
 
     /**
      * Header string, used for tabular output
      */
     public String getHeader() {
+        getHeader(sampleCollection, intersectMetrics)
+    }
+
+    /**
+     * Header string, used for tabular output
+     * @param sampleCollection a list of samples
+     * @param intersectMetrics a list of overlap metrics
+     */
+    public static String getHeader(SampleCollection sampleCollection, Collection<OverlapMetric> intersectMetrics) {
         ["1_$MetadataTable.SAMPLE_ID_COLUMN", "2_$MetadataTable.SAMPLE_ID_COLUMN",
          Overlap.OUTPUT_FIELDS.collect(), intersectMetrics.collect { it.shortName },
          sampleCollection.metadataTable.columnHeader1,
          sampleCollection.metadataTable.columnHeader2].flatten().join("\t")
     }
 
+    /**
+     * Writes plain text rows for all unique pairs of samples one by one, without holding the entire table in memory.
+     * Metric values are also stored to provided binary matrices, if any
+     * @param printWriter output writer, header is not written
+     * @param matrices overlap matrices opened for writing, each should hold a metric from the list of computed ones
+     */
+    public void write(PrintWriter printWriter, Collection<OverlapMatrix> matrices = []) {
+        def matrixMetrics = matrices.collect { OverlapMetric.getByShortName(it.metricName) }
+
+        for (int i = 0; i < numberOfSamples - 1; i++) {
+            for (int j = i + 1; j < numberOfSamples; j++) {
+                def overlap = getPair(i, j)
+                printWriter.println(overlap.toString())
+                matrices.eachWithIndex { OverlapMatrix matrix, int k ->
+                    matrix.set(i, j, overlap.getMetricValue(matrixMetrics[k]))
+                }
+            }
+        }
+    }
+
     /**
      * Plain text row for tabular output
      */
@@ -161,7 +276,7 @@ public class PairwiseOverlap {
     public String toString() {
         (0..<(numberOfSamples - 1)).collect { int i ->
             ((i + 1)..<numberOfSamples).collect { int j ->
-                pairedIntersectionCache[i][j].toString()
+                getPair(i, j).toString()
             }
         }.flatten().join("\n")
     }
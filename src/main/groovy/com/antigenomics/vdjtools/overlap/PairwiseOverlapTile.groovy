@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.sample.SampleCollection
+import com.antigenomics.vdjtools.sample.SamplePair
+import groovyx.gpars.GParsPool
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A part of all-vs-all paired overlap that can be computed independently, e.g. as a separate cluster job.
+ * Samples are split into consecutive blocks and unique block pairs are distributed between tiles in a
+ * deterministic manner balancing the number of sample pairs. Blocks are further split into sub-blocks that fit
+ * {@link PairwiseOverlap#LOW_MEM_HEAP_FRACTION} of heap, same as in low memory mode of {@link PairwiseOverlap},
+ * and each tile loads at most two sub-blocks of samples at a time. Results of each sub-block pair are streamed to
+ * a temporary file as soon as they are computed.
+ * Partial results of all tiles are assembled into the standard pairwise overlap table with {@link #merge}
+ */
+public class PairwiseOverlapTile {
+    /**
+     * Maximal number of temporary files that are merged at once while writing results
+     */
+    public static int MERGE_WIDTH = 256
+
+    private final SampleCollection sampleCollection
+    private final OverlapType intersectionType
+    private final Collection<OverlapMetric> intersectMetrics
+    private final int tile, numberOfTiles, numberOfSamples
+    private final List<File> runFiles = new ArrayList<>()
+
+    /**
+     * Computes paired overlap for sample pairs assigned to a given tile
+     * @param sampleCollection a list of samples, should be the same for all tiles
+     * @param intersectionType clonotype matching rule
+     * @param tile tile index, from {@code 0} to {@code numberOfTiles - 1}
+     * @param numberOfTiles total number of tiles
+     * @param intersectMetrics a list of overlap metrics that should be computed
+     */
+    public PairwiseOverlapTile(SampleCollection sampleCollection,
+                               OverlapType intersectionType,
+                               int tile, int numberOfTiles,
+                               Collection<OverlapMetric> intersectMetrics = OverlapMetric.values().toList()) {
+        if (numberOfTiles < 1 || tile < 0 || tile >= numberOfTiles)
+            throw new IllegalArgumentException("Bad tile $tile of $numberOfTiles")
+
+        this.sampleCollection = sampleCollection
+        this.intersectionType = intersectionType
+        this.intersectMetrics = intersectMetrics
+        this.tile = tile
+        this.numberOfTiles = numberOfTiles
+        this.numberOfSamples = sampleCollection.size()
+
+        def blocks = listBlocks(numberOfSamples, numberOfTiles),
+            blockPairs = listBlockPairs(blocks, tile, numberOfTiles)
+
+        ExecUtil.report(this, "Started tile ${tile + 1} of $numberOfTiles: ${blockPairs.size()} of " +
+                "${(blocks.size() * (blocks.size() + 1)).intdiv(2)} block pairs, " +
+                "${blockPairs.sum(0L) { getWeight(blocks, it[0], it[1]) }} sample pairs " +
+                "for $numberOfSamples samples")
+
+        def progressCounter = new AtomicInteger()
+        long budget = (long) (Runtime.runtime.maxMemory() * PairwiseOverlap.LOW_MEM_HEAP_FRACTION / 2)
+
+        blockPairs.each { int bi, int bj ->
+            def subBlocks1 = sampleCollection.listBlocks(blocks[bi], budget),
+                subBlocks2 = bi == bj ? subBlocks1 : sampleCollection.listBlocks(blocks[bj], budget)
+
+            subBlocks1.eachWithIndex { IntRange block1, int si ->
+                subBlocks2.eachWithIndex { IntRange block2, int sj ->
+                    if (bi < bj || si <= sj) {
+                        computeRun(sampleCollection.listPairs(block1, block2), progressCounter)
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * INTERNAL computes overlap for a list of sample pairs and writes it as an ordered run to a temporary file,
+     * runs are merged once results are written
+     */
+    private void computeRun(List<SamplePair> pairs, AtomicInteger progressCounter) {
+        def rows
+        GParsPool.withPool ExecUtil.THREADS, {
+            rows = pairs.collectParallel { SamplePair pair ->
+                def row = [pairIndex(pair.i, pair.j),
+                           new Overlap(pair, intersectionType, false, intersectMetrics).toString()]
+                int progr
+                if ((progr = progressCounter.incrementAndGet()) % 10 == 0) {
+                    ExecUtil.report(this, "Processed $progr pairs. " + ExecUtil.memoryFootprint())
+                }
+                row
+            }
+        }
+
+        def runFile = createRunFile()
+        runFile.withPrintWriter { pw ->
+            rows.sort { (long) it[0] }.each {
+                pw.println(it[0] + "\t" + it[1])
+            }
+        }
+    }
+
+    private File createRunFile() {
+        def runFile = File.createTempFile("vdjtools-tile-", ".txt")
+        runFile.deleteOnExit()
+        runFiles.add(runFile)
+        runFile
+    }
+
+    private static long getRunKey(String line) {
+        line.substring(0, line.indexOf("\t")).toLong()
+    }
+
+    /**
+     * Splits samples into consecutive blocks of nearly equal size. The number of blocks is the smallest one
+     * such that the number of block pairs is a multiple of the number of tiles, or the smallest one that yields
+     * at least one block pair for each tile if there are not enough samples for the former
+     * @param numberOfSamples number of samples
+     * @param numberOfTiles number of tiles
+     * @return a list of sample index ranges
+     */
+    static List<IntRange> listBlocks(int numberOfSamples, int numberOfTiles) {
+        int numberOfBlocks = 1
+        while (numberOfBlocks < numberOfSamples && (numberOfBlocks * (numberOfBlocks + 1)).intdiv(2) < numberOfTiles)
+            numberOfBlocks++
+
+        // B * (B + 1) / 2 is a multiple of N at least for B = 2N - 1
+        for (int b = numberOfBlocks; b <= Math.min(numberOfSamples, 2 * numberOfTiles - 1); b++) {
+            if ((b * (long) (b + 1)).intdiv(2) % numberOfTiles == 0) {
+                numberOfBlocks = b
+                break
+            }
+        }
+
+        (0..<numberOfBlocks).collect { int b ->
+            ((int) (b * (long) numberOfSamples / numberOfBlocks))..<((int) ((b + 1) * (long) numberOfSamples / numberOfBlocks))
+        }
+    }
+
+    /**
+     * Lists unique block pairs {@code [bi, bj]}, {@code bi <= bj}, assigned to a given tile. Block pairs are
+     * taken in the order of decreasing number of sample pairs they hold and each one is assigned to the tile
+     * having the least number of sample pairs so far, so tile loads differ by at most the largest block pair
+     * @param blocks sample blocks, see {@link #listBlocks}
+     * @param tile tile index
+     * @param numberOfTiles number of tiles
+     * @return a list of block index pairs, ordered by block indices
+     */
+    static List<List<Integer>> listBlockPairs(List<IntRange> blocks, int tile, int numberOfTiles) {
+        def allBlockPairs = new ArrayList<List<Integer>>()
+
+        for (int bi = 0; bi < blocks.size(); bi++)
+            for (int bj = bi; bj < blocks.size(); bj++)
+                allBlockPairs.add([bi, bj])
+
+        // stable sort, so the assignment is the same for all tiles
+        def byWeight = allBlockPairs.sort(false) { -getWeight(blocks, it[0], it[1]) }
+
+        def loads = new long[numberOfTiles]
+        def assigned = new HashSet<List<Integer>>()
+
+        byWeight.each { List<Integer> blockPair ->
+            int minTile = 0
+            for (int t = 1; t < numberOfTiles; t++)
+                if (loads[t] < loads[minTile])
+                    minTile = t
+
+            loads[minTile] += getWeight(blocks, blockPair[0], blockPair[1])
+            if (minTile == tile)
+                assigned.add(blockPair)
+        }
+
+        allBlockPairs.findAll { assigned.contains(it) }
+    }
+
+    /**
+     * Gets the number of unique sample pairs in a given block pair
+     * @param blocks sample blocks
+     * @param bi first block index
+     * @param bj second block index
+     * @return number of sample pairs
+     */
+    static long getWeight(List<IntRange> blocks, int bi, int bj) {
+        long si = blocks[bi].size(), sj = blocks[bj].size()
+        bi == bj ? (si * (si - 1)).intdiv(2) : si * sj
+    }
+
+    private long pairIndex(int i, int j) {
+        i * (long) numberOfSamples + j
+    }
+
+    /**
+     * Header string, same as for {@link PairwiseOverlap}
+     */
+    public String getHeader() {
+        PairwiseOverlap.getHeader(sampleCollection, intersectMetrics)
+    }
+
+    /**
+     * Writes header and plain text rows for sample pairs of this tile, ordered as in {@link PairwiseOverlap}.
+     * Temporary files holding results of block pairs are removed afterwards, so this method can be called only once
+     * @param printWriter output writer
+     */
+    public void write(PrintWriter printWriter) {
+        try {
+            // runs are merged in several passes, so that at most MERGE_WIDTH files are open at a time
+            while (runFiles.size() > MERGE_WIDTH) {
+                def groups = runFiles.collate(MERGE_WIDTH)
+                runFiles.clear()
+
+                groups.each { List<File> group ->
+                    def runFile = createRunFile()
+                    runFile.withPrintWriter { pw ->
+                        mergeRuns(group, { String line -> [getRunKey(line), line] }, pw)
+                    }
+                    group.each { it.delete() }
+                }
+            }
+
+            printWriter.println(header)
+            mergeRuns(runFiles, { String line ->
+                [getRunKey(line), line.substring(line.indexOf("\t") + 1)]
+            }, printWriter)
+        } finally {
+            runFiles.each { it.delete() }
+            runFiles.clear()
+        }
+    }
+
+    private static void mergeRuns(List<File> files, Closure<List> parseRow, PrintWriter printWriter) {
+        def readers = files.collect { it.newReader() }
+        try {
+            mergeRows(readers, parseRow, printWriter)
+        } finally {
+            readers.each { it.close() }
+        }
+    }
+
+    /**
+     * Assembles partial results written by all tiles into the standard pairwise overlap table.
+     * Sample order is restored from partial results: sample {@code j} appears as the second sample of
+     * exactly {@code j} pairs. Rows of partial results are then merged in a single pass
+     * @param partialFileNames partial results of all tiles, in any order
+     * @param printWriter output writer
+     * @throws RuntimeException if partial results have different headers, or some pairs are missing or duplicated
+     */
+    public static void merge(List<String> partialFileNames, PrintWriter printWriter) {
+        String header = null
+        def secondCounts = new HashMap<String, Integer>()
+        long numberOfRows = 0
+
+        partialFileNames.each { fileName ->
+            new File(fileName).withReader { reader ->
+                def partialHeader = reader.readLine()
+                if (header != null && partialHeader != header)
+                    throw new RuntimeException("Header of $fileName differs from other partial results")
+                header = partialHeader
+
+                def line
+                while ((line = reader.readLine()) != null) {
+                    def splitLine = line.split("\t", 3)
+                    secondCounts.put(splitLine[0], secondCounts.get(splitLine[0]) ?: 0)
+                    secondCounts.put(splitLine[1], (secondCounts.get(splitLine[1]) ?: 0) + 1)
+                    numberOfRows++
+                }
+            }
+        }
+
+        int numberOfSamples = secondCounts.size()
+        if (numberOfRows != (numberOfSamples * (long) (numberOfSamples - 1)).intdiv(2) ||
+                secondCounts.values().toSet() != (0..<numberOfSamples).toSet())
+            throw new RuntimeException("Partial results are incomplete or overlapping: $numberOfRows rows " +
+                    "for $numberOfSamples samples. Check that all tiles were computed and provided exactly once.")
+
+        printWriter.println(header)
+
+        def readers = partialFileNames.collect { new File(it).newReader() }
+        try {
+            readers.each { it.readLine() }
+
+            mergeRows(readers, { String line ->
+                def splitLine = line.split("\t", 3)
+                [secondCounts[splitLine[0]] * (long) numberOfSamples + secondCounts[splitLine[1]], line]
+            }, printWriter)
+        } finally {
+            readers.each { it.close() }
+        }
+    }
+
+    /**
+     * Merges ordered rows coming from several readers in a single pass
+     * @param readers readers positioned at the first row
+     * @param parseRow gets a list holding row sort key and the line that should be written for a given row
+     * @param printWriter output writer
+     */
+    private static void mergeRows(List<BufferedReader> readers, Closure<List> parseRow, PrintWriter printWriter) {
+        // rows from each reader are ordered, so the next row is taken from the reader having the least one
+        def queue = new PriorityQueue<List>(Math.max(1, readers.size()), { List a, List b ->
+            Long.compare((long) a[0], (long) b[0])
+        } as Comparator<List>)
+
+        def next = { BufferedReader reader ->
+            def line = reader.readLine()
+            if (line != null) {
+                def row = parseRow(line)
+                queue.add([row[0], row[1], reader])
+            }
+        }
+
+        readers.each { next(it) }
+
+        while (!queue.isEmpty()) {
+            def row = queue.poll()
+            printWriter.println(row[1])
+            next((BufferedReader) row[2])
+        }
+    }
+}
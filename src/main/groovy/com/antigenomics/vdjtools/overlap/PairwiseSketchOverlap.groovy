@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.sample.SampleCollection
+import com.antigenomics.vdjtools.sample.metadata.MetadataTable
+
+/**
+ * Approximate all-vs-all overlap for a sample collection that is computed from sample sketches,
+ * see {@link OverlapSketch}. Sketches of samples loaded from files can be stored to a given directory and are
+ * re-used while sample files are unchanged. Estimates for sample pairs are computed on demand.
+ */
+public class PairwiseSketchOverlap {
+    /**
+     * Output fields, estimates are followed by lower and upper error bounds
+     */
+    public static final String[] OUTPUT_FIELDS = ["div1", "div2", "div12", "div12_lo", "div12_hi",
+                                                  "union", "union_lo", "union_hi",
+                                                  OverlapMetric.Diversity.shortName,
+                                                  OverlapMetric.Diversity.shortName + "_lo",
+                                                  OverlapMetric.Diversity.shortName + "_hi",
+                                                  OverlapMetric.Jaccard.shortName,
+                                                  OverlapMetric.Jaccard.shortName + "_lo",
+                                                  OverlapMetric.Jaccard.shortName + "_hi"]
+
+    private final SampleCollection sampleCollection
+    private final OverlapSketch[] sketches
+    private final int numberOfSamples
+
+    /**
+     * Sketches all samples in a given sample collection using default sketch parameters
+     * @param sampleCollection a list of samples
+     * @param overlapType clonotype matching rule
+     */
+    public PairwiseSketchOverlap(SampleCollection sampleCollection, OverlapType overlapType) {
+        this(sampleCollection, overlapType, OverlapSketch.DEFAULT_SIZE, OverlapSketch.DEFAULT_PRECISION, null)
+    }
+
+    /**
+     * Sketches all samples in a given sample collection
+     * @param sampleCollection a list of samples
+     * @param overlapType clonotype matching rule
+     * @param size number of hashes kept in MinHash sketches
+     * @param precision log2 of the number of HyperLogLog registers
+     * @param sketchDir directory to load sketches from and store them to, sketches are not stored if {@code null}
+     */
+    public PairwiseSketchOverlap(SampleCollection sampleCollection, OverlapType overlapType,
+                                 int size, int precision, String sketchDir) {
+        if (!OverlapSketch.supports(overlapType))
+            throw new IllegalArgumentException("Sketches are not supported for $overlapType")
+
+        this.sampleCollection = sampleCollection
+        this.numberOfSamples = sampleCollection.size()
+        this.sketches = new OverlapSketch[numberOfSamples]
+
+        int loaded = 0
+        for (int i = 0; i < numberOfSamples; i++) {
+            def fileName = sampleCollection.getFileName(i)
+
+            def sketch = fileName && sketchDir ? OverlapSketch.load(fileName, sketchDir, overlapType, size, precision) :
+                    null
+
+            if (sketch) {
+                loaded++
+            } else {
+                sketch = OverlapSketch.fromSample(sampleCollection[i], overlapType, size, precision)
+                if (fileName && sketchDir) {
+                    try {
+                        sketch.store(fileName, sketchDir)
+                    } catch (IOException e) {
+                        ExecUtil.report(this, "WARNING: Failed to store sketch for $fileName (${e.message})")
+                    }
+                }
+            }
+
+            sketches[i] = sketch
+
+            ExecUtil.report(this, "Sketched ${i + 1} of $numberOfSamples samples ($loaded loaded from disk). " +
+                    ExecUtil.memoryFootprint())
+        }
+    }
+
+    /**
+     * Gets the sketch of a given sample
+     * @param i sample index
+     * @return sample sketch
+     */
+    public OverlapSketch getSketch(int i) {
+        sketches[i]
+    }
+
+    /**
+     * Estimates overlap for a given pair of samples
+     * @param i first sample index
+     * @param j second sample index
+     * @return overlap estimate
+     */
+    public OverlapSketch.Estimate getAt(int i, int j) {
+        sketches[i].estimate(sketches[j])
+    }
+
+    /**
+     * Header string, used for tabular output
+     */
+    public String getHeader() {
+        ["1_$MetadataTable.SAMPLE_ID_COLUMN", "2_$MetadataTable.SAMPLE_ID_COLUMN",
+         OUTPUT_FIELDS.collect(),
+         sampleCollection.metadataTable.columnHeader1,
+         sampleCollection.metadataTable.columnHeader2].flatten().join("\t")
+    }
+
+    /**
+     * Plain text row for tabular output
+     * @param i first sample index
+     * @param j second sample index
+     */
+    public String toString(int i, int j) {
+        def estimate = this[i, j],
+            metadata1 = sampleCollection.metadataTable.getRow(i),
+            metadata2 = sampleCollection.metadataTable.getRow(j)
+
+        [metadata1.sampleId, metadata2.sampleId,
+         estimate.div1, estimate.div2,
+         bounds(estimate.div12, estimate.div12Error,
+                 0, Math.min(estimate.distinct1, estimate.distinct2)),
+         bounds(estimate.union, estimate.unionError,
+                 Math.max(estimate.distinct1, estimate.distinct2), estimate.distinct1 + estimate.distinct2),
+         bounds(estimate.diversity, estimate.diversityError, 0, Double.POSITIVE_INFINITY),
+         bounds(estimate.jaccard, estimate.jaccardError, 0, 1),
+         metadata1.toString(), metadata2.toString()].flatten().join("\t")
+    }
+
+    private static List<Double> bounds(double value, double error, double min, double max) {
+        [value, Math.max(min, value - OverlapSketch.Z * error), Math.min(max, value + OverlapSketch.Z * error)]
+    }
+
+    /**
+     * Writes rows for all unique sample pairs, rows are generated on the fly
+     * @param printWriter output writer
+     */
+    public void write(PrintWriter printWriter) {
+        for (int i = 0; i < numberOfSamples - 1; i++)
+            for (int j = i + 1; j < numberOfSamples; j++)
+                printWriter.println(toString(i, j))
+    }
+}
@@ -37,6 +37,7 @@ import com.antigenomics.vdjtools.sample.Sample
 import com.antigenomics.vdjtools.sample.SampleCollection
 import com.antigenomics.vdjtools.sample.metadata.MetadataTable
 import com.antigenomics.vdjtools.misc.RUtil
+import com.antigenomics.vdjtools.misc.SequencePool
 
 import static com.antigenomics.vdjtools.misc.ExecUtil.formOutputPath
 import static com.antigenomics.vdjtools.misc.ExecUtil.toPlotPath
@@ -136,6 +137,9 @@ if (top > TOP_MAX) {
 
 println "[${new Date()} $scriptName] Reading in all samples"
 
+// all samples are kept in memory, let shared clonotypes hold the same sequence objects
+SequencePool.ENABLED = true
+
 def sampleCollection = metadataFileName ?
         new SampleCollection((String) metadataFileName, Software.VDJtools, true, false) :
         new SampleCollection(opt.arguments()[0..-2], Software.VDJtools, true, false)
@@ -30,8 +30,6 @@
 package com.antigenomics.vdjtools.preprocess
 
 import com.antigenomics.vdjtools.io.SampleWriter
-import com.antigenomics.vdjtools.sample.BlankClonotypeFilter
-import com.antigenomics.vdjtools.sample.Sample
 import com.antigenomics.vdjtools.sample.SampleCollection
 
 
@@ -96,8 +94,9 @@ println "[${new Date()} $scriptName] ${sampleCollection.size()} sample(s) loaded
 
 def sampleWriter = new SampleWriter(compress, !saveFreqs)
 
-sampleCollection.eachWithIndex { sample, ind ->
-    def newSample = new Sample(sample, BlankClonotypeFilter.INSTANCE, x)
+sampleCollection.size().times { int ind ->
+    // top clonotypes are selected while streaming, input samples are not required to be sorted
+    def newSample = sampleCollection.getTop(ind, x)
 
     println "[${new Date()} $scriptName] Processed ${ind + 1} sample(s).. Writing output"
 
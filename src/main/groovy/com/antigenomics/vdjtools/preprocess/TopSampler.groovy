@@ -29,7 +29,6 @@
 
 package com.antigenomics.vdjtools.preprocess
 
-import com.antigenomics.vdjtools.sample.BlankClonotypeFilter
 import com.antigenomics.vdjtools.sample.Sample
 
 class TopSampler implements Sampler {
@@ -41,6 +40,6 @@ class TopSampler implements Sampler {
 
     @Override
     Sample reSample(int top) {
-        new Sample(sample, BlankClonotypeFilter.INSTANCE, top)
+        Sample.selectTop(sample, top)
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.sample
+
+import com.antigenomics.vdjtools.io.SampleConnection
+import com.antigenomics.vdjtools.misc.ExecUtil
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+
+/**
+ * An iterator over sample connections that loads next samples in background while the current one is processed.
+ * The number of samples that are being loaded or are loaded and wait to be taken is bounded by prefetch size,
+ * so that no more than {@code prefetch + 1} samples are held by the iterator and its consumer at any time.
+ * Exceptions thrown while loading a sample are re-thrown upon the corresponding {@link #next} call.
+ */
+@CompileStatic
+class PrefetchingSampleIterator implements Iterator<Sample> {
+    private static ExecutorService executor = null
+
+    /**
+     * INTERNAL gets a shared pool of daemon threads used to load samples.
+     * @return executor service.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(ExecUtil.THREADS, { Runnable runnable ->
+                def thread = new Thread(runnable, "SampleCollection-prefetch")
+                thread.daemon = true
+                thread
+            } as ThreadFactory)
+        }
+        executor
+    }
+
+    private final Iterator<SampleConnection> connections
+    private final Queue<Future<Sample>> inFlight = new ArrayDeque<>()
+    private final int prefetch
+
+    /**
+     * Creates a new prefetching iterator.
+     * @param connections iterator over sample connections, in the order samples should be returned.
+     * @param prefetch maximal number of samples loaded in background, should be positive.
+     */
+    PrefetchingSampleIterator(Iterator<SampleConnection> connections, int prefetch) {
+        if (prefetch < 1)
+            throw new IllegalArgumentException("Prefetch size should be positive")
+        this.connections = connections
+        this.prefetch = prefetch
+        fill()
+    }
+
+    /**
+     * INTERNAL schedules loading of next samples until the number of in-flight samples reaches prefetch size.
+     */
+    private void fill() {
+        while (inFlight.size() < prefetch && connections.hasNext()) {
+            def connection = connections.next()
+            inFlight.add(getExecutor().submit({ connection.sample } as Callable<Sample>))
+        }
+    }
+
+    @Override
+    boolean hasNext() {
+        !inFlight.empty
+    }
+
+    @Override
+    Sample next() {
+        if (inFlight.empty)
+            throw new NoSuchElementException()
+
+        def future = inFlight.poll()
+        Sample sample
+        try {
+            sample = future.get()
+        } catch (ExecutionException e) {
+            // do not load the rest of samples
+            inFlight.each { it.cancel(true) }
+            inFlight.clear()
+            throw e.cause
+        }
+
+        fill()
+        sample
+    }
+
+    @Override
+    void remove() {
+        throw new UnsupportedOperationException()
+    }
+}
@@ -31,8 +31,13 @@ package com.antigenomics.vdjtools.sample
 
 import com.antigenomics.vdjtools.misc.Software
 import com.antigenomics.vdjtools.io.DummySampleConnection
+import com.antigenomics.vdjtools.io.SampleCache
 import com.antigenomics.vdjtools.io.SampleConnection
 import com.antigenomics.vdjtools.io.SampleFileConnection
+import com.antigenomics.vdjtools.io.SampleStreamConnection
+import com.antigenomics.vdjtools.io.VidjilDemultiplexer
+import com.antigenomics.vdjtools.io.VidjilSampleConnection
+import com.antigenomics.vdjtools.sample.metadata.SampleMetadata
 import com.antigenomics.vdjtools.sample.metadata.BlankMetadataEntryFilter
 import com.antigenomics.vdjtools.sample.metadata.MetadataEntryFilter
 import com.antigenomics.vdjtools.sample.metadata.MetadataTable
@@ -40,6 +45,12 @@ import com.antigenomics.vdjtools.sample.metadata.MetadataUtil
 import com.antigenomics.vdjtools.misc.ExecUtil
 import groovy.transform.CompileStatic
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+
 /**
  * Base class used in VDJtools to store and handle collections of samples.
  * Implements methods for loading clonotype tables and sample information (metadata).
@@ -48,10 +59,34 @@ import groovy.transform.CompileStatic
 class SampleCollection implements Iterable<Sample> {
     final Map<String, SampleConnection> sampleMap = new HashMap<>()
     private final Software software
-    private final boolean strict, lazy, store
+    private final boolean strict
+    private boolean lazy, store
 
     private final MetadataTable metadataTable
 
+    /**
+     * Number of threads used to load samples when lazy loading is off, set to 1 to load samples sequentially.
+     */
+    public static int LOAD_THREADS = ExecUtil.THREADS
+
+    /**
+     * Number of samples loaded in background while iterating over a lazy sample collection,
+     * set to 0 to load samples on request only.
+     */
+    public static int PREFETCH = 2
+
+    /**
+     * If set to true, samples that are requested to be stored in memory will be loaded lazily and
+     * kept in {@link SampleCache} instead when their estimated footprint exceeds {@link #STORE_HEAP_FRACTION}
+     * of maximal heap size.
+     */
+    public static boolean AUTO_STORE = true
+
+    /**
+     * Fraction of maximal heap size ({@code -Xmx}) that can be used to store all samples of a collection.
+     */
+    public static double STORE_HEAP_FRACTION = 0.6
+
     /**
      * Gets a metadata table that allows querying and ordering of samples in this collection.
      * @return metadata table.
@@ -135,7 +170,8 @@ class SampleCollection implements Iterable<Sample> {
      * Builds a sample collection from a pre-defined list of sample file names.
      * Samples will be assigned to generic metadata table, sample order will be preserved.
      * @param sampleFileNames list of sample file names
-     * @param store if set to true, all loaded samples will be stored in memory (only has effect if lazy is set to true)
+     * @param store if set to true, all loaded samples will be stored in memory (only has effect if lazy is set to true),
+     * otherwise loaded samples are kept in {@link SampleCache} while its memory budget allows
      * @param lazy if set to true, all samples will be immediately loaded, otherwise samples will be loaded by request
      * @param strict if set to false, will ignore samples with missing files, otherwise will throw an exception in such case
      * @param sort not sort sample metadata by sample id 
@@ -147,11 +183,12 @@ class SampleCollection implements Iterable<Sample> {
         this.lazy = lazy
         this.store = store
         this.metadataTable = new MetadataTable()
+        def fileNames = new LinkedHashMap<String, String>()
         sampleFileNames.each { String fileName ->
             if (new File(fileName).exists()) {
                 def sampleId = MetadataUtil.fileName2id(fileName)
-                def sampleMetadata = metadataTable.createRow(sampleId)
-                sampleMap.put(sampleId, new SampleFileConnection(fileName, software, sampleMetadata, lazy, store))
+                metadataTable.createRow(sampleId)
+                fileNames.put(sampleId, fileName)
             } else if (strict) {
                 throw new FileNotFoundException("Missing sample file $fileName")
             } else {
@@ -159,6 +196,9 @@ class SampleCollection implements Iterable<Sample> {
             }
         }
 
+        connect(fileNames, metadataTable)
+        preload(metadataTable)
+
         if (sort)
             metadataTable.sort()
     }
@@ -171,7 +211,8 @@ class SampleCollection implements Iterable<Sample> {
      * Samples will be ordered as they appear in file.
      * @param sampleMetadataFileName metadata file path.
      * @param software software used to get processed samples.
-     * @param store if set to true, all loaded samples will be stored in memory (only has effect if lazy is set to true).
+     * @param store if set to true, all loaded samples will be stored in memory (only has effect if lazy is set to true),
+     * otherwise loaded samples are kept in {@link SampleCache} while its memory budget allows.
      * @param lazy if set to true, all samples will be immediately loaded, otherwise samples will be loaded by request.
      * @param strict if set to false, will ignore samples with missing files, otherwise will throw an exception in such case.
      * @param sort whether to sort sample metadata by sample id.
@@ -185,6 +226,7 @@ class SampleCollection implements Iterable<Sample> {
         this.strict = strict
 
         MetadataTable metadataTable = null
+        def fileNames = new LinkedHashMap<String, String>()
 
         new File(sampleMetadataFileName).withReader { reader ->
             def headerLine = reader.readLine()
@@ -213,8 +255,8 @@ class SampleCollection implements Iterable<Sample> {
                     def entries = splitLine.length > 2 ? splitLine[2..-1] : []
 
                     if (new File(fileName).exists()) {
-                        def sampleMetadata = metadataTable.createRow(sampleId, entries)
-                        sampleMap.put(sampleId, new SampleFileConnection(fileName, software, sampleMetadata, lazy, store))
+                        metadataTable.createRow(sampleId, entries)
+                        fileNames.put(sampleId, fileName)
                     } else if (strict) {
                         throw new FileNotFoundException("Missing sample file $fileName")
                     } else {
@@ -224,12 +266,123 @@ class SampleCollection implements Iterable<Sample> {
             }
         }
 
+        connect(fileNames, metadataTable)
+        preload(metadataTable)
+
         if (sort)
             metadataTable.sort()
 
         this.metadataTable = metadataTable
     }
 
+    /**
+     * INTERNAL creates connections to sample files. If samples should be stored in memory but their
+     * estimated footprint does not fit the heap, samples are loaded lazily and cached instead.
+     * @param fileNames sample file paths by sample id.
+     * @param metadataTable metadata table holding sample metadata.
+     */
+    private void connect(Map<String, String> fileNames, MetadataTable metadataTable) {
+        if (AUTO_STORE && (store || !lazy) && !fileNames.isEmpty()) {
+            long footprint = fileNames.values().unique(false).sum { String fileName ->
+                SampleCache.estimateFootprint(fileName)
+            } as long
+            long available = (long) (Runtime.runtime.maxMemory() * STORE_HEAP_FRACTION)
+
+            if (footprint > available) {
+                println "[${new Date()} SampleCollection] WARNING: Estimated sample footprint of " +
+                        "${footprint >> 20}MB exceeds ${available >> 20}MB of available heap, " +
+                        "samples will be loaded on request and cached instead of being stored"
+                lazy = true
+                store = false
+            }
+        }
+
+        def demultiplexers = new HashMap<String, VidjilDemultiplexer>()
+        fileNames.each { String sampleId, String fileName ->
+            sampleMap.put(sampleId, createConnection(fileName, metadataTable.getRow(sampleId), demultiplexers))
+        }
+    }
+
+    /**
+     * INTERNAL creates a connection to sample file. Samples coming from the same multi-sample Vidjil file
+     * share a single demultiplexer, so that the file is parsed only once. Connections are created lazy and
+     * are loaded afterwards using {@link #preload} if lazy loading is off.
+     * @param fileName path to sample file.
+     * @param sampleMetadata sample metadata.
+     * @param demultiplexers Vidjil demultiplexers created so far, by canonical file path.
+     * @return sample connection.
+     */
+    private SampleConnection createConnection(String fileName, SampleMetadata sampleMetadata,
+                                              Map<String, VidjilDemultiplexer> demultiplexers) {
+        if (software == Software.Vidjil) {
+            def demultiplexer = demultiplexers.computeIfAbsent(new File(fileName).canonicalPath) {
+                new VidjilDemultiplexer(fileName)
+            }
+            return new VidjilSampleConnection(demultiplexer, sampleMetadata, store || !lazy)
+        }
+        new SampleFileConnection(fileName, software, sampleMetadata, true, store || !lazy)
+    }
+
+    /**
+     * INTERNAL loads all samples into memory if lazy loading is off. Samples are loaded concurrently
+     * using {@link #LOAD_THREADS} threads and are scheduled in metadata order. Loading stops on the first
+     * sample that fails to load, the corresponding exception is re-thrown.
+     * @param metadataTable metadata table specifying sample order.
+     */
+    private void preload(MetadataTable metadataTable) {
+        if (lazy)
+            return
+
+        def sampleIds = metadataTable.sampleIterator.collect()
+        int threads = Math.min(LOAD_THREADS, sampleIds.size())
+
+        if (threads <= 1) {
+            sampleIds.each { preload(it) }
+            return
+        }
+
+        println "[${new Date()} SampleCollection] Loading ${sampleIds.size()} samples using $threads threads"
+
+        def executor = Executors.newFixedThreadPool(threads, { Runnable runnable ->
+            def thread = new Thread(runnable, "SampleCollection-loader")
+            thread.daemon = true
+            thread
+        } as ThreadFactory)
+        def completionService = new ExecutorCompletionService<String>(executor)
+
+        try {
+            sampleIds.each { String sampleId ->
+                completionService.submit({
+                    preload(sampleId)
+                    sampleId
+                } as Callable<String>)
+            }
+
+            sampleIds.size().times {
+                try {
+                    completionService.take().get()
+                } catch (ExecutionException e) {
+                    // fail fast, remaining samples are cancelled
+                    throw e.cause
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    /**
+     * INTERNAL loads a given sample into memory.
+     * @param sampleId sample id.
+     */
+    private void preload(String sampleId) {
+        def connection = sampleMap[sampleId]
+        if (connection instanceof SampleStreamConnection)
+            ((SampleStreamConnection) connection).preload()
+        else if (connection instanceof VidjilSampleConnection)
+            ((VidjilSampleConnection) connection).preload()
+    }
+
     /**
      * Lists all unique sample pairs in a given collection.
      * Pairs (i, j) are chosen such as j > i, no (i, i) pairs allowed.
@@ -263,12 +416,89 @@ class SampleCollection implements Iterable<Sample> {
 
             for (int j = i + 1; j < size(); j++)
                 samplePairs.add(new SamplePair(sample1conn,
-                        sampleMap[metadataTable.getRow(j).sampleId]))
+                        sampleMap[metadataTable.getRow(j).sampleId], i, j))
         }
 
         samplePairs
     }
 
+    /**
+     * Splits samples into consecutive blocks such that estimated heap footprint of each block doesn't exceed
+     * a given budget, see {@link SampleCache#estimateFootprint(String)}. Samples that are not streamed from
+     * files are considered to be held in memory already. A block holds at least one sample.
+     * @param budget maximal estimated footprint of a block, in bytes.
+     * @return a list of sample index ranges, according to current ordering
+     */
+    public List<IntRange> listBlocks(long budget) {
+        listBlocks(0..<size(), budget)
+    }
+
+    /**
+     * Splits a given range of samples into consecutive blocks such that estimated heap footprint of each block
+     * doesn't exceed a given budget, see {@link #listBlocks(long)}.
+     * @param range sample indices, should be a non-reversed range.
+     * @param budget maximal estimated footprint of a block, in bytes.
+     * @return a list of sample index ranges, according to current ordering
+     */
+    public List<IntRange> listBlocks(IntRange range, long budget) {
+        def blocks = new ArrayList<IntRange>()
+
+        if (range.empty)
+            return blocks
+
+        int from = range.first(), to = range.last() + 1
+        long footprint = 0
+        for (int i = from; i < to; i++) {
+            def fileName = getFileName(i)
+            long sampleFootprint = fileName ? SampleCache.estimateFootprint(fileName) : 0
+
+            if (i > from && footprint + sampleFootprint > budget) {
+                blocks.add(from..<i)
+                from = i
+                footprint = 0
+            }
+            footprint += sampleFootprint
+        }
+
+        blocks.add(from..<to)
+
+        blocks
+    }
+
+    /**
+     * Lists all unique sample pairs (i, j) such that i is from the first block, j is from the second block and j > i.
+     * Samples from both blocks are loaded into memory once, so that the number of sample loads for all pairs
+     * of {@link #listBlocks(long)} blocks is ~N^2/B, where B is the block size
+     * @param block1 first block of sample indices.
+     * @param block2 second block of sample indices, should not precede the first block.
+     * @return a list of sample pairs
+     */
+    public List<SamplePair> listPairs(IntRange block1, IntRange block2) {
+        def connections1 = loadBlock(block1),
+            connections2 = block1 == block2 ? connections1 : loadBlock(block2)
+
+        def samplePairs = new ArrayList<SamplePair>()
+
+        for (int i : block1)
+            for (int j : block2)
+                if (j > i)
+                    samplePairs.add(new SamplePair(connections1[i - block1.from],
+                            connections2[j - block2.from], i, j))
+
+        samplePairs
+    }
+
+    /**
+     * INTERNAL loads samples from a given block, re-wrapping them to dummy connections.
+     * @param block sample indices.
+     * @return list of connections holding loaded samples
+     */
+    private List<SampleConnection> loadBlock(IntRange block) {
+        block.collect { int i ->
+            new DummySampleConnection(getAt(i)) as SampleConnection
+        }
+    }
+
     /**
      * Get sample by id
      * @param sampleId sample id
@@ -291,6 +521,39 @@ class SampleCollection implements Iterable<Sample> {
         sampleMap[metadataTable.getRow(i).sampleId].sample
     }
 
+    /**
+     * Gets top N most abundant clonotypes of a sample by index, according to current ordering.
+     * Samples that are not loaded are streamed, so that only N clonotypes are kept in memory.
+     * @param i sample index
+     * @param top number of clonotypes to select
+     * @return a new sample containing top N clonotypes
+     */
+    @CompileStatic
+    public Sample getTop(int i, int top) {
+        if (i < 0 || i >= metadataTable.sampleCount)
+            throw new IndexOutOfBoundsException()
+
+        def connection = sampleMap[metadataTable.getRow(i).sampleId]
+        connection instanceof SampleStreamConnection ?
+                ((SampleStreamConnection) connection).getTop(top) :
+                Sample.selectTop(connection.sample, top)
+    }
+
+    /**
+     * Gets the path to the file a sample was loaded from, by index, according to current ordering
+     * @param i sample index
+     * @return path to sample file, or null if sample was not loaded from a file
+     */
+    @CompileStatic
+    public String getFileName(int i) {
+        if (i < 0 || i >= metadataTable.sampleCount)
+            throw new IndexOutOfBoundsException()
+
+        def connection = sampleMap[metadataTable.getRow(i).sampleId]
+        connection instanceof SampleStreamConnection ?
+                ((SampleStreamConnection) connection).fileName : null
+    }
+
     /**
      * Gets sample pair by indices, according to current ordering
      * @param i index of first sample in pair
@@ -306,11 +569,21 @@ class SampleCollection implements Iterable<Sample> {
 
     /**
      * Gets an iterator that iterates over samples it current collection 
-     * and loads them if needed
+     * and loads them if needed. When lazy loading is on, next {@link #PREFETCH} samples
+     * are loaded in background while the current one is processed
      */
     @CompileStatic
     public Iterator iterator() {
         def iter = metadataTable.sampleIterator
+        if (lazy && PREFETCH > 0 && size() > 1) {
+            return new PrefetchingSampleIterator([
+                    hasNext: {
+                        iter.hasNext()
+                    },
+                    next   : {
+                        sampleMap[iter.next()]
+                    }] as Iterator<SampleConnection>, PREFETCH)
+        }
         return [
                 hasNext: {
                     iter.hasNext()
@@ -30,6 +30,7 @@
 package com.antigenomics.vdjtools.sample.metadata
 
 import com.antigenomics.vdjtools.io.FileInputStreamFactory
+import com.antigenomics.vdjtools.io.binary.BinarySampleFormat
 import com.antigenomics.vdjtools.io.SampleFileConnection
 import com.antigenomics.vdjtools.sample.SampleCollection
 import groovy.transform.PackageScope
@@ -332,6 +333,18 @@ class MetadataTable implements Iterable<SampleMetadata> {
      * @param filters list of filter names applied to data this time
      */
     public void storeWithOutput(String outputPrefix, boolean compress, String... filters) {
+        storeWithOutput(outputPrefix, compress, false, filters)
+    }
+
+    /**
+     * Write metadata table copy to file assuming that one-to-one sample output will also be
+     * placed to the same directory.
+     * @param outputPrefix output prefix
+     * @param compress indicates whether samples will be stored as compressed
+     * @param binary indicates whether samples will be stored in binary columnar format
+     * @param filters list of filter names applied to data this time
+     */
+    public void storeWithOutput(String outputPrefix, boolean compress, boolean binary, String... filters) {
         def metadataPath = formMetadataPath(outputPrefix)
 
         def metadataTableCopy = this.copy()
@@ -350,6 +363,8 @@ class MetadataTable implements Iterable<SampleMetadata> {
             pw.println("$FILE_NAME_COLUMN\t$SAMPLE_ID_COLUMN\t" + metadataTableCopy.columnHeader)
             metadataTableCopy.each {
                 def sampleOutputPath = formOutputPath(outputPrefix, it.sampleId)
+                if (binary)
+                    sampleOutputPath = BinarySampleFormat.toBinaryPath(sampleOutputPath)
 
                 pw.println([relativeSamplePath(metadataPath, sampleOutputPath) + (compress ? ".gz" : ""),
                             it.sampleId,
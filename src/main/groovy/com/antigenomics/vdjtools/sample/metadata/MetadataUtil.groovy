@@ -54,7 +54,7 @@ public class MetadataUtil {
      * @param sampleId short unique identifier of a sample
      * @return sample metadata object assigned to a generic metadata table
      */
-    public static SampleMetadata createSampleMetadata(String sampleId) {
+    public static synchronized SampleMetadata createSampleMetadata(String sampleId) {
         def idCount = (sampleHash[sampleId] ?: 0) + 1
         sampleHash.put(sampleId, idCount)
         defaultMetadataTable.createRow((idCount > 0 ? "$idCount." : "") + sampleId, new ArrayList<String>())
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io;
+
+import com.antigenomics.vdjtools.sample.Clonotype;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.util.List;
+
+/**
+ * Encodes clonotypes as tab-delimited rows according to a list of clonotype property names, such as
+ * {@link com.antigenomics.vdjtools.misc.Software#getPrintFields()}. Property names are resolved once upon
+ * construction, so that rows are built by appending numbers and sequences straight to a {@link StringBuilder}
+ * without dynamic property lookup. Properties that are not known to the encoder are accessed via Groovy
+ * meta-class. This class is immutable and can be shared between threads.
+ */
+public final class ClonotypeRowEncoder {
+    private static final int COUNT = 0, FREQ = 1, FREQ_AS_IN_INPUT = 2,
+            CDR3NT = 3, CDR3AA = 4, V = 5, D = 6, J = 7,
+            V_END = 8, D_START = 9, D_END = 10, J_START = 11,
+            CDR3_LENGTH = 12, IN_FRAME = 13, NO_STOP = 14, COMPLETE = 15,
+            BLANK = 16, OTHER = 17;
+
+    private final int[] fieldTypes;
+    private final String[] fieldNames;
+
+    /**
+     * Creates a row encoder.
+     *
+     * @param fields names of clonotype properties that will be written, in order.
+     */
+    public ClonotypeRowEncoder(List<String> fields) {
+        this.fieldTypes = new int[fields.size()];
+        this.fieldNames = fields.toArray(new String[fields.size()]);
+
+        for (int i = 0; i < fieldNames.length; i++) {
+            fieldTypes[i] = getFieldType(fieldNames[i]);
+        }
+    }
+
+    private static int getFieldType(String field) {
+        if (field == null) {
+            // placeholder
+            return BLANK;
+        }
+        switch (field) {
+            case "count":
+                return COUNT;
+            case "freq":
+                return FREQ;
+            case "freqAsInInput":
+                return FREQ_AS_IN_INPUT;
+            case "cdr3nt":
+                return CDR3NT;
+            case "cdr3aa":
+                return CDR3AA;
+            case "v":
+                return V;
+            case "d":
+                return D;
+            case "j":
+                return J;
+            case "VEnd":
+                return V_END;
+            case "DStart":
+                return D_START;
+            case "DEnd":
+                return D_END;
+            case "JStart":
+                return J_START;
+            case "cdr3Length":
+                return CDR3_LENGTH;
+            case "inFrame":
+                return IN_FRAME;
+            case "noStop":
+                return NO_STOP;
+            case "complete":
+                return COMPLETE;
+            case "blank":
+                return BLANK;
+            default:
+                return OTHER;
+        }
+    }
+
+    /**
+     * Appends a tab-delimited row for a given clonotype.
+     *
+     * @param sb        string builder to append to.
+     * @param clonotype clonotype to encode.
+     * @return string builder.
+     */
+    public StringBuilder append(StringBuilder sb, Clonotype clonotype) {
+        for (int i = 0; i < fieldTypes.length; i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            switch (fieldTypes[i]) {
+                case COUNT:
+                    sb.append(clonotype.getCount());
+                    break;
+                case FREQ:
+                    sb.append(clonotype.getFreq());
+                    break;
+                case FREQ_AS_IN_INPUT:
+                    sb.append(clonotype.getFreqAsInInput());
+                    break;
+                default:
+                    appendField(sb, clonotype, i);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Appends a tab-delimited row for a given clonotype, count and frequency fields are replaced
+     * with the specified values. Used to write clonotypes that represent joint or pooled clonotypes.
+     *
+     * @param sb        string builder to append to.
+     * @param clonotype clonotype to encode.
+     * @param count     value for count field.
+     * @param freq      value for frequency field.
+     * @return string builder.
+     */
+    public StringBuilder append(StringBuilder sb, Clonotype clonotype, long count, double freq) {
+        for (int i = 0; i < fieldTypes.length; i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            switch (fieldTypes[i]) {
+                case COUNT:
+                    sb.append(count);
+                    break;
+                case FREQ:
+                case FREQ_AS_IN_INPUT:
+                    sb.append(freq);
+                    break;
+                default:
+                    appendField(sb, clonotype, i);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Encodes a given clonotype as a tab-delimited row.
+     *
+     * @param clonotype clonotype to encode.
+     * @return tab-delimited row.
+     */
+    public String encode(Clonotype clonotype) {
+        return append(new StringBuilder(128), clonotype).toString();
+    }
+
+    private void appendField(StringBuilder sb, Clonotype clonotype, int i) {
+        switch (fieldTypes[i]) {
+            case CDR3NT:
+                sb.append(clonotype.getCdr3nt());
+                break;
+            case CDR3AA:
+                sb.append(clonotype.getCdr3aa());
+                break;
+            case V:
+                sb.append(clonotype.getV());
+                break;
+            case D:
+                sb.append(clonotype.getD());
+                break;
+            case J:
+                sb.append(clonotype.getJ());
+                break;
+            case V_END:
+                sb.append(clonotype.getVEnd());
+                break;
+            case D_START:
+                sb.append(clonotype.getDStart());
+                break;
+            case D_END:
+                sb.append(clonotype.getDEnd());
+                break;
+            case J_START:
+                sb.append(clonotype.getJStart());
+                break;
+            case CDR3_LENGTH:
+                sb.append(clonotype.getCdr3Length());
+                break;
+            case IN_FRAME:
+                sb.append(clonotype.isInFrame());
+                break;
+            case NO_STOP:
+                sb.append(clonotype.isNoStop());
+                break;
+            case COMPLETE:
+                sb.append(clonotype.isComplete());
+                break;
+            case BLANK:
+                sb.append(clonotype.getBlank());
+                break;
+            default:
+                sb.append(InvokerHelper.toString(InvokerHelper.getProperty(clonotype, fieldNames[i])));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A writer for plain-text tables that builds each row in a reusable buffer and writes it without creating
+ * intermediate strings. Rows are terminated with system line separator, same as {@code println}.
+ * Not thread-safe.
+ */
+public final class RowWriter implements Closeable {
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Writer writer;
+    private final StringBuilder row = new StringBuilder(256);
+    private char[] chars = new char[256];
+
+    /**
+     * Creates a row writer.
+     *
+     * @param writer underlying writer.
+     */
+    public RowWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Gets the buffer holding the current row.
+     *
+     * @return current row buffer.
+     */
+    public StringBuilder getRow() {
+        return row;
+    }
+
+    /**
+     * Writes the current row followed by line separator and clears the row buffer.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void endRow() throws IOException {
+        row.append(LINE_SEPARATOR);
+
+        int length = row.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+        row.getChars(0, length, chars, 0);
+        writer.write(chars, 0, length);
+
+        row.setLength(0);
+    }
+
+    /**
+     * Writes a line, the current row should be empty.
+     *
+     * @param line line to write.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void println(String line) throws IOException {
+        writer.write(line);
+        writer.write(LINE_SEPARATOR);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
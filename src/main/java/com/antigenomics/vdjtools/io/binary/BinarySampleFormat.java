@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.binary;
+
+import java.io.*;
+
+/**
+ * Layout constants and helpers for the binary columnar clonotype table format.
+ * <p>
+ * A binary sample file starts with a header holding sample-level statistics, segment dictionary and
+ * a table of column sections. Each column section stores a single clonotype field for all clonotypes
+ * of a sample, so that the file can be memory-mapped and decoded without any text parsing:
+ * <ul>
+ * <li>counts and frequencies as primitive arrays,</li>
+ * <li>V, D and J segments as indices in the segment dictionary,</li>
+ * <li>segment points as four ints per clonotype,</li>
+ * <li>CDR3 nucleotide sequences packed 2 bits per base with a fall-back raw section for sequences
+ * containing ambiguous bases,</li>
+ * <li>CDR3 amino acid sequences and annotations as byte arenas with offset columns.</li>
+ * </ul>
+ * Clonotypes are stored in the order they appear in the sample, i.e. sorted by count.
+ */
+public final class BinarySampleFormat {
+    private BinarySampleFormat() {
+    }
+
+    /**
+     * File extension used for binary sample files
+     */
+    public static final String EXTENSION = ".vdjb";
+
+    /**
+     * Magic number, "VDJB" in ASCII
+     */
+    public static final int MAGIC = 0x56444A42;
+
+    /**
+     * Current format version
+     */
+    public static final int VERSION = 1;
+
+    static final int COL_COUNT = 0, COL_FREQ = 1,
+            COL_V = 2, COL_D = 3, COL_J = 4,
+            COL_SEGM_POINTS = 5, COL_FLAGS = 6,
+            COL_NT_OFFSETS = 7, COL_NT_PACKED = 8,
+            COL_NT_RAW_OFFSETS = 9, COL_NT_RAW = 10,
+            COL_AA_OFFSETS = 11, COL_AA = 12,
+            COL_ANNOT_OFFSETS = 13, COL_ANNOT = 14,
+            NUMBER_OF_COLUMNS = 15;
+
+    static final byte FLAG_IN_FRAME = 1, FLAG_NO_STOP = 2, FLAG_COMPLETE = 4, FLAG_RAW_NT = 8;
+
+    /**
+     * Encodes a nucleotide into 2-bit code
+     *
+     * @param nt nucleotide, upper case
+     * @return 0..3 for A, T, G and C, -1 otherwise
+     */
+    public static int nt2bits(char nt) {
+        switch (nt) {
+            case 'A':
+                return 0;
+            case 'T':
+                return 1;
+            case 'G':
+                return 2;
+            case 'C':
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    static final char[] BITS2NT = new char[]{'A', 'T', 'G', 'C'};
+
+    /**
+     * Decodes a nucleotide from 2-bit code
+     *
+     * @param bits 2-bit code, see {@link #nt2bits}
+     * @return nucleotide
+     */
+    public static char bits2nt(int bits) {
+        return BITS2NT[bits & 3];
+    }
+
+    /**
+     * Converts text sample file name to binary sample file name, replacing the ".txt" suffix
+     *
+     * @param fileName output file name
+     * @return file name with {@link #EXTENSION} extension
+     */
+    public static String toBinaryPath(String fileName) {
+        if (fileName.endsWith(EXTENSION)) {
+            return fileName;
+        }
+        return (fileName.endsWith(".txt") ? fileName.substring(0, fileName.length() - 4) : fileName) + EXTENSION;
+    }
+
+    /**
+     * Checks whether a given input stream holds a binary sample. The stream should support mark/reset,
+     * its position is not changed.
+     *
+     * @param inputStream input stream that supports {@link InputStream#mark}
+     * @return true if the stream starts with binary sample magic number
+     * @throws IOException if an I/O error occurs
+     */
+    public static boolean isBinary(InputStream inputStream) throws IOException {
+        inputStream.mark(4);
+        try {
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = inputStream.read();
+                if (b < 0) {
+                    return false;
+                }
+                magic = (magic << 8) | b;
+            }
+            return magic == MAGIC;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    /**
+     * Checks whether a given file is a binary sample, by checking its magic number.
+     *
+     * @param fileName path to file
+     * @return true if the file holds a binary sample
+     */
+    public static boolean isBinary(String fileName) {
+        File file = new File(fileName);
+        if (!file.isFile() || file.length() < 4) {
+            return false;
+        }
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            return inputStream.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.binary;
+
+import com.antigenomics.vdjtools.misc.Segment;
+import com.antigenomics.vdjtools.misc.SegmentFactory;
+import com.antigenomics.vdjtools.misc.SequencePool;
+import com.antigenomics.vdjtools.sample.Clonotype;
+import com.antigenomics.vdjtools.sample.Sample;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.antigenomics.vdjtools.io.binary.BinarySampleFormat.*;
+
+/**
+ * Reads samples stored in binary columnar format, see {@link BinarySampleFormat}.
+ * When opened from a file, columns are memory-mapped and clonotypes are decoded on demand,
+ * so no text parsing or per-line allocation is performed.
+ */
+public final class BinarySampleReader implements Iterable<Clonotype> {
+    private final Sample sample;
+    private final ByteBuffer[] columns;
+    private final Segment[] segments;
+    private final String annotationHeader;
+    private final int diversity;
+    private final long count;
+    private final double freq;
+
+    private BinarySampleReader(Sample sample, DataInput header, ColumnSource columnSource) throws IOException {
+        this.sample = sample;
+
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a binary sample file.");
+        }
+        int version = header.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary sample format version " + version + ".");
+        }
+
+        this.diversity = header.readInt();
+        this.count = header.readLong();
+        this.freq = header.readDouble();
+        this.annotationHeader = readString(header);
+
+        this.segments = new Segment[header.readInt()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = SegmentFactory.INSTANCE.create(readString(header));
+        }
+
+        this.columns = new ByteBuffer[NUMBER_OF_COLUMNS];
+        for (int k = 0; k < NUMBER_OF_COLUMNS; k++) {
+            long offset = header.readLong(), length = header.readLong();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Column is too large to be mapped.");
+            }
+            columns[k] = columnSource.get(offset, (int) length);
+        }
+    }
+
+    /**
+     * Opens a binary sample file, memory-mapping its columns.
+     *
+     * @param fileName binary sample file path.
+     * @param sample   parent sample for clonotypes that will be read.
+     * @return binary sample reader.
+     * @throws IOException if an I/O error occurs or the file is malformed.
+     */
+    public static BinarySampleReader open(String fileName, Sample sample) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             FileChannel channel = file.getChannel()) {
+            // mapped buffers remain valid after the channel is closed
+            return new BinarySampleReader(sample,
+                    new DataInputStream(new BufferedInputStream(new FileInputStream(file.getFD()))),
+                    (offset, length) -> channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+        }
+    }
+
+    /**
+     * Reads a binary sample from an input stream. The stream is fully read into memory.
+     *
+     * @param inputStream input stream containing binary sample.
+     * @param sample      parent sample for clonotypes that will be read.
+     * @return binary sample reader.
+     * @throws IOException if an I/O error occurs or the stream is malformed.
+     */
+    public static BinarySampleReader read(InputStream inputStream, Sample sample) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while ((n = inputStream.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        byte[] data = bytes.toByteArray();
+        return new BinarySampleReader(sample,
+                new DataInputStream(new ByteArrayInputStream(data)),
+                (offset, length) -> ByteBuffer.wrap(data, (int) offset, length).slice());
+    }
+
+    /**
+     * Gets the annotation header stored in sample file.
+     *
+     * @return annotation header, or null if clonotypes have no annotation.
+     */
+    public String getAnnotationHeader() {
+        return annotationHeader;
+    }
+
+    /**
+     * Gets the number of clonotypes stored in sample file.
+     *
+     * @return number of clonotypes.
+     */
+    public int getDiversity() {
+        return diversity;
+    }
+
+    /**
+     * Gets the total number of reads stored in sample file.
+     *
+     * @return read count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the total frequency of clonotypes stored in sample file.
+     *
+     * @return total frequency.
+     */
+    public double getFreq() {
+        return freq;
+    }
+
+    /**
+     * Decodes a clonotype by its index.
+     *
+     * @param index clonotype index.
+     * @return clonotype.
+     */
+    public Clonotype getAt(int index) {
+        if (index < 0 || index >= diversity) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        byte flags = columns[COL_FLAGS].get(index);
+
+        ByteBuffer segmPointsColumn = columns[COL_SEGM_POINTS];
+        int[] segmPoints = new int[4];
+        for (int k = 0; k < 4; k++) {
+            segmPoints[k] = segmPointsColumn.getInt(16 * index + 4 * k);
+        }
+
+        String annotation = null;
+        if (annotationHeader != null) {
+            annotation = readBytes(COL_ANNOT_OFFSETS, COL_ANNOT, index, StandardCharsets.UTF_8);
+        }
+
+        return new Clonotype(sample,
+                columns[COL_COUNT].getInt(4 * index),
+                columns[COL_FREQ].getDouble(8 * index),
+                segmPoints,
+                segments[columns[COL_V].getInt(4 * index)],
+                segments[columns[COL_D].getInt(4 * index)],
+                segments[columns[COL_J].getInt(4 * index)],
+                SequencePool.INSTANCE.nt((flags & FLAG_RAW_NT) != 0 ?
+                        readBytes(COL_NT_RAW_OFFSETS, COL_NT_RAW, index, StandardCharsets.ISO_8859_1) :
+                        unpackNt(index)),
+                SequencePool.INSTANCE.aa(readBytes(COL_AA_OFFSETS, COL_AA, index, StandardCharsets.ISO_8859_1)),
+                (flags & FLAG_IN_FRAME) != 0,
+                (flags & FLAG_NO_STOP) != 0,
+                (flags & FLAG_COMPLETE) != 0,
+                annotation);
+    }
+
+    private String unpackNt(int index) {
+        ByteBuffer offsets = columns[COL_NT_OFFSETS], packed = columns[COL_NT_PACKED];
+        int from = offsets.getInt(4 * index), to = offsets.getInt(4 * index + 4);
+        char[] nt = new char[to - from];
+        for (int pos = from; pos < to; pos++) {
+            nt[pos - from] = BITS2NT[(packed.get(pos >> 2) >> ((pos & 3) << 1)) & 3];
+        }
+        return new String(nt);
+    }
+
+    private String readBytes(int offsetsColumn, int dataColumn, int index, Charset charset) {
+        ByteBuffer offsets = columns[offsetsColumn], data = columns[dataColumn];
+        int from = offsets.getInt(4 * index), to = offsets.getInt(4 * index + 4);
+        byte[] bytes = new byte[to - from];
+        for (int pos = from; pos < to; pos++) {
+            bytes[pos - from] = data.get(pos);
+        }
+        return new String(bytes, charset);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Iterator<Clonotype> iterator() {
+        return new Iterator<Clonotype>() {
+            int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < diversity;
+            }
+
+            @Override
+            public Clonotype next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getAt(index++);
+            }
+        };
+    }
+
+    private interface ColumnSource {
+        ByteBuffer get(long offset, int length) throws IOException;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.binary;
+
+import com.antigenomics.vdjtools.misc.Segment;
+import com.antigenomics.vdjtools.sample.Clonotype;
+import com.antigenomics.vdjtools.sample.Sample;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.antigenomics.vdjtools.io.binary.BinarySampleFormat.*;
+
+/**
+ * Writes samples in binary columnar format, see {@link BinarySampleFormat}.
+ */
+public final class BinarySampleWriter {
+    private BinarySampleWriter() {
+    }
+
+    /**
+     * Writes a sample to the specified path in binary columnar format.
+     *
+     * @param sample      sample to write.
+     * @param fileName    output path.
+     * @param top         number of top clonotypes to write, -1 to write all clonotypes.
+     * @param renormalize if true will store clonotype frequencies re-calculated from read counts,
+     *                    otherwise frequencies as in input will be stored.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(Sample sample, String fileName, int top, boolean renormalize) throws IOException {
+        final int n = top > sample.getDiversity() || top < 0 ? sample.getDiversity() : top;
+        final boolean hasAnnotation = sample.getAnnotationHeader() != null;
+
+        // Fixed-width columns
+
+        int[] counts = new int[n], vIds = new int[n], dIds = new int[n], jIds = new int[n],
+                segmPoints = new int[4 * n],
+                ntOffsets = new int[n + 1], ntRawOffsets = new int[n + 1], aaOffsets = new int[n + 1],
+                annotOffsets = new int[hasAnnotation ? (n + 1) : 0];
+        double[] freqs = new double[n];
+        byte[] flags = new byte[n];
+
+        Map<Segment, Integer> segmentIds = new HashMap<>();
+        List<Segment> segments = new ArrayList<>();
+
+        long count = 0;
+        double freq = 0;
+        int ntTotal = 0, aaTotal = 0;
+
+        for (int i = 0; i < n; i++) {
+            Clonotype clonotype = sample.getAt(i);
+            ntTotal += clonotype.getCdr3ntBinary().size();
+            aaTotal += clonotype.getCdr3aaBinary().size();
+        }
+
+        // Variable-width columns
+
+        byte[] ntPacked = new byte[(ntTotal + 3) / 4], aa = new byte[aaTotal];
+        ByteArrayOutputStream ntRaw = new ByteArrayOutputStream(),
+                annotations = new ByteArrayOutputStream();
+
+        int ntPos = 0, aaPos = 0;
+
+        for (int i = 0; i < n; i++) {
+            Clonotype clonotype = sample.getAt(i);
+
+            counts[i] = (int) clonotype.getCount();
+            freqs[i] = renormalize ? clonotype.getFreq() : clonotype.getFreqAsInInput();
+            count += counts[i];
+            freq += freqs[i];
+
+            vIds[i] = segmentId(clonotype.getVBinary(), segmentIds, segments);
+            dIds[i] = segmentId(clonotype.getDBinary(), segmentIds, segments);
+            jIds[i] = segmentId(clonotype.getJBinary(), segmentIds, segments);
+
+            segmPoints[4 * i] = clonotype.getVEnd();
+            segmPoints[4 * i + 1] = clonotype.getDStart();
+            segmPoints[4 * i + 2] = clonotype.getDEnd();
+            segmPoints[4 * i + 3] = clonotype.getJStart();
+
+            byte flag = 0;
+            if (clonotype.isInFrame())
+                flag |= FLAG_IN_FRAME;
+            if (clonotype.isNoStop())
+                flag |= FLAG_NO_STOP;
+            if (clonotype.isComplete())
+                flag |= FLAG_COMPLETE;
+
+            String cdr3nt = clonotype.getCdr3nt();
+            for (int k = 0; k < cdr3nt.length(); k++) {
+                int bits = nt2bits(cdr3nt.charAt(k));
+                if (bits < 0) {
+                    // ambiguous base, store as is, packed bases are left as zeros
+                    flag |= FLAG_RAW_NT;
+                    byte[] raw = cdr3nt.getBytes(StandardCharsets.ISO_8859_1);
+                    ntRaw.write(raw, 0, raw.length);
+                    break;
+                }
+                int pos = ntPos + k;
+                ntPacked[pos >> 2] |= bits << ((pos & 3) << 1);
+            }
+            ntPos += cdr3nt.length();
+            ntOffsets[i + 1] = ntPos;
+            ntRawOffsets[i + 1] = ntRaw.size();
+
+            String cdr3aa = clonotype.getCdr3aa();
+            for (int k = 0; k < cdr3aa.length(); k++) {
+                aa[aaPos++] = (byte) cdr3aa.charAt(k);
+            }
+            aaOffsets[i + 1] = aaPos;
+
+            if (hasAnnotation) {
+                String annotation = clonotype.getAnnotation();
+                if (annotation != null) {
+                    byte[] bytes = annotation.getBytes(StandardCharsets.UTF_8);
+                    annotations.write(bytes, 0, bytes.length);
+                }
+                annotOffsets[i + 1] = annotations.size();
+            }
+
+            flags[i] = flag;
+        }
+
+        // Header
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(n);
+        header.writeLong(count);
+        header.writeDouble(freq);
+        writeString(header, sample.getAnnotationHeader());
+        header.writeInt(segments.size());
+        for (Segment segment : segments) {
+            writeString(header, segment.getName());
+        }
+
+        long[] lengths = new long[NUMBER_OF_COLUMNS];
+        lengths[COL_COUNT] = 4L * n;
+        lengths[COL_FREQ] = 8L * n;
+        lengths[COL_V] = lengths[COL_D] = lengths[COL_J] = 4L * n;
+        lengths[COL_SEGM_POINTS] = 16L * n;
+        lengths[COL_FLAGS] = n;
+        lengths[COL_NT_OFFSETS] = lengths[COL_NT_RAW_OFFSETS] = lengths[COL_AA_OFFSETS] = 4L * (n + 1);
+        lengths[COL_NT_PACKED] = ntPacked.length;
+        lengths[COL_NT_RAW] = ntRaw.size();
+        lengths[COL_AA] = aa.length;
+        lengths[COL_ANNOT_OFFSETS] = 4L * annotOffsets.length;
+        lengths[COL_ANNOT] = annotations.size();
+
+        // header + column table (offset and length for each column)
+        long offset = header.size() + 16L * NUMBER_OF_COLUMNS;
+        for (int k = 0; k < NUMBER_OF_COLUMNS; k++) {
+            header.writeLong(offset);
+            header.writeLong(lengths[k]);
+            offset += lengths[k];
+        }
+        header.flush();
+
+        // Columns
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName), 1 << 16))) {
+            headerBytes.writeTo(out);
+            writeInts(out, counts);
+            for (double f : freqs) {
+                out.writeDouble(f);
+            }
+            writeInts(out, vIds);
+            writeInts(out, dIds);
+            writeInts(out, jIds);
+            writeInts(out, segmPoints);
+            out.write(flags);
+            writeInts(out, ntOffsets);
+            out.write(ntPacked);
+            writeInts(out, ntRawOffsets);
+            ntRaw.writeTo(out);
+            writeInts(out, aaOffsets);
+            out.write(aa);
+            writeInts(out, annotOffsets);
+            annotations.writeTo(out);
+        }
+    }
+
+    private static int segmentId(Segment segment, Map<Segment, Integer> segmentIds, List<Segment> segments) {
+        Integer id = segmentIds.get(segment);
+        if (id == null) {
+            segmentIds.put(segment, id = segments.size());
+            segments.add(segment);
+        }
+        return id;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
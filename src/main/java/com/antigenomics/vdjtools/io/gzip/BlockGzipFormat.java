@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.gzip;
+
+/**
+ * Block gzip layout shared by {@link BlockGzipOutputStream} and {@link BlockGzipInputStream}.
+ * The file is a series of independent gzip members of at most {@link #BLOCK_SIZE} uncompressed bytes, each member
+ * carries its own compressed size in a "BC" extra field, so the stream can be split into members without inflating it.
+ * The layout is the same as BGZF used by samtools/htslib, so the output remains a valid multi-member gzip file
+ * readable by {@code gzip}, {@code zcat} and {@link java.util.zip.GZIPInputStream}.
+ */
+public final class BlockGzipFormat {
+    /**
+     * Maximal number of uncompressed bytes in a single block, chosen so that compressed block fits in 64 Kb.
+     */
+    public static final int BLOCK_SIZE = 65280;
+    /**
+     * Maximal size of a compressed block including header and trailer.
+     */
+    public static final int MAX_BLOCK_SIZE = 65536;
+    /**
+     * Number of blocks processed by a single compression/decompression task.
+     */
+    public static final int BLOCKS_PER_TASK = 16;
+    public static final int HEADER_SIZE = 18, TRAILER_SIZE = 8;
+
+    /**
+     * An empty block marking the end of file.
+     */
+    static final byte[] EOF_BLOCK = {
+            31, -117, 8, 4, 0, 0, 0, 0, 0, -1, 6, 0, 66, 67, 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private BlockGzipFormat() {
+    }
+
+    /**
+     * Writes block header for a block of a given total size.
+     *
+     * @param buffer    output buffer.
+     * @param offset    header offset in buffer.
+     * @param blockSize total size of the block, including header and trailer.
+     */
+    static void writeHeader(byte[] buffer, int offset, int blockSize) {
+        System.arraycopy(EOF_BLOCK, 0, buffer, offset, HEADER_SIZE - 2);
+        writeShort(buffer, offset + HEADER_SIZE - 2, blockSize - 1);
+    }
+
+    /**
+     * Checks whether a given gzip member header is a block gzip header.
+     *
+     * @param header header bytes, at least {@link #HEADER_SIZE} long.
+     * @return true if the header has a "BC" extra field holding block size.
+     */
+    static boolean isBlockHeader(byte[] header) {
+        return header[0] == 31 && header[1] == -117 && header[2] == 8 && (header[3] & 4) != 0 &&
+                readShort(header, 10) == 6 && header[12] == 66 && header[13] == 67 && readShort(header, 14) == 2;
+    }
+
+    /**
+     * Gets the total size of a block from its header.
+     *
+     * @param header block header.
+     * @return block size, including header and trailer.
+     */
+    static int getBlockSize(byte[] header) {
+        return readShort(header, 16) + 1;
+    }
+
+    static int readShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    static int readInt(byte[] buffer, int offset) {
+        return readShort(buffer, offset) | (readShort(buffer, offset + 2) << 16);
+    }
+
+    static void writeShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+    }
+
+    static void writeInt(byte[] buffer, int offset, int value) {
+        writeShort(buffer, offset, value);
+        writeShort(buffer, offset + 2, value >>> 16);
+    }
+}
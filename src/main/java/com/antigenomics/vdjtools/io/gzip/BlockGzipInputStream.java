@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.gzip;
+
+import com.antigenomics.vdjtools.misc.ExecUtil;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static com.antigenomics.vdjtools.io.gzip.BlockGzipFormat.*;
+
+/**
+ * An input stream that decompresses gzip files. Block gzip files (see {@link BlockGzipFormat}) are split into
+ * blocks by reading block headers and the blocks are decompressed concurrently, keeping a bounded number of blocks
+ * in memory. Any other gzip member is read sequentially using {@link GZIPInputStream}, so that plain gzip files and
+ * files concatenated from plain and block gzip parts are also supported.
+ */
+public class BlockGzipInputStream extends InputStream {
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final byte[] EMPTY = new byte[0];
+
+    private final InputStream in;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private InputStream tail = null;
+    private byte[] current = EMPTY;
+    private int position = 0;
+    private boolean eof = false, closed = false, started = false;
+
+    /**
+     * Creates a block gzip input stream.
+     *
+     * @param in underlying input stream holding gzip-compressed data.
+     */
+    public BlockGzipInputStream(InputStream in) {
+        this.in = in.markSupported() ? in : new BufferedInputStream(in, MAX_BLOCK_SIZE);
+        this.maxPending = 2 * ExecUtil.THREADS;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return tail != null ? tail.read() : -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return tail != null ? tail.read(b, off, len) : -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (position < current.length) {
+            return current.length - position;
+        }
+        return tail != null ? tail.available() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        if (tail != null) {
+            tail.close();
+        } else {
+            in.close();
+        }
+    }
+
+    /**
+     * INTERNAL makes sure that there is decompressed data in the current chunk.
+     *
+     * @return false if there are no more decompressed blocks, in this case the remaining data
+     * should be read from {@link #tail}, if any.
+     */
+    private boolean ensureData() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        while (position == current.length) {
+            fill();
+            if (pending.isEmpty()) {
+                return false;
+            }
+            current = next();
+            position = 0;
+        }
+        return true;
+    }
+
+    /**
+     * INTERNAL reads compressed blocks and submits them for decompression until the number of
+     * pending chunks reaches its limit.
+     */
+    private void fill() throws IOException {
+        while (!eof && pending.size() < maxPending) {
+            List<byte[]> blocks = readBlocks();
+            if (blocks.isEmpty()) {
+                break;
+            }
+            if (ExecUtil.THREADS > 1) {
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return decompress(blocks);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, ExecUtil.getSharedPool()));
+            } else {
+                pending.add(CompletableFuture.completedFuture(decompress(blocks)));
+            }
+        }
+    }
+
+    /**
+     * INTERNAL gets the next decompressed chunk, waiting for it to complete.
+     */
+    private byte[] next() throws IOException {
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof IOException ? (IOException) cause :
+                    new IOException("Failed to decompress block.", cause);
+        }
+    }
+
+    /**
+     * INTERNAL reads up to {@link BlockGzipFormat#BLOCKS_PER_TASK} compressed blocks. Switches to sequential
+     * decompression once a gzip member that is not a block is found.
+     *
+     * @return a list of compressed blocks, empty if there are no more blocks.
+     */
+    private List<byte[]> readBlocks() throws IOException {
+        List<byte[]> blocks = new ArrayList<>(BLOCKS_PER_TASK);
+
+        while (blocks.size() < BLOCKS_PER_TASK) {
+            in.mark(HEADER_SIZE);
+            int headerSize = readFully(in, header, 0, HEADER_SIZE);
+
+            if (headerSize == 0) {
+                eof = true;
+                break;
+            }
+
+            if (started && (headerSize < 2 || header[0] != 31 || header[1] != -117)) {
+                // trailing garbage after gzip members is ignored, same as in GZIPInputStream
+                eof = true;
+                break;
+            }
+
+            if (headerSize < HEADER_SIZE || !isBlockHeader(header)) {
+                // plain gzip member, decompress the rest of the stream sequentially
+                in.reset();
+                tail = new GZIPInputStream(in);
+                eof = true;
+                break;
+            }
+
+            int blockSize = getBlockSize(header);
+            if (blockSize < HEADER_SIZE + TRAILER_SIZE) {
+                throw new ZipException("Malformed block gzip header.");
+            }
+            byte[] block = new byte[blockSize];
+            System.arraycopy(header, 0, block, 0, HEADER_SIZE);
+            if (readFully(in, block, HEADER_SIZE, blockSize - HEADER_SIZE) < blockSize - HEADER_SIZE) {
+                throw new EOFException("Unexpected end of block gzip stream.");
+            }
+            blocks.add(block);
+            started = true;
+        }
+
+        return blocks;
+    }
+
+    /**
+     * INTERNAL decompresses a series of blocks.
+     *
+     * @param blocks compressed blocks.
+     * @return decompressed data.
+     */
+    private static byte[] decompress(List<byte[]> blocks) throws IOException {
+        int size = 0;
+        for (byte[] block : blocks) {
+            size += readInt(block, block.length - 4);
+        }
+
+        byte[] output = new byte[size];
+        int outputSize = 0;
+
+        Inflater inflater = INFLATER.get();
+        CRC32 crc32 = new CRC32();
+
+        for (byte[] block : blocks) {
+            int blockLength = readInt(block, block.length - 4);
+
+            inflater.reset();
+            inflater.setInput(block, HEADER_SIZE, block.length - HEADER_SIZE - TRAILER_SIZE);
+            try {
+                int n = 0;
+                while (n < blockLength && !inflater.finished()) {
+                    int inflated = inflater.inflate(output, outputSize + n, blockLength - n);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (n != blockLength) {
+                    throw new ZipException("Block size mismatch.");
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid block gzip data: " + e.getMessage());
+            }
+
+            crc32.reset();
+            crc32.update(output, outputSize, blockLength);
+            if ((int) crc32.getValue() != readInt(block, block.length - TRAILER_SIZE)) {
+                throw new ZipException("Block CRC32 mismatch.");
+            }
+
+            outputSize += blockLength;
+        }
+
+        return output;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int read = in.read(buffer, offset + n, length - n);
+            if (read < 0) {
+                break;
+            }
+            n += read;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.gzip;
+
+import com.antigenomics.vdjtools.misc.ExecUtil;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static com.antigenomics.vdjtools.io.gzip.BlockGzipFormat.*;
+
+/**
+ * An output stream that compresses data into independent gzip blocks (see {@link BlockGzipFormat}) using several
+ * threads. Blocks are compressed concurrently and are written in the original order, the number of blocks
+ * that are being compressed at a time is bounded so memory usage does not depend on the amount of data written.
+ */
+public class BlockGzipOutputStream extends FilterOutputStream {
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() ->
+            new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    private byte[] buffer = new byte[BLOCK_SIZE * BLOCKS_PER_TASK];
+    private int size = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a block gzip output stream.
+     *
+     * @param out underlying output stream.
+     */
+    public BlockGzipOutputStream(OutputStream out) {
+        super(out);
+        this.maxPending = 2 * ExecUtil.THREADS;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (size == buffer.length) {
+            submit();
+        }
+        buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (size == buffer.length) {
+                submit();
+            }
+            int n = Math.min(len, buffer.length - size);
+            System.arraycopy(b, off, buffer, size, n);
+            size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compresses all buffered data and flushes underlying stream. Note that flushing
+     * partially filled buffer will result in a smaller block, slightly decreasing compression ratio.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (size > 0) {
+            submit();
+        }
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses remaining data, writes end-of-file block and closes underlying stream.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            out.write(EOF_BLOCK);
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * INTERNAL submits buffered data for compression, writing out already compressed blocks to
+     * keep the number of pending tasks bounded.
+     */
+    private void submit() throws IOException {
+        final byte[] data = buffer;
+        final int length = size;
+        if (ExecUtil.THREADS > 1) {
+            while (pending.size() >= maxPending) {
+                writeNext();
+            }
+            pending.add(CompletableFuture.supplyAsync(() -> compress(data, length), ExecUtil.getSharedPool()));
+            buffer = new byte[buffer.length];
+        } else {
+            out.write(compress(data, length));
+        }
+
+        size = 0;
+    }
+
+    /**
+     * INTERNAL writes the next compressed chunk, waiting for it to complete.
+     */
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing.");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block.", e.getCause());
+        }
+    }
+
+    /**
+     * INTERNAL compresses data into a series of blocks.
+     *
+     * @param data   uncompressed data.
+     * @param length number of bytes to compress.
+     * @return compressed blocks.
+     */
+    private static byte[] compress(byte[] data, int length) {
+        Deflater deflater = DEFLATER.get();
+        CRC32 crc32 = new CRC32();
+
+        int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        byte[] output = new byte[blocks * MAX_BLOCK_SIZE];
+        int outputSize = 0;
+
+        for (int from = 0; from < length; from += BLOCK_SIZE) {
+            int blockLength = Math.min(BLOCK_SIZE, length - from);
+
+            deflater.reset();
+            deflater.setInput(data, from, blockLength);
+            deflater.finish();
+
+            int dataStart = outputSize + HEADER_SIZE, dataEnd = dataStart,
+                    dataLimit = outputSize + MAX_BLOCK_SIZE - TRAILER_SIZE;
+            while (!deflater.finished()) {
+                if (dataEnd == dataLimit) {
+                    throw new IllegalStateException("Compressed block does not fit into " +
+                            MAX_BLOCK_SIZE + " bytes.");
+                }
+                dataEnd += deflater.deflate(output, dataEnd, dataLimit - dataEnd);
+            }
+
+            crc32.reset();
+            crc32.update(data, from, blockLength);
+
+            int blockSize = dataEnd - outputSize + TRAILER_SIZE;
+            writeHeader(output, outputSize, blockSize);
+            writeInt(output, dataEnd, (int) crc32.getValue());
+            writeInt(output, dataEnd + 4, blockLength);
+
+            outputSize += blockSize;
+        }
+
+        return outputSize == output.length ? output : Arrays.copyOf(output, outputSize);
+    }
+}
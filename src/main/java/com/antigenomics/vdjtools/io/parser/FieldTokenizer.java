@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A reusable tokenizer that splits a delimited line into fields without using regular expressions
+ * and without allocating a String for each field. Field boundaries are stored as offsets in the
+ * underlying line, numeric fields are parsed in-place and strings are only created for fields
+ * that are explicitly requested.
+ * <p>
+ * Splitting rules are the same as for {@link String#split(String)} and {@link String#split(String, int)}
+ * with a delimiter pattern matching a single character from a given set. Numeric fields are parsed the same way
+ * as with Groovy {@code toInteger()}, {@code toDouble()} and {@code isInteger()}, i.e. surrounding whitespace
+ * is ignored.
+ * <p>
+ * The tokenizer is not thread-safe, a separate instance should be used for each thread.
+ */
+public final class FieldTokenizer {
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final char[] delimiters;
+    private final char singleDelimiter;
+    private String line;
+    private int[] starts = new int[64], ends = new int[64];
+    private int size;
+
+    /**
+     * Creates a new tokenizer.
+     *
+     * @param delimiters field delimiter characters, any of them will be treated as a delimiter.
+     */
+    public FieldTokenizer(String delimiters) {
+        if (delimiters.isEmpty()) {
+            throw new IllegalArgumentException("No delimiters specified.");
+        }
+        this.delimiters = delimiters.toCharArray();
+        this.singleDelimiter = delimiters.length() == 1 ? delimiters.charAt(0) : 0;
+    }
+
+    /**
+     * Converts a delimiter regular expression used by {@link String#split(String)} to a set of delimiter characters.
+     * Only single characters and character classes such as {@code [\t:]} are supported.
+     *
+     * @param delimiterRegex delimiter regular expression.
+     * @return delimiter characters.
+     * @throws IllegalArgumentException if the expression is not a single character or a character class.
+     */
+    public static String delimiterChars(String delimiterRegex) {
+        if (delimiterRegex.length() == 1 && "\\[](){}.*+?^$|".indexOf(delimiterRegex.charAt(0)) < 0) {
+            return delimiterRegex;
+        }
+        if (delimiterRegex.length() > 2 && delimiterRegex.startsWith("[") && delimiterRegex.endsWith("]")) {
+            String chars = delimiterRegex.substring(1, delimiterRegex.length() - 1);
+            if (!chars.contains("\\") && !chars.contains("-") && !chars.startsWith("^")) {
+                return chars;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported delimiter pattern " + delimiterRegex);
+    }
+
+    private boolean isDelimiter(char c) {
+        if (singleDelimiter != 0) {
+            return c == singleDelimiter;
+        }
+        for (char d : delimiters) {
+            if (c == d) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addField(int start, int end) {
+        if (size == starts.length) {
+            int[] newStarts = new int[size * 2], newEnds = new int[size * 2];
+            System.arraycopy(starts, 0, newStarts, 0, size);
+            System.arraycopy(ends, 0, newEnds, 0, size);
+            starts = newStarts;
+            ends = newEnds;
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Splits a given line into all of its fields. Trailing empty fields are discarded.
+     *
+     * @param line line to split.
+     * @return this tokenizer.
+     */
+    public FieldTokenizer reset(String line) {
+        reset(line, 0);
+
+        // trailing empty fields are discarded, as in String.split, unless the line is empty
+        while (size > 0 && starts[size - 1] == ends[size - 1] && line.length() > 0) {
+            size--;
+        }
+
+        return this;
+    }
+
+    /**
+     * Splits a given line into at most {@code limit} fields, the last field will contain the remainder of the line.
+     * This allows scanning only the leading part of a line that holds required columns.
+     *
+     * @param line  line to split.
+     * @param limit maximal number of fields, non-positive value means no limit.
+     * @return this tokenizer.
+     */
+    public FieldTokenizer reset(String line, int limit) {
+        this.line = line;
+        this.size = 0;
+
+        int start = 0, length = line.length();
+
+        for (int i = 0; i < length; i++) {
+            if (isDelimiter(line.charAt(i)) && (limit <= 0 || size < limit - 1)) {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        addField(start, length);
+
+        if (length == 0) {
+            // String.split on an empty string returns a single empty field
+            size = 1;
+        }
+
+        return this;
+    }
+
+    /**
+     * Gets the number of fields.
+     *
+     * @return number of fields.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    /**
+     * Gets the string value of a given field.
+     *
+     * @param index field index.
+     * @return field value.
+     */
+    public String get(int index) {
+        checkIndex(index);
+        return line.substring(starts[index], ends[index]);
+    }
+
+    /**
+     * Gets string values of given fields.
+     *
+     * @param indices field indices.
+     * @return list of field values.
+     */
+    public List<String> get(int... indices) {
+        List<String> values = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            values.add(get(index));
+        }
+        return values;
+    }
+
+    /**
+     * Gets the part of the line starting from a given field till the end of the last field.
+     *
+     * @param index index of first field.
+     * @return remainder of the line.
+     */
+    public String getRemainder(int index) {
+        checkIndex(index);
+        return line.substring(starts[index], ends[size - 1]);
+    }
+
+    /**
+     * Gets the length of a given field.
+     *
+     * @param index field index.
+     * @return field length.
+     */
+    public int length(int index) {
+        checkIndex(index);
+        return ends[index] - starts[index];
+    }
+
+    /**
+     * Checks if a given field is equal to a specified string.
+     *
+     * @param index field index.
+     * @param value string to compare with.
+     * @return true if field is equal to a given string.
+     */
+    public boolean equals(int index, String value) {
+        int length = length(index);
+        return length == value.length() && line.regionMatches(starts[index], value, 0, length);
+    }
+
+    /**
+     * Checks if a given field is equal to a specified string ignoring case.
+     *
+     * @param index field index.
+     * @param value string to compare with.
+     * @return true if field is equal to a given string ignoring case.
+     */
+    public boolean equalsIgnoreCase(int index, String value) {
+        int length = length(index);
+        return length == value.length() && line.regionMatches(true, starts[index], value, 0, length);
+    }
+
+    private int trimmedStart(int index) {
+        int from = starts[index], to = ends[index];
+        while (from < to && line.charAt(from) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimmedEnd(int index) {
+        int from = starts[index], to = ends[index];
+        while (to > from && line.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    /**
+     * Checks if a given field holds an integer value.
+     *
+     * @param index field index.
+     * @return true if the field can be parsed with {@link #getInt(int)}.
+     */
+    public boolean isInt(int index) {
+        checkIndex(index);
+        return parseInt(index, false) != null;
+    }
+
+    /**
+     * Parses a given field as integer.
+     *
+     * @param index field index.
+     * @return integer value.
+     * @throws NumberFormatException if the field is not an integer.
+     */
+    public int getInt(int index) {
+        checkIndex(index);
+        return parseInt(index, true);
+    }
+
+    private Integer parseInt(int index, boolean fail) {
+        int from = trimmedStart(index), to = trimmedEnd(index);
+
+        boolean negative = false;
+        if (from < to && (line.charAt(from) == '-' || line.charAt(from) == '+')) {
+            negative = line.charAt(from) == '-';
+            from++;
+        }
+
+        if (from == to) {
+            return fail ? failInt(index) : null;
+        }
+
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return fail ? failInt(index) : null;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return fail ? failInt(index) : null;
+            }
+        }
+
+        value = negative ? -value : value;
+
+        if (value > Integer.MAX_VALUE) {
+            return fail ? failInt(index) : null;
+        }
+
+        return (int) value;
+    }
+
+    private Integer failInt(int index) {
+        throw new NumberFormatException("For input string: \"" + get(index) + "\"");
+    }
+
+    /**
+     * Parses a given field as double. Plain decimal numbers with at most 15 significant digits are parsed in-place
+     * (the result is correctly rounded, i.e. the same as for {@link Double#parseDouble(String)}),
+     * other representations fall back to {@link Double#parseDouble(String)}.
+     *
+     * @param index field index.
+     * @return double value.
+     * @throws NumberFormatException if the field is not a number.
+     */
+    public double getDouble(int index) {
+        checkIndex(index);
+
+        int from = trimmedStart(index), to = trimmedEnd(index), pos = from;
+
+        boolean negative = false;
+        if (pos < to && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) {
+            negative = line.charAt(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int digits = 0, fractionDigits = 0;
+        boolean point = false, anyDigit = false, fastPath = true;
+
+        for (; pos < to; pos++) {
+            char c = line.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (mantissa > 0 || c != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (point) {
+                    fractionDigits++;
+                }
+                if (digits > 15 || fractionDigits >= POW10.length) {
+                    fastPath = false;
+                    break;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                fastPath = false;
+                break;
+            }
+        }
+
+        if (fastPath && anyDigit) {
+            // both mantissa and power of ten are exactly representable, so a single division is correctly rounded
+            double value = mantissa / POW10[fractionDigits];
+            return negative ? -value : value;
+        }
+
+        return Double.parseDouble(line.substring(from, to));
+    }
+}
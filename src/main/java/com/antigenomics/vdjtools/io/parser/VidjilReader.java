@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A streaming reader for Vidjil JSON output. The reader scans the top-level JSON object and returns
+ * entries of the {@code clones} array one by one, so only a single clone is kept in memory at a time.
+ * Other top-level entries are skipped without being materialized.
+ * <p>
+ * Clone entries are returned as maps of JSON values: objects are represented by {@link Map},
+ * arrays by {@link List}, integer numbers by {@link Long}, other numbers by {@link Double},
+ * and literals by {@link String}, {@link Boolean} and {@code null}.
+ */
+public final class VidjilReader {
+    private static final String CLONES = "clones";
+
+    private final Reader reader;
+    private final char[] buffer = new char[1 << 16];
+    private int position = 0, limit = 0;
+    private final StringBuilder stringBuilder = new StringBuilder();
+    private boolean inClones = false, finished = false, firstClone = true;
+
+    /**
+     * Creates a new reader.
+     *
+     * @param reader reader providing Vidjil JSON.
+     */
+    public VidjilReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next clone.
+     *
+     * @return clone object, or {@code null} if there are no more clones.
+     * @throws IOException if an I/O error occurs or the input is malformed.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> nextClone() throws IOException {
+        if (finished) {
+            return null;
+        }
+
+        if (!inClones && !seekClones()) {
+            finished = true;
+            return null;
+        }
+
+        int c = nextNonWhitespace();
+        if (c == ']') {
+            // end of clones array, there can be only one
+            finished = true;
+            return null;
+        }
+
+        if (!firstClone) {
+            if (c != ',') {
+                throw syntaxError("expected ',' or ']'");
+            }
+            c = nextNonWhitespace();
+        }
+        firstClone = false;
+
+        if (c != '{') {
+            throw syntaxError("clone should be a JSON object");
+        }
+
+        return (Map<String, Object>) readValue(c);
+    }
+
+    private boolean seekClones() throws IOException {
+        if (nextNonWhitespace() != '{') {
+            throw syntaxError("expected top-level JSON object");
+        }
+
+        boolean first = true;
+        while (true) {
+            int c = nextNonWhitespace();
+            if (c == '}') {
+                return false;
+            }
+            if (!first) {
+                if (c != ',') {
+                    throw syntaxError("expected ',' or '}'");
+                }
+                c = nextNonWhitespace();
+            }
+            first = false;
+
+            String key = readString(c);
+            if (nextNonWhitespace() != ':') {
+                throw syntaxError("expected ':'");
+            }
+
+            if (key.equals(CLONES)) {
+                if (nextNonWhitespace() != '[') {
+                    throw syntaxError("clones should be a JSON array");
+                }
+                inClones = true;
+                return true;
+            }
+
+            skipValue(nextNonWhitespace());
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private void unread() {
+        position--;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        if (c < 0) {
+            throw syntaxError("unexpected end of input");
+        }
+        return c;
+    }
+
+    private Object readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                Map<String, Object> object = new HashMap<>();
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return object;
+                }
+                while (true) {
+                    String key = readString(c);
+                    if (nextNonWhitespace() != ':') {
+                        throw syntaxError("expected ':'");
+                    }
+                    object.put(key, readValue(nextNonWhitespace()));
+                    c = nextNonWhitespace();
+                    if (c == '}') {
+                        return object;
+                    }
+                    if (c != ',') {
+                        throw syntaxError("expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+            case '[':
+                List<Object> array = new ArrayList<>();
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return array;
+                }
+                while (true) {
+                    array.add(readValue(c));
+                    c = nextNonWhitespace();
+                    if (c == ']') {
+                        return array;
+                    }
+                    if (c != ',') {
+                        throw syntaxError("expected ',' or ']'");
+                    }
+                    c = nextNonWhitespace();
+                }
+            case '"':
+                return readString(c);
+            default:
+                return readLiteral(c);
+        }
+    }
+
+    private void skipValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+            case '[':
+                int depth = 1;
+                while (depth > 0) {
+                    c = read();
+                    if (c < 0) {
+                        throw syntaxError("unexpected end of input");
+                    } else if (c == '"') {
+                        skipString();
+                    } else if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    }
+                }
+                break;
+            case '"':
+                skipString();
+                break;
+            default:
+                readLiteral(c);
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c;
+        while ((c = read()) != '"') {
+            if (c < 0) {
+                throw syntaxError("unterminated string");
+            }
+            if (c == '\\') {
+                read();
+            }
+        }
+    }
+
+    private String readString(int c) throws IOException {
+        if (c != '"') {
+            throw syntaxError("expected string");
+        }
+        stringBuilder.setLength(0);
+        while ((c = read()) != '"') {
+            if (c < 0) {
+                throw syntaxError("unterminated string");
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'n':
+                        stringBuilder.append('\n');
+                        break;
+                    case 't':
+                        stringBuilder.append('\t');
+                        break;
+                    case 'r':
+                        stringBuilder.append('\r');
+                        break;
+                    case 'b':
+                        stringBuilder.append('\b');
+                        break;
+                    case 'f':
+                        stringBuilder.append('\f');
+                        break;
+                    case 'u':
+                        char[] hex = new char[4];
+                        for (int i = 0; i < 4; i++) {
+                            int h = read();
+                            if (h < 0) {
+                                throw syntaxError("unterminated string");
+                            }
+                            hex[i] = (char) h;
+                        }
+                        stringBuilder.append((char) Integer.parseInt(new String(hex), 16));
+                        break;
+                    default:
+                        if (c < 0) {
+                            throw syntaxError("unterminated string");
+                        }
+                        stringBuilder.append((char) c);
+                }
+            } else {
+                stringBuilder.append((char) c);
+            }
+        }
+        return stringBuilder.toString();
+    }
+
+    private Object readLiteral(int c) throws IOException {
+        stringBuilder.setLength(0);
+        while (c >= 0 && c != ',' && c != '}' && c != ']' &&
+                c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+            stringBuilder.append((char) c);
+            c = read();
+        }
+        if (c >= 0) {
+            unread();
+        }
+
+        String literal = stringBuilder.toString();
+        switch (literal) {
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            case "null":
+                return null;
+            default:
+                try {
+                    if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0) {
+                        return Long.parseLong(literal);
+                    }
+                    return Double.parseDouble(literal);
+                } catch (NumberFormatException e) {
+                    throw syntaxError("bad literal '" + literal + "'");
+                }
+        }
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed Vidjil JSON: " + message);
+    }
+}
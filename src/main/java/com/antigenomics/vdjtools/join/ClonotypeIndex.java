@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.join;
+
+import com.antigenomics.vdjtools.join.key.ClonotypeFingerprint;
+import com.antigenomics.vdjtools.join.key.ClonotypeKey;
+import com.antigenomics.vdjtools.misc.LongIntHashMap;
+import com.antigenomics.vdjtools.overlap.OverlapType;
+import com.antigenomics.vdjtools.sample.Clonotype;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense indices to groups of clonotypes that match under a specific clonotype matching rule.
+ * Clonotypes are looked up by their cached 64-bit fingerprints in a primitive hash map, so no
+ * {@link ClonotypeKey} objects are allocated. Fingerprint matches are verified against the first clonotype
+ * of the group, in rare case of a collision the clonotype is looked up by its key.
+ */
+public class ClonotypeIndex {
+    private final OverlapType overlapType;
+    private final boolean fingerprinted, detach;
+    private final ClonotypeKeyGen clonotypeKeyGen;
+    private final LongIntHashMap fingerprintMap;
+    private final List<Clonotype> representatives = new ArrayList<>();
+    private Map<ClonotypeKey, Integer> keyMap = null;
+
+    /**
+     * Creates an empty clonotype index.
+     *
+     * @param overlapType clonotype matching rule.
+     */
+    public ClonotypeIndex(OverlapType overlapType) {
+        this(overlapType, 16);
+    }
+
+    /**
+     * Creates an empty clonotype index.
+     *
+     * @param overlapType  clonotype matching rule.
+     * @param expectedSize expected number of clonotype groups.
+     */
+    public ClonotypeIndex(OverlapType overlapType, int expectedSize) {
+        this(overlapType, expectedSize, false);
+    }
+
+    /**
+     * Creates an empty clonotype index.
+     *
+     * @param overlapType  clonotype matching rule.
+     * @param expectedSize expected number of clonotype groups.
+     * @param detach       if set to {@code true}, representative clonotypes are copied without a reference to
+     *                     their parent sample, so that indexed samples can be garbage collected.
+     */
+    public ClonotypeIndex(OverlapType overlapType, int expectedSize, boolean detach) {
+        this.overlapType = overlapType;
+        this.detach = detach;
+        this.fingerprinted = ClonotypeFingerprint.supports(overlapType);
+        this.clonotypeKeyGen = new ClonotypeKeyGen(overlapType);
+        this.fingerprintMap = fingerprinted ? new LongIntHashMap(expectedSize) : null;
+        if (!fingerprinted) {
+            keyMap = new HashMap<>();
+        }
+    }
+
+    /**
+     * Gets the index of a group a given clonotype belongs to.
+     *
+     * @param clonotype clonotype.
+     * @return group index or {@code -1} if there is no matching clonotype in the index.
+     */
+    public int indexOf(Clonotype clonotype) {
+        if (fingerprinted) {
+            int index = fingerprintMap.get(clonotype.getFingerprint(overlapType));
+
+            if (index == LongIntHashMap.NO_VALUE) {
+                return -1;
+            }
+
+            if (ClonotypeFingerprint.match(representatives.get(index), clonotype, overlapType)) {
+                return index;
+            }
+
+            if (keyMap == null) {
+                return -1;
+            }
+        }
+
+        Integer index = keyMap.get(clonotypeKeyGen.generateKey(clonotype));
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Adds a clonotype to the index. If there is no matching clonotype in the index, a new group is created
+     * and its index is equal to the size of the index prior to addition.
+     *
+     * @param clonotype clonotype.
+     * @return group index.
+     */
+    public int add(Clonotype clonotype) {
+        int index = representatives.size();
+
+        if (fingerprinted) {
+            long fingerprint = clonotype.getFingerprint(overlapType);
+            int existing = fingerprintMap.get(fingerprint);
+
+            if (existing == LongIntHashMap.NO_VALUE) {
+                fingerprintMap.put(fingerprint, index);
+                representatives.add(detach ? new Clonotype(clonotype, null) : clonotype);
+                return index;
+            }
+
+            if (ClonotypeFingerprint.match(representatives.get(existing), clonotype, overlapType)) {
+                return existing;
+            }
+
+            // fingerprint collision
+            if (keyMap == null) {
+                keyMap = new HashMap<>();
+            }
+        }
+
+        ClonotypeKey key = clonotypeKeyGen.generateKey(clonotype);
+        Integer existing = keyMap.get(key);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        if (detach) {
+            key = clonotypeKeyGen.generateKey(clonotype = new Clonotype(clonotype, null));
+        }
+
+        keyMap.put(key, index);
+        representatives.add(clonotype);
+        return index;
+    }
+
+    /**
+     * Gets the first clonotype added to a given group.
+     *
+     * @param index group index.
+     * @return representative clonotype.
+     */
+    public Clonotype getAt(int index) {
+        return representatives.get(index);
+    }
+
+    /**
+     * Gets the number of clonotype groups in the index.
+     *
+     * @return number of groups.
+     */
+    public int size() {
+        return representatives.size();
+    }
+
+    /**
+     * Gets the clonotype matching rule of this index.
+     *
+     * @return clonotype matching rule.
+     */
+    public OverlapType getOverlapType() {
+        return overlapType;
+    }
+}
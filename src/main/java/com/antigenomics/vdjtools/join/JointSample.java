@@ -30,7 +30,6 @@
 package com.antigenomics.vdjtools.join;
 
 import com.antigenomics.vdjtools.ClonotypeWrapperContainer;
-import com.antigenomics.vdjtools.join.key.ClonotypeKey;
 import com.antigenomics.vdjtools.overlap.OverlapType;
 import com.antigenomics.vdjtools.sample.Clonotype;
 import com.antigenomics.vdjtools.sample.Sample;
@@ -120,18 +119,25 @@ public class JointSample implements ClonotypeWrapperContainer<JointClonotype> {
         this.overlapType = overlapType;
         this.reverse = false;
 
-        ClonotypeKeyGen clonotypeKeyGen = new ClonotypeKeyGen(overlapType);
+        int expectedSize = 0;
+        for (Sample sample : samples) {
+            expectedSize = Math.max(expectedSize, sample.getDiversity());
+        }
+
+        ClonotypeIndex clonotypeIndex = new ClonotypeIndex(overlapType, expectedSize);
+        List<JointClonotype> allJointClonotypes = new ArrayList<>(expectedSize);
 
-        Map<ClonotypeKey, JointClonotype> clonotypeMap = new HashMap<>();
         int sampleIndex = 0;
         for (Sample sample : samples) {
             for (Clonotype clonotype : sample) {
-                ClonotypeKey key = clonotypeKeyGen.generateKey(clonotype);
+                int index = clonotypeIndex.add(clonotype);
 
-                JointClonotype jointClonotype = clonotypeMap.get(key);
+                JointClonotype jointClonotype;
 
-                if (jointClonotype == null) {
-                    clonotypeMap.put(key, jointClonotype = new JointClonotype(this));
+                if (index == allJointClonotypes.size()) {
+                    allJointClonotypes.add(jointClonotype = new JointClonotype(this));
+                } else {
+                    jointClonotype = allJointClonotypes.get(index);
                 }
 
                 jointClonotype.addVariant(clonotype, sampleIndex);
@@ -139,11 +145,11 @@ public class JointSample implements ClonotypeWrapperContainer<JointClonotype> {
             sampleIndex++;
         }
 
-        this.jointClonotypes = new ArrayList<>(clonotypeMap.size() / 2);
+        this.jointClonotypes = new ArrayList<>(allJointClonotypes.size() / 2);
 
         double totalMeanFreq = 0, minMeanFreq = 1;
         int count = 0;
-        for (JointClonotype jointClonotype : clonotypeMap.values()) {
+        for (JointClonotype jointClonotype : allJointClonotypes) {
             for (int i = 0; i < numberOfSamples; i++) {
                 if (jointClonotype.present(i)) {
                     totalDiv[i]++;
@@ -41,7 +41,7 @@ public final class AaKey extends ClonotypeKey {
 
     @Override
     public boolean equals(Clonotype other) {
-        return clonotype.getCdr3aaBinary().equals(other.getCdr3aaBinary());
+        return sameCdr3aa(clonotype, other);
     }
 
     @Override
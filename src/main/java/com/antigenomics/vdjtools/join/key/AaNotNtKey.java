@@ -41,8 +41,8 @@ public final class AaNotNtKey extends ClonotypeKey {
 
     @Override
     public boolean equals(Clonotype other) {
-        return clonotype.getCdr3aaBinary().equals(other.getCdr3aaBinary()) &&
-                !clonotype.getCdr3ntBinary().equals(other.getCdr3ntBinary());
+        return sameCdr3aa(clonotype, other) &&
+                !sameCdr3nt(clonotype, other);
     }
 
     @Override
@@ -41,7 +41,7 @@ public final class AaVJKey extends ClonotypeKey {
 
     @Override
     public boolean equals(Clonotype other) {
-        return clonotype.getCdr3aaBinary().equals(other.getCdr3aaBinary()) &&
+        return sameCdr3aa(clonotype, other) &&
                 clonotype.getVBinary().equals(other.getVBinary()) &&
                 clonotype.getJBinary().equals(other.getJBinary());
     }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.join.key;
+
+import com.antigenomics.vdjtools.overlap.OverlapType;
+import com.antigenomics.vdjtools.sample.Clonotype;
+import com.milaboratory.core.sequence.Sequence;
+
+/**
+ * A 64-bit clonotype fingerprint, computed from the same clonotype features as {@link ClonotypeKey#hashCode()}
+ * for a given {@link com.antigenomics.vdjtools.overlap.OverlapType}. Clonotypes that match under a given rule have
+ * the same fingerprint, while different fingerprints can still collide and should be verified with
+ * {@link #match}. Three upper bits hold the matching rule, so fingerprints computed under different rules differ.
+ */
+public final class ClonotypeFingerprint {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L, FNV_PRIME = 0x100000001b3L;
+    private static final int TYPE_SHIFT = 61;
+    private static final long HASH_MASK = (1L << TYPE_SHIFT) - 1;
+
+    private ClonotypeFingerprint() {
+    }
+
+    /**
+     * Tells if matching rule is an equivalence relation, so that fingerprints can be used to group clonotypes.
+     * This is not the case for {@link OverlapType#AminoAcidNonNucleotide}.
+     *
+     * @param overlapType clonotype matching rule.
+     * @return {@code true} if fingerprints can be used for a given matching rule.
+     */
+    public static boolean supports(OverlapType overlapType) {
+        return overlapType != OverlapType.AminoAcidNonNucleotide;
+    }
+
+    /**
+     * Gets the matching rule a fingerprint was computed for.
+     *
+     * @param fingerprint clonotype fingerprint.
+     * @return ordinal of clonotype matching rule.
+     */
+    public static int getType(long fingerprint) {
+        return (int) (fingerprint >>> TYPE_SHIFT);
+    }
+
+    /**
+     * Computes a fingerprint for a given clonotype. Use {@link Clonotype#getFingerprint(OverlapType)} to get
+     * a cached one.
+     *
+     * @param clonotype   clonotype.
+     * @param overlapType clonotype matching rule.
+     * @return non-zero clonotype fingerprint.
+     */
+    public static long compute(Clonotype clonotype, OverlapType overlapType) {
+        long hash;
+
+        switch (overlapType) {
+            case Nucleotide:
+                hash = hash(FNV_OFFSET, clonotype.getCdr3ntBinary());
+                break;
+
+            case NucleotideV:
+                hash = hash(hash(FNV_OFFSET, clonotype.getCdr3ntBinary()), clonotype.getV().hashCode());
+                break;
+
+            case NucleotideVJ:
+            case Strict:
+                hash = hash(hash(hash(FNV_OFFSET, clonotype.getCdr3ntBinary()), clonotype.getV().hashCode()),
+                        clonotype.getJ().hashCode());
+                break;
+
+            case AminoAcid:
+                hash = hash(FNV_OFFSET, clonotype.getCdr3aaBinary());
+                break;
+
+            case AminoAcidV:
+                hash = hash(hash(FNV_OFFSET, clonotype.getCdr3aaBinary()), clonotype.getV().hashCode());
+                break;
+
+            case AminoAcidVJ:
+                hash = hash(hash(hash(FNV_OFFSET, clonotype.getCdr3aaBinary()), clonotype.getV().hashCode()),
+                        clonotype.getJ().hashCode());
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Fingerprints are not supported for " + overlapType);
+        }
+
+        // murmur3 finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        hash = (hash & HASH_MASK) | ((long) overlapType.ordinal() << TYPE_SHIFT);
+
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long hash(long hash, Sequence sequence) {
+        for (int i = 0; i < sequence.size(); i++) {
+            hash = (hash ^ sequence.codeAt(i)) * FNV_PRIME;
+        }
+        return (hash ^ sequence.size()) * FNV_PRIME;
+    }
+
+    private static long hash(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * Checks if two clonotypes match under a given rule, same as {@link ClonotypeKey#equals(Object)}.
+     *
+     * @param clonotype   first clonotype.
+     * @param other       second clonotype.
+     * @param overlapType clonotype matching rule.
+     * @return {@code true} if clonotypes match.
+     */
+    public static boolean match(Clonotype clonotype, Clonotype other, OverlapType overlapType) {
+        switch (overlapType) {
+            case Nucleotide:
+                return ClonotypeKey.sameCdr3nt(clonotype, other);
+
+            case NucleotideV:
+                return ClonotypeKey.sameCdr3nt(clonotype, other) &&
+                        clonotype.getVBinary().equals(other.getVBinary());
+
+            case NucleotideVJ:
+            case Strict:
+                return ClonotypeKey.sameCdr3nt(clonotype, other) &&
+                        clonotype.getVBinary().equals(other.getVBinary()) &&
+                        clonotype.getJBinary().equals(other.getJBinary());
+
+            case AminoAcid:
+                return ClonotypeKey.sameCdr3aa(clonotype, other);
+
+            case AminoAcidV:
+                return ClonotypeKey.sameCdr3aa(clonotype, other) &&
+                        clonotype.getVBinary().equals(other.getVBinary());
+
+            case AminoAcidVJ:
+                return ClonotypeKey.sameCdr3aa(clonotype, other) &&
+                        clonotype.getVBinary().equals(other.getVBinary()) &&
+                        clonotype.getJBinary().equals(other.getJBinary());
+
+            case AminoAcidNonNucleotide:
+                return ClonotypeKey.sameCdr3aa(clonotype, other) &&
+                        !ClonotypeKey.sameCdr3nt(clonotype, other);
+
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+}
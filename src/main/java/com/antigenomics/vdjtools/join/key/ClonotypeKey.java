@@ -30,6 +30,8 @@
 package com.antigenomics.vdjtools.join.key;
 
 import com.antigenomics.vdjtools.sample.Clonotype;
+import com.milaboratory.core.sequence.AminoAcidSequence;
+import com.milaboratory.core.sequence.NucleotideSequence;
 
 /**
  * A clonotype key, which implements {@link #equals} and {@link #hashCode}
@@ -45,6 +47,24 @@ public abstract class ClonotypeKey {
 
     abstract boolean equals(Clonotype other);
 
+    /**
+     * Compares CDR3 nucleotide sequences of two clonotypes. Equal sequences are checked by
+     * identity first, as they are shared between clonotypes if {@link com.antigenomics.vdjtools.misc.SequencePool}
+     * is enabled.
+     */
+    protected static boolean sameCdr3nt(Clonotype clonotype, Clonotype other) {
+        NucleotideSequence cdr3nt = clonotype.getCdr3ntBinary(), otherCdr3nt = other.getCdr3ntBinary();
+        return cdr3nt == otherCdr3nt || cdr3nt.equals(otherCdr3nt);
+    }
+
+    /**
+     * Compares CDR3 amino acid sequences of two clonotypes, see {@link #sameCdr3nt}.
+     */
+    protected static boolean sameCdr3aa(Clonotype clonotype, Clonotype other) {
+        AminoAcidSequence cdr3aa = clonotype.getCdr3aaBinary(), otherCdr3aa = other.getCdr3aaBinary();
+        return cdr3aa == otherCdr3aa || cdr3aa.equals(otherCdr3aa);
+    }
+
     @Override
     public abstract int hashCode();
 
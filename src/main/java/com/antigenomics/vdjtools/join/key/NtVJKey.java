@@ -41,7 +41,7 @@ public class NtVJKey extends ClonotypeKey {
 
     @Override
     public boolean equals(Clonotype other) {
-        return clonotype.getCdr3ntBinary().equals(other.getCdr3ntBinary()) &&
+        return sameCdr3nt(clonotype, other) &&
                 clonotype.getVBinary().equals(other.getVBinary()) &&
                 clonotype.getJBinary().equals(other.getJBinary());
     }
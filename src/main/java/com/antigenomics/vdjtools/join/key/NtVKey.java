@@ -41,7 +41,7 @@ public final class NtVKey extends ClonotypeKey {
 
     @Override
     public boolean equals(Clonotype other) {
-        return clonotype.getCdr3ntBinary().equals(other.getCdr3ntBinary()) &&
+        return sameCdr3nt(clonotype, other) &&
                 clonotype.getVBinary().equals(other.getVBinary());
     }
 
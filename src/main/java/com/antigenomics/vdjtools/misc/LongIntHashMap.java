@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.misc;
+
+import java.util.Arrays;
+
+/**
+ * A primitive hash map from {@code long} keys to non-negative {@code int} values, based on open addressing
+ * with linear probing. Unlike {@link java.util.HashMap}, no objects are allocated per entry.
+ */
+public class LongIntHashMap {
+    /**
+     * Value returned for missing keys.
+     */
+    public static final int NO_VALUE = -1;
+
+    private static final long FREE = 0;
+    private static final double LOAD_FACTOR = 0.6;
+
+    private long[] keys;
+    private int[] values;
+    private int mask, size = 0, threshold;
+    private int zeroValue = NO_VALUE;
+
+    /**
+     * Creates an empty map.
+     */
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty map.
+     *
+     * @param expectedSize expected number of entries.
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) Math.min(1 << 30, expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int slot(long key, int mask) {
+        // murmur3 finalizer
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    /**
+     * Gets the value associated with a given key.
+     *
+     * @param key key.
+     * @return value or {@link #NO_VALUE} if there is no such key.
+     */
+    public int get(long key) {
+        if (key == FREE) {
+            return zeroValue;
+        }
+
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == FREE) {
+                return NO_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Associates a value with a given key.
+     *
+     * @param key   key.
+     * @param value non-negative value.
+     * @return previous value or {@link #NO_VALUE} if there was no such key.
+     */
+    public int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Only non-negative values are allowed.");
+        }
+
+        if (key == FREE) {
+            int previous = zeroValue;
+            if (previous == NO_VALUE) {
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+            if (k == FREE) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size > threshold) {
+                    rehash();
+                }
+                return NO_VALUE;
+            }
+        }
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != FREE) {
+                int i = slot(key, mask);
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries in the map.
+     *
+     * @return map size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all entries from the map.
+     */
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        zeroValue = NO_VALUE;
+        size = 0;
+    }
+}
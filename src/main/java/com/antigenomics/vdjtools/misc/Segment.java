@@ -35,12 +35,14 @@ import com.antigenomics.vdjtools.sample.Chain;
  * An immune receptor segment.
  */
 public class Segment {
-    public static final Segment MISSING = new Segment(CommonUtil.PLACEHOLDER);
+    public static final Segment MISSING = new Segment(CommonUtil.PLACEHOLDER, 0);
 
     protected final String name;
+    private final int id;
 
-    Segment(String name) {
+    Segment(String name, int id) {
         this.name = name;
+        this.id = id;
     }
 
     /**
@@ -52,6 +54,16 @@ public class Segment {
         return name;
     }
 
+    /**
+     * Gets segment id assigned by {@link SegmentFactory}. Ids are dense, starting from 0 for
+     * {@link #MISSING} segment, and can be used to index arrays.
+     *
+     * @return segment id.
+     */
+    public int getId() {
+        return id;
+    }
+
     @Override
     public String toString() {
         return name;
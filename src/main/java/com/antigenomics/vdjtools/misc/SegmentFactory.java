@@ -29,22 +29,45 @@
 
 package com.antigenomics.vdjtools.misc;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * An immune receptor segment factory, acting as a cache and ensuring
- * compatibility of segment annotations. This class is a singleton.
+ * compatibility of segment annotations. Each segment is assigned a dense integer id,
+ * see {@link Segment#getId()}. This class is a thread-safe singleton.
  */
 public class SegmentFactory {
     public static final SegmentFactory INSTANCE = new SegmentFactory();
 
-    protected final Map<String, Segment> segmentCache = new HashMap<>();
+    protected final Map<String, Segment> segmentCache = new ConcurrentHashMap<>();
+    private final NavigableMap<String, Segment> prefixIndex = new ConcurrentSkipListMap<>();
+    private volatile Segment[] segmentsById = new Segment[256];
 
     private SegmentFactory() {
-        segmentCache.put(Segment.MISSING.name, Segment.MISSING);
+        register(Segment.MISSING);
+    }
+
+    /**
+     * INTERNAL adds a segment to cache and indices, should be called under lock.
+     *
+     * @param segment segment with an id equal to current cache size.
+     */
+    private void register(Segment segment) {
+        Segment[] segments = segmentsById;
+        if (segment.getId() == segments.length) {
+            segments = Arrays.copyOf(segments, 2 * segments.length);
+        }
+        segments[segment.getId()] = segment;
+        segmentsById = segments;
+        prefixIndex.put(segment.getName(), segment);
+        // publish segment once it is indexed
+        segmentCache.put(segment.getName(), segment);
     }
 
     /**
@@ -57,14 +80,20 @@ public class SegmentFactory {
         Segment segment = segmentCache.get(name);
 
         if (segment == null) {
-            segmentCache.put(name, segment = new Segment(name));
+            // clonotype tables can be parsed concurrently
+            synchronized (this) {
+                segment = segmentCache.get(name);
+                if (segment == null) {
+                    register(segment = new Segment(name, segmentCache.size()));
+                }
+            }
         }
 
         return segment;
     }
 
     /**
-     * Gets the size of segment cache.
+     * Gets the size of segment cache. Segment ids are in {@code [0, size())}.
      *
      * @return number of segments.
      */
@@ -82,11 +111,25 @@ public class SegmentFactory {
         return segmentCache.get(name);
     }
 
+    /**
+     * Gets segment by id.
+     *
+     * @param id segment id, see {@link Segment#getId()}.
+     * @return segment.
+     */
+    public Segment getById(int id) {
+        if (id < 0 || id >= size())
+            throw new IndexOutOfBoundsException();
+        return segmentsById[id];
+    }
+
+    /**
+     * Gets all segments which identifier starts with a given string.
+     *
+     * @param namePart segment identifier prefix.
+     * @return list of segments, ordered by identifier.
+     */
     public List<Segment> getAtFuzzy(String namePart) {
-        return segmentCache.entrySet()
-                .stream()
-                .filter(segmentEntry -> segmentEntry.getKey().startsWith(namePart))
-                .map(Map.Entry::getValue)
-                .collect(Collectors.toList());
+        return new ArrayList<>(prefixIndex.subMap(namePart, true, namePart + Character.MAX_VALUE, true).values());
     }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.misc;
+
+import com.milaboratory.core.sequence.AminoAcidSequence;
+import com.milaboratory.core.sequence.NucleotideSequence;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of CDR3 nucleotide and amino acid sequences that allows clonotypes from different samples
+ * to share a single sequence object for equal sequences. Sequences are weakly referenced and are
+ * dropped from the pool once no clonotype holds them. The pool is split into stripes to allow
+ * clonotype tables to be parsed concurrently. This class is a singleton.
+ */
+public class SequencePool {
+    public static final SequencePool INSTANCE = new SequencePool();
+
+    /**
+     * If set to true, sequences of parsed clonotypes are interned. Pays off when many samples
+     * sharing a large number of clonotypes are loaded into memory at once.
+     */
+    public static boolean ENABLED = false;
+
+    private static final int STRIPES = 64;
+
+    private final Stripe<NucleotideSequence>[] ntStripes = createStripes();
+    private final Stripe<AminoAcidSequence>[] aaStripes = createStripes();
+
+    private SequencePool() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Stripe<T>[] createStripes() {
+        Stripe<T>[] stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        return stripes;
+    }
+
+    private static <T> T intern(Stripe<T>[] stripes, T sequence) {
+        int hash = sequence.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)].intern(sequence);
+    }
+
+    /**
+     * Creates a nucleotide sequence, returning a pooled instance if pooling is enabled.
+     *
+     * @param sequence nucleotide sequence string.
+     * @return nucleotide sequence.
+     */
+    public NucleotideSequence nt(String sequence) {
+        NucleotideSequence nucleotideSequence = new NucleotideSequence(sequence);
+        return ENABLED ? intern(ntStripes, nucleotideSequence) : nucleotideSequence;
+    }
+
+    /**
+     * Creates an amino acid sequence, returning a pooled instance if pooling is enabled.
+     *
+     * @param sequence amino acid sequence string.
+     * @return amino acid sequence.
+     */
+    public AminoAcidSequence aa(String sequence) {
+        AminoAcidSequence aminoAcidSequence = new AminoAcidSequence(sequence);
+        return ENABLED ? intern(aaStripes, aminoAcidSequence) : aminoAcidSequence;
+    }
+
+    /**
+     * Gets a pooled instance of a given nucleotide sequence, adding it to the pool if necessary.
+     *
+     * @param sequence nucleotide sequence.
+     * @return pooled nucleotide sequence equal to the given one.
+     */
+    public NucleotideSequence intern(NucleotideSequence sequence) {
+        return intern(ntStripes, sequence);
+    }
+
+    /**
+     * Gets a pooled instance of a given amino acid sequence, adding it to the pool if necessary.
+     *
+     * @param sequence amino acid sequence.
+     * @return pooled amino acid sequence equal to the given one.
+     */
+    public AminoAcidSequence intern(AminoAcidSequence sequence) {
+        return intern(aaStripes, sequence);
+    }
+
+    /**
+     * Gets the number of pooled sequences, both nucleotide and amino acid ones.
+     *
+     * @return number of sequences.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            size += ntStripes[i].size() + aaStripes[i].size();
+        }
+        return size;
+    }
+
+    /**
+     * Removes all sequences from the pool.
+     */
+    public void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            ntStripes[i].clear();
+            aaStripes[i].clear();
+        }
+    }
+
+    private static class Stripe<T> {
+        private final Map<T, WeakReference<T>> pool = new WeakHashMap<>();
+
+        synchronized T intern(T sequence) {
+            WeakReference<T> reference = pool.get(sequence);
+            T pooled = reference != null ? reference.get() : null;
+
+            if (pooled == null) {
+                pool.put(sequence, new WeakReference<>(sequence));
+                return sequence;
+            }
+
+            return pooled;
+        }
+
+        synchronized int size() {
+            return pool.size();
+        }
+
+        synchronized void clear() {
+            pool.clear();
+        }
+    }
+}
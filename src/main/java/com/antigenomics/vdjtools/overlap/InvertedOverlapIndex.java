@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap;
+
+import com.antigenomics.vdjtools.join.ClonotypeIndex;
+import com.antigenomics.vdjtools.misc.ExecUtil;
+import com.antigenomics.vdjtools.misc.LongIntHashMap;
+import com.antigenomics.vdjtools.sample.Clonotype;
+import com.antigenomics.vdjtools.sample.Sample;
+import com.antigenomics.vdjtools.sample.metadata.SampleMetadata;
+import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * An inverted index that maps each clonotype (up to a clonotype matching rule) to a posting list of
+ * (sample, read count) entries for a whole collection of samples. Overlap statistics for all pairs of samples are
+ * accumulated in a single sweep over posting lists, instead of joining each pair of samples separately.
+ * Samples are added one at a time and are not retained by the index. Alternatively, samples can be added as
+ * {@link SampleKeySet}s, in which case clonotypes are grouped by their fingerprints only.
+ * The index is a sparse clonotype x sample matrix stored by clonotype, pair statistics are its inner products
+ * that are accumulated in tiles of consecutive rows of the pair matrix, which are processed in parallel using
+ * {@link ExecUtil#THREADS} threads.
+ * Spearman correlation requires frequencies of all overlapping clonotypes, so it is computed in separate passes over
+ * posting lists, each holding these frequencies for a subset of sample pairs that fits {@link #SPEARMAN_HEAP_FRACTION}.
+ */
+public class InvertedOverlapIndex {
+    /**
+     * Fraction of heap that can be taken by frequencies of overlapping clonotypes
+     * while computing {@link OverlapMetric#CorrelationS}.
+     */
+    public static double SPEARMAN_HEAP_FRACTION = 0.1;
+
+    /**
+     * Maximal number of sample pairs in a tile of the sweep, pairs are also split evenly between threads.
+     */
+    public static int TILE_PAIRS = 1 << 22;
+
+    private static final Set<OverlapMetric> JOINT_METRICS = EnumSet.of(OverlapMetric.Diversity,
+            OverlapMetric.Frequency, OverlapMetric.Frequency2,
+            OverlapMetric.Correlation, OverlapMetric.CorrelationS,
+            OverlapMetric.Jaccard, OverlapMetric.MorisitaHorn);
+
+    private final ClonotypeIndex clonotypeIndex;
+    private LongIntHashMap keySetGroups = null;
+    private final boolean computeSpearman;
+    private final List<Sample> summaries = new ArrayList<>();
+
+    // posting lists, each clonotype group points to its first and last posting
+    private int[] head = new int[1024], tail = new int[1024];
+    private int[] postingSample = new int[1024], postingCount = new int[1024], postingNext = new int[1024];
+    private int numberOfGroups = 0, numberOfPostings = 0;
+
+    // pair statistics indexed by pairIndex(i, j), i < j and i < numberOfRows;
+    // "1" and "2" refer to samples i and j respectively
+    private int numberOfSamples = -1, numberOfRows;
+    private int[] div12;
+    private long[] count12, count21;
+    private double[] freq12, freq21, freq2Sum, xy, xx, yy, meanX, meanY, sumXX, sumYY, sumXY, spearman;
+
+    /**
+     * Creates an empty inverted index.
+     *
+     * @param overlapType     clonotype matching rule.
+     * @param computeSpearman if set to {@code true}, {@link OverlapMetric#CorrelationS} is computed
+     *                        during the sweep.
+     */
+    public InvertedOverlapIndex(OverlapType overlapType, boolean computeSpearman) {
+        this.clonotypeIndex = new ClonotypeIndex(overlapType, 1024, true);
+        this.computeSpearman = computeSpearman;
+    }
+
+    /**
+     * Tells if a given metric depends on overlapping clonotypes only, so that it can be computed by the index.
+     *
+     * @param metric overlap metric.
+     * @return {@code true} if metric can be computed by the index.
+     */
+    public static boolean isJointMetric(OverlapMetric metric) {
+        return JOINT_METRICS.contains(metric);
+    }
+
+    /**
+     * Adds a sample to the index. Sample index is equal to the number of previously added samples.
+     *
+     * @param sample sample to add.
+     */
+    public void add(Sample sample) {
+        if (numberOfSamples >= 0) {
+            throw new IllegalStateException("Cannot add samples after the sweep.");
+        }
+        if (keySetGroups != null) {
+            throw new IllegalStateException("Cannot add samples to an index of key sets.");
+        }
+
+        int sampleIndex = summaries.size();
+        summaries.add(Sample.fromSummary(sample.getSampleMetadata(),
+                sample.getCount(), sample.getDiversity(), sample.getFreqAsInInput(),
+                sample.getAnnotationHeader()));
+
+        for (Clonotype clonotype : sample) {
+            post(clonotypeIndex.add(clonotype), sampleIndex, (int) clonotype.getCount());
+        }
+    }
+
+    /**
+     * Adds a sample represented by its key set to the index. Sample index is equal to the number of previously
+     * added samples. Samples and key sets can not be mixed in a single index.
+     *
+     * @param keySet         sample key set, should be computed under the matching rule of this index.
+     * @param sampleMetadata sample metadata.
+     * @param createGroups   if set to {@code false}, clonotypes that are not found in previously added key sets
+     *                       are skipped, so that only overlap with previously added samples is indexed.
+     */
+    public void add(SampleKeySet keySet, SampleMetadata sampleMetadata, boolean createGroups) {
+        if (numberOfSamples >= 0) {
+            throw new IllegalStateException("Cannot add samples after the sweep.");
+        }
+        if (keySet.getOverlapType() != clonotypeIndex.getOverlapType()) {
+            throw new IllegalArgumentException("Key set was computed for another matching rule.");
+        }
+        if (keySetGroups == null) {
+            if (!summaries.isEmpty()) {
+                throw new IllegalStateException("Cannot add key sets to an index of samples.");
+            }
+            keySetGroups = new LongIntHashMap(keySet.getDiversity());
+        }
+
+        int sampleIndex = summaries.size();
+        summaries.add(Sample.fromSummary(sampleMetadata,
+                keySet.getCount(), keySet.getDiversity(), keySet.getFreqAsInInput(), null));
+
+        for (int i = 0; i < keySet.getDiversity(); i++) {
+            long fingerprint = keySet.getFingerprint(i);
+            int key = keySetGroups.get(fingerprint);
+
+            if (key == LongIntHashMap.NO_VALUE) {
+                if (!createGroups) {
+                    continue;
+                }
+                keySetGroups.put(fingerprint, key = numberOfGroups);
+            }
+
+            post(key, sampleIndex, (int) keySet.getCount(i));
+        }
+    }
+
+    private void post(int key, int sampleIndex, int count) {
+        if (key == numberOfGroups) {
+            // groups are created in order, a new group has no postings yet
+            if (key == head.length) {
+                head = Arrays.copyOf(head, 2 * key);
+                tail = Arrays.copyOf(tail, 2 * key);
+            }
+            head[key] = tail[key] = addPosting(sampleIndex, count);
+            numberOfGroups++;
+        } else if (postingSample[tail[key]] == sampleIndex) {
+            // convergent variant
+            postingCount[tail[key]] += count;
+        } else {
+            int posting = addPosting(sampleIndex, count);
+            postingNext[tail[key]] = posting;
+            tail[key] = posting;
+        }
+    }
+
+    private int addPosting(int sampleIndex, int count) {
+        int posting = numberOfPostings++;
+
+        if (posting == postingSample.length) {
+            postingSample = Arrays.copyOf(postingSample, 2 * posting);
+            postingCount = Arrays.copyOf(postingCount, 2 * posting);
+            postingNext = Arrays.copyOf(postingNext, 2 * posting);
+        }
+
+        postingSample[posting] = sampleIndex;
+        postingCount[posting] = count;
+        postingNext[posting] = -1;
+
+        return posting;
+    }
+
+    /**
+     * Accumulates overlap statistics for all pairs of samples. Should be called once all samples are added.
+     */
+    public void sweep() {
+        sweep(summaries.size());
+    }
+
+    /**
+     * Accumulates overlap statistics for pairs of samples {@code (i, j)} such that {@code i < numberOfRows},
+     * e.g. for pairs formed by new samples that were added first with all samples.
+     * Should be called once all samples are added.
+     *
+     * @param numberOfRows number of first samples to compute overlap for.
+     */
+    public void sweep(int numberOfRows) {
+        if (numberOfSamples >= 0) {
+            return;
+        }
+
+        int n = numberOfSamples = summaries.size();
+        this.numberOfRows = numberOfRows = Math.min(numberOfRows, n);
+        // pairs are stored row by row, so that pairs of first rows come first
+        int numberOfPairs = numberOfRows * (2 * n - numberOfRows - 1) / 2;
+
+        div12 = new int[numberOfPairs];
+        count12 = new long[numberOfPairs];
+        count21 = new long[numberOfPairs];
+        freq12 = new double[numberOfPairs];
+        freq21 = new double[numberOfPairs];
+        freq2Sum = new double[numberOfPairs];
+        xy = new double[numberOfPairs];
+        xx = new double[numberOfPairs];
+        yy = new double[numberOfPairs];
+        meanX = new double[numberOfPairs];
+        meanY = new double[numberOfPairs];
+        sumXX = new double[numberOfPairs];
+        sumYY = new double[numberOfPairs];
+        sumXY = new double[numberOfPairs];
+
+        double[] sampleCount = getSampleCounts();
+
+        // each tile holds nearly the same number of pairs, tiles update disjoint ranges of pair statistics
+        long[] rowPairs = new long[numberOfRows];
+        for (int i = 0; i < numberOfRows; i++) {
+            rowPairs[i] = n - i - 1;
+        }
+        int tilePairs = Math.min(TILE_PAIRS, (numberOfPairs + ExecUtil.THREADS - 1) / ExecUtil.THREADS);
+        runTiles(splitRows(rowPairs, tilePairs), tile -> accumulate(tile[0], tile[1], sampleCount));
+
+        if (computeSpearman) {
+            spearman = new double[numberOfPairs];
+
+            // frequencies of overlapping clonotypes of tiles processed in parallel should fit the budget together
+            long[] rowDiv12 = new long[numberOfRows];
+            for (int i = 0; i < numberOfRows; i++) {
+                for (int pair = rowStart(i); pair < rowStart(i + 1); pair++) {
+                    rowDiv12[i] += div12[pair];
+                }
+            }
+            long budget = (long) (Runtime.getRuntime().maxMemory() * SPEARMAN_HEAP_FRACTION) / 16 / ExecUtil.THREADS;
+            runTiles(splitRows(rowDiv12, budget),
+                    tile -> computeSpearman(tile[0], tile[1], sampleCount));
+        }
+
+        // postings are no longer needed
+        head = tail = postingSample = postingCount = postingNext = null;
+    }
+
+    /**
+     * INTERNAL splits rows into tiles of consecutive rows, such that total weight of a tile doesn't exceed
+     * a given maximum unless the tile consists of a single row.
+     */
+    private static List<int[]> splitRows(long[] rowWeights, long maxTileWeight) {
+        List<int[]> tiles = new ArrayList<>();
+
+        int from = 0;
+        long tileWeight = 0;
+        for (int i = 0; i < rowWeights.length; i++) {
+            if (i > from && tileWeight + rowWeights[i] > maxTileWeight) {
+                tiles.add(new int[]{from, i});
+                from = i;
+                tileWeight = 0;
+            }
+            tileWeight += rowWeights[i];
+        }
+        if (from < rowWeights.length) {
+            tiles.add(new int[]{from, rowWeights.length});
+        }
+
+        return tiles;
+    }
+
+    private static void runTiles(List<int[]> tiles, Consumer<int[]> action) {
+        if (tiles.size() > 1) {
+            ExecUtil.eachParallel(tiles, action);
+        } else {
+            tiles.forEach(action);
+        }
+    }
+
+    /**
+     * INTERNAL accumulates statistics for pairs of samples {@code (i, j)} with {@code from <= i < to}.
+     */
+    private void accumulate(int from, int to, double[] sampleCount) {
+        int[] samples = new int[numberOfSamples], counts = new int[numberOfSamples];
+        double[] freqs = new double[numberOfSamples];
+
+        for (int key = 0; key < numberOfGroups; key++) {
+            int m = gather(key, sampleCount, samples, counts, freqs);
+
+            for (int a = 0; a < m - 1 && samples[a] < to; a++) {
+                if (samples[a] < from) {
+                    continue;
+                }
+                for (int b = a + 1; b < m; b++) {
+                    // postings are ordered by sample index
+                    accumulate(pairIndex(samples[a], samples[b]), counts[a], counts[b], freqs[a], freqs[b]);
+                }
+            }
+        }
+    }
+
+    private double[] getSampleCounts() {
+        double[] sampleCount = new double[numberOfSamples];
+        for (int i = 0; i < numberOfSamples; i++) {
+            sampleCount[i] = summaries.get(i).getCount();
+        }
+        return sampleCount;
+    }
+
+    private int gather(int key, double[] sampleCount, int[] samples, int[] counts, double[] freqs) {
+        int m = 0;
+        for (int posting = head[key]; posting >= 0; posting = postingNext[posting]) {
+            samples[m] = postingSample[posting];
+            counts[m] = postingCount[posting];
+            freqs[m] = counts[m] / sampleCount[samples[m]];
+            m++;
+        }
+        return m;
+    }
+
+    /**
+     * INTERNAL computes Spearman correlation for pairs of samples {@code (i, j)} with {@code from <= i < to}.
+     * Frequencies of overlapping clonotypes are collected for these pairs only and are discarded afterwards.
+     */
+    private void computeSpearman(int from, int to, double[] sampleCount) {
+        int firstPair = rowStart(from), lastPair = rowStart(to);
+
+        // frequencies of each pair are placed consecutively, div12 is known from the sweep
+        int[] offsets = new int[lastPair - firstPair + 1];
+        for (int pair = firstPair; pair < lastPair; pair++) {
+            offsets[pair - firstPair + 1] = offsets[pair - firstPair] + div12[pair];
+        }
+        int[] cursors = Arrays.copyOf(offsets, offsets.length - 1);
+        double[] xs = new double[offsets[offsets.length - 1]], ys = new double[xs.length];
+
+        int[] samples = new int[numberOfSamples], counts = new int[numberOfSamples];
+        double[] freqs = new double[numberOfSamples];
+
+        for (int key = 0; key < numberOfGroups; key++) {
+            int m = gather(key, sampleCount, samples, counts, freqs);
+
+            for (int a = 0; a < m - 1 && samples[a] < to; a++) {
+                if (samples[a] < from) {
+                    continue;
+                }
+                for (int b = a + 1; b < m; b++) {
+                    int position = cursors[pairIndex(samples[a], samples[b]) - firstPair]++;
+                    xs[position] = freqs[a];
+                    ys[position] = freqs[b];
+                }
+            }
+        }
+
+        SpearmansCorrelation spearmansCorrelation = new SpearmansCorrelation();
+        for (int pair = firstPair; pair < lastPair; pair++) {
+            if (div12[pair] > 2) {
+                int pairFrom = offsets[pair - firstPair], pairTo = offsets[pair - firstPair + 1];
+                double r = spearmansCorrelation.correlation(
+                        Arrays.copyOfRange(xs, pairFrom, pairTo),
+                        Arrays.copyOfRange(ys, pairFrom, pairTo));
+                spearman[pair] = Double.isNaN(r) ? 0 : r;
+            }
+        }
+    }
+
+    private void accumulate(int pair, int c1, int c2, double x, double y) {
+        int k = ++div12[pair];
+
+        count12[pair] += c1;
+        count21[pair] += c2;
+        freq12[pair] += x;
+        freq21[pair] += y;
+        freq2Sum[pair] += Math.sqrt(x * y);
+        xy[pair] += x * y;
+        xx[pair] += x * x;
+        yy[pair] += y * y;
+
+        // same updating formulas as in SimpleRegression used by PearsonsCorrelation
+        if (k == 1) {
+            meanX[pair] = x;
+            meanY[pair] = y;
+        } else {
+            double fact = (k - 1) / (double) k, dx = x - meanX[pair], dy = y - meanY[pair];
+            sumXX[pair] += dx * dx * fact;
+            sumYY[pair] += dy * dy * fact;
+            sumXY[pair] += dx * dy * fact;
+            meanX[pair] += dx / k;
+            meanY[pair] += dy / k;
+        }
+    }
+
+    private int pairIndex(int i, int j) {
+        // upper triangle of n x n matrix, stored row by row
+        return rowStart(i) + (j - i - 1);
+    }
+
+    private int rowStart(int i) {
+        return i * (2 * numberOfSamples - i - 1) / 2;
+    }
+
+    private int checkedPairIndex(int i, int j) {
+        if (numberOfSamples < 0) {
+            throw new IllegalStateException("Index should be swept first.");
+        }
+        if (i == j || i < 0 || j < 0 || i >= numberOfSamples || j >= numberOfSamples) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (i >= numberOfRows && j >= numberOfRows) {
+            throw new IllegalArgumentException("Overlap of samples " + i + " and " + j + " was not computed.");
+        }
+        return i < j ? pairIndex(i, j) : pairIndex(j, i);
+    }
+
+    /**
+     * Gets the number of samples in the index.
+     *
+     * @return number of samples.
+     */
+    public int getNumberOfSamples() {
+        return summaries.size();
+    }
+
+    /**
+     * Gets sample-level statistics of a given sample.
+     *
+     * @param i sample index.
+     * @return a blank sample holding read count, diversity and metadata.
+     */
+    public Sample getSummary(int i) {
+        return summaries.get(i);
+    }
+
+    /**
+     * Gets the number of clonotypes (up to matching rule) shared between two samples.
+     *
+     * @param i first sample index.
+     * @param j second sample index.
+     * @return overlap diversity.
+     */
+    public int getDiv12(int i, int j) {
+        return div12[checkedPairIndex(i, j)];
+    }
+
+    /**
+     * Gets the number of reads in the first sample that belong to clonotypes shared with the second sample.
+     *
+     * @param i first sample index.
+     * @param j second sample index.
+     * @return read count of overlapping clonotypes according to first sample.
+     */
+    public long getCount12(int i, int j) {
+        int pair = checkedPairIndex(i, j);
+        return i < j ? count12[pair] : count21[pair];
+    }
+
+    /**
+     * Gets the frequency of clonotypes in the first sample that are shared with the second sample.
+     *
+     * @param i first sample index.
+     * @param j second sample index.
+     * @return frequency of overlapping clonotypes according to first sample.
+     */
+    public double getFreq12(int i, int j) {
+        int pair = checkedPairIndex(i, j);
+        return i < j ? freq12[pair] : freq21[pair];
+    }
+
+    /**
+     * Computes an overlap metric for a given pair of samples, see {@link #isJointMetric(OverlapMetric)}.
+     *
+     * @param metric overlap metric.
+     * @param i      first sample index.
+     * @param j      second sample index.
+     * @return overlap metric value.
+     */
+    public double computeMetric(OverlapMetric metric, int i, int j) {
+        int pair = checkedPairIndex(i, j);
+        double div1 = summaries.get(i).getDiversity(), div2 = summaries.get(j).getDiversity(),
+                div = div12[pair];
+
+        switch (metric) {
+            case Diversity:
+                return div / div1 / div2;
+
+            case Frequency:
+                return Math.sqrt(freq12[pair] * freq21[pair]);
+
+            case Frequency2:
+                return freq2Sum[pair];
+
+            case Correlation:
+                return div > 2 ? pearson(pair) : 0;
+
+            case CorrelationS:
+                if (!computeSpearman) {
+                    throw new IllegalStateException("Spearman correlation was not requested for this index.");
+                }
+                return spearman[pair];
+
+            case Jaccard:
+                return div / (div1 + div2 - div);
+
+            case MorisitaHorn:
+                return 2 * xy[pair] / (xx[pair] + yy[pair]);
+
+            default:
+                throw new UnsupportedOperationException(metric + " can not be computed using inverted index.");
+        }
+    }
+
+    private double pearson(int pair) {
+        // same as SimpleRegression#getR()
+        double sse = Math.max(0d, sumYY[pair] - sumXY[pair] * sumXY[pair] / sumXX[pair]),
+                r = Math.sqrt((sumYY[pair] - sse) / sumYY[pair]);
+
+        if (sumXY[pair] / sumXX[pair] < 0) {
+            r = -r;
+        }
+
+        return Double.isNaN(r) ? 0 : r;
+    }
+}
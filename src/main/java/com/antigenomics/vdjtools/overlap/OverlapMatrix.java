@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A symmetric N x N matrix of a single overlap metric stored in a compact binary file that can be memory-mapped.
+ * The file starts with a header holding magic number, format version, offset of matrix values, number of samples,
+ * metric short name, metadata column header and sample ids with their metadata. Header is followed by
+ * N x N big-endian doubles stored row by row, starting at an offset that is a multiple of 8, so that
+ * element (i, j) is found at {@code offset + 8 * (i * N + j)}. Diagonal elements and pairs that were not set are
+ * {@code NaN}. Matrices are created and filled pair by pair, as pairs are computed, and are opened read-only.
+ */
+public class OverlapMatrix implements Closeable {
+    /**
+     * Matrix file extension.
+     */
+    public static final String EXTENSION = ".bin";
+    /**
+     * Magic number, "VDJM" in ASCII.
+     */
+    public static final int MAGIC = 0x56444A4D;
+    /**
+     * Current format version.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAX_REGION_SIZE = Integer.MAX_VALUE & ~7;
+
+    private final String metricName, metadataHeader;
+    private final List<String> sampleIds, metadata;
+    private final int numberOfSamples, rowsPerRegion;
+    private final MappedByteBuffer[] regions;
+
+    private OverlapMatrix(String metricName, String metadataHeader, List<String> sampleIds, List<String> metadata,
+                          FileChannel channel, long offset, boolean write) throws IOException {
+        this.metricName = metricName;
+        this.metadataHeader = metadataHeader;
+        this.sampleIds = Collections.unmodifiableList(sampleIds);
+        this.metadata = Collections.unmodifiableList(metadata);
+        this.numberOfSamples = sampleIds.size();
+
+        // rows are mapped in regions as a single buffer can not exceed 2GB
+        long rowSize = 8L * numberOfSamples;
+        this.rowsPerRegion = (int) Math.max(1, Math.min(numberOfSamples, MAX_REGION_SIZE / Math.max(rowSize, 1)));
+        int numberOfRegions = (numberOfSamples + rowsPerRegion - 1) / rowsPerRegion;
+        this.regions = new MappedByteBuffer[numberOfRegions];
+        for (int r = 0; r < numberOfRegions; r++) {
+            int rows = Math.min(rowsPerRegion, numberOfSamples - r * rowsPerRegion);
+            regions[r] = channel.map(write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    offset + r * rowsPerRegion * rowSize, rows * rowSize);
+        }
+    }
+
+    /**
+     * Gets the matrix file path for a given overlap metric.
+     *
+     * @param batchFileName pairwise overlap table file name, e.g. {@code prefix.intersect.batch.aa.txt}.
+     * @param metric        overlap metric.
+     * @return path to matrix file, e.g. {@code prefix.intersect.batch.aa.F.bin}.
+     */
+    public static String getMatrixFileName(String batchFileName, OverlapMetric metric) {
+        String prefix = batchFileName.endsWith(".txt") ?
+                batchFileName.substring(0, batchFileName.length() - 4) : batchFileName;
+        return prefix + "." + metric.shortName + EXTENSION;
+    }
+
+    /**
+     * Creates a new matrix file, all values are set to {@code NaN}.
+     *
+     * @param fileName       path to matrix file.
+     * @param metric         overlap metric.
+     * @param metadataHeader tab-separated metadata column names.
+     * @param sampleIds      sample ids.
+     * @param metadata       tab-separated metadata values of each sample.
+     * @return matrix opened for writing.
+     * @throws IOException if matrix file cannot be created.
+     */
+    public static OverlapMatrix create(String fileName, OverlapMetric metric, String metadataHeader,
+                                       List<String> sampleIds, List<String> metadata) throws IOException {
+        if (sampleIds.size() != metadata.size()) {
+            throw new IllegalArgumentException("Metadata should be provided for each sample.");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream header = new DataOutputStream(bytes)) {
+            header.writeInt(sampleIds.size());
+            header.writeUTF(metric.shortName);
+            header.writeUTF(metadataHeader);
+            for (int i = 0; i < sampleIds.size(); i++) {
+                header.writeUTF(sampleIds.get(i));
+                header.writeUTF(metadata.get(i));
+            }
+        }
+
+        // magic, version and offset precede the header, values are aligned to 8 bytes
+        long offset = (16 + bytes.size() + 7) & ~7L;
+
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeLong(offset);
+            file.write(bytes.toByteArray());
+            file.setLength(offset + 8L * sampleIds.size() * sampleIds.size());
+
+            OverlapMatrix matrix = new OverlapMatrix(metric.shortName, metadataHeader,
+                    new ArrayList<>(sampleIds), new ArrayList<>(metadata), channel, offset, true);
+            for (MappedByteBuffer region : matrix.regions) {
+                while (region.hasRemaining()) {
+                    region.putDouble(Double.NaN);
+                }
+            }
+            return matrix;
+        }
+    }
+
+    /**
+     * Opens a matrix file, memory-mapping its values.
+     *
+     * @param fileName path to matrix file.
+     * @return matrix opened for reading.
+     * @throws IOException if matrix file cannot be read or is malformed.
+     */
+    public static OverlapMatrix open(String fileName) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             FileChannel channel = file.getChannel()) {
+            if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+                throw new IOException(fileName + " is not an overlap matrix file.");
+            }
+
+            long offset = file.readLong();
+            int n = file.readInt();
+            String metricName = file.readUTF(), metadataHeader = file.readUTF();
+            List<String> sampleIds = new ArrayList<>(n), metadata = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                sampleIds.add(file.readUTF());
+                metadata.add(file.readUTF());
+            }
+
+            if (file.length() < offset + 8L * n * n) {
+                throw new IOException(fileName + " is truncated.");
+            }
+
+            // mapped buffers remain valid after the channel is closed
+            return new OverlapMatrix(metricName, metadataHeader, sampleIds, metadata, channel, offset, false);
+        }
+    }
+
+    private int position(int i, int j) {
+        return 8 * ((i % rowsPerRegion) * numberOfSamples + j);
+    }
+
+    /**
+     * Sets the value for a given pair of samples, both (i, j) and (j, i) elements are set.
+     *
+     * @param i     first sample index.
+     * @param j     second sample index.
+     * @param value metric value.
+     */
+    public void set(int i, int j, double value) {
+        regions[i / rowsPerRegion].putDouble(position(i, j), value);
+        regions[j / rowsPerRegion].putDouble(position(j, i), value);
+    }
+
+    /**
+     * Gets the value for a given pair of samples.
+     *
+     * @param i first sample index.
+     * @param j second sample index.
+     * @return metric value, or {@code NaN} if {@code i == j} or the value was not set.
+     */
+    public double getAt(int i, int j) {
+        return regions[i / rowsPerRegion].getDouble(position(i, j));
+    }
+
+    /**
+     * Gets a row of the matrix.
+     *
+     * @param i sample index.
+     * @return metric values for sample i and all samples.
+     */
+    public double[] getRow(int i) {
+        double[] row = new double[numberOfSamples];
+        for (int j = 0; j < numberOfSamples; j++) {
+            row[j] = getAt(i, j);
+        }
+        return row;
+    }
+
+    /**
+     * Gets the number of samples.
+     *
+     * @return matrix size.
+     */
+    public int size() {
+        return numberOfSamples;
+    }
+
+    /**
+     * Gets the short name of stored overlap metric.
+     *
+     * @return metric short name, see {@link OverlapMetric#shortName}.
+     */
+    public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * Gets tab-separated metadata column names.
+     *
+     * @return metadata header.
+     */
+    public String getMetadataHeader() {
+        return metadataHeader;
+    }
+
+    /**
+     * Gets sample ids, in matrix order.
+     *
+     * @return list of sample ids.
+     */
+    public List<String> getSampleIds() {
+        return sampleIds;
+    }
+
+    /**
+     * Gets tab-separated metadata of a given sample.
+     *
+     * @param i sample index.
+     * @return sample metadata.
+     */
+    public String getMetadata(int i) {
+        return metadata.get(i);
+    }
+
+    /**
+     * Flushes values written so far to the file.
+     */
+    @Override
+    public void close() {
+        for (MappedByteBuffer region : regions) {
+            if (!region.isReadOnly()) {
+                region.force();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return metricName + " " + numberOfSamples + "x" + numberOfSamples + " " + Arrays.toString(regions);
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap;
+
+import com.antigenomics.vdjtools.join.key.ClonotypeFingerprint;
+import com.antigenomics.vdjtools.sample.Clonotype;
+import com.antigenomics.vdjtools.sample.Sample;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A compact summary of a sample that is used to estimate overlap between samples without joining them.
+ * Clonotypes are grouped according to a clonotype matching rule using their fingerprints
+ * (see {@link ClonotypeFingerprint}), the sketch holds the exact number of distinct clonotype groups,
+ * a bottom-k MinHash sketch (the {@code k} smallest group hashes) and a HyperLogLog sketch with {@code 2^p} registers.
+ * Jaccard index of distinct clonotype groups of two samples is estimated from their MinHash sketches and is used
+ * to estimate the number of shared groups, while the number of distinct clonotypes in both samples taken together
+ * is estimated by merging HyperLogLog sketches. Sketches are stored in a separate directory, e.g. the output
+ * directory, and are matched to sample files by their path, size and modification time.
+ */
+public class OverlapSketch {
+    /**
+     * Default number of hashes kept in the MinHash sketch.
+     */
+    public static final int DEFAULT_SIZE = 1024;
+    /**
+     * Default HyperLogLog precision, i.e. log2 of the number of registers.
+     */
+    public static final int DEFAULT_PRECISION = 12;
+    /**
+     * Sketch file extension that is appended to the sample file name together with overlap type name.
+     */
+    public static final String EXTENSION = ".sketch";
+    /**
+     * Critical value of standard normal distribution used for error bounds, 95% confidence.
+     */
+    public static final double Z = 1.96;
+
+    private static final int MAGIC = 0x56444A53, VERSION = 1;
+
+    private final OverlapType overlapType;
+    private final int size, precision, sampleDiversity, distinct;
+    private final long[] minHashes;
+    private final byte[] registers;
+
+    private OverlapSketch(OverlapType overlapType, int size, int precision, int sampleDiversity, int distinct,
+                          long[] minHashes, byte[] registers) {
+        this.overlapType = overlapType;
+        this.size = size;
+        this.precision = precision;
+        this.sampleDiversity = sampleDiversity;
+        this.distinct = distinct;
+        this.minHashes = minHashes;
+        this.registers = registers;
+    }
+
+    /**
+     * Tells if clonotypes can be sketched under a given matching rule, which should be an equivalence relation.
+     *
+     * @param overlapType clonotype matching rule.
+     * @return {@code true} if sketches are supported.
+     */
+    public static boolean supports(OverlapType overlapType) {
+        return ClonotypeFingerprint.supports(overlapType);
+    }
+
+    /**
+     * Computes a sketch for a given sample.
+     *
+     * @param sample      sample to sketch.
+     * @param overlapType clonotype matching rule.
+     * @param size        number of hashes kept in the MinHash sketch.
+     * @param precision   log2 of the number of HyperLogLog registers, from 4 to 18.
+     * @return sample sketch.
+     */
+    public static OverlapSketch fromSample(Sample sample, OverlapType overlapType, int size, int precision) {
+        if (!supports(overlapType)) {
+            throw new UnsupportedOperationException("Sketches are not supported for " + overlapType);
+        }
+        if (size < 1 || precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("Bad sketch size or precision.");
+        }
+
+        long[] hashes = new long[sample.getDiversity()];
+        byte[] registers = new byte[1 << precision];
+        int n = 0;
+
+        for (Clonotype clonotype : sample) {
+            long hash = mix(clonotype.getFingerprint(overlapType));
+            hashes[n++] = hash;
+
+            int register = (int) (hash >>> (64 - precision));
+            byte rank = (byte) Math.min(Long.numberOfLeadingZeros(hash << precision) + 1, 64 - precision + 1);
+            if (rank > registers[register]) {
+                registers[register] = rank;
+            }
+        }
+
+        // hashes are compared as unsigned values, so that the smallest ones are uniformly sampled
+        for (int i = 0; i < n; i++) {
+            hashes[i] ^= Long.MIN_VALUE;
+        }
+        Arrays.sort(hashes, 0, n);
+
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct == 0 || hashes[i] != hashes[distinct - 1]) {
+                hashes[distinct++] = hashes[i];
+            }
+        }
+
+        return new OverlapSketch(overlapType, size, precision, n, distinct,
+                Arrays.copyOf(hashes, Math.min(size, distinct)), registers);
+    }
+
+    private static long mix(long fingerprint) {
+        // fingerprint upper bits hold overlap type, re-mix to get uniformly distributed 64-bit hash
+        fingerprint ^= fingerprint >>> 33;
+        fingerprint *= 0xff51afd7ed558ccdL;
+        fingerprint ^= fingerprint >>> 33;
+        fingerprint *= 0xc4ceb9fe1a85ec53L;
+        fingerprint ^= fingerprint >>> 33;
+        return fingerprint;
+    }
+
+    /**
+     * Gets the sketch file path for a given sample file. Sketch file name is formed from sample file name
+     * and a hash of its absolute path, so that samples having the same name in different folders do not clash.
+     *
+     * @param sketchDir      directory holding sketch files.
+     * @param sampleFileName path to sample file.
+     * @param overlapType    clonotype matching rule.
+     * @return path to sketch file.
+     */
+    public static String getSketchFileName(String sketchDir, String sampleFileName, OverlapType overlapType) {
+        File sampleFile = new File(sampleFileName).getAbsoluteFile();
+        return new File(sketchDir, sampleFile.getName() + "." +
+                Integer.toHexString(sampleFile.getPath().hashCode()) + "." +
+                overlapType.getShortName() + EXTENSION).getPath();
+    }
+
+    /**
+     * Stores the sketch of a given sample file to sketch directory, together with sample file size and
+     * modification time.
+     *
+     * @param sampleFileName path to sample file.
+     * @param sketchDir      directory holding sketch files, created if missing.
+     * @throws IOException if sketch file cannot be written.
+     */
+    public void store(String sampleFileName, String sketchDir) throws IOException {
+        File sampleFile = new File(sampleFileName);
+        new File(sketchDir).mkdirs();
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(getSketchFileName(sketchDir, sampleFileName, overlapType))))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(sampleFile.length());
+            output.writeLong(sampleFile.lastModified());
+            output.writeInt(overlapType.ordinal());
+            output.writeInt(size);
+            output.writeInt(precision);
+            output.writeInt(sampleDiversity);
+            output.writeInt(distinct);
+            output.writeInt(minHashes.length);
+            for (long hash : minHashes) {
+                output.writeLong(hash);
+            }
+            output.write(registers);
+        }
+    }
+
+    /**
+     * Loads the sketch of a given sample file from sketch directory.
+     *
+     * @param sampleFileName path to sample file.
+     * @param sketchDir      directory holding sketch files.
+     * @param overlapType    clonotype matching rule.
+     * @param size           number of hashes kept in the MinHash sketch.
+     * @param precision      log2 of the number of HyperLogLog registers.
+     * @return sample sketch, or {@code null} if the sketch is missing, malformed, was computed with other
+     * parameters or does not match the sample file.
+     */
+    public static OverlapSketch load(String sampleFileName, String sketchDir, OverlapType overlapType,
+                                     int size, int precision) {
+        File sampleFile = new File(sampleFileName), sketchFile = new File(getSketchFileName(sketchDir,
+                sampleFileName, overlapType));
+
+        if (!sketchFile.exists() || !sampleFile.exists()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(sketchFile)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION ||
+                    input.readLong() != sampleFile.length() || input.readLong() != sampleFile.lastModified() ||
+                    input.readInt() != overlapType.ordinal() || input.readInt() != size ||
+                    input.readInt() != precision) {
+                return null;
+            }
+
+            int sampleDiversity = input.readInt(), distinct = input.readInt();
+            long[] minHashes = new long[input.readInt()];
+            for (int i = 0; i < minHashes.length; i++) {
+                minHashes[i] = input.readLong();
+            }
+            byte[] registers = new byte[1 << precision];
+            input.readFully(registers);
+
+            return new OverlapSketch(overlapType, size, precision, sampleDiversity, distinct,
+                    minHashes, registers);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Estimates overlap between two sketched samples.
+     *
+     * @param other sketch of another sample, should be computed with the same matching rule and parameters.
+     * @return overlap estimate.
+     */
+    public Estimate estimate(OverlapSketch other) {
+        if (overlapType != other.overlapType || size != other.size || precision != other.precision) {
+            throw new IllegalArgumentException("Sketches were computed with different parameters.");
+        }
+
+        // sketches hold all clonotypes of both samples, full lists are merged and estimates are exact
+        boolean exact = distinct <= size && other.distinct <= size;
+
+        // otherwise k smallest hashes of the union are a uniform sample of distinct clonotypes in union,
+        // the fraction of them present in both samples estimates Jaccard index
+        int i = 0, j = 0, k = 0, shared = 0, limit = exact ? Integer.MAX_VALUE : size;
+        while (k < limit && (i < minHashes.length || j < other.minHashes.length)) {
+            if (j == other.minHashes.length || (i < minHashes.length && minHashes[i] < other.minHashes[j])) {
+                i++;
+            } else if (i == minHashes.length || other.minHashes[j] < minHashes[i]) {
+                j++;
+            } else {
+                i++;
+                j++;
+                shared++;
+            }
+            k++;
+        }
+
+        // binomial error, with Laplace smoothing so that no sketched clonotypes in common do not imply zero error
+        double groupJaccard = k > 0 ? shared / (double) k : 0,
+                smoothed = (shared + 1) / (double) (k + 2),
+                groupJaccardError = exact ? 0 : Math.sqrt(smoothed * (1 - smoothed) / k),
+                div12 = exact ? shared : Math.min(groupJaccard * (distinct + other.distinct) / (1 + groupJaccard),
+                        Math.min(distinct, other.distinct)),
+                div12Error = groupJaccardError * (distinct + other.distinct) / (1 + groupJaccard) / (1 + groupJaccard);
+
+        // Jaccard index is reported the same way as in PairwiseOverlap, i.e. shared clonotype groups
+        // over sample diversities that count convergent variants
+        double diversitySum = sampleDiversity + other.sampleDiversity,
+                jaccard = diversitySum > div12 ? div12 / (diversitySum - div12) : 0,
+                jaccardError = diversitySum > div12 ?
+                        div12Error * diversitySum / (diversitySum - div12) / (diversitySum - div12) : 0;
+
+        double union, unionError;
+        if (exact) {
+            union = distinct + other.distinct - shared;
+            unionError = 0;
+        } else {
+            byte[] merged = new byte[registers.length];
+            for (int r = 0; r < merged.length; r++) {
+                merged[r] = (byte) Math.max(registers[r], other.registers[r]);
+            }
+            union = Math.max(cardinality(merged), Math.max(distinct, other.distinct));
+            unionError = union * 1.04 / Math.sqrt(merged.length);
+        }
+
+        return new Estimate(sampleDiversity, other.sampleDiversity, distinct, other.distinct,
+                jaccard, jaccardError, div12, div12Error, union, unionError);
+    }
+
+    private static double cardinality(byte[] registers) {
+        int m = registers.length, zeros = 0;
+        double sum = 0;
+        for (byte rank : registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                zeros++;
+            }
+        }
+
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m),
+                estimate = alpha * m * m / sum;
+
+        // small range correction by linear counting
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log(m / (double) zeros);
+        }
+
+        return estimate;
+    }
+
+    /**
+     * Gets the clonotype matching rule sketch was computed for.
+     *
+     * @return clonotype matching rule.
+     */
+    public OverlapType getOverlapType() {
+        return overlapType;
+    }
+
+    /**
+     * Gets the number of clonotypes in the sample.
+     *
+     * @return sample diversity.
+     */
+    public int getSampleDiversity() {
+        return sampleDiversity;
+    }
+
+    /**
+     * Gets the number of distinct clonotypes in the sample according to clonotype matching rule.
+     *
+     * @return number of distinct clonotypes.
+     */
+    public int getDistinct() {
+        return distinct;
+    }
+
+    /**
+     * Estimated overlap between two samples. Errors are standard errors, error bounds hold {@link #Z} standard
+     * errors.
+     */
+    public static class Estimate {
+        private final int div1, div2, distinct1, distinct2;
+        private final double jaccard, jaccardError, div12, div12Error, union, unionError;
+
+        Estimate(int div1, int div2, int distinct1, int distinct2,
+                 double jaccard, double jaccardError, double div12, double div12Error,
+                 double union, double unionError) {
+            this.div1 = div1;
+            this.div2 = div2;
+            this.distinct1 = distinct1;
+            this.distinct2 = distinct2;
+            this.jaccard = jaccard;
+            this.jaccardError = jaccardError;
+            this.div12 = div12;
+            this.div12Error = div12Error;
+            this.union = union;
+            this.unionError = unionError;
+        }
+
+        /**
+         * Gets the diversity of the first sample.
+         *
+         * @return number of clonotypes.
+         */
+        public int getDiv1() {
+            return div1;
+        }
+
+        /**
+         * Gets the diversity of the second sample.
+         *
+         * @return number of clonotypes.
+         */
+        public int getDiv2() {
+            return div2;
+        }
+
+        /**
+         * Gets the number of distinct clonotypes in the first sample according to clonotype matching rule.
+         *
+         * @return number of distinct clonotypes.
+         */
+        public int getDistinct1() {
+            return distinct1;
+        }
+
+        /**
+         * Gets the number of distinct clonotypes in the second sample according to clonotype matching rule.
+         *
+         * @return number of distinct clonotypes.
+         */
+        public int getDistinct2() {
+            return distinct2;
+        }
+
+        /**
+         * Gets the estimated value of {@link OverlapMetric#Jaccard}, i.e. overlap diversity normalized by
+         * the diversity of samples taken together, same as the one computed by {@link PairwiseOverlap}.
+         *
+         * @return Jaccard index.
+         */
+        public double getJaccard() {
+            return jaccard;
+        }
+
+        /**
+         * Gets the standard error of Jaccard index estimate.
+         *
+         * @return standard error, {@code 0} if the estimate is exact.
+         */
+        public double getJaccardError() {
+            return jaccardError;
+        }
+
+        /**
+         * Gets the estimated number of clonotypes shared by two samples.
+         *
+         * @return overlap diversity.
+         */
+        public double getDiv12() {
+            return div12;
+        }
+
+        /**
+         * Gets the standard error of overlap diversity estimate.
+         *
+         * @return standard error, {@code 0} if the estimate is exact.
+         */
+        public double getDiv12Error() {
+            return div12Error;
+        }
+
+        /**
+         * Gets the estimated value of {@link OverlapMetric#Diversity}, i.e. overlap diversity normalized by
+         * the product of sample diversities.
+         *
+         * @return D metric value.
+         */
+        public double getDiversity() {
+            return div12 / div1 / div2;
+        }
+
+        /**
+         * Gets the standard error of {@link OverlapMetric#Diversity} estimate.
+         *
+         * @return standard error, {@code 0} if the estimate is exact.
+         */
+        public double getDiversityError() {
+            return div12Error / div1 / div2;
+        }
+
+        /**
+         * Gets the estimated number of distinct clonotypes found in either of samples.
+         *
+         * @return union diversity.
+         */
+        public double getUnion() {
+            return union;
+        }
+
+        /**
+         * Gets the standard error of union diversity estimate.
+         *
+         * @return standard error, {@code 0} if the estimate is exact.
+         */
+        public double getUnionError() {
+            return unionError;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap;
+
+import com.antigenomics.vdjtools.join.key.ClonotypeFingerprint;
+import com.antigenomics.vdjtools.misc.Segment;
+import com.antigenomics.vdjtools.misc.SegmentFactory;
+import com.antigenomics.vdjtools.sample.Clonotype;
+import com.antigenomics.vdjtools.sample.Sample;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact summary of a sample that holds everything that is needed to compute overlap metrics, but clonotype
+ * sequences: matching keys of clonotypes (their fingerprints under a given matching rule, see
+ * {@link ClonotypeFingerprint}), clonotype counts, V/J segments and CDR3 lengths. Key sets are stored to a given
+ * directory and are used to compute overlap with new samples without re-loading previously processed ones.
+ * As clonotypes are matched by their 64-bit fingerprints only, fingerprint collisions are not resolved.
+ */
+public class SampleKeySet {
+    /**
+     * Key set file extension that is appended to the sample file name together with overlap type name.
+     */
+    public static final String EXTENSION = ".keys";
+
+    private static final int MAGIC = 0x56444A4B, VERSION = 1;
+
+    private final OverlapType overlapType;
+    private final long count;
+    private final double freqAsInInput;
+    private final long[] fingerprints, counts;
+    private final Segment[] v, j;
+    private final int[] cdr3Length;
+
+    private SampleKeySet(OverlapType overlapType, long count, double freqAsInInput,
+                         long[] fingerprints, long[] counts, Segment[] v, Segment[] j, int[] cdr3Length) {
+        this.overlapType = overlapType;
+        this.count = count;
+        this.freqAsInInput = freqAsInInput;
+        this.fingerprints = fingerprints;
+        this.counts = counts;
+        this.v = v;
+        this.j = j;
+        this.cdr3Length = cdr3Length;
+    }
+
+    /**
+     * Tells if key sets can be computed under a given matching rule.
+     *
+     * @param overlapType clonotype matching rule.
+     * @return {@code true} if key sets are supported.
+     */
+    public static boolean supports(OverlapType overlapType) {
+        return ClonotypeFingerprint.supports(overlapType);
+    }
+
+    /**
+     * Computes a key set for a given sample.
+     *
+     * @param sample      sample.
+     * @param overlapType clonotype matching rule.
+     * @return sample key set.
+     */
+    public static SampleKeySet fromSample(Sample sample, OverlapType overlapType) {
+        if (!supports(overlapType)) {
+            throw new UnsupportedOperationException("Key sets are not supported for " + overlapType);
+        }
+
+        int n = sample.getDiversity();
+        long[] fingerprints = new long[n], counts = new long[n];
+        Segment[] v = new Segment[n], j = new Segment[n];
+        int[] cdr3Length = new int[n];
+
+        int i = 0;
+        for (Clonotype clonotype : sample) {
+            fingerprints[i] = clonotype.getFingerprint(overlapType);
+            counts[i] = clonotype.getCount();
+            v[i] = clonotype.getVBinary();
+            j[i] = clonotype.getJBinary();
+            cdr3Length[i] = clonotype.getCdr3nt().length();
+            i++;
+        }
+
+        return new SampleKeySet(overlapType, sample.getCount(), sample.getFreqAsInInput(),
+                fingerprints, counts, v, j, cdr3Length);
+    }
+
+    /**
+     * Gets the key set file path for a given sample file. Key set file name is formed from sample file name
+     * and a hash of its absolute path, same as for {@link OverlapSketch#getSketchFileName}.
+     *
+     * @param keySetDir      directory holding key set files.
+     * @param sampleFileName path to sample file.
+     * @param overlapType    clonotype matching rule.
+     * @return path to key set file.
+     */
+    public static String getKeySetFileName(String keySetDir, String sampleFileName, OverlapType overlapType) {
+        File sampleFile = new File(sampleFileName).getAbsoluteFile();
+        return new File(keySetDir, sampleFile.getName() + "." +
+                Integer.toHexString(sampleFile.getPath().hashCode()) + "." +
+                overlapType.getShortName() + EXTENSION).getPath();
+    }
+
+    /**
+     * Stores the key set of a given sample file to key set directory, together with sample file size and
+     * modification time.
+     *
+     * @param sampleFileName path to sample file.
+     * @param keySetDir      directory holding key set files, created if missing.
+     * @throws IOException if key set file cannot be written.
+     */
+    public void store(String sampleFileName, String keySetDir) throws IOException {
+        File sampleFile = new File(sampleFileName);
+        new File(keySetDir).mkdirs();
+
+        // segments are stored by name, as segment ids are assigned in order of appearance
+        Map<Segment, Integer> segmentIndex = new HashMap<>();
+        List<Segment> segments = new ArrayList<>();
+        for (Segment[] column : new Segment[][]{v, j}) {
+            for (Segment segment : column) {
+                if (!segmentIndex.containsKey(segment)) {
+                    segmentIndex.put(segment, segments.size());
+                    segments.add(segment);
+                }
+            }
+        }
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(getKeySetFileName(keySetDir, sampleFileName, overlapType))))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(sampleFile.length());
+            output.writeLong(sampleFile.lastModified());
+            output.writeInt(overlapType.ordinal());
+            output.writeLong(count);
+            output.writeDouble(freqAsInInput);
+            output.writeInt(segments.size());
+            for (Segment segment : segments) {
+                output.writeUTF(segment.getName());
+            }
+            output.writeInt(fingerprints.length);
+            for (int i = 0; i < fingerprints.length; i++) {
+                output.writeLong(fingerprints[i]);
+                output.writeLong(counts[i]);
+                output.writeInt(segmentIndex.get(v[i]));
+                output.writeInt(segmentIndex.get(j[i]));
+                output.writeInt(cdr3Length[i]);
+            }
+        }
+    }
+
+    /**
+     * Loads the key set of a given sample file from key set directory.
+     *
+     * @param sampleFileName path to sample file.
+     * @param keySetDir      directory holding key set files.
+     * @param overlapType    clonotype matching rule.
+     * @return sample key set, or {@code null} if the key set is missing, malformed, was computed for another
+     * matching rule or does not match the sample file.
+     */
+    public static SampleKeySet load(String sampleFileName, String keySetDir, OverlapType overlapType) {
+        File sampleFile = new File(sampleFileName), keySetFile = new File(getKeySetFileName(keySetDir,
+                sampleFileName, overlapType));
+
+        if (!keySetFile.exists() || !sampleFile.exists()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(keySetFile)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION ||
+                    input.readLong() != sampleFile.length() || input.readLong() != sampleFile.lastModified() ||
+                    input.readInt() != overlapType.ordinal()) {
+                return null;
+            }
+
+            long count = input.readLong();
+            double freqAsInInput = input.readDouble();
+            Segment[] segments = new Segment[input.readInt()];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = SegmentFactory.INSTANCE.create(input.readUTF());
+            }
+
+            int n = input.readInt();
+            long[] fingerprints = new long[n], counts = new long[n];
+            Segment[] v = new Segment[n], j = new Segment[n];
+            int[] cdr3Length = new int[n];
+            for (int i = 0; i < n; i++) {
+                fingerprints[i] = input.readLong();
+                counts[i] = input.readLong();
+                v[i] = segments[input.readInt()];
+                j[i] = segments[input.readInt()];
+                cdr3Length[i] = input.readInt();
+            }
+
+            return new SampleKeySet(overlapType, count, freqAsInInput, fingerprints, counts, v, j, cdr3Length);
+        } catch (IOException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the clonotype matching rule of this key set.
+     *
+     * @return clonotype matching rule.
+     */
+    public OverlapType getOverlapType() {
+        return overlapType;
+    }
+
+    /**
+     * Gets the total number of reads in the sample.
+     *
+     * @return read count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of clonotypes in the sample.
+     *
+     * @return sample diversity.
+     */
+    public int getDiversity() {
+        return fingerprints.length;
+    }
+
+    /**
+     * Gets the total frequency of clonotypes in the sample, as in input file.
+     *
+     * @return sample frequency.
+     */
+    public double getFreqAsInInput() {
+        return freqAsInInput;
+    }
+
+    /**
+     * Gets the fingerprint of a given clonotype.
+     *
+     * @param i clonotype index, as in sample.
+     * @return clonotype fingerprint under the matching rule of this key set.
+     */
+    public long getFingerprint(int i) {
+        return fingerprints[i];
+    }
+
+    /**
+     * Gets the number of reads of a given clonotype.
+     *
+     * @param i clonotype index, as in sample.
+     * @return clonotype read count.
+     */
+    public long getCount(int i) {
+        return counts[i];
+    }
+
+    /**
+     * Gets the frequency of a given clonotype in the sample.
+     *
+     * @param i clonotype index, as in sample.
+     * @return clonotype frequency.
+     */
+    public double getFreq(int i) {
+        return counts[i] / (double) count;
+    }
+
+    /**
+     * Gets the Variable segment of a given clonotype.
+     *
+     * @param i clonotype index, as in sample.
+     * @return V segment.
+     */
+    public Segment getV(int i) {
+        return v[i];
+    }
+
+    /**
+     * Gets the Joining segment of a given clonotype.
+     *
+     * @param i clonotype index, as in sample.
+     * @return J segment.
+     */
+    public Segment getJ(int i) {
+        return j[i];
+    }
+
+    /**
+     * Gets the length of CDR3 nucleotide sequence of a given clonotype.
+     *
+     * @param i clonotype index, as in sample.
+     * @return CDR3 length.
+     */
+    public int getCdr3Length(int i) {
+        return cdr3Length[i];
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap;
+
+import com.antigenomics.vdjtools.basic.Spectratype;
+import com.antigenomics.vdjtools.misc.ExecUtil;
+import com.antigenomics.vdjtools.sample.Clonotype;
+import com.antigenomics.vdjtools.sample.Sample;
+
+import java.util.*;
+
+/**
+ * A sample x feature dense matrix of sample profiles (V, J or V-J usage, CDR3 length spectratype) that computes
+ * the full N x N matrix of Jensen-Shannon divergences between them. Each profile is computed once per sample,
+ * rather than once per sample pair as in {@link OverlapEvaluator}. Features are mapped to matrix columns in the
+ * order they are encountered, which does not affect JSD values.
+ * Profiles are normalized and {@code p * log(p)} terms are pre-computed, so that the divergence
+ * of a given pair is obtained by summing over features present in both samples:
+ * {@code 2 * ln(2) * JSD = sum[p * log(p) + q * log(q) - (p + q) * log((p + q) / 2)] + ln(2) * (2 - sum[p] - sum[q])}.
+ * Pairs are processed in square tiles of the N x N matrix in parallel using {@link ExecUtil#THREADS} threads.
+ */
+public class SampleProfileMatrix {
+    /**
+     * Number of samples in a side of a tile.
+     */
+    public static int TILE_SIZE = 256;
+
+    private static final Set<OverlapMetric> SUPPORTED_METRICS = EnumSet.of(OverlapMetric.vJSD,
+            OverlapMetric.vjJSD, OverlapMetric.vj2JSD, OverlapMetric.sJSD);
+    private static final double LOG_2 = Math.log(2.0);
+
+    private final OverlapMetric metric;
+    private final Spectratype spectratype;
+
+    // feature columns indexed by a pair of keys, e.g. V and J segment ids, stored as column + 1
+    private int[][] featureColumn = new int[0][];
+    private int numberOfFeatures = 0;
+    private final List<double[]> rawProfiles = new ArrayList<>();
+
+    // dense profiles normalized to a total of 1, p * log(p) terms and sorted non-zero columns of each sample
+    private double[][] profile, pLogP;
+    private int[][] nonZero;
+
+    /**
+     * Creates an empty profile matrix.
+     *
+     * @param metric      divergence metric that defines the profile, see {@link #isSupported(OverlapMetric)}.
+     * @param overlapType overlap type, used to deduce whether amino acid or nucleotide CDR3 length
+     *                    should be used for {@link OverlapMetric#sJSD}.
+     */
+    public SampleProfileMatrix(OverlapMetric metric, OverlapType overlapType) {
+        if (!isSupported(metric)) {
+            throw new UnsupportedOperationException(metric + " can not be computed using sample profiles.");
+        }
+        this.metric = metric;
+        this.spectratype = new Spectratype(overlapType, false);
+    }
+
+    /**
+     * Tells if a given metric can be computed from sample profiles.
+     *
+     * @param metric overlap metric.
+     * @return {@code true} if metric is supported.
+     */
+    public static boolean isSupported(OverlapMetric metric) {
+        return SUPPORTED_METRICS.contains(metric);
+    }
+
+    /**
+     * Adds a sample as a new row of the matrix. Sample index is equal to the number of previously added samples.
+     * Clonotypes are weighted by their frequency.
+     *
+     * @param sample sample to add.
+     */
+    public void add(Sample sample) {
+        if (profile != null) {
+            throw new IllegalStateException("Cannot add samples after the matrix is built.");
+        }
+
+        double[] rawProfile = new double[Math.max(numberOfFeatures, 16)];
+
+        for (Clonotype clonotype : sample) {
+            double freq = clonotype.getFreq();
+            int v = clonotype.getVBinary().getId(), j = clonotype.getJBinary().getId();
+
+            switch (metric) {
+                case vJSD:
+                    rawProfile = increment(rawProfile, column(v, 0), freq);
+                    break;
+
+                case vjJSD:
+                    rawProfile = increment(rawProfile, column(v, 0), freq);
+                    rawProfile = increment(rawProfile, column(j, 1), freq);
+                    break;
+
+                case vj2JSD:
+                    rawProfile = increment(rawProfile, column(v, j + 2), freq);
+                    break;
+
+                case sJSD:
+                    rawProfile = increment(rawProfile, column(spectratype.bin(clonotype), 0), freq);
+                    break;
+            }
+        }
+
+        rawProfiles.add(rawProfile);
+    }
+
+    /**
+     * Adds a sample represented by its key set as a new row of the matrix.
+     * Sample index is equal to the number of previously added samples.
+     *
+     * @param keySet sample key set.
+     */
+    public void add(SampleKeySet keySet) {
+        if (profile != null) {
+            throw new IllegalStateException("Cannot add samples after the matrix is built.");
+        }
+
+        double[] rawProfile = new double[Math.max(numberOfFeatures, 16)];
+
+        for (int i = 0; i < keySet.getDiversity(); i++) {
+            double freq = keySet.getFreq(i);
+            int v = keySet.getV(i).getId(), j = keySet.getJ(i).getId();
+
+            switch (metric) {
+                case vJSD:
+                    rawProfile = increment(rawProfile, column(v, 0), freq);
+                    break;
+
+                case vjJSD:
+                    rawProfile = increment(rawProfile, column(v, 0), freq);
+                    rawProfile = increment(rawProfile, column(j, 1), freq);
+                    break;
+
+                case vj2JSD:
+                    rawProfile = increment(rawProfile, column(v, j + 2), freq);
+                    break;
+
+                case sJSD:
+                    rawProfile = increment(rawProfile,
+                            column(spectratype.binByLength(keySet.getCdr3Length(i)), 0), freq);
+                    break;
+            }
+        }
+
+        rawProfiles.add(rawProfile);
+    }
+
+    private int column(int key1, int key2) {
+        if (key1 >= featureColumn.length) {
+            featureColumn = Arrays.copyOf(featureColumn, Math.max(2 * featureColumn.length, key1 + 1));
+        }
+        int[] columns = featureColumn[key1];
+        if (columns == null || key2 >= columns.length) {
+            columns = featureColumn[key1] = columns == null ? new int[key2 + 1] :
+                    Arrays.copyOf(columns, Math.max(2 * columns.length, key2 + 1));
+        }
+        if (columns[key2] == 0) {
+            columns[key2] = ++numberOfFeatures;
+        }
+        return columns[key2] - 1;
+    }
+
+    private static double[] increment(double[] rawProfile, int column, double value) {
+        if (column >= rawProfile.length) {
+            rawProfile = Arrays.copyOf(rawProfile, Math.max(2 * rawProfile.length, column + 1));
+        }
+        rawProfile[column] += value;
+        return rawProfile;
+    }
+
+    /**
+     * Normalizes added profiles and pre-computes {@code p * log(p)} terms.
+     * Called automatically by {@link #compute()}.
+     */
+    public void build() {
+        if (profile != null) {
+            return;
+        }
+
+        int n = rawProfiles.size();
+        profile = new double[n][];
+        pLogP = new double[n][];
+        nonZero = new int[n][];
+
+        for (int i = 0; i < n; i++) {
+            double[] rawProfile = rawProfiles.get(i);
+            double total = 0;
+            int numberOfNonZero = 0;
+            for (double value : rawProfile) {
+                if (value > 0) {
+                    total += value;
+                    numberOfNonZero++;
+                }
+            }
+
+            double[] p = profile[i] = new double[numberOfFeatures], pLogPRow = pLogP[i] = new double[numberOfFeatures];
+            int[] nonZeroRow = nonZero[i] = new int[numberOfNonZero];
+
+            for (int k = 0, m = 0; k < rawProfile.length; k++) {
+                if (rawProfile[k] > 0) {
+                    double value = rawProfile[k] / total;
+                    p[k] = value;
+                    pLogPRow[k] = value * Math.log(value);
+                    nonZeroRow[m++] = k;
+                }
+            }
+        }
+
+        rawProfiles.clear();
+    }
+
+    /**
+     * Gets the number of samples (rows) in the matrix.
+     *
+     * @return number of samples.
+     */
+    public int getNumberOfSamples() {
+        return profile != null ? profile.length : rawProfiles.size();
+    }
+
+    /**
+     * Gets the number of profile features (columns) in the matrix, e.g. the number of distinct V segments.
+     *
+     * @return number of features.
+     */
+    public int getNumberOfFeatures() {
+        return numberOfFeatures;
+    }
+
+    /**
+     * Computes a full symmetric N x N matrix of Jensen-Shannon divergences between sample profiles,
+     * diagonal is set to {@code 0}. Divergence is undefined ({@code NaN}) for samples with no clonotypes.
+     *
+     * @return an N x N matrix.
+     */
+    public double[][] compute() {
+        build();
+
+        return compute(profile.length);
+    }
+
+    /**
+     * Computes Jensen-Shannon divergences between each of the first {@code numberOfRows} samples and all samples,
+     * e.g. for new samples that were added first. Divergence is undefined ({@code NaN}) for samples with no
+     * clonotypes.
+     *
+     * @param numberOfRows number of first samples to compute divergences for.
+     * @return a {@code numberOfRows} x N matrix, diagonal is set to {@code 0}.
+     */
+    public double[][] compute(int numberOfRows) {
+        build();
+
+        int n = profile.length, rows = Math.min(numberOfRows, n);
+        double[][] matrix = new double[rows][n];
+        for (int i = 0; i < n; i++) {
+            if (nonZero[i].length == 0) {
+                for (int j = 0; j < rows; j++) {
+                    matrix[j][i] = Double.NaN;
+                }
+                if (i < rows) {
+                    Arrays.fill(matrix[i], Double.NaN);
+                }
+            }
+        }
+
+        List<int[]> tiles = new ArrayList<>();
+        for (int iFrom = 0; iFrom < rows; iFrom += TILE_SIZE) {
+            for (int jFrom = iFrom; jFrom < n; jFrom += TILE_SIZE) {
+                tiles.add(new int[]{iFrom, Math.min(iFrom + TILE_SIZE, rows), jFrom, Math.min(jFrom + TILE_SIZE, n)});
+            }
+        }
+
+        if (tiles.size() > 1) {
+            ExecUtil.eachParallel(tiles, tile -> computeTile(tile, matrix));
+        } else {
+            for (int[] tile : tiles) {
+                computeTile(tile, matrix);
+            }
+        }
+
+        return matrix;
+    }
+
+    private void computeTile(int[] tile, double[][] matrix) {
+        int iFrom = tile[0], iTo = tile[1], jFrom = tile[2], jTo = tile[3];
+
+        for (int i = iFrom; i < iTo; i++) {
+            if (nonZero[i].length == 0) {
+                continue;
+            }
+            for (int j = iFrom == jFrom ? i + 1 : jFrom; j < jTo; j++) {
+                if (nonZero[j].length == 0) {
+                    continue;
+                }
+                double jsd = matrix[i][j] = computeJSD(i, j);
+                if (j < matrix.length) {
+                    matrix[j][i] = jsd;
+                }
+            }
+        }
+    }
+
+    private double computeJSD(int i, int j) {
+        // iterate over the sparser profile, shared features are those non-zero in both profiles
+        if (nonZero[i].length > nonZero[j].length) {
+            int tmp = i;
+            i = j;
+            j = tmp;
+        }
+
+        double[] p = profile[i], q = profile[j], pLogPRow = pLogP[i], qLogQRow = pLogP[j];
+        double sum = 0, sharedP = 0, sharedQ = 0;
+
+        for (int k : nonZero[i]) {
+            double qk = q[k];
+            if (qk > 0) {
+                double pk = p[k], mk = pk + qk;
+                sum += pLogPRow[k] + qLogQRow[k] - mk * Math.log(mk / 2);
+                sharedP += pk;
+                sharedQ += qk;
+            }
+        }
+
+        return Math.max(0, (sum + LOG_2 * (2 - sharedP - sharedQ)) / 2 / LOG_2);
+    }
+}
@@ -29,16 +29,15 @@
 
 package com.antigenomics.vdjtools.pool;
 
-import com.antigenomics.vdjtools.join.ClonotypeKeyGen;
-import com.antigenomics.vdjtools.join.key.ClonotypeKey;
+import com.antigenomics.vdjtools.join.ClonotypeIndex;
 import com.antigenomics.vdjtools.overlap.OverlapType;
 import com.antigenomics.vdjtools.sample.Clonotype;
 import com.antigenomics.vdjtools.sample.Sample;
 
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 
 /**
  * A sample aggregator used in constructing {@link com.antigenomics.vdjtools.pool.PooledSample}.
@@ -46,8 +45,8 @@ import java.util.Map;
  * @param <T> clonotype aggregator type.
  */
 public class SampleAggregator<T extends ClonotypeAggregator> implements Iterable<T> {
-    private final Map<ClonotypeKey, T> innerMap = new HashMap<>();
-    private final ClonotypeKeyGen clonotypeKeyGen;
+    private final List<T> aggregators = new ArrayList<>();
+    private final ClonotypeIndex clonotypeIndex;
     private final long count;
 
     /**
@@ -74,7 +73,7 @@ public class SampleAggregator<T extends ClonotypeAggregator> implements Iterable
     public SampleAggregator(Iterable<Sample> samples,
                             ClonotypeAggregatorFactory<T> clonotypeAggregatorFactory,
                             OverlapType overlapType) {
-        this.clonotypeKeyGen = new ClonotypeKeyGen(overlapType);
+        this.clonotypeIndex = new ClonotypeIndex(overlapType);
         int sampleId = 0;
         long count = 0;
 
@@ -83,13 +82,12 @@ public class SampleAggregator<T extends ClonotypeAggregator> implements Iterable
                     "Pooling sample " + sample.getSampleMetadata().getSampleId());
 
             for (Clonotype clonotype : sample) {
-                ClonotypeKey clonotypeKey = clonotypeKeyGen.generateKey(clonotype);
+                int index = clonotypeIndex.add(clonotype);
 
-                ClonotypeAggregator clonotypeAggregator = getAt(clonotypeKey);
-                if (clonotypeAggregator == null) {
-                    innerMap.put(clonotypeKey, clonotypeAggregatorFactory.create(clonotype, sampleId));
+                if (index == aggregators.size()) {
+                    aggregators.add(clonotypeAggregatorFactory.create(clonotype, sampleId));
                 } else {
-                    clonotypeAggregator.combine(clonotype, sampleId);
+                    aggregators.get(index).combine(clonotype, sampleId);
                 }
             }
 
@@ -102,16 +100,13 @@ public class SampleAggregator<T extends ClonotypeAggregator> implements Iterable
         this.count = count;
     }
 
-    private T getAt(ClonotypeKey clonotypeKey) {
-        return innerMap.get(clonotypeKey);
-    }
-
     public T getAt(Clonotype clonotype) {
-        return getAt(clonotypeKeyGen.generateKey(clonotype));
+        int index = clonotypeIndex.indexOf(clonotype);
+        return index < 0 ? null : aggregators.get(index);
     }
 
     public int getDiversity() {
-        return innerMap.size();
+        return aggregators.size();
     }
 
     public long getCount() {
@@ -120,6 +115,6 @@ public class SampleAggregator<T extends ClonotypeAggregator> implements Iterable
 
     @Override
     public Iterator<T> iterator() {
-        return innerMap.values().iterator();
+        return aggregators.iterator();
     }
 }
\ No newline at end of file
@@ -29,7 +29,7 @@
 
 package com.antigenomics.vdjtools.preprocess;
 
-import com.antigenomics.vdjtools.misc.Segment;
+import com.antigenomics.vdjtools.misc.SegmentFactory;
 import com.antigenomics.vdjtools.sample.Clonotype;
 import com.antigenomics.vdjtools.sample.Sample;
 import com.milaboratory.core.sequence.NucleotideSequence;
@@ -37,7 +37,6 @@ import com.milaboratory.core.tree.NeighborhoodIterator;
 import com.milaboratory.core.tree.SequenceTreeMap;
 import com.milaboratory.core.tree.TreeSearchParameters;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -130,18 +129,26 @@ public class Corrector {
     }
 
     private static class SegmentSequenceTreeMapProvider implements SequenceTreeMapProvider {
-        private final Map<VJBin, SequenceTreeMap<NucleotideSequence, Clonotype>> sequenceTreeMapBySegment =
-                new HashMap<>();
+        // indexed by Variable and Joining segment ids
+        private final SequenceTreeMap<NucleotideSequence, Clonotype>[][] sequenceTreeMapBySegment;
 
+        @SuppressWarnings("unchecked")
         public SegmentSequenceTreeMapProvider(Sample sample) {
+            int numberOfSegments = SegmentFactory.INSTANCE.size();
+            sequenceTreeMapBySegment = new SequenceTreeMap[numberOfSegments][];
+
             for (int i = sample.getDiversity() - 1; i >= 0; i--) {
                 Clonotype clonotype = sample.getAt(i);
-                VJBin vjBin = new VJBin(clonotype);
-                SequenceTreeMap<NucleotideSequence, Clonotype> sequenceTreeMap = sequenceTreeMapBySegment.get(vjBin);
+                int v = clonotype.getVBinary().getId(), j = clonotype.getJBinary().getId();
+
+                SequenceTreeMap<NucleotideSequence, Clonotype>[] sequenceTreeMapByJ = sequenceTreeMapBySegment[v];
+                if (sequenceTreeMapByJ == null) {
+                    sequenceTreeMapBySegment[v] = sequenceTreeMapByJ = new SequenceTreeMap[numberOfSegments];
+                }
 
+                SequenceTreeMap<NucleotideSequence, Clonotype> sequenceTreeMap = sequenceTreeMapByJ[j];
                 if (sequenceTreeMap == null) {
-                    sequenceTreeMapBySegment.put(vjBin,
-                            sequenceTreeMap = new SequenceTreeMap<>(NucleotideSequence.ALPHABET));
+                    sequenceTreeMapByJ[j] = sequenceTreeMap = new SequenceTreeMap<>(NucleotideSequence.ALPHABET);
                 }
 
                 sequenceTreeMap.put(clonotype.getCdr3ntBinary(), clonotype);
@@ -149,35 +156,13 @@ public class Corrector {
         }
 
         public SequenceTreeMap<NucleotideSequence, Clonotype> get(Clonotype clonotype) {
-            return sequenceTreeMapBySegment.get(new VJBin(clonotype));
-        }
+            int v = clonotype.getVBinary().getId(), j = clonotype.getJBinary().getId();
 
-        private static class VJBin {
-            private final Segment v, j;
+            if (v >= sequenceTreeMapBySegment.length || sequenceTreeMapBySegment[v] == null ||
+                    j >= sequenceTreeMapBySegment[v].length)
+                return null;
 
-            public VJBin(Clonotype clonotype) {
-                this(clonotype.getVBinary(), clonotype.getJBinary());
-            }
-
-            public VJBin(Segment v, Segment j) {
-                this.v = v;
-                this.j = j;
-            }
-
-            @Override
-            public boolean equals(Object o) {
-                if (this == o) return true;
-                if (o == null || getClass() != o.getClass()) return false;
-
-                VJBin vjBin = (VJBin) o;
-
-                return j.equals(vjBin.j) && v.equals(vjBin.v);
-            }
-
-            @Override
-            public int hashCode() {
-                return 31 * v.hashCode() + j.hashCode();
-            }
+            return sequenceTreeMapBySegment[v][j];
         }
     }
 
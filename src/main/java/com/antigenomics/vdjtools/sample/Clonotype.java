@@ -31,9 +31,12 @@ package com.antigenomics.vdjtools.sample;
 
 import com.antigenomics.vdjtools.ClonotypeWrapper;
 import com.antigenomics.vdjtools.Countable;
+import com.antigenomics.vdjtools.join.key.ClonotypeFingerprint;
 import com.antigenomics.vdjtools.misc.CommonUtil;
 import com.antigenomics.vdjtools.misc.Segment;
 import com.antigenomics.vdjtools.misc.SegmentFactory;
+import com.antigenomics.vdjtools.misc.SequencePool;
+import com.antigenomics.vdjtools.overlap.OverlapType;
 import com.milaboratory.core.sequence.AminoAcidSequence;
 import com.milaboratory.core.sequence.NucleotideSequence;
 
@@ -58,6 +61,9 @@ public class Clonotype implements Comparable<Clonotype>, Countable, ClonotypeWra
 
     private final boolean inFrame, isComplete, noStop;
 
+    // fingerprints for the last requested nucleotide and amino acid matching rules, 0 if not computed
+    private volatile long ntFingerprint = 0, aaFingerprint = 0;
+
     /**
      * Creates a new clonotype explicitly setting all fields
      *
@@ -142,7 +148,7 @@ public class Clonotype implements Comparable<Clonotype>, Countable, ClonotypeWra
                      String annotation) {
         this(parent, count, freq, segmPoints,
                 SegmentFactory.INSTANCE.create(v), SegmentFactory.INSTANCE.create(d), SegmentFactory.INSTANCE.create(j),
-                new NucleotideSequence(cdr3nt), new AminoAcidSequence(cdr3aa),
+                SequencePool.INSTANCE.nt(cdr3nt), SequencePool.INSTANCE.aa(cdr3aa),
                 inFrame, noStop, isComplete, annotation);
     }
 
@@ -200,7 +206,7 @@ public class Clonotype implements Comparable<Clonotype>, Countable, ClonotypeWra
                 toCopy.segmPoints, toCopy.v, toCopy.d, toCopy.j,
                 toCopy.cdr3nt, toCopy.cdr3aa,
                 toCopy.inFrame, toCopy.noStop, toCopy.isComplete,
-                toCopy.annotation);
+                toCopy.getAnnotation());
     }
 
     /**
@@ -457,6 +463,30 @@ public class Clonotype implements Comparable<Clonotype>, Countable, ClonotypeWra
         return parent;
     }
 
+    /**
+     * Gets a 64-bit fingerprint of this clonotype under a given matching rule, see {@link ClonotypeFingerprint}.
+     * Fingerprints are cached for the last requested nucleotide and amino acid matching rules, so that
+     * alternating between a nucleotide and an amino acid rule doesn't re-compute them.
+     *
+     * @param overlapType clonotype matching rule.
+     * @return clonotype fingerprint.
+     */
+    public long getFingerprint(OverlapType overlapType) {
+        boolean aminoAcid = overlapType.getAminoAcid();
+        long fingerprint = aminoAcid ? this.aaFingerprint : this.ntFingerprint;
+
+        if (fingerprint == 0 || ClonotypeFingerprint.getType(fingerprint) != overlapType.ordinal()) {
+            fingerprint = ClonotypeFingerprint.compute(this, overlapType);
+            if (aminoAcid) {
+                this.aaFingerprint = fingerprint;
+            } else {
+                this.ntFingerprint = fingerprint;
+            }
+        }
+
+        return fingerprint;
+    }
+
     void append(Clonotype other) {
         this.count += other.count;
         this.freq += other.freq;
@@ -502,7 +532,7 @@ public class Clonotype implements Comparable<Clonotype>, Countable, ClonotypeWra
                 segmPoints, v, d, j,
                 cdr3nt, cdr3aa,
                 inFrame, noStop, isComplete,
-                annotation
+                getAnnotation()
         );
     }
 
@@ -517,7 +547,7 @@ public class Clonotype implements Comparable<Clonotype>, Countable, ClonotypeWra
                 "parent=" + parent +
                 ", count=" + count +
                 ", freq=" + freq +
-                ", annotation='" + annotation + '\'' +
+                ", annotation='" + getAnnotation() + '\'' +
                 ", segmPoints=" + Arrays.toString(segmPoints) +
                 ", v=" + v +
                 ", d=" + d +
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.sample;
+
+import com.antigenomics.vdjtools.io.SampleCache;
+import com.antigenomics.vdjtools.misc.ExecUtil;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Collapses duplicate clonotypes (having the same V, J and CDR3 nucleotide sequence) read from a clonotype stream.
+ * Duplicates are combined in memory while the estimated footprint of unique clonotypes can be reserved from
+ * the memory budget of {@link SampleCache#SHARED}, which is shared with cached samples. After that, clonotypes
+ * are hash-partitioned into temporary files and each partition is collapsed independently, so that only
+ * a single partition has to fit into memory. The collapser should be closed to release reserved memory
+ * and remove partition files.
+ * The result is the same in both cases: counts and frequencies of duplicates are summed in the order
+ * they appear in the stream, and unique clonotypes are ranked by their first appearance.
+ */
+public class ClonotypeCollapser implements Closeable {
+    public static boolean VERBOSE = true;
+
+    /**
+     * Number of partitions clonotypes are split into once the memory budget is exceeded.
+     */
+    public static int PARTITIONS = 64;
+
+    // estimated heap footprint of a clonotype and a hash map entry holding it, not counting CDR3 sequences
+    private static final int CLONOTYPE_BYTES = 200;
+    // memory is reserved from shared budget in chunks
+    private static final long RESERVE_STEP = 1 << 20;
+
+    private final Sample parent;
+    private final Map<Clonotype, Clonotype> clonotypes = new LinkedHashMap<>();
+    private long footprint = 0, reserved = 0;
+
+    private File[] partitionFiles = null;
+    private DataOutputStream[] partitions = null;
+    private long index = 0;
+
+    /**
+     * Creates a new collapser.
+     *
+     * @param parent sample that collapsed clonotypes will be assigned to.
+     */
+    public ClonotypeCollapser(Sample parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Adds a clonotype, combining it with a previously added duplicate clonotype if any.
+     *
+     * @param clonotype clonotype.
+     * @throws IOException if the clonotype could not be written to a partition file.
+     */
+    public void add(Clonotype clonotype) throws IOException {
+        if (partitions != null) {
+            write(clonotype, index++);
+            return;
+        }
+
+        Clonotype existing = clonotypes.get(clonotype);
+
+        if (existing != null) {
+            existing.append(clonotype);
+        } else {
+            clonotypes.put(clonotype, clonotype);
+            footprint += CLONOTYPE_BYTES + 2 * (clonotype.getCdr3ntBinary().size() +
+                    clonotype.getCdr3aaBinary().size());
+
+            if (footprint > reserved && !reserve()) {
+                spill();
+            }
+        }
+    }
+
+    /**
+     * Tells if clonotypes were written to partition files.
+     *
+     * @return {@code true} if memory budget was exceeded.
+     */
+    public boolean isSpilled() {
+        return partitionFiles != null;
+    }
+
+    /**
+     * Passes each unique clonotype together with the rank of its first appearance to a consumer.
+     * Clonotypes are passed in the order of their first appearance unless collapser {@link #isSpilled()}.
+     * Partition files are removed afterwards.
+     *
+     * @param consumer clonotype consumer.
+     * @throws IOException if partition files could not be read.
+     */
+    public void forEach(ObjLongConsumer<Clonotype> consumer) throws IOException {
+        if (partitions == null) {
+            long rank = 0;
+            for (Clonotype clonotype : clonotypes.values()) {
+                consumer.accept(clonotype, rank++);
+            }
+            return;
+        }
+
+        try {
+            for (DataOutputStream partition : partitions) {
+                partition.close();
+            }
+
+            for (File partitionFile : partitionFiles) {
+                collapsePartition(partitionFile, consumer);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Releases memory reserved for collapsing and removes partition files, if any.
+     */
+    @Override
+    public void close() {
+        release();
+
+        if (partitions != null) {
+            for (DataOutputStream partition : partitions) {
+                if (partition != null) {
+                    try {
+                        partition.close();
+                    } catch (IOException e) {
+                        // file is removed anyway
+                    }
+                }
+            }
+            for (File partitionFile : partitionFiles) {
+                if (partitionFile != null) {
+                    partitionFile.delete();
+                }
+            }
+        }
+    }
+
+    private boolean reserve() {
+        long bytes = Math.max(footprint - reserved, RESERVE_STEP);
+
+        if (!SampleCache.SHARED.reserve(bytes)) {
+            return false;
+        }
+
+        reserved += bytes;
+        return true;
+    }
+
+    private void release() {
+        if (reserved > 0) {
+            SampleCache.SHARED.release(reserved);
+            reserved = 0;
+        }
+    }
+
+    /**
+     * Lists unique clonotypes in the order of their first appearance.
+     *
+     * @return list of collapsed clonotypes.
+     * @throws IOException if partition files could not be read.
+     */
+    public List<Clonotype> toList() throws IOException {
+        if (partitions == null) {
+            return new ArrayList<>(clonotypes.values());
+        }
+
+        final List<Clonotype> collapsed = new ArrayList<>();
+        final List<Long> ranks = new ArrayList<>();
+        forEach((clonotype, rank) -> {
+            collapsed.add(clonotype);
+            ranks.add(rank);
+        });
+
+        Integer[] order = new Integer[collapsed.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> Long.compare(ranks.get(i1), ranks.get(i2)));
+
+        List<Clonotype> sorted = new ArrayList<>(order.length);
+        for (int i : order) {
+            sorted.add(collapsed.get(i));
+        }
+        return sorted;
+    }
+
+    /**
+     * INTERNAL moves clonotypes collapsed so far to partition files, ranks are kept as unique clonotypes
+     * came before any clonotype that will be added later.
+     */
+    private void spill() throws IOException {
+        ExecUtil.report(this, "Collapsed " + clonotypes.size() +
+                " clonotypes exceed memory budget, splitting remaining input into " + PARTITIONS + " partitions.",
+                VERBOSE);
+
+        partitionFiles = new File[PARTITIONS];
+        partitions = new DataOutputStream[PARTITIONS];
+
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitionFiles[i] = File.createTempFile("vdjtools-collapse-", ".bin");
+            partitionFiles[i].deleteOnExit();
+            partitions[i] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(partitionFiles[i]), 65536));
+        }
+
+        for (Clonotype clonotype : clonotypes.values()) {
+            write(clonotype, index++);
+        }
+
+        clonotypes.clear();
+        footprint = 0;
+        release();
+    }
+
+    private void collapsePartition(File partitionFile, ObjLongConsumer<Clonotype> consumer) throws IOException {
+        // records are written in the order of their ranks, so the first record of a clonotype holds its rank
+        Map<Clonotype, Clonotype> collapsed = new LinkedHashMap<>();
+        Map<Clonotype, Long> ranks = new HashMap<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(partitionFile), 65536))) {
+            while (true) {
+                long rank;
+                try {
+                    rank = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                Clonotype clonotype = read(in);
+                Clonotype existing = collapsed.get(clonotype);
+
+                if (existing != null) {
+                    existing.append(clonotype);
+                } else {
+                    collapsed.put(clonotype, clonotype);
+                    ranks.put(clonotype, rank);
+                }
+            }
+        }
+
+        for (Clonotype clonotype : collapsed.values()) {
+            consumer.accept(clonotype, ranks.get(clonotype));
+        }
+    }
+
+    private void write(Clonotype clonotype, long rank) throws IOException {
+        int hash = clonotype.hashCode();
+        DataOutputStream out = partitions[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % PARTITIONS];
+
+        out.writeLong(rank);
+        out.writeInt((int) clonotype.getCount());
+        out.writeDouble(clonotype.getFreqAsInInput());
+        out.writeInt(clonotype.getVEnd());
+        out.writeInt(clonotype.getDStart());
+        out.writeInt(clonotype.getDEnd());
+        out.writeInt(clonotype.getJStart());
+        writeString(out, clonotype.getV());
+        writeString(out, clonotype.getD());
+        writeString(out, clonotype.getJ());
+        writeString(out, clonotype.getCdr3nt());
+        writeString(out, clonotype.getCdr3aa());
+        out.writeBoolean(clonotype.isInFrame());
+        out.writeBoolean(clonotype.isNoStop());
+        out.writeBoolean(clonotype.isComplete());
+        writeString(out, clonotype.getAnnotation());
+    }
+
+    private Clonotype read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        double freq = in.readDouble();
+        int[] segmPoints = new int[]{in.readInt(), in.readInt(), in.readInt(), in.readInt()};
+        String v = readString(in), d = readString(in), j = readString(in),
+                cdr3nt = readString(in), cdr3aa = readString(in);
+        boolean inFrame = in.readBoolean(), noStop = in.readBoolean(), isComplete = in.readBoolean();
+        String annotation = readString(in);
+
+        return new Clonotype(parent, count, freq, segmPoints, v, d, j, cdr3nt, cdr3aa,
+                inFrame, noStop, isComplete, annotation);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.sample;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A bounded heap that keeps N most abundant clonotypes out of a stream of clonotypes, so that top N clonotypes
+ * can be selected from an unsorted input using O(N) memory. Clonotypes having the same count are ranked by
+ * their order in the stream, so for count-sorted input the first N clonotypes are selected.
+ */
+public class ClonotypeHeap {
+    // the least abundant clonotype that came last is at the head of the queue
+    private static final Comparator<Entry> WORST_FIRST = (e1, e2) -> {
+        int result = Long.compare(e1.clonotype.getCount(), e2.clonotype.getCount());
+        return result != 0 ? result : Long.compare(e2.index, e1.index);
+    };
+
+    private final PriorityQueue<Entry> queue;
+    private final int capacity;
+    private long index = 0;
+
+    /**
+     * Creates a new clonotype heap.
+     *
+     * @param capacity number of clonotypes to keep.
+     */
+    public ClonotypeHeap(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity should be non-negative.");
+        this.capacity = capacity;
+        this.queue = new PriorityQueue<>(Math.max(1, Math.min(capacity, 1 << 16)), WORST_FIRST);
+    }
+
+    /**
+     * Offers a clonotype to the heap. The clonotype is kept if the heap is not full or
+     * the clonotype is more abundant than the least abundant clonotype in the heap, which is then discarded.
+     *
+     * @param clonotype clonotype.
+     */
+    public void offer(Clonotype clonotype) {
+        offer(clonotype, index++);
+    }
+
+    /**
+     * Offers a clonotype to the heap, specifying its rank among clonotypes having the same count explicitly.
+     * Should not be mixed with {@link #offer(Clonotype)}.
+     *
+     * @param clonotype clonotype.
+     * @param rank      clonotype rank, clonotypes with lower rank are preferred if counts are equal.
+     */
+    public void offer(Clonotype clonotype, long rank) {
+        Entry entry = new Entry(clonotype, rank);
+
+        if (queue.size() < capacity) {
+            queue.add(entry);
+        } else if (capacity > 0 && WORST_FIRST.compare(entry, queue.peek()) > 0) {
+            queue.poll();
+            queue.add(entry);
+        }
+    }
+
+    /**
+     * Gets the number of clonotypes in the heap.
+     *
+     * @return number of clonotypes.
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Tells if the heap holds the requested number of clonotypes, so that offered clonotypes replace existing ones.
+     *
+     * @return {@code true} if the heap is full.
+     */
+    public boolean isFull() {
+        return queue.size() >= capacity;
+    }
+
+    /**
+     * Gets the count of the least abundant clonotype in the heap.
+     *
+     * @return minimal clonotype count, or {@code 0} if the heap is empty.
+     */
+    public long getMinCount() {
+        return queue.isEmpty() ? 0 : queue.peek().clonotype.getCount();
+    }
+
+    /**
+     * Lists clonotypes kept in the heap.
+     *
+     * @return list of clonotypes sorted by count in descending order.
+     */
+    public List<Clonotype> toList() {
+        List<Entry> entries = new ArrayList<>(queue);
+        entries.sort(WORST_FIRST.reversed());
+
+        List<Clonotype> clonotypes = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            clonotypes.add(entry.clonotype);
+        }
+        return clonotypes;
+    }
+
+    private static class Entry {
+        final Clonotype clonotype;
+        final long index;
+
+        Entry(Clonotype clonotype, long index) {
+            this.clonotype = clonotype;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.sample;
+
+import com.antigenomics.vdjtools.io.binary.BinarySampleFormat;
+import com.antigenomics.vdjtools.io.parser.ClonotypeStreamParser;
+import com.antigenomics.vdjtools.misc.Segment;
+import com.antigenomics.vdjtools.misc.Software;
+import com.antigenomics.vdjtools.sample.metadata.SampleMetadata;
+import com.milaboratory.core.sequence.AminoAcidSequence;
+import com.milaboratory.core.sequence.NucleotideSequence;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.antigenomics.vdjtools.io.binary.BinarySampleFormat.bits2nt;
+import static com.antigenomics.vdjtools.io.binary.BinarySampleFormat.nt2bits;
+
+/**
+ * A sample that stores clonotypes column-wise: counts, frequencies, segment identifiers, segment points
+ * and flags are kept in parallel primitive arrays, while CDR3 sequences are packed into byte arenas
+ * (nucleotide sequences are stored with 2 bits per base). Clonotypes are returned as lightweight views that are
+ * created upon each access and are not retained by the sample. Such sample takes several times less memory than
+ * {@link Sample} holding the same clonotypes. Clonotype views are read-only snapshots, except for annotations
+ * that are stored back to the annotation column, so that annotators work the same way as for {@link Sample}.
+ */
+public class ColumnarSample extends Sample {
+    /**
+     * If set to true, samples loaded by sample connections are stored in columnar form,
+     * set with {@code columnar} global option.
+     */
+    public static boolean ENABLED = false;
+
+    private static final byte FLAG_IN_FRAME = 1, FLAG_NO_STOP = 2, FLAG_COMPLETE = 4, FLAG_RAW_NT = 8;
+
+    private final int size;
+    private final int[] counts;
+    private final double[] freqs;
+    private final Segment[] segments;
+    private final short[] vIds, dIds, jIds, cdr3Lengths;
+    private final int[] segmPoints, ntOffsets, aaOffsets;
+    private final byte[] flags, ntArena, aaArena;
+    private final String[] annotations;
+
+    /**
+     * Creates a columnar copy of a given sample.
+     *
+     * @param other sample to copy.
+     */
+    public ColumnarSample(Sample other) {
+        this(other.getSampleMetadata(), other.getAnnotationHeader(),
+                other.getCount(), other.getFreqAsInInput(), columnsOf(other));
+    }
+
+    private ColumnarSample(SampleMetadata sampleMetadata, String annotationHeader,
+                           long count, double frequency, Columns columns) {
+        super(sampleMetadata, count, columns.size, frequency, annotationHeader);
+        this.size = columns.size;
+        this.counts = Arrays.copyOf(columns.counts, size);
+        this.freqs = Arrays.copyOf(columns.freqs, size);
+        this.segments = columns.segments.toArray(new Segment[columns.segments.size()]);
+        this.vIds = Arrays.copyOf(columns.vIds, size);
+        this.dIds = Arrays.copyOf(columns.dIds, size);
+        this.jIds = Arrays.copyOf(columns.jIds, size);
+        this.cdr3Lengths = Arrays.copyOf(columns.cdr3Lengths, size);
+        this.segmPoints = Arrays.copyOf(columns.segmPoints, 4 * size);
+        this.flags = Arrays.copyOf(columns.flags, size);
+        this.ntOffsets = Arrays.copyOf(columns.ntOffsets, size + 1);
+        this.aaOffsets = Arrays.copyOf(columns.aaOffsets, size + 1);
+        this.ntArena = Arrays.copyOf(columns.ntArena, columns.ntOffsets[size]);
+        this.aaArena = Arrays.copyOf(columns.aaArena, columns.aaOffsets[size]);
+        this.annotations = Arrays.copyOf(columns.annotations, size);
+    }
+
+    private static Columns columnsOf(Sample sample) {
+        Columns columns = new Columns(sample.getDiversity());
+        for (Clonotype clonotype : sample) {
+            columns.add(clonotype);
+        }
+        return columns;
+    }
+
+    /**
+     * Reads sample from input stream into columnar form. Binary columnar samples
+     * (see {@link BinarySampleFormat}) are detected automatically.
+     *
+     * @param inputStream    input stream containing plain-text or binary clonotype table.
+     * @param sampleMetadata sample metadata.
+     * @param software       software, used for parsing.
+     * @param top            select top N clonotypes only. Set to -1 to select all clonotypes.
+     * @param collapse       if set to true, will collapse the sample combining duplicate clonotypes.
+     * @return columnar sample instance.
+     */
+    public static ColumnarSample fromInputStream(InputStream inputStream,
+                                                 SampleMetadata sampleMetadata,
+                                                 Software software,
+                                                 int top, boolean collapse) {
+        if (!inputStream.markSupported())
+            inputStream = new BufferedInputStream(inputStream);
+
+        try {
+            if (BinarySampleFormat.isBinary(inputStream))
+                return new ColumnarSample(Sample.fromInputStream(inputStream, sampleMetadata, software,
+                        top, true, collapse));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read binary sample.", e);
+        }
+
+        return fromParser(ClonotypeStreamParser.create(inputStream, software, new Sample(sampleMetadata)),
+                software, top, collapse);
+    }
+
+    /**
+     * Reads sample using a clonotype parser directly into columnar form, without creating a {@link Sample}
+     * holding all clonotypes first. Samples that should be collapsed are read as is and are converted afterwards.
+     *
+     * @param clonotypeStreamParser clonotype parser holding a blank sample.
+     * @param software              software, used for parsing.
+     * @param top                   select top N clonotypes only. Set to -1 to select all clonotypes.
+     * @param collapse              if set to true, will collapse the sample combining duplicate clonotypes.
+     * @return columnar sample instance.
+     */
+    public static ColumnarSample fromParser(ClonotypeStreamParser clonotypeStreamParser,
+                                            Software software,
+                                            int top, boolean collapse) {
+        if (collapse || top > -1) {
+            // top clonotypes are selected with a bounded heap, so only N clonotypes are held before conversion
+            return new ColumnarSample(Sample.fromParser(clonotypeStreamParser, software, top, true, collapse));
+        }
+
+        // clonotypes are kept in input order, same as in Sample.fromParser()
+        Columns columns = new Columns(1024);
+        long count = 0;
+        double frequency = 0;
+
+        for (Clonotype clonotype : clonotypeStreamParser) {
+            if (clonotype != null) {
+                count += clonotype.getCount();
+                frequency += clonotype.getFreqAsInInput();
+                columns.add(clonotype);
+            }
+        }
+
+        clonotypeStreamParser.finish(); // report progress
+
+        // Re-calculate frequencies for per read storing software
+        if (software.isPerReadOutput()) {
+            frequency = 0;
+            for (int i = 0; i < columns.size; i++) {
+                columns.freqs[i] = columns.counts[i] / (double) count;
+                frequency += columns.freqs[i];
+            }
+        }
+
+        return new ColumnarSample(clonotypeStreamParser.getSample().getSampleMetadata(),
+                clonotypeStreamParser.getAnnotationHeader(), count, frequency, columns);
+    }
+
+    /**
+     * Gets the estimated heap footprint of this sample.
+     *
+     * @return footprint in bytes.
+     */
+    public long getFootprint() {
+        return size * (4L + 8L + 3 * 2 + 2 + 16 + 1 + 4 + 4) +
+                ntArena.length + aaArena.length + size * 8L;
+    }
+
+    private String cdr3nt(int index) {
+        int from = ntOffsets[index], to = ntOffsets[index + 1];
+
+        if ((flags[index] & FLAG_RAW_NT) != 0) {
+            return new String(ntArena, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+
+        char[] nt = new char[cdr3Lengths[index]];
+        for (int k = 0; k < nt.length; k++) {
+            nt[k] = bits2nt(ntArena[from + (k >> 2)] >> ((k & 3) << 1));
+        }
+        return new String(nt);
+    }
+
+    private String cdr3aa(int index) {
+        int from = aaOffsets[index];
+        return new String(aaArena, from, aaOffsets[index + 1] - from, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * A new clonotype view is created upon each call, views of the same clonotype are equal and share annotation.
+     */
+    @Override
+    public Clonotype getAt(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+
+        return new ClonotypeView(index);
+    }
+
+    /**
+     * INTERNAL clonotype view that reads and writes its annotation from the annotation column.
+     */
+    private class ClonotypeView extends Clonotype {
+        private final int index;
+
+        ClonotypeView(int index) {
+            super(ColumnarSample.this, counts[index], freqs[index],
+                    Arrays.copyOfRange(segmPoints, 4 * index, 4 * index + 4),
+                    segments[vIds[index]], segments[dIds[index]], segments[jIds[index]],
+                    new NucleotideSequence(cdr3nt(index)), new AminoAcidSequence(cdr3aa(index)),
+                    (flags[index] & FLAG_IN_FRAME) != 0, (flags[index] & FLAG_NO_STOP) != 0,
+                    (flags[index] & FLAG_COMPLETE) != 0,
+                    null);
+            this.index = index;
+        }
+
+        @Override
+        public String getAnnotation() {
+            return annotations[index];
+        }
+
+        @Override
+        public void setAnnotation(String annotation) {
+            annotations[index] = annotation;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Clonotype> getClonotypes() {
+        return new AbstractList<Clonotype>() {
+            @Override
+            public Clonotype get(int index) {
+                return getAt(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Clonotype> iterator() {
+        return new Iterator<Clonotype>() {
+            int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Clonotype next() {
+                if (index >= size)
+                    throw new NoSuchElementException();
+                return getAt(index++);
+            }
+        };
+    }
+
+    /**
+     * INTERNAL growable columns used to build a columnar sample.
+     */
+    private static class Columns {
+        int size = 0;
+        int[] counts;
+        double[] freqs;
+        short[] vIds, dIds, jIds, cdr3Lengths;
+        int[] segmPoints, ntOffsets, aaOffsets;
+        byte[] flags, ntArena, aaArena;
+        String[] annotations;
+        final List<Segment> segments = new ArrayList<>();
+        final Map<Segment, Short> segmentIds = new HashMap<>();
+
+        Columns(int capacity) {
+            capacity = Math.max(capacity, 16);
+            counts = new int[capacity];
+            freqs = new double[capacity];
+            vIds = new short[capacity];
+            dIds = new short[capacity];
+            jIds = new short[capacity];
+            cdr3Lengths = new short[capacity];
+            segmPoints = new int[4 * capacity];
+            flags = new byte[capacity];
+            annotations = new String[capacity];
+            ntOffsets = new int[capacity + 1];
+            aaOffsets = new int[capacity + 1];
+            ntArena = new byte[capacity * 12];
+            aaArena = new byte[capacity * 16];
+        }
+
+        private void grow() {
+            int capacity = counts.length * 2;
+            counts = Arrays.copyOf(counts, capacity);
+            freqs = Arrays.copyOf(freqs, capacity);
+            vIds = Arrays.copyOf(vIds, capacity);
+            dIds = Arrays.copyOf(dIds, capacity);
+            jIds = Arrays.copyOf(jIds, capacity);
+            cdr3Lengths = Arrays.copyOf(cdr3Lengths, capacity);
+            segmPoints = Arrays.copyOf(segmPoints, 4 * capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            annotations = Arrays.copyOf(annotations, capacity);
+            ntOffsets = Arrays.copyOf(ntOffsets, capacity + 1);
+            aaOffsets = Arrays.copyOf(aaOffsets, capacity + 1);
+        }
+
+        private static byte[] ensureCapacity(byte[] arena, int capacity) {
+            return capacity <= arena.length ? arena : Arrays.copyOf(arena, Math.max(capacity, 2 * arena.length));
+        }
+
+        private short segmentId(Segment segment) {
+            Short id = segmentIds.get(segment);
+            if (id == null) {
+                if (segments.size() > Short.MAX_VALUE)
+                    throw new IllegalStateException("Too many distinct segments in sample.");
+                id = (short) segments.size();
+                segmentIds.put(segment, id);
+                segments.add(segment);
+            }
+            return id;
+        }
+
+        void add(Clonotype clonotype) {
+            if (size == counts.length)
+                grow();
+
+            counts[size] = (int) clonotype.getCount();
+            freqs[size] = clonotype.getFreqAsInInput();
+            vIds[size] = segmentId(clonotype.getVBinary());
+            dIds[size] = segmentId(clonotype.getDBinary());
+            jIds[size] = segmentId(clonotype.getJBinary());
+            segmPoints[4 * size] = clonotype.getVEnd();
+            segmPoints[4 * size + 1] = clonotype.getDStart();
+            segmPoints[4 * size + 2] = clonotype.getDEnd();
+            segmPoints[4 * size + 3] = clonotype.getJStart();
+            annotations[size] = clonotype.getAnnotation();
+
+            byte flag = 0;
+            if (clonotype.isInFrame())
+                flag |= FLAG_IN_FRAME;
+            if (clonotype.isNoStop())
+                flag |= FLAG_NO_STOP;
+            if (clonotype.isComplete())
+                flag |= FLAG_COMPLETE;
+
+            String cdr3nt = clonotype.getCdr3nt();
+            int ntFrom = ntOffsets[size], ntTo = ntFrom + (cdr3nt.length() + 3) / 4;
+            ntArena = ensureCapacity(ntArena, ntFrom + cdr3nt.length());
+            for (int k = 0; k < cdr3nt.length(); k++) {
+                int bits = nt2bits(cdr3nt.charAt(k));
+                if (bits < 0) {
+                    // ambiguous base, store as is
+                    flag |= FLAG_RAW_NT;
+                    Arrays.fill(ntArena, ntFrom, ntTo, (byte) 0);
+                    for (k = 0; k < cdr3nt.length(); k++) {
+                        ntArena[ntFrom + k] = (byte) cdr3nt.charAt(k);
+                    }
+                    ntTo = ntFrom + cdr3nt.length();
+                    break;
+                }
+                if ((k & 3) == 0)
+                    ntArena[ntFrom + (k >> 2)] = 0;
+                ntArena[ntFrom + (k >> 2)] |= bits << ((k & 3) << 1);
+            }
+            ntOffsets[size + 1] = ntTo;
+            cdr3Lengths[size] = (short) cdr3nt.length();
+
+            String cdr3aa = clonotype.getCdr3aa();
+            int aaFrom = aaOffsets[size];
+            aaArena = ensureCapacity(aaArena, aaFrom + cdr3aa.length());
+            for (int k = 0; k < cdr3aa.length(); k++) {
+                aaArena[aaFrom + k] = (byte) cdr3aa.charAt(k);
+            }
+            aaOffsets[size + 1] = aaFrom + cdr3aa.length();
+
+            flags[size] = flag;
+            size++;
+        }
+    }
+}
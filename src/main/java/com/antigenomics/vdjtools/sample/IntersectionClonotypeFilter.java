@@ -29,24 +29,22 @@
 
 package com.antigenomics.vdjtools.sample;
 
-import com.antigenomics.vdjtools.join.ClonotypeKeyGen;
-import com.antigenomics.vdjtools.join.key.ClonotypeKey;
+import com.antigenomics.vdjtools.join.ClonotypeIndex;
 import com.antigenomics.vdjtools.overlap.OverlapType;
 
-import java.util.Set;
-
 /**
  * Filter based on clonotype intersection with the list of clonotypes from the specified sample according to
  * the specified clonotype matching rule.
  */
 public class IntersectionClonotypeFilter extends ClonotypeFilter {
-    private final ClonotypeKeyGen clonotypeKeyGen;
-    private final Set<ClonotypeKey> keySet;
+    private final ClonotypeIndex clonotypeIndex;
 
     public IntersectionClonotypeFilter(OverlapType overlapType, Sample sample, boolean negative) {
         super(negative);
-        this.clonotypeKeyGen = new ClonotypeKeyGen(overlapType);
-        this.keySet = new ClonotypeKeyGen(overlapType).generateKeySet(sample);
+        this.clonotypeIndex = new ClonotypeIndex(overlapType, sample.getDiversity());
+        for (Clonotype clonotype : sample) {
+            clonotypeIndex.add(clonotype);
+        }
     }
 
     public IntersectionClonotypeFilter(OverlapType overlapType, Sample sample) {
@@ -55,6 +53,6 @@ public class IntersectionClonotypeFilter extends ClonotypeFilter {
 
     @Override
     protected boolean checkPass(Clonotype clonotype) {
-        return keySet.contains(clonotypeKeyGen.generateKey(clonotype));
+        return clonotypeIndex.indexOf(clonotype) >= 0;
     }
 }
@@ -29,6 +29,8 @@
 
 package com.antigenomics.vdjtools.sample;
 
+import com.antigenomics.vdjtools.misc.Segment;
+
 /**
  * Filter based on Joining segment matching.
  */
@@ -42,7 +44,7 @@ public class JFilter extends SegmentFilter {
     }
 
     @Override
-    protected String getSegmentName(Clonotype clonotype) {
-        return clonotype.getJ();
+    protected Segment getSegment(Clonotype clonotype) {
+        return clonotype.getJBinary();
     }
 }
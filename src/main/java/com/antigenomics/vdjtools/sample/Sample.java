@@ -30,10 +30,14 @@
 package com.antigenomics.vdjtools.sample;
 
 import com.antigenomics.vdjtools.ClonotypeWrapperContainer;
+import com.antigenomics.vdjtools.io.binary.BinarySampleFormat;
+import com.antigenomics.vdjtools.io.binary.BinarySampleReader;
 import com.antigenomics.vdjtools.io.parser.ClonotypeStreamParser;
 import com.antigenomics.vdjtools.misc.Software;
 import com.antigenomics.vdjtools.sample.metadata.SampleMetadata;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
 
@@ -52,6 +56,24 @@ public class Sample implements ClonotypeWrapperContainer<Clonotype> {
         this.sampleMetadata = sampleMetadata;
     }
 
+    /**
+     * INTERNAL creates a sample explicitly setting sample-level statistics, clonotypes are not stored.
+     *
+     * @param sampleMetadata   sample metadata.
+     * @param count            total number of reads.
+     * @param diversity        number of clonotypes.
+     * @param frequency        total frequency of clonotypes as in input.
+     * @param annotationHeader clonotype annotation header, could be null.
+     */
+    protected Sample(SampleMetadata sampleMetadata, long count, int diversity, double frequency,
+                     String annotationHeader) {
+        this.sampleMetadata = sampleMetadata;
+        this.count = count;
+        this.diversity = diversity;
+        this.frequency = frequency;
+        this.annotationHeader = annotationHeader;
+    }
+
     /**
      * Creates a deep copy of a given sample, re-assigning sample metadata.
      *
@@ -62,7 +84,7 @@ public class Sample implements ClonotypeWrapperContainer<Clonotype> {
         this.sampleMetadata = sampleMetadata;
         this.annotationHeader = other.annotationHeader;
 
-        for (Clonotype clonotype : other.clonotypes) {
+        for (Clonotype clonotype : other) {
             this.addClonotype(new Clonotype(clonotype, this));
         }
     }
@@ -78,7 +100,7 @@ public class Sample implements ClonotypeWrapperContainer<Clonotype> {
         this.sampleMetadata = other.sampleMetadata;
         this.annotationHeader = other.annotationHeader;
 
-        for (Clonotype clonotype : other.clonotypes) {
+        for (Clonotype clonotype : other) {
             Integer newCount = samplerMap.get(clonotype);
 
             if (newCount != null && newCount > 0)
@@ -92,7 +114,7 @@ public class Sample implements ClonotypeWrapperContainer<Clonotype> {
         this.sampleMetadata = other.sampleMetadata;
         this.annotationHeader = other.annotationHeader;
 
-        for (Clonotype clonotype : other.clonotypes) {
+        for (Clonotype clonotype : other) {
             this.addClonotype(clonotypeConverter.convert(clonotype));
         }
     }
@@ -108,7 +130,7 @@ public class Sample implements ClonotypeWrapperContainer<Clonotype> {
         this.sampleMetadata = other.sampleMetadata;
         this.annotationHeader = other.annotationHeader;
 
-        for (Clonotype clonotype : other.clonotypes) {
+        for (Clonotype clonotype : other) {
             if (top > -1 && this.getDiversity() == top)
                 break;
 
@@ -147,9 +169,10 @@ public class Sample implements ClonotypeWrapperContainer<Clonotype> {
     }
 
     /**
-     * Reads sample from input stream.
+     * Reads sample from input stream. Binary columnar samples (see {@link BinarySampleFormat}) are detected
+     * automatically, in this case {@code software} and {@code collapse} are ignored.
      *
-     * @param inputStream    input stream containing plain-text clonotype table.
+     * @param inputStream    input stream containing plain-text or binary clonotype table.
      * @param sampleMetadata sample metadata.
      * @param software       software, used for parsing.
      * @param top            select top N clonotypes only. Set to -1 to select all clonotypes.
@@ -162,56 +185,187 @@ public class Sample implements ClonotypeWrapperContainer<Clonotype> {
                                          Software software,
                                          int top, boolean store, boolean collapse) {
         Sample sample = new Sample(sampleMetadata);
-        ClonotypeStreamParser clonotypeStreamParser = ClonotypeStreamParser.create(inputStream, software, sample);
+
+        if (!inputStream.markSupported())
+            inputStream = new BufferedInputStream(inputStream);
+
+        try {
+            if (BinarySampleFormat.isBinary(inputStream))
+                return fromBinary(BinarySampleReader.read(inputStream, sample), sample, top, store);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read binary sample.", e);
+        }
+
+        return fromParser(ClonotypeStreamParser.create(inputStream, software, sample), software, top, store, collapse);
+    }
+
+    /**
+     * Reads sample using a clonotype parser, the sample is filled up with clonotypes
+     * and its frequencies are re-calculated if needed.
+     *
+     * @param clonotypeStreamParser clonotype parser holding a blank sample to fill up.
+     * @param software              software, used for parsing.
+     * @param top                   select top N clonotypes only. Set to -1 to select all clonotypes.
+     * @param store                 if set to true, will store sample to memory. Otherwise will create an instance of the sample that will be read on demand.
+     * @param collapse              if set to true, will collapse the sample combining duplicate clonotypes.
+     * @return sample instance.
+     */
+    public static Sample fromParser(ClonotypeStreamParser clonotypeStreamParser,
+                                    Software software,
+                                    int top, boolean store, boolean collapse) {
+        Sample sample = clonotypeStreamParser.getSample();
 
         sample.annotationHeader = clonotypeStreamParser.getAnnotationHeader();
 
         boolean sorted = !collapse;
         int prevCount = Integer.MAX_VALUE;
 
-        Map<Clonotype, Clonotype> existingClonotypes = new HashMap<>();
+        if (top > -1) {
+            return fromParserTop(clonotypeStreamParser, software, top, store, collapse);
+        }
 
-        for (Clonotype clonotype : clonotypeStreamParser) {
-            if (top > -1 && sample.getDiversity() == top)
-                break;
+        try (ClonotypeCollapser collapser = collapse ? new ClonotypeCollapser(sample) : null) {
+            for (Clonotype clonotype : clonotypeStreamParser) {
+                if (clonotype != null) {
+                    int count = (int) clonotype.getCount();
+
+                    if (sorted && count > prevCount) {
+                        sorted = false;
+                        prevCount = count;
+                    }
+
+                    if (collapse) {
+                        // only sample-level statistics are updated here, unique clonotypes are added after collapsing
+                        sample.addClonotype(clonotype, false, clonotype);
+                        collapse(collapser, clonotype);
+                    } else {
+                        sample.addClonotype(clonotype, store, null);
+                    }
+                }
+            }
 
-            if (clonotype != null) {
-                int count = (int) clonotype.getCount();
+            clonotypeStreamParser.finish(); // report progress
 
-                if (sorted && count > prevCount) {
-                    sorted = false;
-                    prevCount = count;
+            if (collapse) {
+                for (Clonotype clonotype : collapsed(collapser)) {
+                    sample.diversity++;
+                    if (store)
+                        sample.clonotypes.add(clonotype);
                 }
+            }
+        }
+
+        // on-demand sorting
+        if (!sorted)
+            Collections.sort(sample.clonotypes);
 
-                Clonotype existing = null;
+        recalculateFrequencies(sample, software);
 
-                if (collapse) {
-                    existing = existingClonotypes.get(clonotype);
+        return sample;
+    }
 
-                    if (existing != null) {
-                        existing.append(clonotype);
+    /**
+     * INTERNAL reads top N most abundant clonotypes using a bounded heap, so that input doesn't have to be sorted.
+     * If the sample should be collapsed, all clonotypes are collapsed first. Otherwise, reading stops once the heap
+     * is full and a clonotype less abundant than any clonotype in the heap is met while input counts have not
+     * increased so far, so that only the head of a count-sorted input is read.
+     */
+    private static Sample fromParserTop(ClonotypeStreamParser clonotypeStreamParser,
+                                        Software software,
+                                        int top, boolean store, boolean collapse) {
+        Sample sample = clonotypeStreamParser.getSample();
+        ClonotypeHeap heap = new ClonotypeHeap(top);
+        boolean sorted = true;
+        long prevCount = Long.MAX_VALUE;
+
+        try (ClonotypeCollapser collapser = collapse ? new ClonotypeCollapser(sample) : null) {
+            for (Clonotype clonotype : clonotypeStreamParser) {
+                if (clonotype != null) {
+                    if (collapse) {
+                        collapse(collapser, clonotype);
                     } else {
-                        existingClonotypes.put(clonotype, clonotype);
+                        long count = clonotype.getCount();
+
+                        if (count > prevCount)
+                            sorted = false;
+                        prevCount = count;
+
+                        if (sorted && heap.isFull() && count < heap.getMinCount())
+                            break;
+
+                        heap.offer(clonotype);
                     }
                 }
+            }
+
+            clonotypeStreamParser.finish(); // report progress
 
-                sample.addClonotype(clonotype, store, existing);
+            if (collapse) {
+                try {
+                    collapser.forEach(heap::offer);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to collapse clonotypes.", e);
+                }
             }
         }
 
-        clonotypeStreamParser.finish(); // report progress
+        for (Clonotype clonotype : heap.toList()) {
+            sample.addClonotype(clonotype, store, null);
+        }
 
-        // on-demand sorting
-        if (!sorted)
-            Collections.sort(sample.clonotypes);
+        recalculateFrequencies(sample, software);
 
-        // Re-calculate frequencies for per read storing software
+        return sample;
+    }
+
+    private static void collapse(ClonotypeCollapser collapser, Clonotype clonotype) {
+        try {
+            collapser.add(clonotype);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to collapse clonotypes.", e);
+        }
+    }
+
+    private static List<Clonotype> collapsed(ClonotypeCollapser collapser) {
+        try {
+            return collapser.toList();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to collapse clonotypes.", e);
+        }
+    }
+
+    /**
+     * INTERNAL re-calculates frequencies for per read storing software
+     */
+    private static void recalculateFrequencies(Sample sample, Software software) {
         if (software.isPerReadOutput()) {
             sample.frequency = 0;
             for (Clonotype clonotype : sample) {
                 sample.frequency += clonotype.recalculateFrequency();
             }
         }
+    }
+
+    /**
+     * Selects top N most abundant clonotypes from a given sample. Unlike {@link #Sample(Sample, int)}, the
+     * sample doesn't have to be sorted. Clonotypes having the same count are taken in the order they appear
+     * in the sample.
+     *
+     * @param other sample to select from.
+     * @param top   number of clonotypes to select.
+     * @return a new sample.
+     */
+    public static Sample selectTop(Sample other, int top) {
+        ClonotypeHeap heap = new ClonotypeHeap(top);
+        for (Clonotype clonotype : other) {
+            heap.offer(clonotype);
+        }
+
+        Sample sample = new Sample(other.sampleMetadata);
+        sample.annotationHeader = other.annotationHeader;
+        for (Clonotype clonotype : heap.toList()) {
+            sample.addClonotype(new Clonotype(clonotype, sample));
+        }
 
         return sample;
     }
@@ -230,6 +384,74 @@ public class Sample implements ClonotypeWrapperContainer<Clonotype> {
         return fromInputStream(inputStream, sampleMetadata, software, -1, true, software.isCollapseRequired());
     }
 
+    /**
+     * Reads sample from a binary columnar sample file (see {@link BinarySampleFormat}). The file is memory-mapped,
+     * if the sample is not stored only sample-level statistics are loaded.
+     *
+     * @param fileName       binary sample file path.
+     * @param sampleMetadata sample metadata.
+     * @param top            select top N clonotypes only. Set to -1 to select all clonotypes.
+     * @param store          if set to true, will store sample to memory. Otherwise will create an instance of the sample that will be read on demand.
+     * @return sample instance.
+     */
+    public static Sample fromBinaryFile(String fileName,
+                                        SampleMetadata sampleMetadata,
+                                        int top, boolean store) {
+        Sample sample = new Sample(sampleMetadata);
+
+        try {
+            return fromBinary(BinarySampleReader.open(fileName, sample), sample, top, store);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read binary sample from " + fileName + ".", e);
+        }
+    }
+
+    /**
+     * Creates a blank sample holding sample-level statistics only, same as the sample that is created when
+     * reading a sample without storing it into memory.
+     *
+     * @param sampleMetadata   sample metadata.
+     * @param count            total number of reads.
+     * @param diversity        number of clonotypes.
+     * @param freqAsInInput    total frequency of clonotypes as in input.
+     * @param annotationHeader clonotype annotation header, could be null.
+     * @return blank sample instance.
+     */
+    public static Sample fromSummary(SampleMetadata sampleMetadata,
+                                     long count, int diversity, double freqAsInInput,
+                                     String annotationHeader) {
+        return new Sample(sampleMetadata, count, diversity, freqAsInInput, annotationHeader);
+    }
+
+    private static Sample fromBinary(BinarySampleReader reader, Sample sample, int top, boolean store) {
+        sample.annotationHeader = reader.getAnnotationHeader();
+
+        if (!store && (top < 0 || top >= reader.getDiversity())) {
+            // sample-level statistics are stored in header, no need to decode clonotypes
+            sample.diversity = reader.getDiversity();
+            sample.count = reader.getCount();
+            sample.frequency = reader.getFreq();
+            return sample;
+        }
+
+        if (top > -1 && top < reader.getDiversity()) {
+            // binary samples keep the order of the original sample, which is not necessarily sorted
+            ClonotypeHeap heap = new ClonotypeHeap(top);
+            for (int i = 0; i < reader.getDiversity(); i++) {
+                heap.offer(reader.getAt(i));
+            }
+            for (Clonotype clonotype : heap.toList()) {
+                sample.addClonotype(clonotype, store, null);
+            }
+        } else {
+            for (int i = 0; i < reader.getDiversity(); i++) {
+                sample.addClonotype(reader.getAt(i), store, null);
+            }
+        }
+
+        return sample;
+    }
+
     private void addClonotype(Clonotype clonotype) {
         addClonotype(clonotype, true, null);
     }
@@ -32,15 +32,16 @@ package com.antigenomics.vdjtools.sample;
 import com.antigenomics.vdjtools.misc.Segment;
 import com.antigenomics.vdjtools.misc.SegmentFactory;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public abstract class SegmentFilter extends ClonotypeFilter {
-    private int mySegmentSetSize = 0;
+    private volatile int mySegmentSetSize = 0;
     private final String[] segmentNames;
-    private final Set<String> segmentSet = new HashSet<>();
+    private volatile BitSet segmentIds = new BitSet();
+    private volatile Set<String> segmentSet = new HashSet<>();
 
     public SegmentFilter(boolean negative, String... segmentNames) {
         super(negative);
@@ -51,27 +52,39 @@ public abstract class SegmentFilter extends ClonotypeFilter {
         this(false, segmentNames);
     }
 
-    protected abstract String getSegmentName(Clonotype clonotype);
+    protected abstract Segment getSegment(Clonotype clonotype);
 
     private void refreshLazy() {
         if (mySegmentSetSize != SegmentFactory.INSTANCE.size()) {
-            for (String name : segmentNames) {
-                segmentSet.addAll(SegmentFactory.INSTANCE.getAtFuzzy(name)
-                        .stream()
-                        .map(Segment::getName)
-                        .collect(Collectors.toList()));
+            refresh();
+        }
+    }
+
+    private synchronized void refresh() {
+        int segmentSetSize = SegmentFactory.INSTANCE.size();
+        BitSet segmentIds = new BitSet(segmentSetSize);
+        Set<String> segmentSet = new HashSet<>();
+
+        for (String name : segmentNames) {
+            for (Segment segment : SegmentFactory.INSTANCE.getAtFuzzy(name)) {
+                segmentIds.set(segment.getId());
+                segmentSet.add(segment.getName());
             }
-            mySegmentSetSize = SegmentFactory.INSTANCE.size();
         }
+
+        this.segmentIds = segmentIds;
+        this.segmentSet = segmentSet;
+        this.mySegmentSetSize = segmentSetSize;
     }
 
     @Override
     protected boolean checkPass(Clonotype clonotype) {
         refreshLazy();
-        return segmentSet.contains(getSegmentName(clonotype));
+        return segmentIds.get(getSegment(clonotype).getId());
     }
 
     public Set<String> getSegmentSet() {
+        refreshLazy();
         return Collections.unmodifiableSet(segmentSet);
     }
 
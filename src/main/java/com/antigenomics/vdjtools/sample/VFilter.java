@@ -29,6 +29,8 @@
 
 package com.antigenomics.vdjtools.sample;
 
+import com.antigenomics.vdjtools.misc.Segment;
+
 /**
  * Filter based on Variable segment matching.
  */
@@ -42,7 +44,7 @@ public class VFilter extends SegmentFilter {
     }
 
     @Override
-    protected String getSegmentName(Clonotype clonotype) {
-        return clonotype.getV();
+    protected Segment getSegment(Clonotype clonotype) {
+        return clonotype.getVBinary();
     }
 }
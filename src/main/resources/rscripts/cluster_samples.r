@@ -20,6 +20,7 @@ file_out_mds      = args[13]             # MDS plot filename
 render_plot       = as.logical(args[14]) # Create plots?
 file_out_clust    = args[15]             # HCL clusters filename
 file_out_coord    = args[16]             # MDS coords filename
+file_matrix       = args[17]             # Square overlap matrix filename, NA if overlap is read from input table
 
 # handle no factor case
 color_by_factor <- TRUE
@@ -37,8 +38,12 @@ if(lbl_col1_index < 1) {
 }
 
 ## Read data
+# input is either a pairwise overlap table, or a sample metadata table if overlap matrix is provided,
+# in the latter case both indices of id, factor and label columns point to the same column
 df <- read.table(file_in, header = T, sep = "\t", comment ="", quote="")
 
+use_matrix <- !is.na(file_matrix) && file_matrix != "NA"
+
 # convert factor columns depending on if continuous coloring is desired or not
 
 if (cont_factor) {
@@ -59,24 +64,29 @@ df.aux <- data.frame(
     lbl_col1 = df[, lbl_col1_index], lbl_col2 = df[, lbl_col2_index]
     )
 
-df <- data.frame(
-    id_col1 = df[, id_col1_index], id_col2 = df[, id_col2_index],
-    measure_col = as.numeric(as.character(df[, measure_col_index]))
-    )
-
 # normalize overlap measure
 
-if (measure_type == 0) {
-    # neg log normalization (relative overlap, etc)
-    df$measure_col <- -log10(df$measure_col + 1e-9)
-} else if (measure_type == 1) {
-    # normalizaiton for correlation coefficients
-    df$measure_col <- (1 - df$measure_col) / 2
-} else if (measure_type == 2) {
+normalize <- function(x) {
+   if (measure_type == 0) {
+      # neg log normalization (relative overlap, etc)
+      -log10(x + 1e-9)
+   } else if (measure_type == 1) {
+      # normalizaiton for correlation coefficients
+      (1 - x) / 2
+   } else if (measure_type == 2) {
       # normalizaiton for similarity indices
-      df$measure_col <- 1 - df$measure_col
-} else {
-    # no normalization (jensen-shannon divergence, etc)
+      1 - x
+   } else {
+      # no normalization (jensen-shannon divergence, etc)
+      x
+   }
+}
+
+if (!use_matrix) {
+   df <- data.frame(
+       id_col1 = df[, id_col1_index], id_col2 = df[, id_col2_index],
+       measure_col = normalize(as.numeric(as.character(df[, measure_col_index])))
+       )
 }
 
 ## Auxillary table
@@ -114,21 +124,30 @@ if (color_by_factor) {
 
 ## Distance
 
-# Symmetrize matrix & compute distance measure
-
-df.1 <- data.frame(id_col1 = df$id_col1, id_col2 = df$id_col2, measure_col = df$measure_col)
-df.2 <- df.1
-df.2[c("id_col1", "id_col2")] <- df.2[c("id_col2", "id_col1")]
-df.sym <- rbind(df.1, df.2)
-
-# cast back to square matrix
-df.m <- as.matrix(dcast(df.sym, id_col1 ~ id_col2, value.var = "measure_col"))
-rownames(df.m) <- df.m[,1]
-df.m <- df.m[,2:ncol(df.m)]
-df.m <- df.m[order(rownames(df.m)), order(colnames(df.m))]
+if (use_matrix) {
+   # square matrix is read as is, first column holds sample ids
+   df.m <- as.matrix(read.table(file_matrix, header = T, sep = "\t", comment = "", quote = "",
+                                row.names = 1, check.names = F, colClasses = c("character")))
+   df.m <- normalize(apply(df.m, 2, as.numeric))
+   rownames(df.m) <- colnames(df.m)
+   df.m <- df.m[order(rownames(df.m)), order(colnames(df.m))]
+} else {
+   # Symmetrize matrix & compute distance measure
+
+   df.1 <- data.frame(id_col1 = df$id_col1, id_col2 = df$id_col2, measure_col = df$measure_col)
+   df.2 <- df.1
+   df.2[c("id_col1", "id_col2")] <- df.2[c("id_col2", "id_col1")]
+   df.sym <- rbind(df.1, df.2)
+
+   # cast back to square matrix
+   df.m <- as.matrix(dcast(df.sym, id_col1 ~ id_col2, value.var = "measure_col"))
+   rownames(df.m) <- df.m[,1]
+   df.m <- df.m[,2:ncol(df.m)]
+   df.m <- df.m[order(rownames(df.m)), order(colnames(df.m))]
+   df.m <- apply(df.m, 2, as.numeric) # Don't ask me why
+}
 
 # compute distance
-df.m <- apply(df.m, 2, as.numeric) # Don't ask me why
 diag(df.m) <- 0 # replace diag NAs with 0
 df.d <- as.dist(df.m)
 
@@ -46,4 +46,25 @@ class SegmentUsageTest {
             }
         }
     }
+
+    @Test
+    void usageTest() {
+        def samples = TestUtil.DEFAULT_SAMPLE_COLLECTION
+        def segmentUsage = new SegmentUsage(samples, false)
+        def vHeader = segmentUsage.vUsageHeader(), jHeader = segmentUsage.jUsageHeader()
+
+        samples.findAll { it.diversity > 0 }.each { sample ->
+            String id = sample.sampleMetadata.sampleId
+            def vUsage = sample.groupBy { it.v }.collectEntries { [(it.key): it.value.sum { it.freq }] },
+                vjUsage = sample.groupBy { it.v + "\t" + it.j }.collectEntries { [(it.key): it.value.sum { it.freq }] }
+
+            def vVector = segmentUsage.vUsageVector(id), vjMatrix = segmentUsage.vjUsageMatrix(id)
+            vHeader.eachWithIndex { String v, int i ->
+                assert Math.abs(vVector[i] - (vUsage[v] ?: 0)) < 1e-5
+                jHeader.eachWithIndex { String j, int k ->
+                    assert Math.abs(vjMatrix[k][i] - (vjUsage[v + "\t" + j] ?: 0)) < 1e-5
+                }
+            }
+        }
+    }
 }
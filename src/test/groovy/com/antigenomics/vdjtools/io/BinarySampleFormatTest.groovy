@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io
+
+import com.antigenomics.vdjtools.io.binary.BinarySampleFormat
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.Sample
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+
+class BinarySampleFormatTest {
+    private static void roundTripTest(String resourceName, Software software) {
+        def sample = SampleStreamConnection.load(getResource(resourceName), software)
+
+        def textWriter = new SampleWriter()
+        new SampleWriter(false, false, true).write(sample, "binary.test.txt")
+
+        def fileName = BinarySampleFormat.toBinaryPath("binary.test.txt")
+        assert fileName == "binary.test.vdjb"
+        assert BinarySampleFormat.isBinary(fileName)
+
+        def compare = { Sample other ->
+            assert other.diversity == sample.diversity
+            assert other.count == sample.count
+            assert Math.abs(other.freqAsInInput - sample.freqAsInInput) < 1e-10
+            assert other.annotationHeader == sample.annotationHeader
+            sample.eachWithIndex { it, ind ->
+                assert textWriter.getFullClonotypeString(it) == textWriter.getFullClonotypeString(other[ind])
+                assert it.getVBinary().is(other[ind].getVBinary())
+            }
+        }
+
+        // memory-mapped
+        compare(SampleFileConnection.load(fileName))
+
+        // input stream
+        compare(Sample.fromInputStream(new FileInputStream(fileName), sample.sampleMetadata, Software.VDJtools))
+
+        // sample statistics from header
+        def glance = new SampleFileConnection(fileName, Software.VDJtools, sample.sampleMetadata, true, false).haveAGlance()
+        assert glance.diversity == sample.diversity
+        assert glance.count == sample.count
+
+        new File(fileName).delete()
+    }
+
+    @Test
+    void vdjtoolsTest() {
+        roundTripTest("samples/vdjtools.txt.gz", Software.VDJtools)
+    }
+
+    @Test
+    void annotationTest() {
+        roundTripTest("samples/vdjdb.txt.gz", Software.VDJtools)
+    }
+
+    @Test
+    void ambiguousNtTest() {
+        roundTripTest("samples/mixcr.txt.gz", Software.MiXcr)
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.antigenomics.vdjtools.io
+
+import com.antigenomics.vdjtools.io.gzip.BlockGzipFormat
+import com.antigenomics.vdjtools.io.gzip.BlockGzipInputStream
+import com.antigenomics.vdjtools.io.gzip.BlockGzipOutputStream
+import com.antigenomics.vdjtools.misc.Software
+import org.junit.Test
+
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+
+class BlockGzipTest {
+    private static byte[] generate(int size) {
+        def rnd = new Random(size)
+        def bytes = new byte[size]
+        // compressible, but not trivially
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) "ACGT\t\n".charAt(rnd.nextInt(6))
+        }
+        bytes
+    }
+
+    private static byte[] compress(byte[] data, boolean block) {
+        def bos = new ByteArrayOutputStream()
+        def os = block ? new BlockGzipOutputStream(bos) : new GZIPOutputStream(bos)
+        // write in uneven pieces
+        int offset = 0, piece = 1
+        while (offset < data.length) {
+            int n = Math.min(piece, data.length - offset)
+            os.write(data, offset, n)
+            offset += n
+            piece = piece * 3 + 1
+        }
+        os.close()
+        bos.toByteArray()
+    }
+
+    private static byte[] decompress(byte[] data, boolean block) {
+        def is = block ? new BlockGzipInputStream(new ByteArrayInputStream(data)) :
+                new GZIPInputStream(new ByteArrayInputStream(data))
+        def bytes = is.bytes
+        is.close()
+        bytes
+    }
+
+    @Test
+    void roundTripTest() {
+        [0, 1, 1000, BlockGzipFormat.BLOCK_SIZE, BlockGzipFormat.BLOCK_SIZE + 1,
+         BlockGzipFormat.BLOCK_SIZE * BlockGzipFormat.BLOCKS_PER_TASK * 3 + 17].each { size ->
+            def data = generate(size)
+            def compressed = compress(data, true)
+
+            // block gzip is readable as plain gzip
+            assert decompress(compressed, false) == data
+            assert decompress(compressed, true) == data
+        }
+    }
+
+    @Test
+    void plainGzipTest() {
+        def data1 = generate(BlockGzipFormat.BLOCK_SIZE * 5), data2 = generate(12345)
+
+        assert decompress(compress(data1, false), true) == data1
+
+        // concatenated block and plain gzip members
+        def concatenated = new ByteArrayOutputStream(), expected = new ByteArrayOutputStream()
+        concatenated.write(compress(data1, true))
+        concatenated.write(compress(data2, false))
+        expected.write(data1)
+        expected.write(data2)
+
+        assert decompress(concatenated.toByteArray(), true) == expected.toByteArray()
+    }
+
+    @Test
+    void sampleTest() {
+        def sample = SampleStreamConnection.load(getResource("samples/vdjtools.txt.gz"), Software.VDJtools)
+
+        def writer = new SampleWriter(true)
+        writer.write(sample, "blockgzip.test.txt")
+
+        def fileName = "blockgzip.test.txt.gz"
+        def other = SampleFileConnection.load(fileName)
+
+        assert other.diversity == sample.diversity
+        assert other.count == sample.count
+        sample.eachWithIndex { it, ind ->
+            assert writer.getClonotypeString(it) == writer.getClonotypeString(other[ind])
+        }
+
+        new File(fileName).delete()
+        SampleIndex.delete(fileName)
+    }
+}
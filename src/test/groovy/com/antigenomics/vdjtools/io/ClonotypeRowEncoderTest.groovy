@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.antigenomics.vdjtools.io
+
+import com.antigenomics.vdjtools.misc.Software
+import org.junit.Assume
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+
+class ClonotypeRowEncoderTest {
+    private static String dynamicRow(List<String> fields, def clonotype) {
+        fields.collect { clonotype."$it" }.join("\t")
+    }
+
+    @Test
+    void encodeTest() {
+        def sample = SampleStreamConnection.load(getResource("samples/vdjtools.txt.gz"), Software.VDJtools)
+
+        [Software.VDJtools, Software.MiXcr, Software.MiGec, Software.ImSeq, Software.RTCR].each { software ->
+            [software.printFields,
+             software.printFields.collect { it.replace("freq", "freqAsInInput") },
+             // falls back to dynamic lookup
+             software.printFields + ["annotation", "coding", "insertSize"],
+             ["blank", "cdr3Length", "inFrame", "noStop", "complete"]].each { fields ->
+                def encoder = new ClonotypeRowEncoder(fields)
+                sample.each {
+                    assert encoder.encode(it) == dynamicRow(fields, it)
+                }
+            }
+        }
+
+        // count and frequency override
+        def encoder = new ClonotypeRowEncoder(Software.VDJtools.printFields), clonotype = sample[0]
+        assert encoder.append(new StringBuilder(), clonotype, 42L, 0.5d).toString() ==
+                (["42", "0.5"] + Software.VDJtools.printFields[2..-1].collect { clonotype."$it" }).join("\t")
+    }
+
+    @Test
+    void rowWriterTest() {
+        def stringWriter = new StringWriter(), rowWriter = new RowWriter(stringWriter)
+        def longRow = "A" * 1000
+
+        rowWriter.println("header")
+        rowWriter.row.append(1).append('\t').append(0.25d)
+        rowWriter.endRow()
+        rowWriter.row.append(longRow)
+        rowWriter.endRow()
+        rowWriter.close()
+
+        def ls = System.lineSeparator()
+        assert stringWriter.toString() == "header$ls" + "1\t0.25$ls" + "$longRow$ls"
+    }
+
+    /**
+     * Checks that rows written with {@link ClonotypeRowEncoder} and {@link RowWriter} match rows formed
+     * with dynamic property lookup for a table formed by repeating sample clonotypes
+     */
+    private static void checkRows(int numberOfRows) {
+        def sample = SampleStreamConnection.load(getResource("samples/vdjtools.txt.gz"), Software.VDJtools)
+        def fields = Software.VDJtools.printFields
+
+        def dynamicWriter = new ChecksumWriter()
+        for (int i = 0; i < numberOfRows; i++) {
+            dynamicWriter.write(dynamicRow(fields, sample[i % sample.diversity]))
+            dynamicWriter.write(System.lineSeparator())
+        }
+
+        def encoderWriter = new ChecksumWriter(), rowWriter = new RowWriter(encoderWriter)
+        def encoder = new ClonotypeRowEncoder(fields)
+        def row = rowWriter.row
+        for (int i = 0; i < numberOfRows; i++) {
+            encoder.append(row, sample[i % sample.diversity])
+            rowWriter.endRow()
+        }
+        rowWriter.close()
+
+        assert encoderWriter.count > 0
+        assert dynamicWriter.count == encoderWriter.count
+        assert dynamicWriter.checksum == encoderWriter.checksum
+    }
+
+    @Test
+    void rowsTest() {
+        checkRows(10_000)
+    }
+
+    /**
+     * Large table, run with -Dvdjtools.bench=true, use -Dvdjtools.benchmark.lines to set the number of rows
+     */
+    @Test
+    void largeRowsTest() {
+        Assume.assumeTrue(Boolean.getBoolean("vdjtools.bench"))
+
+        checkRows(Integer.getInteger("vdjtools.benchmark.lines", 2_000_000))
+    }
+
+    private static class ChecksumWriter extends Writer {
+        long count = 0, checksum = 0
+
+        @Override
+        void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                checksum = 31 * checksum + cbuf[i]
+            }
+            count += len
+        }
+
+        @Override
+        void write(String str) {
+            for (int i = 0; i < str.length(); i++) {
+                checksum = 31 * checksum + str.charAt(i)
+            }
+            count += str.length()
+        }
+
+        @Override
+        void flush() {
+        }
+
+        @Override
+        void close() {
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io
+
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.Sample
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+
+class SampleCacheTest {
+    @Test
+    void evictionTest() {
+        def samples = [vdjtools: Software.VDJtools, migec: Software.MiGec, mitcr: Software.MiTcr].collect {
+            SampleStreamConnection.load(getResource("samples/${it.key}.txt.gz"), it.value)
+        }
+        def footprints = samples.collect { SampleCache.estimateFootprint(it) }
+        assert footprints.every { it > 0 }
+
+        def cache = new SampleCache(footprints[0] + footprints[1] + footprints[2] - 1)
+
+        cache.put("a", samples[0])
+        cache.put("b", samples[1])
+        assert cache.get("a").is(samples[0])
+
+        // "b" is the least recently used sample
+        cache.put("c", samples[2])
+        assert cache.get("b") == null
+        assert cache.get("a").is(samples[0])
+        assert cache.get("c").is(samples[2])
+        assert cache.size() == 2
+        assert cache.footprint == footprints[0] + footprints[2]
+        assert cache.hits == 3 && cache.misses == 1
+
+        cache.budget = footprints[2]
+        assert cache.size() == 1
+        assert cache.get("c").is(samples[2])
+
+        // samples larger than budget are not cached
+        cache.budget = 0
+        cache.put("a", samples[0])
+        assert cache.size() == 0
+    }
+
+    @Test
+    void connectionTest() {
+        def source = new File(getClass().classLoader.getResource("samples/vdjtools.txt.gz").toURI())
+        def connection = new SampleFileConnection(source.absolutePath, Software.VDJtools,
+                SampleStreamConnection.load(getResource("samples/vdjtools.txt.gz")).sampleMetadata, true, false)
+
+        Sample sample = connection.sample
+        assert connection.sample.is(sample)
+        assert connection.haveAGlance().is(sample)
+
+        SampleCache.SHARED.remove(connection)
+        assert !connection.sample.is(sample)
+        SampleCache.SHARED.remove(connection)
+    }
+}
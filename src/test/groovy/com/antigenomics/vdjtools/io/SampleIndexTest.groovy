@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+package com.antigenomics.vdjtools.io
+
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.Sample
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+
+class SampleIndexTest {
+    private static Sample glance(String fileName, Sample sample) {
+        new SampleFileConnection(fileName, Software.VDJtools, sample.sampleMetadata, true, false).haveAGlance()
+    }
+
+    private static void compare(Sample glance, Sample expected) {
+        assert glance.count == expected.count
+        assert glance.diversity == expected.diversity
+        assert glance.freqAsInInput == expected.freqAsInInput
+        assert glance.annotationHeader == expected.annotationHeader
+    }
+
+    private static void indexTest(String resourceName, boolean compress, boolean renormalize) {
+        def sample = SampleStreamConnection.load(getResource(resourceName), Software.VDJtools)
+
+        new SampleWriter(compress, renormalize).write(sample, "index.test.txt")
+        def fileName = "index.test.txt" + (compress ? ".gz" : "")
+
+        def index = SampleIndex.load(fileName)
+        assert index != null
+        assert index.count == sample.count
+        assert index.diversity == sample.diversity
+
+        // statistics from index are the same as the ones obtained by parsing
+        SampleIndex.ENABLED = false
+        def parsed
+        try {
+            parsed = glance(fileName, sample)
+        } finally {
+            SampleIndex.ENABLED = true
+        }
+        compare(glance(fileName, sample), parsed)
+
+        // copied file, modification time differs, checksum is used
+        new File(fileName).setLastModified(new File(fileName).lastModified() - 10000)
+        assert SampleIndex.load(fileName) != null
+
+        // modified file
+        new File(fileName).withWriterAppend { it.write("\n") }
+        assert SampleIndex.load(fileName) == null
+        compare(glance(fileName, sample), parsed)
+
+        new File(fileName).delete()
+        SampleIndex.delete(fileName)
+    }
+
+    @Test
+    void plainTest() {
+        indexTest("samples/vdjtools.txt.gz", false, false)
+    }
+
+    @Test
+    void compressedRenormalizedTest() {
+        indexTest("samples/vdjtools.txt.gz", true, true)
+    }
+
+    @Test
+    void annotationTest() {
+        indexTest("samples/vdjdb.txt.gz", false, false)
+    }
+
+    @Test
+    void collapsedTest() {
+        def sample = SampleStreamConnection.load(getResource("samples/vdjtools.txt.gz"), Software.VDJtools)
+        def writer = new SampleWriter()
+
+        writer.write(sample, "index.test.txt")
+        assert SampleIndex.load("index.test.txt") != null
+
+        // summary entry is not accounted in index, stale index should be removed
+        writer.write(sample, "index.test.txt", 10, true)
+        assert SampleIndex.load("index.test.txt") == null
+        assert !new File(SampleIndex.getIndexFileName("index.test.txt")).exists()
+
+        new File("index.test.txt").delete()
+    }
+}
@@ -29,7 +29,13 @@
 
 package com.antigenomics.vdjtools.io
 
+import com.antigenomics.vdjtools.io.parser.ClonotypeStreamParser
+import com.antigenomics.vdjtools.join.key.NtVJKey
+import com.antigenomics.vdjtools.misc.SequencePool
 import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.Sample
+import com.antigenomics.vdjtools.sample.SampleCollection
+import com.antigenomics.vdjtools.sample.metadata.SampleMetadata
 import org.junit.Test
 
 import static Software.*
@@ -128,6 +134,56 @@ class SampleLoadTest {
         loadTest(Vidjil, 1667310, 165)
     }
 
+    @Test
+    public void vidjilDemultiplexTest() {
+        def sequence = "TTTTTGTGCCAGCAGCTTAGCGGGAGGCACAGATACGCAGTATTTTGGCCCCCC"
+        def clone = { String id, List<Integer> reads ->
+            """{"id": "$id", "reads": $reads, "sequence": "$sequence", "top": 1, "germline": "TRB",
+               "seg": {"5": "TRBV7-9*01", "5end": 12, "3": "TRBJ2-3*01", "3start": 35,
+                       "junction": {"start": 6, "stop": 50, "aa": "CASSLAGGTDTQYF", "productive": true}}}"""
+        }
+        def clones = [clone("A", [10, 0, 3]),
+                      """{"id": "unsegmented", "reads": [5, 5, 5], "sequence": "$sequence"}""",
+                      clone("B", [0, 0, 7])]
+
+        def jsonFileName = "vidjil.demux.test.json", metadataFileName = "vidjil.demux.test.metadata.txt"
+        new File(jsonFileName).text = """{"vidjil_json_version": "2016b", "reads": {"segmented": [10, 0, 10]},
+            "clones": [${clones.join(",\n")}], "samples": {"number": 3}}"""
+        new File(metadataFileName).text = "#file.name\tsample.id\tvidjil_id\n" +
+                (0..2).collect { "$jsonFileName\ts$it\t$it" }.join("\n")
+
+        [true, false].each { lazy ->
+            def sampleCollection = new SampleCollection(metadataFileName, Vidjil, false, lazy)
+
+            assert sampleCollection.size() == 3
+            assert sampleCollection[0].count == 10
+            assert sampleCollection[0].diversity == 1
+            assert sampleCollection[1].count == 0
+            assert sampleCollection[2].count == 10
+            assert sampleCollection[2].diversity == 1 // identical clonotypes are collapsed
+            assert sampleCollection[2].first().VEnd == 6
+            assert sampleCollection[2].first().JStart == 29
+
+            // repeated access
+            assert sampleCollection[0].count == 10
+        }
+
+        // malformed input is reported as parsing error
+        ["""{"clones": [${clone("C", ['"ten"'])}]}""": "Unable to parse clone C",
+         """{"clones": [${clone("C", ['ten'])}]}"""    : "Unable to parse Vidjil input"].each { json, message ->
+            new File(jsonFileName).text = json
+            try {
+                new SampleCollection(metadataFileName, Vidjil, false, true)[0]
+                assert false
+            } catch (RuntimeException e) {
+                assert e.message.startsWith(message)
+            }
+        }
+
+        new File(jsonFileName).delete()
+        new File(metadataFileName).delete()
+    }
+
     @Test
     public void rtcrTest() {
         loadTest(RTCR, 875, 693)
@@ -141,4 +197,91 @@ class SampleLoadTest {
         assert sample.count == 0
         assert sample.diversity == 0
     }
+
+    private static void compareParallelParse(Software software, String suffix = '') {
+        def sample = new Sample((SampleMetadata) null)
+        def parse = { boolean parallel ->
+            def resStream = getResource("samples/${software.toString().toLowerCase()}${suffix}.txt.gz")
+            def parallelSetting = ClonotypeStreamParser.PARALLEL
+            ClonotypeStreamParser.PARALLEL = parallel
+            try {
+                def parser = ClonotypeStreamParser.create(resStream.create(), software, sample)
+                def clonotypes = parser.collect { it?.toString() }
+                parser.finish()
+                [clonotypes, parser.skippedLineCount, parser.commentLineCount, parser.badClonotypeStats]
+            } finally {
+                ClonotypeStreamParser.PARALLEL = parallelSetting
+            }
+        }
+
+        assert parse(false) == parse(true)
+    }
+
+    @Test
+    public void parallelParseTest() {
+        compareParallelParse(ImgtHighVQuest) // has bad lines
+        compareParallelParse(ImmunoSeq)      // spans several blocks
+        compareParallelParse(MiXcr)
+    }
+
+    private static boolean readerStopped() {
+        // waits for reader threads to notice that iteration is over
+        for (int i = 0; i < 50; i++) {
+            System.gc()
+            if (!Thread.allStackTraces.keySet().any { it.name == "ClonotypeStreamParser-reader" && it.alive })
+                return true
+            Thread.sleep(100)
+        }
+        false
+    }
+
+    @Test
+    public void parallelParseStopTest() {
+        def line = "1\t0.1\tTGTGCCAGCACCGTGGACAGTCTGGACACTGAAGCTTTCTTT\tCASTVDSLDTEAFF\tTRBV12-4\t\tTRBJ1-1\n".bytes
+        def endlessInput = {
+            // a table that never ends
+            int position = 0
+            [read: { -> line[position++ % line.length] }] as InputStream
+        }
+
+        def parallelSetting = ClonotypeStreamParser.PARALLEL
+        ClonotypeStreamParser.PARALLEL = true
+        try {
+            def sample = new Sample((SampleMetadata) null)
+
+            // closed by finishing the parser
+            def parser = ClonotypeStreamParser.create(endlessInput(), VDJtools, sample)
+            assert parser.iterator().next() != null
+            parser.finish()
+            assert readerStopped()
+
+            // abandoned iterator
+            parser = ClonotypeStreamParser.create(endlessInput(), VDJtools, sample)
+            assert parser.iterator().next() != null
+            assert readerStopped()
+        } finally {
+            ClonotypeStreamParser.PARALLEL = parallelSetting
+        }
+    }
+
+    @Test
+    public void sequencePoolTest() {
+        def poolSetting = SequencePool.ENABLED
+        SequencePool.ENABLED = true
+        try {
+            def sample1 = load(getResource("samples/vdjtools.txt.gz")),
+                sample2 = load(getResource("samples/vdjtools.txt.gz"))
+
+            assert sample1.diversity == sample2.diversity
+            sample1.diversity.times {
+                def clonotype1 = sample1[it], clonotype2 = sample2[it]
+                assert !clonotype1.is(clonotype2)
+                assert clonotype1.cdr3ntBinary.is(clonotype2.cdr3ntBinary)
+                assert clonotype1.cdr3aaBinary.is(clonotype2.cdr3aaBinary)
+                assert new NtVJKey(clonotype1) == new NtVJKey(clonotype2)
+            }
+        } finally {
+            SequencePool.ENABLED = poolSetting
+        }
+    }
 }
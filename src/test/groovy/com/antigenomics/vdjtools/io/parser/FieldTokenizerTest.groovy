@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.io.parser
+
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.Sample
+import org.junit.Assume
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+import static com.antigenomics.vdjtools.sample.metadata.MetadataUtil.createSampleMetadata
+
+class FieldTokenizerTest {
+    @Test
+    void splitTest() {
+        def tokenizer = new FieldTokenizer("\t")
+
+        ["a\tb\tc", "a\t\tc", "a\tb\t\t", "\ta", "", "\t\t", "abc"].each { line ->
+            assert tokenizer.reset(line).size() == line.split("\t").length
+            line.split("\t").eachWithIndex { String field, int i ->
+                assert tokenizer.get(i) == field
+            }
+            [1, 2, 3].each { limit ->
+                def fields = line.split("\t", limit)
+                assert tokenizer.reset(line, limit).size() == fields.length
+                fields.eachWithIndex { String field, int i ->
+                    assert tokenizer.get(i) == field
+                }
+            }
+        }
+
+        tokenizer = new FieldTokenizer(FieldTokenizer.delimiterChars("[: \t]"))
+        def line = "TRBV1:TGTGCC TRBJ1\t15"
+        assert tokenizer.reset(line).get(0, 1, 2, 3) == line.split("[: \t]").toList()
+    }
+
+    @Test
+    void numberTest() {
+        def tokenizer = new FieldTokenizer("\t")
+
+        def numbers = ["0", "1", "-1", "+7", " 42 ", "2147483647", "-2147483648", "2147483648", "1.5", "abc", "", "-",
+                       "0.000123", "1e-5", "3.14159265358979", "0.1234567890123456789", ".5", "5.", "-0.0", "NaN"]
+
+        tokenizer.reset(numbers.join("\t"), numbers.size())
+
+        numbers.eachWithIndex { String number, int i ->
+            assert tokenizer.isInt(i) == number.isInteger()
+            if (number.isInteger()) {
+                assert tokenizer.getInt(i) == number.toInteger()
+            }
+            if (number.isDouble()) {
+                assert Double.compare(tokenizer.getDouble(i), number.toDouble()) == 0
+            } else {
+                try {
+                    tokenizer.getDouble(i)
+                    assert false
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        def random = new Random(51102)
+        10000.times {
+            def number = String.format(Locale.US, "%.${random.nextInt(12)}f", random.nextDouble() * 1000)
+            assert tokenizer.reset(number).getDouble(0) == number.toDouble()
+        }
+    }
+
+    /**
+     * Creates a table formed by repeating sample lines
+     * @return table bytes and the total read count of the table
+     */
+    private static List createTable(int numberOfLines) {
+        def lines = getResource("samples/vdjtools.txt.gz").create().readLines()
+        def header = lines[0]
+        lines = lines[1..-1]
+
+        def table = new StringBuilder(header).append("\n")
+        long expectedCount = 0
+        for (int i = 0; i < numberOfLines; i++) {
+            def line = lines[i % lines.size()]
+            table.append(line).append("\n")
+            expectedCount += line.split("\t")[0].toInteger()
+        }
+
+        [table.toString().getBytes("UTF-8"), expectedCount]
+    }
+
+    private static long splitChecksum(byte[] tableBytes) {
+        long checksum = 0
+        new ByteArrayInputStream(tableBytes).newReader().eachLine { String line, int n ->
+            if (n > 1) {
+                def splitString = line.split("\t")
+                checksum += splitString[0].toInteger() + (long) (splitString[1].toDouble() * 1e6) +
+                        splitString[2].length()
+                for (int i = 7; i <= 10; i++) {
+                    checksum += splitString.size() <= i || !splitString[i].isInteger() ? -1 : splitString[i].toInteger()
+                }
+            }
+        }
+        checksum
+    }
+
+    private static long tokenizerChecksum(byte[] tableBytes) {
+        long checksum = 0
+        def fields = new FieldTokenizer("\t")
+        new ByteArrayInputStream(tableBytes).newReader().eachLine { String line, int n ->
+            if (n > 1) {
+                fields.reset(line)
+                checksum += fields.getInt(0) + (long) (fields.getDouble(1) * 1e6) +
+                        fields.length(2)
+                for (int i = 7; i <= 10; i++) {
+                    checksum += fields.size() <= i || !fields.isInt(i) ? -1 : fields.getInt(i)
+                }
+            }
+        }
+        checksum
+    }
+
+    private static long parseCount(byte[] tableBytes) {
+        Sample.fromInputStream(new ByteArrayInputStream(tableBytes), createSampleMetadata("table"),
+                Software.VDJtools, -1, false, false).count
+    }
+
+    @Test
+    void tableTest() {
+        def (byte[] tableBytes, long expectedCount) = createTable(10_000)
+
+        // tokenizer and String.split agree on all lines, the whole table is parsed
+        assert splitChecksum(tableBytes) == tokenizerChecksum(tableBytes)
+        assert parseCount(tableBytes) == expectedCount
+    }
+
+    /**
+     * Compares throughput of String.split and tokenizer on a large table, run with -Dvdjtools.bench=true,
+     * use -Dvdjtools.benchmark.lines to set the number of lines
+     */
+    @Test
+    void largeTableTest() {
+        Assume.assumeTrue(Boolean.getBoolean("vdjtools.bench"))
+
+        int numberOfLines = Integer.getInteger("vdjtools.benchmark.lines", 2_000_000)
+        def (byte[] tableBytes, long expectedCount) = createTable(numberOfLines)
+
+        def time = { String name, Closure<Long> closure ->
+            closure() // warm-up
+            long start = System.nanoTime()
+            long result = closure()
+            double seconds = (System.nanoTime() - start) / 1e9
+            println "[FieldTokenizerTest] $name: ${(long) (numberOfLines / seconds)} lines/s"
+            result
+        }
+
+        assert time("String.split + toInteger/toDouble") { splitChecksum(tableBytes) } ==
+                time("FieldTokenizer") { tokenizerChecksum(tableBytes) }
+        assert time("Sample.fromInputStream") { parseCount(tableBytes) } == expectedCount
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.join
+
+import com.antigenomics.vdjtools.join.key.ClonotypeFingerprint
+import com.antigenomics.vdjtools.join.key.ClonotypeKey
+import com.antigenomics.vdjtools.misc.LongIntHashMap
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.overlap.OverlapType
+import com.antigenomics.vdjtools.sample.Sample
+import org.junit.Assume
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+import static com.antigenomics.vdjtools.sample.metadata.MetadataUtil.createSampleMetadata
+
+class JointSampleTest {
+    private static Sample load(String name, Software software) {
+        Sample.fromInputStream(getResource("samples/${name}.txt.gz").create(),
+                createSampleMetadata(name), software, -1, true, software.collapseRequired)
+    }
+
+    // joins samples using clonotype keys, as it was done before clonotype fingerprints
+    private static Map<ClonotypeKey, int[]> keyJoin(OverlapType overlapType, Sample[] samples) {
+        def clonotypeKeyGen = new ClonotypeKeyGen(overlapType)
+        def clonotypeMap = new HashMap<ClonotypeKey, int[]>()
+
+        samples.eachWithIndex { Sample sample, int i ->
+            sample.each {
+                def key = clonotypeKeyGen.generateKey(it)
+                def counts = clonotypeMap[key]
+                if (counts == null)
+                    clonotypeMap.put(key, counts = new int[samples.length])
+                counts[i] += it.count
+            }
+        }
+
+        clonotypeMap
+    }
+
+    @Test
+    void joinTest() {
+        def sample = load("vdjtools", Software.VDJtools)
+        Sample[] samples = [sample, load("vdjtoolsrenorm", Software.VDJtoolsRenorm),
+                            new Sample(sample, (int) (sample.diversity / 2))]
+
+        OverlapType.values().each { overlapType ->
+            def expected = keyJoin(overlapType, samples)
+            def jointSample = new JointSample(overlapType, samples, new OccurrenceJoinFilter(1))
+
+            assert jointSample.diversity == expected.size()
+            assert jointSample.collect { jc -> (0..<samples.length).collect { jc.getCount(it) }.join(",") }.sort() ==
+                    expected.values().collect { it.join(",") }.sort()
+
+            for (int i = 0; i < samples.length; i++) {
+                assert jointSample.getTotalDiv(i) == expected.values().count { it[i] > 0 }
+                for (int j = i + 1; j < samples.length; j++) {
+                    assert jointSample.getIntersectionDiv(i, j) == expected.values().count { it[i] > 0 && it[j] > 0 }
+                }
+            }
+        }
+    }
+
+    @Test
+    void mapTest() {
+        def rnd = new Random(42)
+        def map = new LongIntHashMap(4), expected = new HashMap<Long, Integer>()
+
+        100_000.times {
+            long key = it % 10 == 0 ? rnd.nextInt(100) : rnd.nextLong()
+            int value = rnd.nextInt(Integer.MAX_VALUE)
+            assert map.put(key, value) == (expected.put(key, value) ?: LongIntHashMap.NO_VALUE)
+        }
+
+        assert map.size() == expected.size()
+        expected.each { assert map.get(it.key) == it.value }
+        assert map.get(Long.MIN_VALUE + 1) == LongIntHashMap.NO_VALUE
+    }
+
+    private static Sample syntheticSample(int numberOfClonotypes, long seed, String name) {
+        def rnd = new Random(seed)
+        def nts = ["A", "C", "G", "T"], segments = (1..30).collect { "TRBV$it" }
+
+        def table = new StringBuilder("count\tfreq\tcdr3nt\tcdr3aa\tv\td\tj\tVEnd\tDStart\tDEnd\tJStart\n")
+        for (int i = 0; i < numberOfClonotypes; i++) {
+            // every other clonotype is shared between samples generated with different seeds
+            def clonotypeRnd = i % 2 == 0 ? new Random(i) : rnd
+            def cdr3nt = new StringBuilder("TGT")
+            for (int k = 0; k < 36; k++) {
+                cdr3nt.append(nts[clonotypeRnd.nextInt(4)])
+            }
+            cdr3nt.append("TTT")
+            table.append(numberOfClonotypes - i).append("\t1e-6\t").append(cdr3nt).append("\tC").
+                    append("X" * 12).append("F\t").
+                    append(segments[clonotypeRnd.nextInt(segments.size())]).append("\t.\tTRBJ1-1\t-1\t-1\t-1\t-1\n")
+        }
+
+        Sample.fromInputStream(new ByteArrayInputStream(table.toString().getBytes("UTF-8")),
+                createSampleMetadata(name), Software.VDJtools, -1, true, false)
+    }
+
+    /**
+     * Checks that clonotype key join, clonotype index and joint sample agree on the number of clonotypes
+     * shared between two synthetic samples
+     */
+    private static void checkSyntheticJoin(int numberOfClonotypes) {
+        Sample[] samples = [syntheticSample(numberOfClonotypes, 1, "synthetic1"),
+                            syntheticSample(numberOfClonotypes, 2, "synthetic2")]
+
+        def expected = keyJoin(OverlapType.Strict, samples).values().count { it[0] > 0 && it[1] > 0 }
+        assert expected > 0
+
+        def clonotypeIndex = new ClonotypeIndex(OverlapType.Strict, numberOfClonotypes)
+        def presence = new int[2 * numberOfClonotypes]
+        for (int i = 0; i < samples.length; i++) {
+            for (def clonotype : samples[i]) {
+                presence[clonotypeIndex.add(clonotype)] |= 1 << i
+            }
+        }
+        assert presence.toList().count { it == 3 } == expected
+
+        assert new JointSample(OverlapType.Strict, samples).diversity == expected
+    }
+
+    @Test
+    void syntheticJoinTest() {
+        checkSyntheticJoin(20_000)
+    }
+
+    /**
+     * Compares clonotype key join with clonotype index and joint sample construction on large synthetic samples,
+     * run with -Dvdjtools.bench=true. Use -Dvdjtools.benchmark.clonotypes to set the number of clonotypes
+     * in each sample, the default 5000000 clonotypes require about -Xmx16g
+     */
+    @Test
+    void largeSyntheticJoinTest() {
+        Assume.assumeTrue(Boolean.getBoolean("vdjtools.bench"))
+
+        int numberOfClonotypes = Integer.getInteger("vdjtools.benchmark.clonotypes", 5_000_000)
+        Sample[] samples = [syntheticSample(numberOfClonotypes, 1, "synthetic1"),
+                            syntheticSample(numberOfClonotypes, 2, "synthetic2")]
+
+        def time = { String name, Closure<Integer> closure ->
+            long start = System.nanoTime()
+            int result = closure()
+            double seconds = (System.nanoTime() - start) / 1e9
+            println "[JointSampleTest] $name: ${String.format("%.2f", seconds)} s for 2 x $numberOfClonotypes clonotypes"
+            result
+        }
+
+        def expected = time("ClonotypeKey join") {
+            keyJoin(OverlapType.Strict, samples).values().count { it[0] > 0 && it[1] > 0 }
+        }
+
+        assert time("ClonotypeIndex join") {
+            def clonotypeIndex = new ClonotypeIndex(OverlapType.Strict, numberOfClonotypes)
+            def presence = new int[2 * numberOfClonotypes]
+            for (int i = 0; i < samples.length; i++) {
+                for (def clonotype : samples[i]) {
+                    presence[clonotypeIndex.add(clonotype)] |= 1 << i
+                }
+            }
+            presence.toList().count { it == 3 }
+        } == expected
+
+        assert time("JointSample") {
+            new JointSample(OverlapType.Strict, samples).diversity
+        } == expected
+    }
+
+    @Test
+    void fingerprintCacheTest() {
+        def sample = load("vdjtools", Software.VDJtools)
+
+        // alternating between nucleotide and amino acid rules, as done by BasicStats
+        2.times {
+            sample.each { clonotype ->
+                [OverlapType.AminoAcid, OverlapType.Nucleotide, OverlapType.Strict, OverlapType.AminoAcidVJ].each {
+                    assert clonotype.getFingerprint(it) == ClonotypeFingerprint.compute(clonotype, it)
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.io.SampleWriter
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.SampleCollection
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+import static com.antigenomics.vdjtools.io.SampleStreamConnection.load
+
+class IncrementalPairwiseOverlapTest {
+    private static void assertSameRows(String expected, String actual) {
+        def expectedRows = expected.readLines(), actualRows = actual.readLines()
+
+        assert expectedRows.size() == actualRows.size()
+        [expectedRows, actualRows].transpose().each { String e, String a ->
+            [e.split("\t", -1), a.split("\t", -1)].transpose().each { String x, String y ->
+                if (x.isDouble() && y.isDouble())
+                    PairwiseOverlapTest.assertClose(x.toDouble(), y.toDouble())
+                else
+                    assert x == y
+            }
+        }
+    }
+
+    @Test
+    public void updateTest() {
+        ExecUtil.quiet()
+
+        def tmpDir = File.createTempDir(), keySetDir = new File(tmpDir, "keys").absolutePath
+        def fileNames = Software.values().collect {
+            load(getResource("samples/${it.toString().toLowerCase()}.txt.gz"), it)
+        }.findAll { it.diversity > 0 }.withIndex().collect { sample, int i ->
+            def fileName = new File(tmpDir, "sample${i}.txt").absolutePath
+            new SampleWriter().write(sample, fileName)
+            fileName
+        }
+        def newSamples = [0, 3, fileNames.size() - 1]
+        def previousFileNames = fileNames.findAll { !newSamples.contains(fileNames.indexOf(it)) }
+
+        [OverlapType.Strict, OverlapType.AminoAcid].each { overlapType ->
+            def previous = new PairwiseOverlap(new SampleCollection(previousFileNames), overlapType)
+            def previousFile = new File(tmpDir, "previous.${overlapType.shortName}.txt")
+            previousFile.withPrintWriter { pw ->
+                pw.println(previous.header)
+                pw.println(previous.toString())
+            }
+
+            def samples = new SampleCollection(fileNames)
+            def expected = new PairwiseOverlap(samples, overlapType)
+
+            // second run re-uses stored key sets
+            2.times {
+                def update = new IncrementalPairwiseOverlap(samples, overlapType, previousFile.absolutePath,
+                        keySetDir)
+
+                assert update.numberOfNewSamples == newSamples.size()
+                newSamples.each { assert update.isNew(it) }
+                fileNames.each { assert new File(SampleKeySet.getKeySetFileName(keySetDir, it, overlapType)).exists() }
+
+                def actual = new StringWriter()
+                actual.withPrintWriter { update.write(it) }
+
+                assertSameRows(expected.header + "\n" + expected.toString(), actual.toString())
+            }
+        }
+
+        tmpDir.deleteDir()
+    }
+}
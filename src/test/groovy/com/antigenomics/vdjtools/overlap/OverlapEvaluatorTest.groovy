@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.join.JointSample
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.preprocess.DownSampler
+import com.antigenomics.vdjtools.sample.Sample
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation
+import org.apache.commons.math3.stat.correlation.SpearmansCorrelation
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+import static com.antigenomics.vdjtools.io.SampleStreamConnection.load
+import static com.antigenomics.vdjtools.overlap.OverlapMetric.*
+
+class OverlapEvaluatorTest {
+    static Map<OverlapMetric, Double> naiveMetrics(JointSample jointSample, int i, int j) {
+        double f2 = 0, xy = 0, xx = 0, yy = 0
+        def x = [], y = []
+        jointSample.each {
+            f2 += Math.sqrt(it.getFreq(i) * it.getFreq(j))
+            xy += it.getFreq(i) * it.getFreq(j)
+            xx += it.getFreq(i) * it.getFreq(i)
+            yy += it.getFreq(j) * it.getFreq(j)
+            if (it.present(i) && it.present(j)) {
+                x.add(it.getFreq(i))
+                y.add(it.getFreq(j))
+            }
+        }
+
+        double r = x.size() > 2 ? new PearsonsCorrelation().correlation(x as double[], y as double[]) : 0,
+               rs = x.size() > 2 ? new SpearmansCorrelation().correlation(x as double[], y as double[]) : 0
+
+        [(Frequency2)  : f2, (MorisitaHorn): 2 * xy / (xx + yy),
+         (Correlation) : Double.isNaN(r) ? 0d : r,
+         (CorrelationS): Double.isNaN(rs) ? 0d : rs]
+    }
+
+    @Test
+    public void fusedTest() {
+        ExecUtil.quiet()
+
+        def sample = load(getResource("samples/vdjtools.txt.gz"), Software.VDJtools)
+        def downSampler = new DownSampler(sample)
+        def metrics = [Frequency2, MorisitaHorn, Correlation, CorrelationS]
+
+        10.times {
+            def samples = (0..<3).collect { downSampler.reSample((int) (sample.count * 0.3)) } as Sample[]
+            def jointSample = new JointSample(OverlapType.Nucleotide, samples)
+
+            // Spearman is ranked either in the single pass or on request
+            [new OverlapEvaluator(jointSample, metrics), new OverlapEvaluator(jointSample)].each { evaluator ->
+                for (int i = 0; i < 3; i++) {
+                    for (int j = 0; j < 3; j++) {
+                        if (i != j) {
+                            def expected = naiveMetrics(jointSample, i, j)
+                            metrics.each {
+                                double value = evaluator.computeIntersectionMetric(it, i, j)
+                                assert Math.abs(expected[it] - value) < 1e-9
+                                // cached value
+                                assert evaluator.computeIntersectionMetric(it, i, j) == value
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.SampleCollection
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+import static com.antigenomics.vdjtools.io.SampleStreamConnection.load
+import static com.antigenomics.vdjtools.overlap.PairwiseOverlapTest.assertClose
+
+class OverlapMatrixTest {
+    @Test
+    public void writeTest() {
+        ExecUtil.quiet()
+
+        def samples = SampleCollection.fromSampleList(Software.values().collect {
+            load(getResource("samples/${it.toString().toLowerCase()}.txt.gz"), it)
+        })
+        int n = samples.size()
+        def metrics = OverlapMetric.values().toList(),
+            sampleIds = samples.metadataTable.collect { it.sampleId },
+            metadata = samples.metadataTable.collect { it.toString() }
+
+        def tmpDir = File.createTempDir()
+        def batchFileName = new File(tmpDir, "out.intersect.batch.aa.txt").absolutePath
+
+        def pairwiseOverlap = new PairwiseOverlap(samples, OverlapType.AminoAcid, false, false, metrics)
+
+        def matrices = metrics.collect {
+            OverlapMatrix.create(OverlapMatrix.getMatrixFileName(batchFileName, it), it,
+                    samples.metadataTable.columnHeader, sampleIds, metadata)
+        }
+        def stringWriter = new StringWriter()
+        new PrintWriter(stringWriter).withCloseable { pw ->
+            pairwiseOverlap.write(pw, matrices)
+        }
+        matrices.each { it.close() }
+
+        // streamed output is the same as the one produced in memory
+        assert stringWriter.toString().readLines() == pairwiseOverlap.toString().readLines()
+
+        metrics.each { metric ->
+            def matrix = OverlapMatrix.open(new File(tmpDir, "out.intersect.batch.aa.${metric.shortName}.bin").absolutePath)
+
+            assert matrix.size() == n
+            assert matrix.metricName == metric.shortName
+            assert matrix.sampleIds == sampleIds
+            assert (0..<n).collect { matrix.getMetadata(it) } == metadata
+
+            for (int i = 0; i < n; i++) {
+                assert Double.isNaN(matrix[i, i])
+                for (int j = i + 1; j < n; j++) {
+                    def value = pairwiseOverlap[i, j].getMetricValue(metric)
+                    assertClose(value, matrix[i, j])
+                    assertClose(value, matrix[j, i])
+                }
+            }
+        }
+
+        tmpDir.deleteDir()
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.io.SampleWriter
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.preprocess.DownSampler
+import com.antigenomics.vdjtools.sample.SampleCollection
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+import static com.antigenomics.vdjtools.io.SampleStreamConnection.load
+
+class OverlapSketchTest {
+    @Test
+    public void exactTest() {
+        ExecUtil.quiet()
+
+        def samples = SampleCollection.fromSampleList(Software.values().collect {
+            load(getResource("samples/${it.toString().toLowerCase()}.txt.gz"), it)
+        })
+
+        [OverlapType.Nucleotide, OverlapType.AminoAcidV, OverlapType.Strict].each { overlapType ->
+            def expected = new PairwiseOverlap(samples, overlapType, false, true,
+                    [OverlapMetric.Diversity, OverlapMetric.Jaccard])
+            // sketches are large enough to hold all clonotypes
+            def large = new PairwiseSketchOverlap(samples, overlapType, 1 << 20, 8, null)
+            // each sample fits into its sketch, but the union of a pair might not
+            int maxDistinct = (0..<samples.size()).collect { large.getSketch(it).distinct }.max()
+            def tight = new PairwiseSketchOverlap(samples, overlapType, maxDistinct, 8, null)
+            int largeUnions = 0
+
+            [large, tight].each { actual ->
+                for (int i = 0; i < samples.size() - 1; i++) {
+                    for (int j = i + 1; j < samples.size(); j++) {
+                        // PairwiseOverlap#getAt(i, j) holds sample j as the first one for i < j
+                        def e = expected[j, i], a = actual[i, j]
+                        assert a.div12Error == 0 && a.jaccardError == 0 && a.unionError == 0
+                        assert e.div1 == a.div1 && e.div2 == a.div2
+                        assert Math.abs(e.div12 - a.div12) < 1e-6
+                        assert Math.abs(a.union - (a.distinct1 + a.distinct2 - e.div12)) < 1e-6
+                        PairwiseOverlapTest.assertClose(e.getMetricValue(OverlapMetric.Diversity), a.diversity)
+                        PairwiseOverlapTest.assertClose(e.getMetricValue(OverlapMetric.Jaccard), a.jaccard)
+
+                        if (a.union > maxDistinct) {
+                            largeUnions++
+                        }
+                    }
+                }
+            }
+
+            assert largeUnions > 0
+        }
+    }
+
+    @Test
+    public void errorBoundsTest() {
+        ExecUtil.quiet()
+
+        def sample = load(getResource("samples/vdjtools.txt.gz"), Software.VDJtools)
+        def downSampler = new DownSampler(sample)
+        def overlapType = OverlapType.Nucleotide
+
+        int n = 200, div12Covered = 0, unionCovered = 0
+        n.times {
+            def s1 = downSampler.reSample((int) (sample.count * 0.3)),
+                s2 = downSampler.reSample((int) (sample.count * 0.3))
+
+            def overlap = new Overlap(s1, s2, overlapType)
+            def estimate = OverlapSketch.fromSample(s1, overlapType, 128, 8).estimate(
+                    OverlapSketch.fromSample(s2, overlapType, 128, 8))
+
+            assert estimate.distinct1 > 128 && estimate.div12Error > 0
+
+            if (Math.abs(estimate.div12 - overlap.div12) <= OverlapSketch.Z * estimate.div12Error)
+                div12Covered++
+
+            def union = estimate.distinct1 + estimate.distinct2 - overlap.div12
+            if (Math.abs(estimate.union - union) <= OverlapSketch.Z * estimate.unionError)
+                unionCovered++
+        }
+
+        println "[OverlapSketchTest] 95% bounds cover div12 in $div12Covered and union in $unionCovered of $n cases"
+
+        assert div12Covered >= 0.85 * n
+        assert unionCovered >= 0.85 * n
+    }
+
+    @Test
+    public void storeTest() {
+        ExecUtil.quiet()
+
+        def sample = load(getResource("samples/vdjtools.txt.gz"), Software.VDJtools)
+        def tmpDir = File.createTempDir(), sampleDir = new File(tmpDir, "samples"),
+            sketchDir = new File(tmpDir, "sketches").absolutePath
+        sampleDir.mkdirs()
+        def fileName = new File(sampleDir, "sample.txt").absolutePath
+        new SampleWriter().write(sample, fileName)
+        def sampleDirFiles = sampleDir.list().toList()
+
+        def sketch = OverlapSketch.fromSample(sample, OverlapType.AminoAcid, 256, 10)
+        sketch.store(fileName, sketchDir)
+
+        // sample directory is left unchanged
+        assert sampleDir.list().toList() == sampleDirFiles
+        assert new File(sketchDir).list().length == 1
+
+        def loaded = OverlapSketch.load(fileName, sketchDir, OverlapType.AminoAcid, 256, 10)
+        assert loaded != null
+        assert loaded.distinct == sketch.distinct && loaded.sampleDiversity == sketch.sampleDiversity
+
+        def other = OverlapSketch.fromSample(new DownSampler(sample).reSample((int) (sample.count / 2)),
+                OverlapType.AminoAcid, 256, 10)
+        def e1 = sketch.estimate(other), e2 = loaded.estimate(other)
+        assert e1.jaccard == e2.jaccard && e1.union == e2.union
+
+        // sketches computed with other parameters or for a modified sample file are not used
+        assert OverlapSketch.load(fileName, sketchDir, OverlapType.AminoAcid, 128, 10) == null
+        assert OverlapSketch.load(fileName, sketchDir, OverlapType.Nucleotide, 256, 10) == null
+        new File(fileName).append("\n")
+        assert OverlapSketch.load(fileName, sketchDir, OverlapType.AminoAcid, 256, 10) == null
+
+        tmpDir.deleteDir()
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.io.SampleCache
+import com.antigenomics.vdjtools.io.SampleWriter
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.SampleCollection
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+import static com.antigenomics.vdjtools.io.SampleStreamConnection.load
+
+class PairwiseOverlapTest {
+    static void assertClose(double expected, double actual) {
+        assert (Double.isNaN(expected) && Double.isNaN(actual)) ||
+                Math.abs(expected - actual) <= 1e-6 * Math.max(1.0d, Math.abs(expected))
+    }
+
+    @Test
+    public void invertedIndexTest() {
+        ExecUtil.quiet()
+
+        def samples = SampleCollection.fromSampleList(Software.values().collect {
+            load(getResource("samples/${it.toString().toLowerCase()}.txt.gz"), it)
+        })
+        def metrics = OverlapMetric.values().toList()
+
+        try {
+            [OverlapType.Nucleotide, OverlapType.AminoAcid, OverlapType.Strict].each { overlapType ->
+                PairwiseOverlap.INVERTED_INDEX = false
+                def expected = new PairwiseOverlap(samples, overlapType, false, false, metrics)
+
+                // pairs and Spearman correlation are processed either in a single tile or row by row
+                [[metrics, 0.1d, 1 << 22], [metrics, 0d, 1],
+                 [[OverlapMetric.Diversity, OverlapMetric.Frequency, OverlapMetric.Jaccard], 0.1d, 1 << 22]].each {
+                    List<OverlapMetric> subset, double spearmanHeapFraction, int tilePairs ->
+                    PairwiseOverlap.INVERTED_INDEX = true
+                    InvertedOverlapIndex.SPEARMAN_HEAP_FRACTION = spearmanHeapFraction
+                    InvertedOverlapIndex.TILE_PAIRS = tilePairs
+                    def actual = new PairwiseOverlap(samples, overlapType, false, false, subset)
+
+                    for (int i = 0; i < samples.size() - 1; i++) {
+                        for (int j = i + 1; j < samples.size(); j++) {
+                            def e = expected[i, j], a = actual[i, j]
+
+                            assert e.div1 == a.div1 && e.div2 == a.div2
+                            assert e.div12 == a.div12 && e.div21 == a.div21
+                            assert e.count12 == a.count12 && e.count21 == a.count21
+                            assertClose(e.freq12, a.freq12)
+                            assertClose(e.freq21, a.freq21)
+
+                            subset.each {
+                                assertClose(e.getMetricValue(it), a.getMetricValue(it))
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            PairwiseOverlap.INVERTED_INDEX = true
+            InvertedOverlapIndex.SPEARMAN_HEAP_FRACTION = 0.1
+            InvertedOverlapIndex.TILE_PAIRS = 1 << 22
+        }
+    }
+
+    @Test
+    public void lowMemTest() {
+        ExecUtil.quiet()
+
+        def tmpDir = File.createTempDir()
+        def fileNames = Software.values().collect {
+            load(getResource("samples/${it.toString().toLowerCase()}.txt.gz"), it)
+        }.findAll { it.diversity > 0 }.withIndex().collect { sample, int i ->
+            def fileName = new File(tmpDir, "sample${i}.txt").absolutePath
+            new SampleWriter().write(sample, fileName)
+            fileName
+        }
+        def samples = new SampleCollection(fileNames)
+        int n = samples.size()
+        def metrics = OverlapMetric.values().toList()
+
+        assert samples.listBlocks(0).size() == n
+        assert samples.listBlocks(Long.MAX_VALUE) == [0..<n]
+
+        long footprint = (0..<n).sum { SampleCache.estimateFootprint(samples.getFileName(it)) } as long
+        def blocks = samples.listBlocks((long) (footprint / 3))
+        assert blocks.size() >= 3 && blocks.size() < n
+        assert blocks.flatten() == (0..<n).toList()
+
+        try {
+            PairwiseOverlap.INVERTED_INDEX = false
+            def expected = new PairwiseOverlap(samples, OverlapType.Strict, false, false, metrics)
+
+            // low memory mode should use blocks even if inverted index is enabled
+            PairwiseOverlap.INVERTED_INDEX = true
+            [0d, 2d * footprint / 3 / Runtime.runtime.maxMemory(), 1d].each { heapFraction ->
+                PairwiseOverlap.LOW_MEM_HEAP_FRACTION = heapFraction
+                def actual = new PairwiseOverlap(samples, OverlapType.Strict, false, true, metrics)
+
+                for (int i = 0; i < n - 1; i++) {
+                    for (int j = i + 1; j < n; j++) {
+                        def e = expected[i, j], a = actual[i, j]
+
+                        assert e.div12 == a.div12 && e.count12 == a.count12 && e.count21 == a.count21
+                        metrics.each {
+                            assertClose(e.getMetricValue(it), a.getMetricValue(it))
+                        }
+                    }
+                }
+            }
+        } finally {
+            PairwiseOverlap.LOW_MEM_HEAP_FRACTION = 0.4
+            PairwiseOverlap.INVERTED_INDEX = true
+            tmpDir.deleteDir()
+        }
+    }
+}
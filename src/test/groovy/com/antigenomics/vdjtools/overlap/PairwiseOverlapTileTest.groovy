@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.io.SampleWriter
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.SampleCollection
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+import static com.antigenomics.vdjtools.io.SampleStreamConnection.load
+
+class PairwiseOverlapTileTest {
+    @Test
+    public void mergeTest() {
+        ExecUtil.quiet()
+
+        def samples = SampleCollection.fromSampleList(Software.values().collect {
+            load(getResource("samples/${it.toString().toLowerCase()}.txt.gz"), it)
+        })
+        int n = samples.size()
+
+        // tiles compute overlap pair by pair
+        def expected = new StringWriter()
+        try {
+            PairwiseOverlap.INVERTED_INDEX = false
+            new PrintWriter(expected).withCloseable { pw ->
+                def pairwiseOverlap = new PairwiseOverlap(samples, OverlapType.AminoAcid, false, false,
+                        OverlapMetric.values().toList())
+                pw.println(pairwiseOverlap.header)
+                pairwiseOverlap.write(pw)
+            }
+        } finally {
+            PairwiseOverlap.INVERTED_INDEX = true
+        }
+
+        // the number of block pairs is a multiple of the number of tiles if there are enough samples
+        assert PairwiseOverlapTile.listBlocks(100, 4).size() == 7
+        assert PairwiseOverlapTile.listBlocks(100, 3).size() == 2
+        assert PairwiseOverlapTile.listBlocks(5, 4).size() == 3
+
+        def tmpDir = File.createTempDir()
+
+        [1, 3, 7, 100].each { numberOfTiles ->
+            def blocks = PairwiseOverlapTile.listBlocks(n, numberOfTiles)
+            assert blocks.flatten() == (0..<n).toList()
+            def blockPairs = (0..<numberOfTiles).collect {
+                PairwiseOverlapTile.listBlockPairs(blocks, it, numberOfTiles)
+            }
+            assert blockPairs.sum { it.size() } == blocks.size() * (blocks.size() + 1) / 2
+            assert blockPairs.collectMany { it }.toSet().size() == blockPairs.sum { it.size() }
+
+            // sample pairs are balanced between tiles
+            def loads = blockPairs.collect { it.sum(0L) { PairwiseOverlapTile.getWeight(blocks, it[0], it[1]) } }
+            def maxWeight = blockPairs.collectMany { it }.collect {
+                PairwiseOverlapTile.getWeight(blocks, it[0], it[1])
+            }.max()
+            assert loads.sum() == n * (n - 1) / 2
+            assert loads.max() - loads.min() <= maxWeight
+
+            // tiles are merged in arbitrary order
+            def tileFileNames = (0..<numberOfTiles).reverse().collect { int tile ->
+                def fileName = new File(tmpDir, "tile${tile}of${numberOfTiles}.txt").absolutePath
+                new File(fileName).withPrintWriter { pw ->
+                    new PairwiseOverlapTile(samples, OverlapType.AminoAcid, tile, numberOfTiles).write(pw)
+                }
+                fileName
+            }
+
+            def actual = new StringWriter()
+            new PrintWriter(actual).withCloseable { pw ->
+                PairwiseOverlapTile.merge(tileFileNames, pw)
+            }
+
+            assert actual.toString().readLines() == expected.toString().readLines()
+
+            if (numberOfTiles > 1) {
+                // a missing tile is detected
+                def missing = tileFileNames.findAll { new File(it).readLines().size() > 1 }.drop(1)
+                try {
+                    PairwiseOverlapTile.merge(missing, new PrintWriter(new StringWriter()))
+                    assert false
+                } catch (RuntimeException e) {
+                    assert e.message.startsWith("Partial results are incomplete")
+                }
+            }
+        }
+
+        tmpDir.deleteDir()
+    }
+
+    @Test
+    public void subBlocksTest() {
+        ExecUtil.quiet()
+
+        def tmpDir = File.createTempDir()
+        def fileNames = Software.values().collect {
+            load(getResource("samples/${it.toString().toLowerCase()}.txt.gz"), it)
+        }.findAll { it.diversity > 0 }.withIndex().collect { sample, int i ->
+            def fileName = new File(tmpDir, "sample${i}.txt").absolutePath
+            new SampleWriter().write(sample, fileName)
+            fileName
+        }
+        def samples = new SampleCollection(fileNames)
+
+        assert samples.listBlocks(2..<5, 0) == [2..<3, 3..<4, 4..<5]
+        assert samples.listBlocks(2..<5, Long.MAX_VALUE) == [2..<5]
+
+        try {
+            // tiles compute overlap pair by pair
+            PairwiseOverlap.INVERTED_INDEX = false
+            def expected = new StringWriter()
+            new PrintWriter(expected).withCloseable { pw ->
+                def pairwiseOverlap = new PairwiseOverlap(samples, OverlapType.AminoAcid)
+                pw.println(pairwiseOverlap.header)
+                pairwiseOverlap.write(pw)
+            }
+
+            // a single tile loads one sample at a time, many runs are merged in several passes
+            PairwiseOverlap.LOW_MEM_HEAP_FRACTION = 0
+            PairwiseOverlapTile.MERGE_WIDTH = 2
+
+            def actual = new StringWriter()
+            new PrintWriter(actual).withCloseable { pw ->
+                new PairwiseOverlapTile(samples, OverlapType.AminoAcid, 0, 1).write(pw)
+            }
+
+            assert actual.toString().readLines() == expected.toString().readLines()
+        } finally {
+            PairwiseOverlap.INVERTED_INDEX = true
+            PairwiseOverlap.LOW_MEM_HEAP_FRACTION = 0.4
+            PairwiseOverlapTile.MERGE_WIDTH = 256
+            tmpDir.deleteDir()
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.overlap
+
+import com.antigenomics.vdjtools.misc.ExecUtil
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.sample.Sample
+import com.antigenomics.vdjtools.sample.SampleCollection
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+import static com.antigenomics.vdjtools.io.SampleStreamConnection.load
+
+class SampleProfileMatrixTest {
+    @Test
+    public void divergenceTest() {
+        ExecUtil.quiet()
+
+        def samples = SampleCollection.fromSampleList(Software.values().collect {
+            load(getResource("samples/${it.toString().toLowerCase()}.txt.gz"), it)
+        }).findAll { it.diversity > 0 }
+        def metrics = OverlapMetric.values().findAll { SampleProfileMatrix.isSupported(it) }
+
+        assert metrics.size() == 4
+
+        try {
+            [OverlapType.Nucleotide, OverlapType.AminoAcid].each { overlapType ->
+                def expected = new double[samples.size()][samples.size()][]
+                for (int i = 0; i < samples.size() - 1; i++) {
+                    for (int j = i + 1; j < samples.size(); j++) {
+                        def evaluator = new OverlapEvaluator([samples[i], samples[j]] as Sample[], overlapType)
+                        expected[i][j] = metrics.collect { evaluator.computeIntersectionMetric(it) } as double[]
+                    }
+                }
+
+                [256, 2, 1].each { tileSize ->
+                    SampleProfileMatrix.TILE_SIZE = tileSize
+
+                    metrics.eachWithIndex { metric, m ->
+                        def matrix = new SampleProfileMatrix(metric, overlapType)
+                        samples.each { matrix.add(it) }
+                        def values = matrix.compute()
+
+                        assert matrix.numberOfSamples == samples.size()
+                        assert matrix.numberOfFeatures > 0
+
+                        for (int i = 0; i < samples.size(); i++) {
+                            assert values[i][i] == 0
+                            for (int j = i + 1; j < samples.size(); j++) {
+                                assert values[i][j] == values[j][i]
+                                assert Math.abs(expected[i][j][m] - values[i][j]) < 1e-9
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            SampleProfileMatrix.TILE_SIZE = 256
+        }
+    }
+}
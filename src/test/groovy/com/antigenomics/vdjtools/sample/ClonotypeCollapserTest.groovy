@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.sample
+
+import com.antigenomics.vdjtools.io.ClonotypeRowEncoder
+import com.antigenomics.vdjtools.io.SampleCache
+import com.antigenomics.vdjtools.misc.Software
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+
+class ClonotypeCollapserTest {
+    private static final List<String> FIELDS = ["count", "freq", "freqAsInInput", "cdr3nt", "cdr3aa",
+                                                "v", "d", "j", "VEnd", "DStart", "DEnd", "JStart",
+                                                "inFrame", "noStop", "complete", "annotation"]
+
+    private static Sample load(Software software, String name, int top, boolean store) {
+        Sample.fromInputStream(getResource("samples/${name}.txt.gz").create(),
+                null, software, top, store, software.collapseRequired)
+    }
+
+    private static void compare(Sample spilled, Sample expected) {
+        def encoder = new ClonotypeRowEncoder(FIELDS)
+
+        assert spilled.count == expected.count
+        assert spilled.diversity == expected.diversity
+        assert spilled.freqAsInInput == expected.freqAsInInput
+        assert spilled.clonotypes.size() == expected.clonotypes.size()
+
+        spilled.eachWithIndex { Clonotype it, int i ->
+            assert encoder.encode(it) == encoder.encode(expected[i])
+        }
+    }
+
+    @Test
+    void spillTest() {
+        def budget = SampleCache.SHARED.budget, partitions = ClonotypeCollapser.PARTITIONS
+
+        [(Software.ImgtHighVQuest): "imgthighvquest", (Software.ImSeq): "imseq",
+         (Software.ImmunoSeq): "immunoseq", (Software.VDJtoolsRenorm): "vdjtoolsrenorm"].each { software, name ->
+            def expected = [true, false].collect { load(software, name, -1, it) },
+                expectedTop = load(software, name, 50, true)
+
+            try {
+                SampleCache.SHARED.budget = 10000
+                ClonotypeCollapser.PARTITIONS = 7
+
+                compare(load(software, name, -1, true), expected[0])
+                compare(load(software, name, -1, false), expected[1])
+                compare(load(software, name, 50, true), expectedTop)
+            } finally {
+                SampleCache.SHARED.budget = budget
+                ClonotypeCollapser.PARTITIONS = partitions
+            }
+        }
+    }
+
+    @Test
+    void collapseTest() {
+        def sample = load(Software.VDJtools, "vdjtools", -1, true)
+
+        SampleCache.SHARED.budget.with { budget ->
+            try {
+                SampleCache.SHARED.budget = 10000
+
+                def collapser = new ClonotypeCollapser(sample)
+                // add each clonotype twice, in two consecutive passes
+                2.times { sample.each { collapser.add(new Clonotype(it)) } }
+
+                assert collapser.spilled
+
+                def collapsed = collapser.toList()
+                assert collapsed.size() == sample.diversity
+                collapsed.eachWithIndex { Clonotype it, int i ->
+                    assert it.equals(sample[i])
+                    assert it.count == 2 * sample[i].count
+                }
+            } finally {
+                SampleCache.SHARED.budget = budget
+            }
+        }
+    }
+
+    @Test
+    void sharedBudgetTest() {
+        def sample = load(Software.VDJtools, "vdjtools", -1, true)
+
+        // memory used for collapsing is reserved from shared budget and is released once collapser is closed
+        def collapser = new ClonotypeCollapser(sample)
+        sample.each { collapser.add(new Clonotype(it)) }
+
+        assert !collapser.spilled
+        assert SampleCache.SHARED.reserved > 0
+
+        assert collapser.toList().size() == sample.diversity
+        collapser.close()
+        assert SampleCache.SHARED.reserved == 0
+
+        // reservation is released when loading a sample
+        load(Software.ImSeq, "imseq", -1, true)
+        assert SampleCache.SHARED.reserved == 0
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.sample
+
+import com.antigenomics.vdjtools.io.SampleWriter
+import com.antigenomics.vdjtools.misc.Software
+import com.antigenomics.vdjtools.preprocess.TopSampler
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+
+class ClonotypeHeapTest {
+    private static List<Clonotype> sortAndTake(Sample sample, int top) {
+        // stable sort keeps input order for clonotypes having the same count
+        sample.collect().sort(false) { -it.count }.take(top)
+    }
+
+    @Test
+    void heapTest() {
+        def sample = Sample.fromInputStream(getResource("samples/vdjtools.txt.gz").create(),
+                null, Software.VDJtools, -1, true, false)
+
+        [0, 1, 10, 100, sample.diversity, sample.diversity + 10].each { top ->
+            def heap = new ClonotypeHeap(top)
+            sample.each { heap.offer(it) }
+
+            assert heap.toList() == sortAndTake(sample, top)
+        }
+    }
+
+    @Test
+    void unsortedTopTest() {
+        def sample = Sample.fromInputStream(getResource("samples/vdjtools.txt.gz").create(),
+                null, Software.VDJtools, -1, true, false)
+
+        // write a copy of the sample with shuffled rows
+        def fileName = "top.test.txt"
+        new SampleWriter().write(sample, fileName)
+        def lines = new File(fileName).readLines()
+        def rows = lines[1..-1]
+        Collections.shuffle(rows, new Random(42))
+        new File(fileName).text = ([lines[0]] + rows).join("\n") + "\n"
+
+        try {
+            int top = 100
+            def shuffled = Sample.fromInputStream(new FileInputStream(fileName),
+                    null, Software.VDJtools, -1, true, false)
+            def expected = sortAndTake(shuffled, top)
+            def streamed = Sample.fromInputStream(new FileInputStream(fileName),
+                    null, Software.VDJtools, top, true, false)
+
+            assert shuffled.collect { it.cdr3nt } != sample.collect { it.cdr3nt }
+
+            [streamed, Sample.selectTop(shuffled, top), new TopSampler(shuffled).reSample(top)].each { selected ->
+                assert selected.diversity == top
+                assert selected.count == expected.sum { it.count }
+                assert selected.collect { it.cdr3nt } == expected.collect { it.cdr3nt }
+            }
+        } finally {
+            new File(fileName).delete()
+        }
+    }
+
+    @Test
+    void sortedTopTest() {
+        def sample = Sample.fromInputStream(getResource("samples/vdjtools.txt.gz").create(),
+                null, Software.VDJtools, -1, true, false)
+
+        // write a copy of the sample with the most abundant clonotype repeated at the end
+        def fileName = "top.sorted.test.txt"
+        new SampleWriter().write(sample, fileName)
+        def lines = new File(fileName).readLines()
+        new File(fileName).text = (lines + [lines[1]]).join("\n") + "\n"
+
+        try {
+            int top = 100
+            assert sample[top - 1].count > sample[sample.diversity - 1].count
+
+            // count-sorted input is read until the first clonotype that can not get into top
+            def streamed = Sample.fromInputStream(new FileInputStream(fileName),
+                    null, Software.VDJtools, top, true, false)
+
+            assert streamed.diversity == top
+            assert streamed.collect { it.cdr3nt } == sortAndTake(sample, top).collect { it.cdr3nt }
+        } finally {
+            new File(fileName).delete()
+        }
+    }
+}
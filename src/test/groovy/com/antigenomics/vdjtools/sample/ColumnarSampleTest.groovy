@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.sample
+
+import com.antigenomics.vdjtools.io.ClonotypeRowEncoder
+import com.antigenomics.vdjtools.io.SampleCache
+import com.antigenomics.vdjtools.misc.Software
+import groovyx.gpars.GParsPool
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+
+class ColumnarSampleTest {
+    private static final List<String> FIELDS = ["count", "freq", "freqAsInInput", "cdr3nt", "cdr3aa",
+                                                "v", "d", "j", "VEnd", "DStart", "DEnd", "JStart",
+                                                "inFrame", "noStop", "complete", "annotation"]
+
+    private static void compare(Sample columnar, Sample expected) {
+        def encoder = new ClonotypeRowEncoder(FIELDS)
+
+        assert columnar.count == expected.count
+        assert columnar.diversity == expected.diversity
+        assert columnar.freqAsInInput == expected.freqAsInInput
+        assert columnar.annotationHeader == expected.annotationHeader
+        assert columnar.clonotypes.size() == expected.diversity
+
+        int i = 0
+        columnar.each {
+            assert it.parent.is(columnar)
+            assert encoder.encode(it) == encoder.encode(expected[i])
+            // views are not retained, but are equal
+            assert it == columnar[i++]
+        }
+        assert i == expected.diversity
+    }
+
+    @Test
+    void loadTest() {
+        [(Software.VDJtools): "vdjtools", (Software.MiXcr): "mixcr", (Software.MiGec): "migec",
+         (Software.ImmunoSeq): "immunoseq"].each { software, name ->
+            def expected = Sample.fromInputStream(getResource("samples/${name}.txt.gz").create(),
+                    null, software, -1, true, software.collapseRequired)
+            def columnar = ColumnarSample.fromInputStream(getResource("samples/${name}.txt.gz").create(),
+                    null, software, -1, software.collapseRequired)
+
+            compare(columnar, expected)
+            compare(new ColumnarSample(expected), expected)
+
+            assert columnar.footprint * 3 < SampleCache.estimateFootprint(expected)
+        }
+    }
+
+    @Test
+    void ambiguousBasesTest() {
+        def sample = Sample.fromInputStream(getResource("samples/vdjtools.txt.gz").create(),
+                null, Software.VDJtools, -1, true, false)
+        def converted = new Sample(sample, { Clonotype it ->
+            new Clonotype(it.parent, (int) it.count, it.freqAsInInput,
+                    [it.VEnd, it.DStart, it.DEnd, it.JStart] as int[], it.v, it.d, it.j,
+                    it.cdr3nt.replaceFirst("A", "N"), it.cdr3aa,
+                    it.inFrame, it.noStop, it.complete, it.annotation)
+        } as ClonotypeConverter)
+
+        compare(new ColumnarSample(converted), converted)
+    }
+
+    @Test
+    void annotationTest() {
+        def columnar = ColumnarSample.fromInputStream(getResource("samples/vdjtools.txt.gz").create(),
+                null, Software.VDJtools, -1, false)
+        int n = columnar.diversity
+
+        columnar.annotationHeader = "index"
+        GParsPool.withPool 4, {
+            (0..<n).eachParallel { int i ->
+                columnar[i].annotation = i.toString()
+            }
+        }
+
+        // annotations are stored to the sample and are seen by new views
+        int i = 0
+        columnar.each {
+            assert it.annotation == (i++).toString()
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.sample
+
+import com.antigenomics.vdjtools.TestUtil
+import com.antigenomics.vdjtools.misc.Software
+import org.junit.Test
+
+class SampleCollectionTest {
+    private static final int N_SAMPLES = 6
+
+    private static List<String> copySamples() {
+        def source = new File(TestUtil.class.classLoader.getResource("samples/vdjtools.txt.gz").toURI())
+        (0..<N_SAMPLES).collect {
+            def fileName = "collection.test.${it}.txt.gz"
+            new File(fileName).bytes = source.bytes
+            fileName
+        }
+    }
+
+    private static void cleanup(List<String> fileNames) {
+        fileNames.each {
+            new File(it).delete()
+            new File(it + ".idx").delete()
+        }
+    }
+
+    private static SampleCollection load(List<String> fileNames, int threads) {
+        def loadThreads = SampleCollection.LOAD_THREADS
+        SampleCollection.LOAD_THREADS = threads
+        try {
+            return new SampleCollection(fileNames, Software.VDJtools, true, false)
+        } finally {
+            SampleCollection.LOAD_THREADS = loadThreads
+        }
+    }
+
+    @Test
+    void parallelLoadTest() {
+        def fileNames = copySamples()
+
+        try {
+            def sequential = load(fileNames, 1), parallel = load(fileNames, 4)
+
+            assert parallel.size() == N_SAMPLES
+            assert parallel.metadataTable.sampleIterator.collect() == sequential.metadataTable.sampleIterator.collect()
+
+            N_SAMPLES.times {
+                def expected = sequential[it], sample = parallel[it]
+                assert sample.sampleMetadata.sampleId == expected.sampleMetadata.sampleId
+                assert sample.count == expected.count
+                assert sample.diversity == expected.diversity
+            }
+        } finally {
+            cleanup(fileNames)
+        }
+    }
+
+    @Test
+    void parallelLoadFailTest() {
+        def fileNames = copySamples()
+        new File(fileNames[2]).text = "not a gzip file"
+
+        def failed = false
+        try {
+            load(fileNames, 4)
+        } catch (Exception ignored) {
+            failed = true
+        } finally {
+            cleanup(fileNames)
+        }
+
+        assert failed
+    }
+
+    private static List<Sample> iterate(List<String> fileNames, int prefetch) {
+        def prefetchSize = SampleCollection.PREFETCH
+        SampleCollection.PREFETCH = prefetch
+        try {
+            return new SampleCollection(fileNames).collect()
+        } finally {
+            SampleCollection.PREFETCH = prefetchSize
+        }
+    }
+
+    @Test
+    void prefetchTest() {
+        def fileNames = copySamples()
+
+        try {
+            def expected = iterate(fileNames, 0), samples = iterate(fileNames, 2)
+
+            assert samples.size() == N_SAMPLES
+            N_SAMPLES.times {
+                assert samples[it].sampleMetadata.sampleId == expected[it].sampleMetadata.sampleId
+                assert samples[it].count == expected[it].count
+                assert samples[it].diversity == expected[it].diversity
+            }
+        } finally {
+            cleanup(fileNames)
+        }
+    }
+
+    @Test
+    void prefetchFailTest() {
+        def fileNames = copySamples()
+        new File(fileNames[2]).text = "not a gzip file"
+
+        def loaded = 0, failed = false
+        try {
+            iterate(fileNames, 2).each { loaded++ }
+        } catch (Exception ignored) {
+            failed = true
+        } finally {
+            cleanup(fileNames)
+        }
+
+        assert failed
+        assert loaded == 0
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015, Bolotin Dmitry, Chudakov Dmitry, Shugay Mikhail
+ * (here and after addressed as Inventors)
+ * All Rights Reserved
+ *
+ * Permission to use, copy, modify and distribute any part of this program for
+ * educational, research and non-profit purposes, by non-profit institutions
+ * only, without fee, and without a written agreement is hereby granted,
+ * provided that the above copyright notice, this paragraph and the following
+ * three paragraphs appear in all copies.
+ *
+ * Those desiring to incorporate this work into commercial products or use for
+ * commercial purposes should contact the Inventors using one of the following
+ * email addresses: chudakovdm@mail.ru, chudakovdm@gmail.com
+ *
+ * IN NO EVENT SHALL THE INVENTORS BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT,
+ * SPECIAL, INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS,
+ * ARISING OUT OF THE USE OF THIS SOFTWARE, EVEN IF THE INVENTORS HAS BEEN
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * THE SOFTWARE PROVIDED HEREIN IS ON AN "AS IS" BASIS, AND THE INVENTORS HAS
+ * NO OBLIGATION TO PROVIDE MAINTENANCE, SUPPORT, UPDATES, ENHANCEMENTS, OR
+ * MODIFICATIONS. THE INVENTORS MAKES NO REPRESENTATIONS AND EXTENDS NO
+ * WARRANTIES OF ANY KIND, EITHER IMPLIED OR EXPRESS, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY OR FITNESS FOR A
+ * PARTICULAR PURPOSE, OR THAT THE USE OF THE SOFTWARE WILL NOT INFRINGE ANY
+ * PATENT, TRADEMARK OR OTHER RIGHTS.
+ */
+
+package com.antigenomics.vdjtools.sample
+
+import com.antigenomics.vdjtools.misc.Segment
+import com.antigenomics.vdjtools.misc.SegmentFactory
+import com.antigenomics.vdjtools.misc.Software
+import org.junit.Test
+
+import static com.antigenomics.vdjtools.TestUtil.getResource
+
+class SegmentFilterTest {
+    @Test
+    void segmentIdTest() {
+        def factory = SegmentFactory.INSTANCE
+        assert factory.getById(Segment.MISSING.id).is(Segment.MISSING)
+
+        def names = (0..<100).collect { "TRBVTEST-$it".toString() }
+
+        // segments are created concurrently
+        names.collect { name -> Thread.start { factory.create(name) } }*.join()
+
+        def segments = names.collect { factory.getAt(it) }
+        assert segments.collect { it.id }.unique().size() == 100
+        segments.each { assert factory.getById(it.id).is(it) }
+
+        assert factory.getAtFuzzy("TRBVTEST-1").collect { it.name } as Set ==
+                (["TRBVTEST-1"] + (10..19).collect { "TRBVTEST-$it".toString() }) as Set
+        assert factory.getAtFuzzy("TRBVTEST-X").empty
+    }
+
+    @Test
+    void filterTest() {
+        def sample = Sample.fromInputStream(getResource("samples/vdjtools.txt.gz").create(),
+                null, Software.VDJtools, -1, true, false)
+
+        def vPrefix = sample[0].v.substring(0, 5), jName = sample[0].j
+        def vFilter = new VFilter(vPrefix), jFilter = new JFilter(true, jName)
+
+        sample.each {
+            assert vFilter.pass(it) == it.v.startsWith(vPrefix)
+            assert jFilter.pass(it) == (it.j != jName)
+        }
+
+        assert vFilter.segmentSet.every { it.startsWith(vPrefix) }
+        assert jFilter.segmentSet == [jName] as Set
+    }
+}